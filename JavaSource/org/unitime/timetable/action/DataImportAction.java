@@ -42,7 +42,6 @@ import org.apache.struts2.tiles.annotation.TilesPutAttribute;
 import org.cpsolver.ifs.util.Progress;
 import org.dom4j.Document;
 import org.dom4j.io.OutputFormat;
-import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 import org.unitime.commons.Debug;
 import org.unitime.commons.Email;
@@ -311,7 +310,7 @@ public class DataImportAction extends UniTimeAction<DataImportForm> {
 				gzipInput.close();
 			} else if (iForm.getFileFileName().toLowerCase().endsWith(".xml.gz") || iForm.getFileFileName().toLowerCase().endsWith(".zxml")) {
 				GZIPInputStream gzipInput = new GZIPInputStream(fis);
-				DataExchangeHelper.importDocument((new SAXReader()).read(gzipInput), getOwnerId(), this);
+				DataExchangeHelper.importDocument(gzipInput, -1, getOwnerId(), this);
 				gzipInput.close();
 			} else if (iForm.getFileFileName().toLowerCase().endsWith(".zip")) {
 				ZipInputStream zipInput = new ZipInputStream(fis);
@@ -323,12 +322,12 @@ public class DataImportAction extends UniTimeAction<DataImportForm> {
 						SessionRestoreInterface restore = (SessionRestoreInterface)Class.forName(ApplicationProperty.SessionRestoreInterface.value()).getConstructor().newInstance();
 						restore.restore(zipInput, this);
 					} else {
-						DataExchangeHelper.importDocument((new SAXReader()).read(new NotClosingInputStream(zipInput)), getOwnerId(), this);
+						DataExchangeHelper.importDocument(new NotClosingInputStream(zipInput), ze.getSize(), getOwnerId(), this);
 					}
 				}
 				zipInput.close();
 			} else {
-				DataExchangeHelper.importDocument((new SAXReader()).read(fis), getOwnerId(), this);
+				DataExchangeHelper.importDocument(fis, iForm.getFile().length(), getOwnerId(), this);
 			}
 			} finally {
 				fis.close();
@@ -48,6 +48,7 @@ import org.unitime.timetable.model.dao.PointInTimeDataDAO;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.security.UserContext;
 import org.unitime.timetable.security.rights.Right;
+import org.unitime.timetable.server.curricula.CurriculumProjectionCube;
 import org.unitime.timetable.util.Formats;
 import org.unitime.timetable.util.SessionRollForward;
 import org.unitime.timetable.util.queue.QueueItem;
@@ -476,6 +477,7 @@ public class RollForwardSessionAction extends UniTimeAction<RollForwardSessionFo
     				if (iForm.validateLastLikeDemandRollForward(toAcadSession, iErrors))
     					sessionRollForward.rollStudentsForward(iErrors, iForm);
     				tx.commit();
+    				CurriculumProjectionCube.invalidateLastLikeDemands(toAcadSession.getUniqueId());
     			} catch (Exception e) {
     				tx.rollback();
     				error(MSG.errorRollForwardFailedAll(MSG.rollForwardStudents()), e);
@@ -492,6 +494,7 @@ public class RollForwardSessionAction extends UniTimeAction<RollForwardSessionFo
     				if (iForm.validateCurriculaRollForward(toAcadSession, iErrors))
     					sessionRollForward.rollCurriculaForward(iErrors, iForm);
     				tx.commit();
+    				CurriculumProjectionCube.invalidateProjectionRules(toAcadSession.getUniqueId());
     			} catch (Exception e) {
     				tx.rollback();
     				error(MSG.errorRollForwardFailedAll(MSG.rollForwardCurricula()), e);
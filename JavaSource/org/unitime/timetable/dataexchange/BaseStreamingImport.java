@@ -0,0 +1,129 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.dataexchange;
+
+import java.util.Iterator;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.events.XMLEvent;
+
+import org.dom4j.Element;
+import org.dom4j.io.STAXEventReader;
+import org.unitime.timetable.defaults.ApplicationProperty;
+
+/**
+ * Base class for the imports that process the document record by record, where a record is a child element of the root element
+ * (e.g., a student of the student import). Such an import can be used either with a dom4j document (see {@link #loadXml(Element)}),
+ * or it can read the records one by one from a StAX reader (see {@link #loadXml(XMLEventReader)}), so that the whole document
+ * never needs to be kept in memory.
+ * <br>
+ * In both cases, {@link #flushBatch()} is called after every {@link ApplicationProperty#DataExchangeStreamingBatchSize} records.
+ *
+ * @author Tomas Muller
+ */
+public abstract class BaseStreamingImport extends BaseImport {
+	private static int sProgressInterval = 1000;
+	private int iRecords = 0;
+
+	public BaseStreamingImport() {
+		super();
+	}
+
+	/**
+	 * Called before the first record is imported
+	 * @param rootElement root element, containing its attributes only when streaming
+	 */
+	protected abstract void beginImport(Element rootElement) throws Exception;
+
+	/** Import one record (a child element of the root element) */
+	protected abstract void importElement(Element element) throws Exception;
+
+	/** Called after the last record has been imported, expected to commit the transaction */
+	protected abstract void endImport() throws Exception;
+
+	/** Called after every batch of records, flushes and clears the hibernate session and commits the transaction by default */
+	protected void flushBatch() {
+		flush(true);
+	}
+
+	/** Number of records imported so far */
+	protected int getRecordCount() { return iRecords; }
+
+	private void recordImported() {
+		iRecords ++;
+		int batchSize = ApplicationProperty.DataExchangeStreamingBatchSize.intValue();
+		if (batchSize > 0 && iRecords % batchSize == 0)
+			flushBatch();
+		if (iRecords % sProgressInterval == 0)
+			info("Imported " + iRecords + " records...");
+	}
+
+	@Override
+	public void loadXml(Element rootElement) throws Exception {
+		iRecords = 0;
+		try {
+			beginImport(rootElement);
+			for (Iterator<Element> i = rootElement.elementIterator(); i.hasNext(); ) {
+				importElement(i.next());
+				recordImported();
+			}
+			endImport();
+		} catch (Exception e) {
+			fatal("Exception: " + e.getMessage(), e);
+			rollbackTransaction();
+			throw e;
+		}
+	}
+
+	/**
+	 * Streaming import: the root element is created with its attributes only, the records are read (and imported) one by one.
+	 */
+	public void loadXml(XMLEventReader reader) throws Exception {
+		iRecords = 0;
+		STAXEventReader stax = new STAXEventReader();
+		while (reader.hasNext() && !reader.peek().isStartElement())
+			reader.nextEvent();
+		if (!reader.hasNext())
+			throw new Exception("Given XML file has no root element.");
+		Element rootElement = stax.createElement(reader.nextEvent().asStartElement());
+		long t0 = System.currentTimeMillis();
+		try {
+			beginImport(rootElement);
+			while (reader.hasNext()) {
+				XMLEvent event = reader.peek();
+				if (event.isStartElement()) {
+					importElement(stax.readElement(reader));
+					recordImported();
+				} else if (event.isEndElement()) {
+					reader.nextEvent();
+					break;
+				} else {
+					reader.nextEvent();
+				}
+			}
+			endImport();
+			info(iRecords + " records imported in " + ((System.currentTimeMillis() - t0) / 1000) + " seconds.");
+		} catch (Exception e) {
+			fatal("Exception: " + e.getMessage(), e);
+			rollbackTransaction();
+			throw e;
+		}
+	}
+}
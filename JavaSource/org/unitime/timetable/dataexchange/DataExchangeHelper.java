@@ -19,12 +19,18 @@
 */
 package org.unitime.timetable.dataexchange;
 
+import java.io.InputStream;
 import java.util.Hashtable;
 import java.util.Properties;
 
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
+import org.dom4j.io.STAXEventReader;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.Class_;
 import org.unitime.timetable.model.Session;
 import org.unitime.timetable.model.TimetableManager;
@@ -274,6 +280,37 @@ public class DataExchangeHelper {
         imp.loadXml(document.getRootElement());
     }
     
+    /**
+     * Import an XML document from the given stream. When the import supports it (see {@link BaseStreamingImport}) and the document
+     * is large (see {@link ApplicationProperty#DataExchangeStreamingThreshold}) or of unknown size, the records are read and imported
+     * one by one. Otherwise, the whole document is read first.
+     * @param size size of the document in bytes, -1 if not known
+     */
+    public static void importDocument(InputStream inputStream, long size, String userId, Log log) throws Exception {
+    	XMLInputFactory factory = XMLInputFactory.newInstance();
+    	factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    	XMLEventReader reader = factory.createXMLEventReader(inputStream);
+    	try {
+    		while (reader.hasNext() && !reader.peek().isStartElement())
+    			reader.nextEvent();
+    		if (!reader.hasNext())
+    			throw new Exception("Given XML file has no root element.");
+    		BaseImport imp = createImportBase(reader.peek().asStartElement().getName().getLocalPart());
+            imp.setLog(log);
+            if (userId != null)
+            	imp.setManager(TimetableManager.findByExternalId(userId));
+            int threshold = ApplicationProperty.DataExchangeStreamingThreshold.intValue();
+            if (imp instanceof BaseStreamingImport && threshold >= 0 && (size < 0 || size >= threshold)) {
+            	imp.debug("Using streaming import.");
+            	((BaseStreamingImport)imp).loadXml(reader);
+            } else {
+            	imp.loadXml(new STAXEventReader().readDocument(reader).getRootElement());
+            }
+    	} finally {
+    		reader.close();
+    	}
+    }
+    
     public static Document exportDocument(String rootName, Session session, Properties parameters, Log log) throws Exception {
         BaseExport exp = createExportBase(rootName);
         exp.setLog(log);
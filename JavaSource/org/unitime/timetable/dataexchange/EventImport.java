@@ -27,6 +27,7 @@ import java.util.List;
 import org.dom4j.Element;
 import org.hibernate.FlushMode;
 import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.events.EventSearchIndex;
 import org.unitime.timetable.interfaces.ExternalUidLookup;
 import org.unitime.timetable.interfaces.ExternalUidLookup.UserInfo;
 import org.unitime.timetable.model.ChangeLog;
@@ -135,6 +136,7 @@ public class EventImport extends EventRelatedImports {
 	        	updateChangeList(true);
 	        }
 	        commitTransaction();
+	        EventSearchIndex.invalidate(null);
 		} catch (Exception e) {
 			fatal("Exception: " + e.getMessage(), e);
 			rollbackTransaction();
@@ -33,6 +33,7 @@ import org.unitime.timetable.model.Session;
 import org.unitime.timetable.model.Student;
 import org.unitime.timetable.model.SubjectArea;
 import org.unitime.timetable.model.TimetableManager;
+import org.unitime.timetable.server.curricula.CurriculumProjectionCube;
 
 /**
  * 
@@ -40,7 +41,7 @@ import org.unitime.timetable.model.TimetableManager;
  *
  */
 
-public class LastLikeCourseDemandImport extends BaseImport {
+public class LastLikeCourseDemandImport extends BaseStreamingImport {
 
 	private HashMap<String, SubjectArea> subjectAreas = new HashMap<String, SubjectArea>();
 	private HashMap<String, String> courseOfferings = new HashMap<String, String>();
@@ -49,91 +50,91 @@ public class LastLikeCourseDemandImport extends BaseImport {
 	private HashMap<String, SubjectArea> externalIdSubjectArea = new HashMap<String, SubjectArea>();
 	protected TimetableManager manager = null;
 	protected boolean trimLeadingZerosFromExternalId = false;
+	protected Session session = null;
 	
 	public LastLikeCourseDemandImport() {
 		super();
 	}
 
-	public void loadXml(Element root) throws Exception {
+	@Override
+	protected void beginImport(Element root) throws Exception {
 		trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
-		try {
-			String rootElementName = "lastLikeCourseDemand";
-	        if (!root.getName().equalsIgnoreCase(rootElementName)) {
-	        	throw new Exception("Given XML file is not a Course Offerings load file.");
-	        }
-
-			String campus = root.attributeValue("campus");
-	        String year   = root.attributeValue("year");
-	        String term   = root.attributeValue("term");
-	        String created = getOptionalStringAttribute(root, "created");
-
-			beginTransaction();
-
-	        Session session = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
-	        if(session == null) {
-	           	throw new Exception("No session found for the given campus, year, and term.");
-	        }
-	        loadSubjectAreas(session.getSessionId());
-	        loadCourseOfferings(session.getSessionId());
-
-	        if (created != null) {
-				ChangeLog.addChange(getHibSession(), getManager(), session, session, created, ChangeLog.Source.DATA_IMPORT_LASTLIKE_DEMAND, ChangeLog.Operation.UPDATE, null, null);
-	        }
-           
-            getHibSession().createMutationQuery("delete LastLikeCourseDemand ll where ll.subjectArea.uniqueId in " +
-                    "(select s.uniqueId from SubjectArea s where s.session.uniqueId=:sessionId)").
-                    setParameter("sessionId", session.getUniqueId()).executeUpdate();
-            
-            flush(true);
-            
-	        for ( Iterator it = root.elementIterator(); it.hasNext(); ) {
-	            Element element = (Element) it.next();
-	            String externalId = element.attributeValue("externalId");
-	            if (trimLeadingZerosFromExternalId){
-	            	try {
-	            		Integer num = Integer.valueOf(externalId);
-	            		externalId = num.toString();
-					} catch (Exception e) {
-						// do nothing
-					}
-	            }
-	            Student student = fetchStudent(externalId, session.getSessionId());
-	            if (student == null){
-	            	student = new Student();
-	            	student.setFirstName("Unknown");
-	            	student.setLastName("Student");
-	            	student.setExternalUniqueId(externalId);
-	            	student.setFreeTimeCategory(Integer.valueOf(0));
-	            	student.setSchedulePreference(Integer.valueOf(0));
-	            	student.setSession(session);
-	            	getHibSession().persist(student);
-	            	getHibSession().flush();
-	            	getHibSession().refresh(student);
-	            }
-	            loadCourses(element, student, session);
-	            flushIfNeeded(true);
-	        }
-	        
-	        flush(true);
-	        
-            getHibSession().createMutationQuery("update CourseOffering c set c.demand="+
-                    "(select count(distinct d.student) from LastLikeCourseDemand d where "+
-                    "(c.subjectArea=d.subjectArea and c.courseNbr=d.courseNbr)) where "+
-                    "c.permId is null and c.subjectArea.uniqueId in (select sa.uniqueId from SubjectArea sa where sa.session.uniqueId=:sessionId)").
-                    setParameter("sessionId", session.getUniqueId()).executeUpdate();
-
-            getHibSession().createMutationQuery("update CourseOffering c set c.demand="+
-	                "(select count(distinct d.student) from LastLikeCourseDemand d where "+
-	                "d.student.session=c.subjectArea.session and c.permId=d.coursePermId) where "+
-	                "c.permId is not null and c.subjectArea.uniqueId in (select sa.uniqueId from SubjectArea sa where sa.session.uniqueId=:sessionId)").
-	                setParameter("sessionId", session.getUniqueId()).executeUpdate();
-            
-            commitTransaction();
-		} catch (Exception e) {
-			fatal("Exception: " + e.getMessage(), e);
-			rollbackTransaction();
-			throw e;
-		}
+		String rootElementName = "lastLikeCourseDemand";
+        if (!root.getName().equalsIgnoreCase(rootElementName)) {
+        	throw new Exception("Given XML file is not a Course Offerings load file.");
+        }
+
+		String campus = root.attributeValue("campus");
+        String year   = root.attributeValue("year");
+        String term   = root.attributeValue("term");
+        String created = getOptionalStringAttribute(root, "created");
+
+		beginTransaction();
+
+        session = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
+        if(session == null) {
+           	throw new Exception("No session found for the given campus, year, and term.");
+        }
+        loadSubjectAreas(session.getSessionId());
+        loadCourseOfferings(session.getSessionId());
+
+        if (created != null) {
+			ChangeLog.addChange(getHibSession(), getManager(), session, session, created, ChangeLog.Source.DATA_IMPORT_LASTLIKE_DEMAND, ChangeLog.Operation.UPDATE, null, null);
+        }
+       
+        getHibSession().createMutationQuery("delete LastLikeCourseDemand ll where ll.subjectArea.uniqueId in " +
+                "(select s.uniqueId from SubjectArea s where s.session.uniqueId=:sessionId)").
+                setParameter("sessionId", session.getUniqueId()).executeUpdate();
+        
+        flush(true);
+	}
+	
+	@Override
+	protected void importElement(Element element) throws Exception {
+        String externalId = element.attributeValue("externalId");
+        if (trimLeadingZerosFromExternalId){
+        	try {
+        		Integer num = Integer.valueOf(externalId);
+        		externalId = num.toString();
+			} catch (Exception e) {
+				// do nothing
+			}
+        }
+        Student student = fetchStudent(externalId, session.getSessionId());
+        if (student == null){
+        	student = new Student();
+        	student.setFirstName("Unknown");
+        	student.setLastName("Student");
+        	student.setExternalUniqueId(externalId);
+        	student.setFreeTimeCategory(Integer.valueOf(0));
+        	student.setSchedulePreference(Integer.valueOf(0));
+        	student.setSession(session);
+        	getHibSession().persist(student);
+        	getHibSession().flush();
+        	getHibSession().refresh(student);
+        }
+        loadCourses(element, student, session);
+	}
+	
+	@Override
+	protected void endImport() throws Exception {
+        flush(true);
+        
+        getHibSession().createMutationQuery("update CourseOffering c set c.demand="+
+                "(select count(distinct d.student) from LastLikeCourseDemand d where "+
+                "(c.subjectArea=d.subjectArea and c.courseNbr=d.courseNbr)) where "+
+                "c.permId is null and c.subjectArea.uniqueId in (select sa.uniqueId from SubjectArea sa where sa.session.uniqueId=:sessionId)").
+                setParameter("sessionId", session.getUniqueId()).executeUpdate();
+
+        getHibSession().createMutationQuery("update CourseOffering c set c.demand="+
+                "(select count(distinct d.student) from LastLikeCourseDemand d where "+
+                "d.student.session=c.subjectArea.session and c.permId=d.coursePermId) where "+
+                "c.permId is not null and c.subjectArea.uniqueId in (select sa.uniqueId from SubjectArea sa where sa.session.uniqueId=:sessionId)").
+                setParameter("sessionId", session.getUniqueId()).executeUpdate();
+        
+        commitTransaction();
+        
+        CurriculumProjectionCube.invalidateLastLikeDemands(session.getUniqueId());
 	}
 
 	Student fetchStudent(String externalId, Long sessionId) {
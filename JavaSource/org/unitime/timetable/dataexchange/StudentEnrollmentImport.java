@@ -19,12 +19,14 @@
 */
 package org.unitime.timetable.dataexchange;
 
+import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -50,6 +52,7 @@ import org.unitime.timetable.test.UpdateExamConflicts;
  * @author Tomas Muller, Stephanie Schluttenhofer
  */
 public class StudentEnrollmentImport extends BaseImport {
+	private static DecimalFormat sDF = new DecimalFormat("0.00");
 
 	public StudentEnrollmentImport() {
 		super();
@@ -57,11 +60,65 @@ public class StudentEnrollmentImport extends BaseImport {
 
 	@Override
 	public void loadXml(Element rootElement) throws Exception {
-		boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
-
         if (!rootElement.getName().equalsIgnoreCase("studentEnrollments"))
         	throw new Exception("Given XML file is not a Student Enrollments load file.");
         
+        Session session = (isBulkImport(rootElement) ? importEnrollmentsBulk(rootElement) : importEnrollments(rootElement));
+		
+        if (session!=null && ApplicationProperty.DataExchangeUpdateStudentConflictsFinal.isTrue()) {
+            try {
+                beginTransaction();
+                for (ExamType type: ExamType.findAllOfType(ExamType.sExamTypeFinal))
+                	new UpdateExamConflicts(this).update(session.getUniqueId(), type.getUniqueId(), getHibSession());
+                commitTransaction();
+            } catch (Exception e) {
+                fatal("Exception: " + e.getMessage(), e);
+                rollbackTransaction();
+            }
+        }
+
+        if (session!=null && ApplicationProperty.DataExchangeUpdateStudentConflictsMidterm.isTrue()) {
+            try {
+                beginTransaction();
+                for (ExamType type: ExamType.findAllOfType(ExamType.sExamTypeMidterm))
+                	new UpdateExamConflicts(this).update(session.getUniqueId(), type.getUniqueId(), getHibSession());
+                commitTransaction();
+            } catch (Exception e) {
+                fatal("Exception: " + e.getMessage(), e);
+                rollbackTransaction();
+            }
+        }
+        
+        /*
+        if (session != null && "true".equals(ApplicationProperties.getProperty("tmtbl.data.import.studentEnrl.class.updateEnrollments","true"))){
+        	org.hibernate.Session hibSession = new _RootDAO().createNewSession();
+            try {
+                info("  Updating class enrollments...");
+                Class_.updateClassEnrollmentForSession(session, hibSession);
+                info("  Updating course offering enrollments...");
+                CourseOffering.updateCourseOfferingEnrollmentForSession(session, hibSession);
+            } catch (Exception e) {
+                fatal("Exception: " + e.getMessage(), e);
+            } finally {
+            	hibSession.close();
+            }
+        }
+        */
+	}
+	
+	/**
+	 * Bulk mode is used when the root element has the bulk attribute set to true, or when it is not present and
+	 * {@link ApplicationProperty#DataExchangeStudentEnrollmentBulkImport} is enabled.
+	 */
+	protected boolean isBulkImport(Element rootElement) {
+		String bulk = rootElement.attributeValue("bulk");
+		if (bulk != null) return "true".equalsIgnoreCase(bulk);
+		return ApplicationProperty.DataExchangeStudentEnrollmentBulkImport.isTrue();
+	}
+	
+	protected Session importEnrollments(Element rootElement) throws Exception {
+		boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
+
         Session session = null;
         
         Set<Long> updatedStudents = new HashSet<Long>();
@@ -81,53 +138,8 @@ public class StudentEnrollmentImport extends BaseImport {
 	        if(session == null)
 	           	throw new Exception("No session found for the given campus, year, and term.");
 
-	    	HashMap<String, Set<Class_>> extId2class = new HashMap<String, Set<Class_>>();
-	    	HashMap<String, Class_> name2class = new HashMap<String, Class_>();
-	    	HashMap<Long, Class_> id2class = new HashMap<Long, Class_>();
-	    	HashMap<String, Set<CourseOffering>> extId2course = new HashMap<String, Set<CourseOffering>>();
-	    	HashMap<String, CourseOffering> name2course = new HashMap<String, CourseOffering>();
-	    	HashMap<String, CourseOffering> cextId2course = new HashMap<String, CourseOffering>();
-	    	HashMap<String, CourseOffering> cname2course = new HashMap<String, CourseOffering>();
-	    	HashMap<Long, Set<CourseOffering>> class2courses = new HashMap<Long, Set<CourseOffering>>();
-	    	
 	    	info("Loading classes...");
-	 		for (Object[] o: getHibSession().createQuery(
-	 				"select c, co from Class_ c inner join c.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co where " +
-    				"c.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId", Object[].class)
-    				.setParameter("sessionId", session.getUniqueId()).list()) {
-	 			Class_ clazz = (Class_)o[0];
-	 			CourseOffering course = (CourseOffering)o[1];
-				String extId = clazz.getExternalId(course);
-				if (extId != null && !extId.isEmpty()) {
-					Set<Class_> sameExtIdClasses = extId2class.get(extId);
-					if (sameExtIdClasses == null) {
-						sameExtIdClasses = new HashSet<Class_>();
-						extId2class.put(extId, sameExtIdClasses);
-					}
-					sameExtIdClasses.add(clazz);
-				}
-				String name = course.getCourseName() + " " + clazz.getItypeDesc().trim() + " " + getClassSuffix(clazz);
-				name2class.put(name, clazz);
-				name2course.put(name, course);
-				id2class.put(clazz.getUniqueId(), clazz);
-				if (extId != null && !extId.isEmpty()) {
-					Set<CourseOffering> sameExtIdCourses = extId2course.get(extId);
-					if (sameExtIdCourses == null) {
-						sameExtIdCourses = new HashSet<CourseOffering>();
-						extId2course.put(extId, sameExtIdCourses);
-					}
-					sameExtIdCourses.add(course);
-				}
-				Set<CourseOffering> courses = class2courses.get(clazz.getUniqueId());
-				if (course.getExternalUniqueId() != null && !course.getExternalUniqueId().isEmpty())
-					cextId2course.put(course.getExternalUniqueId(), course);
-				cname2course.put(course.getCourseName(), course);
-				if (courses == null) {
-					courses = new HashSet<CourseOffering>();
-					class2courses.put(clazz.getUniqueId(), courses);
-				}
-				courses.add(course);
-			}
+	    	ClassLookup lookup = new ClassLookup(session.getUniqueId());
 	        
 	        if (created != null)
 				ChangeLog.addChange(getHibSession(), getManager(), session, session, created, ChangeLog.Source.DATA_IMPORT_STUDENT_ENROLLMENTS, ChangeLog.Operation.UPDATE, null, null);
@@ -157,17 +169,7 @@ public class StudentEnrollmentImport extends BaseImport {
 	 	        
             	Student student = students.remove(externalId);
             	if (student == null) {
-            		student = new Student();
-	                student.setSession(session);
-		            student.setFirstName(studentElement.attributeValue("firstName", "Name"));
-		            student.setMiddleName(studentElement.attributeValue("middleName"));
-		            student.setLastName(studentElement.attributeValue("lastName", "Unknown"));
-		            student.setEmail(studentElement.attributeValue("email"));
-		            student.setExternalUniqueId(externalId);
-		            student.setFreeTimeCategory(0);
-		            student.setSchedulePreference(0);
-		            student.setClassEnrollments(new HashSet<StudentClassEnrollment>());
-		            student.setCourseDemands(new HashSet<CourseDemand>());
+            		student = newStudent(session, externalId, studentElement);
             	}
             	
             	Hashtable<Pair, StudentClassEnrollment> enrollments = new Hashtable<Pair, StudentClassEnrollment>();
@@ -181,107 +183,7 @@ public class StudentEnrollmentImport extends BaseImport {
             	Set<CourseDemand> remaining = new HashSet<CourseDemand>(student.getCourseDemands());
             	Map<CourseDemand, CourseOffering> courseAssignments = new HashMap<CourseDemand, CourseOffering>();
             	
-            	List<Enrollment> selected = new ArrayList<Enrollment>();
-            	for (Iterator j = studentElement.elementIterator("class"); j.hasNext(); ) {
-            		Element classElement = (Element) j.next();
-            		
-            		Class_ clazz = null;
-            		CourseOffering course = null;
-            		Set<Class_> classes = null;
-            		Set<CourseOffering> courses = null;
-
-            		if (clazz == null && classElement.attributeValue("id") != null)
-            			clazz = id2class.get(Long.valueOf(classElement.attributeValue("id")));
-            		
-            		String classExternalId  = classElement.attributeValue("externalId");
-            		if (clazz == null && classExternalId != null) {
-            			classes = extId2class.get(classExternalId);
-            			courses = extId2course.get(classExternalId);
-            			if (classes == null) {
-                			clazz = name2class.get(classExternalId);
-                			course = name2course.get(classExternalId);
-            			} else {
-            				if (classes.size() == 1)
-            					clazz = classes.iterator().next();
-            				if (courses.size() == 1)
-            					course = courses.iterator().next();
-            			}
-            		}
-            		
-            		if (clazz == null && classElement.attributeValue("name") != null) {
-            			String className = classElement.attributeValue("name");
-            			clazz = name2class.get(className);
-            			course = name2course.get(className);
-            		}
-            		
-            		if (course == null && classElement.attributeValue("courseId") != null)
-            			course = cextId2course.get(classElement.attributeValue("courseId"));
-            		
-            		if (course == null) {
-                		String courseName = classElement.attributeValue("course");
-            			if (courseName != null) {
-            				course = cname2course.get(courseName);
-            			} else {
-                    		String subject = classElement.attributeValue("subject");
-                    		String courseNbr = classElement.attributeValue("courseNbr");
-                    		if (subject != null && courseNbr != null)
-                    			course = cname2course.get(subject + " " + courseNbr);
-                		}
-            		}
-            		
-            		if (course != null  && clazz == null) {
-                		String type = classElement.attributeValue("type");
-                		String suffix = classElement.attributeValue("suffix");
-                		if (type != null && suffix != null)
-                			clazz = name2class.get(course.getCourseName() + " " + type.trim() + " " + suffix);
-            		}
-            		
-            		if (clazz == null && classes == null) {
-            			warn("Class " + (classExternalId != null ? classExternalId : classElement.attributeValue("name",
-            					classElement.attributeValue("course", classElement.attributeValue("subject") + " " + classElement.attributeValue("courseNbr")) + " " +
-            					classElement.attributeValue("type") + " " + classElement.attributeValue("suffix"))) + " not found.");
-            			continue;
-            		}
-            		
-            		if (clazz != null) {
-            			Set<CourseOffering> coursesThisClass = class2courses.get(clazz.getUniqueId());
-            			if (course == null && courses != null)
-            				for (CourseOffering co: courses)
-                				if (co.isIsControl() && coursesThisClass.contains(co))
-                					{ course = co; break; }
-            			if (course == null && courses != null)
-            				for (CourseOffering co: courses)
-                				if (coursesThisClass.contains(co))
-                					{ course = co; break; }
-            			if (course == null || !coursesThisClass.contains(course)) {
-            				for (CourseOffering co: coursesThisClass)
-                				if (co.isIsControl())
-                					{ course = co; break; }
-            			}
-            			selected.add(new Enrollment(course, clazz));
-            		} else {
-            			classes: for (Class_ c: classes) {
-            				Set<CourseOffering> coursesThisClass = class2courses.get(c.getUniqueId());
-            				if (course != null) {
-            					if (coursesThisClass.contains(course))
-            						selected.add(new Enrollment(course, c));
-            				} else {
-            					for (CourseOffering co: courses) {
-            						if (coursesThisClass.contains(co) && co.isIsControl()) {
-            							selected.add(new Enrollment(co, c));
-            							continue classes;
-            						}
-            					}
-            					for (CourseOffering co: courses) {
-            						if (coursesThisClass.contains(co)) {
-            							selected.add(new Enrollment(co, c));
-            								continue classes;
-            						}
-            					}
-            				}
-            			}
-            		}
-            	}
+            	List<Enrollment> selected = lookup.getEnrollments(studentElement);
             	
             	Set<Enrollment> imported = new HashSet<Enrollment>();
             	for (Enrollment e: selected) {
@@ -425,45 +327,468 @@ public class StudentEnrollmentImport extends BaseImport {
 			throw e;
 		}
 		
-        if (session!=null && ApplicationProperty.DataExchangeUpdateStudentConflictsFinal.isTrue()) {
-            try {
-                beginTransaction();
-                for (ExamType type: ExamType.findAllOfType(ExamType.sExamTypeFinal))
-                	new UpdateExamConflicts(this).update(session.getUniqueId(), type.getUniqueId(), getHibSession());
-                commitTransaction();
-            } catch (Exception e) {
-                fatal("Exception: " + e.getMessage(), e);
-                rollbackTransaction();
-            }
-        }
+		return session;
+	}
+	
+	/**
+	 * Bulk import of the student enrollments. Only identifiers of the existing students, course requests, and class enrollments
+	 * are loaded (no student entities). The imported enrollments are staged first, then compared with the existing ones as sets,
+	 * and the differences are applied using bulk deletes and batched inserts.
+	 * <br>
+	 * Unlike {@link #importEnrollments(Element)}, the existing course demands are never split: a new course demand is
+	 * created for an enrollment that has no matching course request. Like in {@link #importEnrollments(Element)}, the students
+	 * that got a new course demand have their unused course demands removed (only when not in the registration mode) and
+	 * their course demands re-numbered, this is done at the end for all such students at once.
+	 */
+	protected Session importEnrollmentsBulk(Element rootElement) throws Exception {
+		boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
+		int batchSize = ApplicationProperty.DataExchangeStudentEnrollmentBulkBatchSize.intValue();
+		
+		Session session = null;
+		Set<Long> updatedStudents = new HashSet<Long>();
+		Set<Long> fixCourseDemands = new HashSet<Long>();
+		
+		try {
+			String campus = rootElement.attributeValue("campus");
+			String year   = rootElement.attributeValue("year");
+			String term   = rootElement.attributeValue("term");
+			String created = rootElement.attributeValue("created");
+			boolean incremental = "true".equals(rootElement.attributeValue("incremental", "false"));
+			
+			beginTransaction();
+			if (batchSize > 0)
+				getHibSession().setJdbcBatchSize(batchSize);
+			
+			session = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
+			
+			if (session == null)
+				throw new Exception("No session found for the given campus, year, and term.");
+			Long sessionId = session.getUniqueId();
+			boolean removeUnusedDemands = (session.getStatusType() == null || !session.getStatusType().canPreRegisterStudents());
+			long t0 = System.currentTimeMillis();
+			
+			info("Loading classes...");
+			ClassLookup lookup = new ClassLookup(sessionId);
+			
+			if (created != null)
+				ChangeLog.addChange(getHibSession(), getManager(), session, session, created, ChangeLog.Source.DATA_IMPORT_STUDENT_ENROLLMENTS, ChangeLog.Operation.UPDATE, null, null);
+			
+			info("Loading students...");
+			Map<String, Long> students = new HashMap<String, Long>();
+			for (Object[] o: getHibSession().createQuery(
+					"select s.externalUniqueId, s.uniqueId from Student s where s.session.uniqueId = :sessionId and s.externalUniqueId is not null", Object[].class)
+					.setParameter("sessionId", sessionId).list()) {
+				students.put((String)o[0], (Long)o[1]);
+			}
+			
+			Map<Long, Map<Pair, Long>> existing = new HashMap<Long, Map<Pair, Long>>();
+			for (Object[] o: getHibSession().createQuery(
+					"select e.student.uniqueId, e.courseOffering.uniqueId, e.clazz.uniqueId, e.uniqueId from StudentClassEnrollment e where e.student.session.uniqueId = :sessionId", Object[].class)
+					.setParameter("sessionId", sessionId).list()) {
+				Map<Pair, Long> enrollments = existing.get((Long)o[0]);
+				if (enrollments == null) {
+					enrollments = new HashMap<Pair, Long>();
+					existing.put((Long)o[0], enrollments);
+				}
+				enrollments.put(new Pair((Long)o[1], (Long)o[2]), (Long)o[3]);
+			}
+			
+			// student id -> course offering id -> [course request id, course demand id]
+			Map<Long, Map<Long, Long[]>> requests = new HashMap<Long, Map<Long, Long[]>>();
+			for (Object[] o: getHibSession().createQuery(
+					"select cd.student.uniqueId, cr.courseOffering.uniqueId, cr.uniqueId, cd.uniqueId from CourseRequest cr inner join cr.courseDemand cd where cd.student.session.uniqueId = :sessionId", Object[].class)
+					.setParameter("sessionId", sessionId).list()) {
+				Map<Long, Long[]> studentRequests = requests.get((Long)o[0]);
+				if (studentRequests == null) {
+					studentRequests = new HashMap<Long, Long[]>();
+					requests.put((Long)o[0], studentRequests);
+				}
+				if (!studentRequests.containsKey((Long)o[1]))
+					studentRequests.put((Long)o[1], new Long[] {(Long)o[2], (Long)o[3]});
+			}
+			
+			Map<Long, Integer> nextPriority = new HashMap<Long, Integer>();
+			for (Object[] o: getHibSession().createQuery(
+					"select cd.student.uniqueId, max(cd.priority) from CourseDemand cd where cd.student.session.uniqueId = :sessionId and cd.alternative = false group by cd.student.uniqueId", Object[].class)
+					.setParameter("sessionId", sessionId).list()) {
+				if (o[1] != null)
+					nextPriority.put((Long)o[0], ((Number)o[1]).intValue() + 1);
+			}
+			t0 = phaseDone("Loaded " + students.size() + " students", t0);
+			
+			info("Staging enrollments...");
+			Map<Long, Set<Pair>> staged = new LinkedHashMap<Long, Set<Pair>>();
+			int nrStaged = 0;
+			for (Iterator<Element> i = rootElement.elementIterator("student"); i.hasNext(); ) {
+				Element studentElement = i.next();
+				
+				String externalId = studentElement.attributeValue("externalId");
+				if (externalId == null) continue;
+				while (trimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+				
+				Long studentId = students.get(externalId);
+				if (studentId == null) {
+					Student student = newStudent(session, externalId, studentElement);
+					getHibSession().persist(student);
+					studentId = student.getUniqueId();
+					students.put(externalId, studentId);
+					updatedStudents.add(studentId);
+				}
+				
+				Set<Pair> enrollments = staged.get(studentId);
+				if (enrollments == null) {
+					enrollments = new HashSet<Pair>();
+					staged.put(studentId, enrollments);
+				}
+				for (Enrollment enrollment: lookup.getEnrollments(studentElement))
+					if (enrollments.add(enrollment.toPair())) nrStaged ++;
+			}
+			getHibSession().flush();
+			t0 = phaseDone("Staged " + nrStaged + " enrollments of " + staged.size() + " students", t0);
+			
+			info("Computing changes...");
+			Map<Long, List<Pair>> inserts = new LinkedHashMap<Long, List<Pair>>();
+			List<Long> deletes = new ArrayList<Long>();
+			Set<Long> enrolledDemands = new HashSet<Long>();
+			int nrInserts = 0;
+			for (Map.Entry<Long, Set<Pair>> entry: staged.entrySet()) {
+				Long studentId = entry.getKey();
+				Map<Pair, Long> current = existing.remove(studentId);
+				Map<Long, Long[]> studentRequests = requests.get(studentId);
+				for (Pair pair: entry.getValue()) {
+					if (current != null && current.remove(pair) != null) {
+						Long[] request = (studentRequests == null ? null : studentRequests.get(pair.getCourseId()));
+						if (request != null) enrolledDemands.add(request[1]);
+					} else {
+						List<Pair> studentInserts = inserts.get(studentId);
+						if (studentInserts == null) {
+							studentInserts = new ArrayList<Pair>();
+							inserts.put(studentId, studentInserts);
+						}
+						studentInserts.add(pair);
+						nrInserts ++;
+						updatedStudents.add(studentId);
+					}
+				}
+				if (current != null && !current.isEmpty()) {
+					deletes.addAll(current.values());
+					updatedStudents.add(studentId);
+				}
+			}
+			if (!incremental)
+				for (Map.Entry<Long, Map<Pair, Long>> entry: existing.entrySet()) {
+					if (entry.getValue().isEmpty()) continue;
+					deletes.addAll(entry.getValue().values());
+					updatedStudents.add(entry.getKey());
+				}
+			t0 = phaseDone("Computed changes: " + nrInserts + " new and " + deletes.size() + " removed enrollments", t0);
+			
+			info("Applying changes...");
+			for (int i = 0; i < deletes.size(); i += 1000)
+				getHibSession().createMutationQuery("delete from StudentClassEnrollment where uniqueId in :ids")
+					.setParameterList("ids", deletes.subList(i, Math.min(i + 1000, deletes.size())), Long.class).executeUpdate();
+			
+			Date ts = new Date();
+			int count = 0;
+			for (Map.Entry<Long, List<Pair>> entry: inserts.entrySet()) {
+				Long studentId = entry.getKey();
+				Map<Long, Long[]> studentRequests = requests.get(studentId);
+				if (studentRequests == null) {
+					studentRequests = new HashMap<Long, Long[]>();
+					requests.put(studentId, studentRequests);
+				}
+				for (Pair pair: entry.getValue()) {
+					Long[] request = studentRequests.get(pair.getCourseId());
+					if (request == null) {
+						Integer priority = nextPriority.get(studentId);
+						CourseDemand cd = new CourseDemand();
+						cd.setTimestamp(ts);
+						cd.setStudent(getHibSession().getReference(Student.class, studentId));
+						cd.setAlternative(false);
+						cd.setPriority(priority == null ? 0 : priority);
+						cd.setWaitlist(false);
+						cd.setNoSub(false);
+						cd.setCourseRequests(new HashSet<CourseRequest>());
+						cd.setEnrollmentMessages(new HashSet<StudentEnrollmentMessage>());
+						getHibSession().persist(cd);
+						nextPriority.put(studentId, cd.getPriority() + 1);
+						CourseRequest cr = new CourseRequest();
+						cr.setCourseDemand(cd);
+						cr.setCourseRequestOptions(new HashSet<CourseRequestOption>());
+						cr.setAllowOverlap(false);
+						cr.setCredit(0);
+						cr.setOrder(0);
+						cr.setCourseOffering(getHibSession().getReference(CourseOffering.class, pair.getCourseId()));
+						cd.getCourseRequests().add(cr);
+						getHibSession().persist(cr);
+						request = new Long[] {cr.getUniqueId(), cd.getUniqueId()};
+						studentRequests.put(pair.getCourseId(), request);
+						fixCourseDemands.add(studentId);
+					} else {
+						enrolledDemands.add(request[1]);
+					}
+					StudentClassEnrollment enrollment = new StudentClassEnrollment();
+					enrollment.setStudent(getHibSession().getReference(Student.class, studentId));
+					enrollment.setClazz(getHibSession().getReference(Class_.class, pair.getClassId()));
+					enrollment.setCourseOffering(getHibSession().getReference(CourseOffering.class, pair.getCourseId()));
+					enrollment.setCourseRequest(getHibSession().getReference(CourseRequest.class, request[0]));
+					enrollment.setTimestamp(ts);
+					enrollment.setChangedBy(StudentClassEnrollment.SystemChange.IMPORT.toString());
+					getHibSession().persist(enrollment);
+					if (batchSize > 0 && ++count % batchSize == 0) {
+						getHibSession().flush();
+						getHibSession().clear();
+					}
+				}
+			}
+			getHibSession().flush();
+			
+			List<Long> demandIds = new ArrayList<Long>(enrolledDemands);
+			for (int i = 0; i < demandIds.size(); i += 1000)
+				getHibSession().createMutationQuery("delete from StudentEnrollmentMessage where courseDemand.uniqueId in :ids")
+					.setParameterList("ids", demandIds.subList(i, Math.min(i + 1000, demandIds.size())), Long.class).executeUpdate();
+			t0 = phaseDone("Applied changes", t0);
+			
+			if (!fixCourseDemands.isEmpty()) {
+				info("Updating course demands...");
+				fixCourseDemands(new ArrayList<Long>(fixCourseDemands), removeUnusedDemands);
+				t0 = phaseDone("Updated course demands of " + fixCourseDemands.size() + " students", t0);
+			}
+			
+			info(updatedStudents.size() + " students changed");
+			if (!updatedStudents.isEmpty())
+				StudentSectioningQueue.studentChanged(getHibSession(), null, sessionId, updatedStudents);
+			
+			commitTransaction();
+			phaseDone("Committed changes", t0);
+		} catch (Exception e) {
+			fatal("Exception: " + e.getMessage(), e);
+			rollbackTransaction();
+			throw e;
+		}
+		
+		return session;
+	}
+	
+	/**
+	 * Remove unused course demands (course demands without any class enrollment, only when removeUnused is set) of the given students
+	 * and re-number the priorities of their remaining course demands, the same way as {@link #importEnrollments(Element)} does.
+	 */
+	protected void fixCourseDemands(List<Long> studentIds, boolean removeUnused) {
+		for (int i = 0; i < studentIds.size(); i += 1000) {
+			List<Long> ids = studentIds.subList(i, Math.min(i + 1000, studentIds.size()));
+			if (removeUnused) {
+				// course demands are removed one by one, so that their course requests, options, and messages are removed too
+				for (CourseDemand cd: getHibSession().createQuery(
+						"select cd from CourseDemand cd where cd.student.uniqueId in :ids and not exists " +
+						"(select e.uniqueId from StudentClassEnrollment e where e.courseRequest.courseDemand = cd)", CourseDemand.class)
+						.setParameterList("ids", ids, Long.class).list()) {
+					if (cd.getFreeTime() != null)
+						getHibSession().remove(cd.getFreeTime());
+					for (CourseRequest cr: cd.getCourseRequests())
+						getHibSession().remove(cr);
+					getHibSession().remove(cd);
+				}
+				getHibSession().flush();
+			}
+			Long studentId = null;
+			int priority = 0;
+			for (Object[] o: getHibSession().createQuery(
+					"select cd.student.uniqueId, cd.uniqueId, cd.priority from CourseDemand cd where cd.student.uniqueId in :ids " +
+					"order by cd.student.uniqueId, cd.alternative, cd.priority, cd.uniqueId", Object[].class)
+					.setParameterList("ids", ids, Long.class).list()) {
+				if (!o[0].equals(studentId)) {
+					studentId = (Long)o[0]; priority = 0;
+				}
+				if (o[2] == null || ((Number)o[2]).intValue() != priority)
+					getHibSession().createMutationQuery("update CourseDemand set priority = :priority where uniqueId = :id")
+						.setParameter("priority", priority).setParameter("id", (Long)o[1]).executeUpdate();
+				priority ++;
+			}
+		}
+	}
+	
+	private long phaseDone(String message, long start) {
+		long now = System.currentTimeMillis();
+		info(message + " (" + sDF.format((now - start) / 1000.0) + " s).");
+		return now;
+	}
+	
+	protected Student newStudent(Session session, String externalId, Element studentElement) {
+		Student student = new Student();
+		student.setSession(session);
+		student.setFirstName(studentElement.attributeValue("firstName", "Name"));
+		student.setMiddleName(studentElement.attributeValue("middleName"));
+		student.setLastName(studentElement.attributeValue("lastName", "Unknown"));
+		student.setEmail(studentElement.attributeValue("email"));
+		student.setExternalUniqueId(externalId);
+		student.setFreeTimeCategory(0);
+		student.setSchedulePreference(0);
+		student.setClassEnrollments(new HashSet<StudentClassEnrollment>());
+		student.setCourseDemands(new HashSet<CourseDemand>());
+		return student;
+	}
+	
+	/**
+	 * Classes and courses of the academic session, used to find the classes of the imported student enrollments
+	 * (by class unique id, class external id, class name, or course and class type and suffix).
+	 */
+	protected class ClassLookup {
+		private Map<String, Set<Class_>> iExtId2class = new HashMap<String, Set<Class_>>();
+		private Map<String, Class_> iName2class = new HashMap<String, Class_>();
+		private Map<Long, Class_> iId2class = new HashMap<Long, Class_>();
+		private Map<String, Set<CourseOffering>> iExtId2course = new HashMap<String, Set<CourseOffering>>();
+		private Map<String, CourseOffering> iName2course = new HashMap<String, CourseOffering>();
+		private Map<String, CourseOffering> iCExtId2course = new HashMap<String, CourseOffering>();
+		private Map<String, CourseOffering> iCName2course = new HashMap<String, CourseOffering>();
+		private Map<Long, Set<CourseOffering>> iClass2courses = new HashMap<Long, Set<CourseOffering>>();
+		
+		public ClassLookup(Long sessionId) {
+			for (Object[] o: getHibSession().createQuery(
+					"select c, co from Class_ c inner join c.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co where " +
+					"c.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId", Object[].class)
+					.setParameter("sessionId", sessionId).list()) {
+				Class_ clazz = (Class_)o[0];
+				CourseOffering course = (CourseOffering)o[1];
+				String extId = clazz.getExternalId(course);
+				if (extId != null && !extId.isEmpty()) {
+					Set<Class_> sameExtIdClasses = iExtId2class.get(extId);
+					if (sameExtIdClasses == null) {
+						sameExtIdClasses = new HashSet<Class_>();
+						iExtId2class.put(extId, sameExtIdClasses);
+					}
+					sameExtIdClasses.add(clazz);
+				}
+				String name = course.getCourseName() + " " + clazz.getItypeDesc().trim() + " " + getClassSuffix(clazz);
+				iName2class.put(name, clazz);
+				iName2course.put(name, course);
+				iId2class.put(clazz.getUniqueId(), clazz);
+				if (extId != null && !extId.isEmpty()) {
+					Set<CourseOffering> sameExtIdCourses = iExtId2course.get(extId);
+					if (sameExtIdCourses == null) {
+						sameExtIdCourses = new HashSet<CourseOffering>();
+						iExtId2course.put(extId, sameExtIdCourses);
+					}
+					sameExtIdCourses.add(course);
+				}
+				Set<CourseOffering> courses = iClass2courses.get(clazz.getUniqueId());
+				if (course.getExternalUniqueId() != null && !course.getExternalUniqueId().isEmpty())
+					iCExtId2course.put(course.getExternalUniqueId(), course);
+				iCName2course.put(course.getCourseName(), course);
+				if (courses == null) {
+					courses = new HashSet<CourseOffering>();
+					iClass2courses.put(clazz.getUniqueId(), courses);
+				}
+				courses.add(course);
+			}
+		}
+		
+		/** Enrollments (course and class pairs) of the class elements of the given student element, classes that are not found are reported */
+		public List<Enrollment> getEnrollments(Element studentElement) {
+			List<Enrollment> selected = new ArrayList<Enrollment>();
+			for (Iterator<Element> j = studentElement.elementIterator("class"); j.hasNext(); ) {
+				Element classElement = j.next();
+				
+				Class_ clazz = null;
+				CourseOffering course = null;
+				Set<Class_> classes = null;
+				Set<CourseOffering> courses = null;
 
-        if (session!=null && ApplicationProperty.DataExchangeUpdateStudentConflictsMidterm.isTrue()) {
-            try {
-                beginTransaction();
-                for (ExamType type: ExamType.findAllOfType(ExamType.sExamTypeMidterm))
-                	new UpdateExamConflicts(this).update(session.getUniqueId(), type.getUniqueId(), getHibSession());
-                commitTransaction();
-            } catch (Exception e) {
-                fatal("Exception: " + e.getMessage(), e);
-                rollbackTransaction();
-            }
-        }
-        
-        /*
-        if (session != null && "true".equals(ApplicationProperties.getProperty("tmtbl.data.import.studentEnrl.class.updateEnrollments","true"))){
-        	org.hibernate.Session hibSession = new _RootDAO().createNewSession();
-            try {
-                info("  Updating class enrollments...");
-                Class_.updateClassEnrollmentForSession(session, hibSession);
-                info("  Updating course offering enrollments...");
-                CourseOffering.updateCourseOfferingEnrollmentForSession(session, hibSession);
-            } catch (Exception e) {
-                fatal("Exception: " + e.getMessage(), e);
-            } finally {
-            	hibSession.close();
-            }
-        }
-        */
+				if (clazz == null && classElement.attributeValue("id") != null)
+					clazz = iId2class.get(Long.valueOf(classElement.attributeValue("id")));
+				
+				String classExternalId  = classElement.attributeValue("externalId");
+				if (clazz == null && classExternalId != null) {
+					classes = iExtId2class.get(classExternalId);
+					courses = iExtId2course.get(classExternalId);
+					if (classes == null) {
+		    			clazz = iName2class.get(classExternalId);
+		    			course = iName2course.get(classExternalId);
+					} else {
+						if (classes.size() == 1)
+							clazz = classes.iterator().next();
+						if (courses.size() == 1)
+							course = courses.iterator().next();
+					}
+				}
+				
+				if (clazz == null && classElement.attributeValue("name") != null) {
+					String className = classElement.attributeValue("name");
+					clazz = iName2class.get(className);
+					course = iName2course.get(className);
+				}
+				
+				if (course == null && classElement.attributeValue("courseId") != null)
+					course = iCExtId2course.get(classElement.attributeValue("courseId"));
+				
+				if (course == null) {
+		    		String courseName = classElement.attributeValue("course");
+					if (courseName != null) {
+						course = iCName2course.get(courseName);
+					} else {
+		        		String subject = classElement.attributeValue("subject");
+		        		String courseNbr = classElement.attributeValue("courseNbr");
+		        		if (subject != null && courseNbr != null)
+		        			course = iCName2course.get(subject + " " + courseNbr);
+		    		}
+				}
+				
+				if (course != null  && clazz == null) {
+		    		String type = classElement.attributeValue("type");
+		    		String suffix = classElement.attributeValue("suffix");
+		    		if (type != null && suffix != null)
+		    			clazz = iName2class.get(course.getCourseName() + " " + type.trim() + " " + suffix);
+				}
+				
+				if (clazz == null && classes == null) {
+					warn("Class " + (classExternalId != null ? classExternalId : classElement.attributeValue("name",
+							classElement.attributeValue("course", classElement.attributeValue("subject") + " " + classElement.attributeValue("courseNbr")) + " " +
+							classElement.attributeValue("type") + " " + classElement.attributeValue("suffix"))) + " not found.");
+					continue;
+				}
+				
+				if (clazz != null) {
+					Set<CourseOffering> coursesThisClass = iClass2courses.get(clazz.getUniqueId());
+					if (course == null && courses != null)
+						for (CourseOffering co: courses)
+		    				if (co.isIsControl() && coursesThisClass.contains(co))
+		    					{ course = co; break; }
+					if (course == null && courses != null)
+						for (CourseOffering co: courses)
+		    				if (coursesThisClass.contains(co))
+		    					{ course = co; break; }
+					if (course == null || !coursesThisClass.contains(course)) {
+						for (CourseOffering co: coursesThisClass)
+		    				if (co.isIsControl())
+		    					{ course = co; break; }
+					}
+					selected.add(new Enrollment(course, clazz));
+				} else {
+					classes: for (Class_ c: classes) {
+						Set<CourseOffering> coursesThisClass = iClass2courses.get(c.getUniqueId());
+						if (course != null) {
+							if (coursesThisClass.contains(course))
+								selected.add(new Enrollment(course, c));
+						} else {
+							for (CourseOffering co: courses) {
+								if (coursesThisClass.contains(co) && co.isIsControl()) {
+									selected.add(new Enrollment(co, c));
+									continue classes;
+								}
+							}
+							for (CourseOffering co: courses) {
+								if (coursesThisClass.contains(co)) {
+									selected.add(new Enrollment(co, c));
+										continue classes;
+								}
+							}
+						}
+					}
+				}
+			}
+			
+			return selected;
+		}
 	}
 	
 	public static class Pair {
@@ -49,152 +49,211 @@ import org.unitime.timetable.model.StudentAreaClassificationMinor;
 import org.unitime.timetable.model.StudentClassEnrollment;
 import org.unitime.timetable.model.StudentGroup;
 import org.unitime.timetable.model.StudentSectioningQueue;
+import org.unitime.timetable.model.dao.SessionDAO;
+import org.unitime.timetable.model.dao.StudentDAO;
+import org.unitime.timetable.server.curricula.CurriculumProjectionCube;
 
 /**
  * @author Tomas Muller, Timothy Almon
  */
-public class StudentImport extends BaseImport {
+public class StudentImport extends BaseStreamingImport {
+	private boolean iTrimLeadingZerosFromExternalId = false;
+	private boolean iIncremental = false;
+	private Session iSession = null;
+	private Map<String, Long> iStudents;
+	private Map<String, AcademicArea> iAbbv2area;
+	private Map<String, AcademicClassification> iCode2clasf;
+	private Map<String, PosMajor> iCode2major;
+	private Map<String, PosMajorConcentration> iCode2concentration;
+	private Map<String, Degree> iCode2degree;
+	private Map<String, Program> iCode2program;
+	private Map<String, Campus> iCode2campus;
+	private Map<String, PosMinor> iCode2minor;
+	private Map<String, StudentGroup> iCode2group;
+	private Map<String, StudentAccomodation> iCode2accomodation;
+	private Set<Long> iUpdatedStudents;
+	private List<Student> iCreatedStudents;
+	private Set<Long> iCreatedStudentIds;
 
 	public StudentImport() {
 		super();
 	}
 
 	@Override
-	public void loadXml(Element rootElement) throws Exception {
-		try {
-			boolean trimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
-			
-	        String campus = rootElement.attributeValue("campus");
-	        String year   = rootElement.attributeValue("year");
-	        String term   = rootElement.attributeValue("term");
-	        boolean incremental = "true".equals(rootElement.attributeValue("incremental", "false"));
-
-	        Session session = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
-	        if(session == null)
-	           	throw new Exception("No session found for the given campus, year, and term.");
-	        
-	        if (incremental) {
-	        	info("Incremental mode enabled: only included students will be updated.");
-	        } else {
-	        	info("Incremental mode disabled: students not included in this file will be deleted.");
-	        }
+	protected void beginImport(Element rootElement) throws Exception {
+		iTrimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
+		
+        String campus = rootElement.attributeValue("campus");
+        String year   = rootElement.attributeValue("year");
+        String term   = rootElement.attributeValue("term");
+        iIncremental = "true".equals(rootElement.attributeValue("incremental", "false"));
 
-			beginTransaction();
-            
-	        Hashtable<String, Student> students = new Hashtable<String, Student>();
-	        for (Student student: getHibSession().createQuery(
-	        		"from Student s where s.session.uniqueId=:sessionId and s.externalUniqueId is not null", Student.class).
-                    setParameter("sessionId", session.getUniqueId()).list()) { 
-	        	students.put(student.getExternalUniqueId(), student);
-	        }
-	        
-            Map<String, AcademicArea> abbv2area = new Hashtable<String, AcademicArea>();
-            for (AcademicArea area: getHibSession().createQuery(
-            		"from AcademicArea where session.uniqueId=:sessionId", AcademicArea.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	abbv2area.put(area.getAcademicAreaAbbreviation(), area);
-            }
+        iSession = Session.getSessionUsingInitiativeYearTerm(campus, year, term);
+        if(iSession == null)
+           	throw new Exception("No session found for the given campus, year, and term.");
+        
+        if (iIncremental) {
+        	info("Incremental mode enabled: only included students will be updated.");
+        } else {
+        	info("Incremental mode disabled: students not included in this file will be deleted.");
+        }
 
-            Map<String, AcademicClassification> code2clasf = new Hashtable<String, AcademicClassification>();
-            for (AcademicClassification clasf: getHibSession().createQuery(
-            		"from AcademicClassification where session.uniqueId=:sessionId", AcademicClassification.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	code2clasf.put(clasf.getCode(), clasf);
-            }
-            
-            Map<String, PosMajor> code2major = new Hashtable<String, PosMajor>();
-            for (PosMajor major: getHibSession().createQuery(
-            		"from PosMajor where session.uniqueId=:sessionId", PosMajor.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	for (AcademicArea area: major.getAcademicAreas())
-            		code2major.put(area.getAcademicAreaAbbreviation() + ":" + major.getCode(), major);
-            }
-            
-            Map<String, PosMajorConcentration> code2concentration = new Hashtable<String, PosMajorConcentration>();
-            for (PosMajorConcentration conc: getHibSession().createQuery(
-            		"from PosMajorConcentration where major.session.uniqueId=:sessionId", PosMajorConcentration.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	for (AcademicArea area: conc.getMajor().getAcademicAreas())
-            		code2concentration.put(area.getAcademicAreaAbbreviation() + ":" + conc.getMajor().getCode() + ":" + conc.getCode(), conc);
-            }
-            
-            Map<String, Degree> code2degree = new Hashtable<String, Degree>();
-            for (Degree deg: getHibSession().createQuery(
-            		"from Degree where session.uniqueId=:sessionId", Degree.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	code2degree.put(deg.getReference(), deg);
-            }
-            
-            Map<String, Program> code2program = new Hashtable<String, Program>();
-            for (Program prog: getHibSession().createQuery(
-            		"from Program where session.uniqueId=:sessionId", Program.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	code2program.put(prog.getReference(), prog);
-            }
-            
-            Map<String, Campus> code2campus = new Hashtable<String, Campus>();
-            for (Campus camp: getHibSession().createQuery(
-            		"from Campus where session.uniqueId=:sessionId", Campus.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	code2campus.put(camp.getReference(), camp);
-            }
-            
-            Map<String, PosMinor> code2minor = new Hashtable<String, PosMinor>();
-            for (PosMinor minor: getHibSession().createQuery(
-            		"from PosMinor where session.uniqueId=:sessionId", PosMinor.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	for (AcademicArea area: minor.getAcademicAreas())
-            		code2minor.put(area.getAcademicAreaAbbreviation() + ":" + minor.getCode(), minor);
-            }
+		beginTransaction();
+        
+        iStudents = new HashMap<String, Long>();
+        for (Object[] o: getHibSession().createQuery(
+        		"select s.externalUniqueId, s.uniqueId from Student s where s.session.uniqueId=:sessionId and s.externalUniqueId is not null", Object[].class).
+                setParameter("sessionId", iSession.getUniqueId()).list()) { 
+        	iStudents.put((String)o[0], (Long)o[1]);
+        }
+        
+        loadLookups();
+        
+        iUpdatedStudents = new HashSet<Long>();
+        iCreatedStudents = new ArrayList<Student>();
+        iCreatedStudentIds = new HashSet<Long>();
+	}
+	
+	/**
+	 * Load the session and the lookup tables (academic areas, classifications, majors, groups, accommodations, etc.)
+	 * into the current hibernate session. Called at the beginning of the import and after every batch, once the hibernate
+	 * session has been cleared.
+	 */
+	protected void loadLookups() {
+		iSession = SessionDAO.getInstance().get(iSession.getUniqueId(), getHibSession());
+		
+        iAbbv2area = new Hashtable<String, AcademicArea>();
+        for (AcademicArea area: getHibSession().createQuery(
+        		"from AcademicArea where session.uniqueId=:sessionId", AcademicArea.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	iAbbv2area.put(area.getAcademicAreaAbbreviation(), area);
+        }
 
-            Map<String, StudentGroup> code2group = new Hashtable<String, StudentGroup>();
-            for (StudentGroup group: getHibSession().createQuery(
-            		"from StudentGroup where session.uniqueId=:sessionId", StudentGroup.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	code2group.put(group.getGroupAbbreviation(), group);
-            }
-            
-            Map<String, StudentAccomodation> code2accomodation = new Hashtable<String, StudentAccomodation>();
-            for (StudentAccomodation accomodation: getHibSession().createQuery(
-            		"from StudentAccomodation where session.uniqueId=:sessionId", StudentAccomodation.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	code2accomodation.put(accomodation.getAbbreviation(), accomodation);
-            }
-	        
-	        Set<Long> updatedStudents = new HashSet<Long>();
-	        List<Student> createdStudents = new ArrayList<Student>();
-	        
-	        for (Iterator i1 = rootElement.elementIterator(); i1.hasNext(); ) {
-	            Element element = (Element) i1.next();
+        iCode2clasf = new Hashtable<String, AcademicClassification>();
+        for (AcademicClassification clasf: getHibSession().createQuery(
+        		"from AcademicClassification where session.uniqueId=:sessionId", AcademicClassification.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	iCode2clasf.put(clasf.getCode(), clasf);
+        }
+        
+        iCode2major = new Hashtable<String, PosMajor>();
+        for (PosMajor major: getHibSession().createQuery(
+        		"from PosMajor where session.uniqueId=:sessionId", PosMajor.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	for (AcademicArea area: major.getAcademicAreas())
+        		iCode2major.put(area.getAcademicAreaAbbreviation() + ":" + major.getCode(), major);
+        }
+        
+        iCode2concentration = new Hashtable<String, PosMajorConcentration>();
+        for (PosMajorConcentration conc: getHibSession().createQuery(
+        		"from PosMajorConcentration where major.session.uniqueId=:sessionId", PosMajorConcentration.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	for (AcademicArea area: conc.getMajor().getAcademicAreas())
+        		iCode2concentration.put(area.getAcademicAreaAbbreviation() + ":" + conc.getMajor().getCode() + ":" + conc.getCode(), conc);
+        }
+        
+        iCode2degree = new Hashtable<String, Degree>();
+        for (Degree deg: getHibSession().createQuery(
+        		"from Degree where session.uniqueId=:sessionId", Degree.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	iCode2degree.put(deg.getReference(), deg);
+        }
+        
+        iCode2program = new Hashtable<String, Program>();
+        for (Program prog: getHibSession().createQuery(
+        		"from Program where session.uniqueId=:sessionId", Program.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	iCode2program.put(prog.getReference(), prog);
+        }
+        
+        iCode2campus = new Hashtable<String, Campus>();
+        for (Campus camp: getHibSession().createQuery(
+        		"from Campus where session.uniqueId=:sessionId", Campus.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	iCode2campus.put(camp.getReference(), camp);
+        }
+        
+        iCode2minor = new Hashtable<String, PosMinor>();
+        for (PosMinor minor: getHibSession().createQuery(
+        		"from PosMinor where session.uniqueId=:sessionId", PosMinor.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	for (AcademicArea area: minor.getAcademicAreas())
+        		iCode2minor.put(area.getAcademicAreaAbbreviation() + ":" + minor.getCode(), minor);
+        }
 
-	            String externalId = element.attributeValue("externalId");
-	            if (externalId == null) continue;
-	            while (trimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+        iCode2group = new Hashtable<String, StudentGroup>();
+        for (StudentGroup group: getHibSession().createQuery(
+        		"from StudentGroup where session.uniqueId=:sessionId", StudentGroup.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	iCode2group.put(group.getGroupAbbreviation(), group);
+        }
+        
+        iCode2accomodation = new Hashtable<String, StudentAccomodation>();
+        for (StudentAccomodation accomodation: getHibSession().createQuery(
+        		"from StudentAccomodation where session.uniqueId=:sessionId", StudentAccomodation.class)
+        		.setParameter("sessionId", iSession.getUniqueId()).list()) {
+        	iCode2accomodation.put(accomodation.getAbbreviation(), accomodation);
+        }
+	}
+	
+	@Override
+	protected void importElement(Element element) throws Exception {
+        String externalId = element.attributeValue("externalId");
+        if (externalId == null) return;
+        while (iTrimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
 
-	            importStudent(element, externalId, students, session, updatedStudents, createdStudents,
-	            		abbv2area, code2clasf, code2major, code2minor, code2group, code2accomodation, code2concentration, code2degree, code2program, code2campus);
-	        }
+        Hashtable<String, Student> students = new Hashtable<String, Student>();
+        Long studentId = iStudents.remove(externalId);
+        if (studentId != null) {
+        	Student student = StudentDAO.getInstance().get(studentId, getHibSession());
+        	if (student != null) students.put(externalId, student);
+        }
 
-	        if (!incremental)
-	 	        for (Student student: students.values()) {
-	        		updatedStudents.add(student.getUniqueId());
-	        		getHibSession().remove(student);
-	 	        }
-	        
-            getHibSession().flush();
-    		if (!createdStudents.isEmpty())
-    			for (Student s: createdStudents)
-    				updatedStudents.add(s.getUniqueId());
-            info(updatedStudents.size() + " students changed");
-            if (!updatedStudents.isEmpty())
- 	 	        StudentSectioningQueue.studentChanged(getHibSession(), null, session.getUniqueId(), updatedStudents);
-            
-            commitTransaction();
-		} catch (Exception e) {
-			fatal("Exception: " + e.getMessage(), e);
-			rollbackTransaction();
-			throw e;
-		}
+        importStudent(element, externalId, students, iSession, iUpdatedStudents, iCreatedStudents,
+        		iAbbv2area, iCode2clasf, iCode2major, iCode2minor, iCode2group, iCode2accomodation, iCode2concentration, iCode2degree, iCode2program, iCode2campus);
+	}
+	
+	/**
+	 * Flush the changes and clear the hibernate session, so that only the students of the current batch are kept in memory.
+	 * The transaction is not committed (the student import is done in a single transaction), the lookup tables are loaded again.
+	 */
+	@Override
+	protected void flushBatch() {
+		getHibSession().flush();
+		for (Student student: iCreatedStudents)
+			iCreatedStudentIds.add(student.getUniqueId());
+		iCreatedStudents.clear();
+		getHibSession().clear();
+		loadLookups();
+	}
+	
+	@Override
+	protected void endImport() throws Exception {
+        if (!iIncremental) {
+        	int batchSize = ApplicationProperty.DataExchangeStreamingBatchSize.intValue();
+        	int removed = 0;
+ 	        for (Long studentId: iStudents.values()) {
+ 	        	Student student = StudentDAO.getInstance().get(studentId, getHibSession());
+ 	        	if (student == null) continue;
+        		iUpdatedStudents.add(studentId);
+        		getHibSession().remove(student);
+        		if (batchSize > 0 && ++removed % batchSize == 0) {
+        			getHibSession().flush(); getHibSession().clear();
+        		}
+ 	        }
+        }
+        
+        getHibSession().flush();
+		for (Student s: iCreatedStudents)
+			iCreatedStudentIds.add(s.getUniqueId());
+		iUpdatedStudents.addAll(iCreatedStudentIds);
+        info(iUpdatedStudents.size() + " students changed");
+        if (!iUpdatedStudents.isEmpty())
+	        StudentSectioningQueue.studentChanged(getHibSession(), null, iSession.getUniqueId(), iUpdatedStudents);
+        
+        commitTransaction();
+        
+        CurriculumProjectionCube.invalidateLastLikeDemands(iSession.getUniqueId());
 	}
 	
 	protected Student importStudent(Element element, String externalId, Hashtable<String, Student> students, Session session, Set<Long> updatedStudents, List<Student> createdStudents,
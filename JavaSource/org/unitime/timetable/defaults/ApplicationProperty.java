@@ -568,6 +568,26 @@ public enum ApplicationProperty {
 	@Description("Data Exchange: default import timetabling manager (e.g., if executed from command line)")
 	DataExchangeXmlManager("unitime.xml.manager"),
 
+	@Type(Integer.class)
+	@DefaultValue("10485760")
+	@Description("Data Exchange: size of an XML file (in bytes) from which the imports that support it read the file record by record instead of loading the whole document in memory (-1 to disable, compressed files of unknown size are always streamed)")
+	DataExchangeStreamingThreshold("unitime.data.exchange.streaming.threshold"),
+
+	@Type(Integer.class)
+	@DefaultValue("100")
+	@Description("Data Exchange: number of records after which a record by record import flushes its changes and clears the hibernate session (the changes are also committed, if supported by the import)")
+	DataExchangeStreamingBatchSize("unitime.data.exchange.streaming.batchSize"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Student Enrollment Import: use the bulk mode (enrollments are compared as sets of identifiers and the changes are applied in batches, existing course demands are not re-arranged); can be overridden by the bulk attribute of the root element")
+	DataExchangeStudentEnrollmentBulkImport("unitime.data.exchange.studentEnrollments.bulk"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Student Enrollment Import: JDBC batch size and number of inserted records after which the session is flushed in the bulk mode")
+	DataExchangeStudentEnrollmentBulkBatchSize("unitime.data.exchange.studentEnrollments.bulk.batchSize"),
+
 	@Type(Boolean.class)
 	@DefaultValue("false")
 	@Description("Student Enrollment Import: update examination student conflicts for final exams")
@@ -681,9 +701,19 @@ public enum ApplicationProperty {
 
 	@Type(Integer.class)
 	@DefaultValue("5000")
-	@Description("Online Student Scheduling Log: limit on the number of records held in memory (before persisted)")
+	@Description("Online Student Scheduling Log: limit on the number of records held in memory (before persisted, the same limit applies to the records waiting to be written into the log file)")
 	OnlineSchedulingLogLimit("unitime.sectioning.log.limit"),
 
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Online Student Scheduling Log: records are persisted as soon as there is the given number of records waiting (also used as the JDBC batch size)")
+	OnlineSchedulingLogBatchSize("unitime.sectioning.log.batchSize"),
+
+	@Type(Integer.class)
+	@DefaultValue("60")
+	@Description("Online Student Scheduling Log: records are persisted (and written into the log file) at least every given number of seconds")
+	OnlineSchedulingLogFlushInterval("unitime.sectioning.log.flushInterval"),
+
 	@Description("Online Student Scheduling Log: besides of the database, also log the actions in the given file (if set)")
 	OnlineSchedulingLogFile("unitime.sectioning.log.file"),
 	
@@ -1347,6 +1377,11 @@ public enum ApplicationProperty {
 	@Description("Re-Create Curriculum: minimal number of last-like students")
 	CurriculumLastLikeDemandsEnrollmentLimit("tmtbl.curriculum.lldemands.enrlLimit"),
 
+	@Type(Integer.class)
+	@DefaultValue("600")
+	@Description("Curriculum: number of seconds for which the projection rules and last-like student counts of an academic session are kept in memory (they are refreshed sooner when students, last-like course demands, or projection rules are imported or changed), set to zero to disable the cache")
+	CurriculumProjectionCacheTimeToLive("unitime.curriculum.projectionCache.timeToLive"),
+
 	@Type(Integer.class)
 	@DefaultValue("-1")
 	@Description("Events: indicate that a meeting is at an unusual time (too early); the value is the last time slot that is considered too early (e.g., 72 means 6 am)")
@@ -1413,6 +1448,16 @@ public enum ApplicationProperty {
 	@Description("Events Personal Schedule: show exams associated with classes that the person is teaching (not only exams where the person is directly listed as instructor)")
 	EventExamsConsiderClassInstructorAssignments("unitime.events.exams.considerClassInstructors"),
 	
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Events: use an in-memory index of the meetings (by location and date) of an academic session when looking up events of a room")
+	EventSearchIndex("unitime.events.searchIndex.enabled"),
+	
+	@Type(Integer.class)
+	@DefaultValue("900")
+	@Description("Events: time (in seconds) after which the in-memory meeting index of an academic session is rebuilt, picking up changes made outside of the event pages (-1 to never rebuild)")
+	EventSearchIndexTimeToLive("unitime.events.searchIndex.timeToLive"),
+	
 	@DefaultValue("always")
 	@Description("Events: this property defines when to show room note on the top of the room grid:\n" +
 			" never ... never show the room note on the top of the room grid,\n" +
@@ -1927,6 +1972,26 @@ public enum ApplicationProperty {
 	@Description("Solver: passivate solution after given number of minutes of inactivity (disable passivation by setting to zero)")
 	SolverPasivationTime("unitime.solver.passivation.time"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Solver: write solver backups (passivation and server shutdown) as compact gzip-compressed XML files (backups in the uncompressed format can still be restored)")
+	SolverBackupCompressed("unitime.solver.backup.compressed"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Solver: minimal time in milliseconds between two progress or log requests to the same solver, the result is shared by all the users watching the solver")
+	SolverProgressRefreshInterval("unitime.solver.progress.refreshInterval"),
+
+	@Type(Integer.class)
+	@DefaultValue("30")
+	@Description("Solver: solver log page waits up to the given number of seconds for new log messages before returning (long polling, disable by setting to zero)")
+	SolverLogLongPollTimeout("unitime.solver.log.longPollTimeout"),
+
+	@Type(Integer.class)
+	@DefaultValue("1000")
+	@Description("Solver: maximal number of log messages cached for the users watching the same solver (the most recent messages are kept)")
+	SolverLogCacheSize("unitime.solver.log.cacheSize"),
+
 	@Type(Integer.class)
 	@DefaultValue("300")
 	@Description("Online Student Scheduling: sectioning queue load interval in seconds")
@@ -1937,6 +2002,11 @@ public enum ApplicationProperty {
 	@Description("Online Student Scheduling: sectioning queue update interval in seconds")
 	OnlineSchedulingQueueUpdateInterval("unitime.sectioning.queue.updateInterval"),
 
+	@Type(Boolean.class)
+	@DefaultValue("true")
+	@Description("Online Student Scheduling: notify the online student scheduling servers about new sectioning queue items as soon as they are committed (when disabled, the changes are picked up in the next update interval)")
+	OnlineSchedulingQueueNotify("unitime.sectioning.queue.notify"),
+
 	@Description("Online Student Scheduling: only academic sessions matching this year (regular expression) are loaded in")
 	OnlineSchedulingAcademicYear("unitime.enrollment.year"),
 
@@ -1956,6 +2026,36 @@ public enum ApplicationProperty {
 	@Description("Online Student Scheduling: asynchronous execution thread pool size")
 	OnlineSchedulingServerAsyncPoolSize("unitime.enrollment.server.asyncPoolSize"),
 
+	@Type(Integer.class)
+	@DefaultValue("10000")
+	@Description("Online Student Scheduling: asynchronous execution queue size (when the queue is full, batch actions of LOW priority wait for a room in the queue while other actions are rejected; zero or negative for an unbounded queue)")
+	OnlineSchedulingServerAsyncQueueSize("unitime.enrollment.server.asyncQueueSize"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Online Student Scheduling: use virtual threads for the asynchronous execution (requires Java 21 or newer)")
+	OnlineSchedulingServerAsyncVirtualThreads("unitime.enrollment.server.asyncVirtualThreads"),
+
+	@Type(Boolean.class)
+	@DefaultValue("false")
+	@Description("Online Student Scheduling: periodically (and when the server is unloaded) save a snapshot of the in-memory server and use it on the next start instead of reloading all the data from the database (the snapshot is not used when there are enrollment changes made after it was created)")
+	OnlineSchedulingServerSnapshot("unitime.enrollment.server.snapshot"),
+
+	@Type(Integer.class)
+	@DefaultValue("30")
+	@Description("Online Student Scheduling: how often (in minutes) is the server snapshot saved (zero or negative to only save the snapshot when the server is unloaded)")
+	OnlineSchedulingServerSnapshotInterval("unitime.enrollment.server.snapshot.interval"),
+
+	@Type(Integer.class)
+	@DefaultValue("72")
+	@Description("Online Student Scheduling: maximal age (in hours) of a server snapshot that can be used on start (zero or negative for no limit)")
+	OnlineSchedulingServerSnapshotMaxAge("unitime.enrollment.server.snapshot.maxAge"),
+
+	@Type(Integer.class)
+	@DefaultValue("10000")
+	@Description("Online Student Scheduling: maximal number of offerings kept in the cache of pre-built offering data used by the scheduling assistant (zero to disable the cache)")
+	OnlineSchedulingOfferingCacheSize("unitime.enrollment.server.offeringCache.size"),
+
 	@Type(Integer.class)
 	@DefaultValue("366")
 	@Description("Change Log: automatically remove records after the given number of days")
@@ -45,6 +45,7 @@ import org.unitime.timetable.model.dao.EventDAO;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.security.rights.Right;
 import org.unitime.timetable.util.Formats;
+import org.unitime.timetable.util.RoomAvailability;
 
 /**
  * @author Tomas Muller
@@ -207,6 +208,15 @@ public class ApproveEventBackend extends EventAction<ApproveEventRpcRequest, Sav
 			
 			tx.commit(); tx = null;
 			
+			EventSearchIndex.eventChanged(event.getUniqueId());
+			
+			if (RoomAvailability.getInstance() != null) {
+				Set<Long> changedLocations = new HashSet<Long>();
+				for (Meeting meeting: affectedMeetings)
+					if (meeting.getLocationPermanentId() != null) changedLocations.add(meeting.getLocationPermanentId());
+				RoomAvailability.getInstance().locationsChanged(session.getUniqueId(), changedLocations);
+			}
+			
 			new EventEmail(request, response).send(context);
 			
 			return response;
@@ -557,6 +557,7 @@ public class EventFilterBackend extends FilterBoxBackend<EventFilterRpcRequest>
 		}
 		
 		public void checkSession(boolean check) { iCheckSession = check; }
+		public boolean isCheckSession() { return iCheckSession; }
 		public void sameInitiative(boolean check) { iSameInitiative = check; }
 		
 		public void addFrom(String option, String from) { iFrom.put(option, from); }
@@ -568,6 +569,18 @@ public class EventFilterBackend extends FilterBoxBackend<EventFilterRpcRequest>
 			params.put(name, value);
 		}
 		
+		/** Meeting date filter: first date, null if not set */
+		public Date getFromDate() {
+			Map<String, Object> params = iParams.get("from");
+			return (params == null ? null : (Date)params.get("Xfrom"));
+		}
+		
+		/** Meeting date filter: last date, null if not set */
+		public Date getToDate() {
+			Map<String, Object> params = iParams.get("to");
+			return (params == null ? null : (Date)params.get("Xto"));
+		}
+		
 		public String getFrom(Collection<String> excludeOption) {
 			String from = "";
 			for (Map.Entry<String, String> entry: iFrom.entrySet()) {
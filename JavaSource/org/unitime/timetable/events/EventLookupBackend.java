@@ -89,6 +89,7 @@ import org.unitime.timetable.model.dao.ClassEventDAO;
 import org.unitime.timetable.model.dao.CourseEventDAO;
 import org.unitime.timetable.model.dao.DepartmentDAO;
 import org.unitime.timetable.model.dao.EventDAO;
+import org.unitime.timetable.model.dao.LocationDAO;
 import org.unitime.timetable.model.dao.ExamEventDAO;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.model.dao.StudentGroupDAO;
@@ -232,7 +233,28 @@ public class EventLookupBackend extends EventAction<EventLookupRpcRequest, GwtRp
 				
 				switch (request.getResourceType()) {
 				case ROOM:
-					if (request.getResourceId() != null)
+					EventSearchIndex index = (request.getResourceId() != null && query.isCheckSession() ? EventSearchIndex.getIndex(request.getSessionId()) : null);
+					Location resource = (index == null ? null : LocationDAO.getInstance().get(request.getResourceId(), hibSession));
+					if (resource != null && request.getSessionId().equals(resource.getSession().getUniqueId())) {
+						meetings = new ArrayList<Meeting>();
+						// class and examination events are not indexed
+						for (Object meeting: query.select("distinct m")
+								.joinWithLocation()
+								.where("l.uniqueId = :resourceId")
+								.where(EventSearchIndex.NOT_INDEXED_TYPES)
+								.set("resourceId", request.getResourceId())
+								.limit(1 + limit)
+								.query(hibSession).list())
+							meetings.add((Meeting)meeting);
+						List<Long> meetingIds = index.getMeetingIds(resource.getPermanentId(), query.getFromDate(), query.getToDate());
+						for (int i = 0; i < meetingIds.size() && (limit <= 0 || meetings.size() <= limit); i += 1000)
+							for (Object meeting: query.select("distinct m")
+									.where("m.uniqueId in :meetingIds")
+									.set("meetingIds", meetingIds.subList(i, Math.min(i + 1000, meetingIds.size())))
+									.limit(limit <= 0 ? -1 : 1 + limit - meetings.size())
+									.query(hibSession).list())
+								meetings.add((Meeting)meeting);
+					} else if (request.getResourceId() != null)
 						meetings = (List<Meeting>)query.select("distinct m")
 						.joinWithLocation()
 						.where("l.uniqueId = :resourceId")
@@ -0,0 +1,285 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.events;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.dao.EventDAO;
+
+/**
+ * In-memory index of the meetings of an academic session (meetings of the special, course related, and unavailability events
+ * that fall within the session's event begin and end dates), by location permanent id and meeting date. It is used by
+ * {@link EventLookupBackend#findEvents(org.unitime.timetable.gwt.shared.EventInterface.EventLookupRpcRequest, EventContext)}
+ * to look up the meetings of a room without scanning all the meetings of the session.
+ * <br>
+ * The index is updated by the event pages when an event is saved, approved, or deleted (see {@link #eventChanged(Long)}),
+ * and it is dropped by the event import. Class and examination events are not indexed, as they are changed in many other
+ * places (e.g., by a timetable commit or an examination assignment); their meetings are always looked up in the database.
+ * The index is also rebuilt once it is older than {@link ApplicationProperty#EventSearchIndexTimeToLive} seconds.
+ *
+ * @author Tomas Muller
+ */
+public class EventSearchIndex {
+	private static Log sLog = LogFactory.getLog(EventSearchIndex.class);
+	private static Map<Long, EventSearchIndex> sIndexes = new HashMap<Long, EventSearchIndex>();
+	/** Condition on the event types that are indexed (class and examination events are not) */
+	public static final String INDEXED_TYPES = "type(e) in (CourseEvent, SpecialEvent, UnavailableEvent)";
+	/** Condition on the event types that are not indexed */
+	public static final String NOT_INDEXED_TYPES = "type(e) in (ClassEvent, FinalExamEvent, MidtermExamEvent)";
+
+	private Long iSessionId;
+	private long iCreated;
+	private ReadWriteLock iLock = new ReentrantReadWriteLock();
+	private Map<Long, NavigableSet<IndexedMeeting>> iLocations = new HashMap<Long, NavigableSet<IndexedMeeting>>();
+	private Map<Long, List<IndexedMeeting>> iEvents = new HashMap<Long, List<IndexedMeeting>>();
+
+	private EventSearchIndex(Long sessionId) {
+		iSessionId = sessionId;
+		iCreated = System.currentTimeMillis();
+	}
+
+	/** Returns true if the event search index is enabled */
+	public static boolean isEnabled() {
+		return ApplicationProperty.EventSearchIndex.isTrue();
+	}
+
+	/**
+	 * Index of the given academic session, created (or re-created when expired) if needed
+	 * @return null when the index is disabled
+	 */
+	public static EventSearchIndex getIndex(Long sessionId) {
+		if (sessionId == null || !isEnabled()) return null;
+		EventSearchIndex index = null;
+		synchronized (sIndexes) {
+			index = sIndexes.get(sessionId);
+			if (index != null && !index.isExpired()) return index;
+			index = new EventSearchIndex(sessionId);
+			sIndexes.put(sessionId, index);
+			// build the index while holding the write lock, so that other lookups of the same session wait for it
+			index.iLock.writeLock().lock();
+		}
+		try {
+			index.load();
+		} catch (RuntimeException e) {
+			synchronized (sIndexes) {
+				if (sIndexes.get(sessionId) == index) sIndexes.remove(sessionId);
+			}
+			throw e;
+		} finally {
+			index.iLock.writeLock().unlock();
+		}
+		return index;
+	}
+
+	/**
+	 * Notify the index that the given event has been changed (created, updated, or deleted)
+	 */
+	public static void eventChanged(Long eventId) {
+		if (eventId != null) eventsChanged(Collections.singleton(eventId));
+	}
+
+	/**
+	 * Notify the index that the given events have been changed (created, updated, or deleted)
+	 */
+	public static void eventsChanged(Collection<Long> eventIds) {
+		if (eventIds == null || eventIds.isEmpty()) return;
+		List<EventSearchIndex> indexes = null;
+		synchronized (sIndexes) {
+			if (sIndexes.isEmpty()) return;
+			indexes = new ArrayList<EventSearchIndex>(sIndexes.values());
+		}
+		// an event may have meetings that fall within the dates of multiple academic sessions
+		for (EventSearchIndex index: indexes)
+			index.update(eventIds);
+	}
+
+	/** Drop the index of the given academic session (all sessions when null) */
+	public static void invalidate(Long sessionId) {
+		synchronized (sIndexes) {
+			if (sessionId == null)
+				sIndexes.clear();
+			else
+				sIndexes.remove(sessionId);
+		}
+	}
+
+	protected boolean isExpired() {
+		int ttl = ApplicationProperty.EventSearchIndexTimeToLive.intValue();
+		return ttl >= 0 && System.currentTimeMillis() - iCreated > 1000l * ttl;
+	}
+
+	public Long getSessionId() { return iSessionId; }
+
+	protected void load() {
+		long t0 = System.currentTimeMillis();
+		org.hibernate.Session hibSession = EventDAO.getInstance().createNewSession();
+		try {
+			for (Object[] o: hibSession.createQuery(
+					"select m.uniqueId, e.uniqueId, m.locationPermanentId, m.meetingDate from Event e inner join e.meetings m, Session s " +
+					"where s.uniqueId = :sessionId and m.meetingDate >= s.eventBeginDate and m.meetingDate <= s.eventEndDate and " + INDEXED_TYPES, Object[].class)
+					.setParameter("sessionId", iSessionId).list()) {
+				add(new IndexedMeeting((Long)o[0], (Long)o[1], (Long)o[2], (Date)o[3]));
+			}
+		} finally {
+			hibSession.close();
+		}
+		sLog.debug("Event search index of session " + iSessionId + " created with " + iEvents.size() + " events in " + (System.currentTimeMillis() - t0) + " ms.");
+	}
+
+	protected void update(Collection<Long> eventIds) {
+		List<Long> ids = new ArrayList<Long>(eventIds);
+		List<IndexedMeeting> meetings = new ArrayList<IndexedMeeting>();
+		org.hibernate.Session hibSession = EventDAO.getInstance().createNewSession();
+		try {
+			for (int i = 0; i < ids.size(); i += 1000) {
+				for (Object[] o: hibSession.createQuery(
+						"select m.uniqueId, e.uniqueId, m.locationPermanentId, m.meetingDate from Event e inner join e.meetings m, Session s " +
+						"where s.uniqueId = :sessionId and m.meetingDate >= s.eventBeginDate and m.meetingDate <= s.eventEndDate and " + INDEXED_TYPES + " and e.uniqueId in :eventIds", Object[].class)
+						.setParameter("sessionId", iSessionId)
+						.setParameterList("eventIds", ids.subList(i, Math.min(i + 1000, ids.size())), Long.class).list()) {
+					meetings.add(new IndexedMeeting((Long)o[0], (Long)o[1], (Long)o[2], (Date)o[3]));
+				}
+			}
+		} finally {
+			hibSession.close();
+		}
+		iLock.writeLock().lock();
+		try {
+			for (Long eventId: ids)
+				remove(eventId);
+			for (IndexedMeeting meeting: meetings)
+				add(meeting);
+		} finally {
+			iLock.writeLock().unlock();
+		}
+	}
+
+	private void add(IndexedMeeting meeting) {
+		List<IndexedMeeting> eventMeetings = iEvents.get(meeting.getEventId());
+		if (eventMeetings == null) {
+			eventMeetings = new ArrayList<IndexedMeeting>();
+			iEvents.put(meeting.getEventId(), eventMeetings);
+		}
+		eventMeetings.add(meeting);
+		if (meeting.getLocationPermanentId() != null) {
+			NavigableSet<IndexedMeeting> locationMeetings = iLocations.get(meeting.getLocationPermanentId());
+			if (locationMeetings == null) {
+				locationMeetings = new TreeSet<IndexedMeeting>();
+				iLocations.put(meeting.getLocationPermanentId(), locationMeetings);
+			}
+			locationMeetings.add(meeting);
+		}
+	}
+
+	private void remove(Long eventId) {
+		List<IndexedMeeting> eventMeetings = iEvents.remove(eventId);
+		if (eventMeetings == null) return;
+		for (IndexedMeeting meeting: eventMeetings) {
+			if (meeting.getLocationPermanentId() == null) continue;
+			NavigableSet<IndexedMeeting> locationMeetings = iLocations.get(meeting.getLocationPermanentId());
+			if (locationMeetings != null && locationMeetings.remove(meeting) && locationMeetings.isEmpty())
+				iLocations.remove(meeting.getLocationPermanentId());
+		}
+	}
+
+	/**
+	 * Meetings of the given location
+	 * @param locationPermanentId location permanent id
+	 * @param from first meeting date (null if not restricted)
+	 * @param to last meeting date (null if not restricted)
+	 * @return meeting unique ids, ordered by meeting date
+	 */
+	public List<Long> getMeetingIds(Long locationPermanentId, Date from, Date to) {
+		iLock.readLock().lock();
+		try {
+			NavigableSet<IndexedMeeting> meetings = iLocations.get(locationPermanentId);
+			List<Long> ret = new ArrayList<Long>();
+			if (meetings == null) return ret;
+			if (from != null || to != null)
+				meetings = meetings.subSet(
+						new IndexedMeeting(Long.MIN_VALUE, null, locationPermanentId, from == null ? new Date(Long.MIN_VALUE) : from), true,
+						new IndexedMeeting(Long.MAX_VALUE, null, locationPermanentId, to == null ? new Date(Long.MAX_VALUE) : to), true);
+			for (IndexedMeeting meeting: meetings)
+				ret.add(meeting.getMeetingId());
+			return ret;
+		} finally {
+			iLock.readLock().unlock();
+		}
+	}
+
+	/** Number of indexed events */
+	public int size() {
+		iLock.readLock().lock();
+		try {
+			return iEvents.size();
+		} finally {
+			iLock.readLock().unlock();
+		}
+	}
+
+	private static class IndexedMeeting implements Comparable<IndexedMeeting> {
+		private long iMeetingId;
+		private Long iEventId;
+		private Long iLocationPermanentId;
+		private long iDate;
+
+		IndexedMeeting(long meetingId, Long eventId, Long locationPermanentId, Date date) {
+			iMeetingId = meetingId;
+			iEventId = eventId;
+			iLocationPermanentId = locationPermanentId;
+			iDate = date.getTime();
+		}
+
+		public Long getMeetingId() { return iMeetingId; }
+		public Long getEventId() { return iEventId; }
+		public Long getLocationPermanentId() { return iLocationPermanentId; }
+
+		@Override
+		public int compareTo(IndexedMeeting m) {
+			int cmp = Long.compare(iDate, m.iDate);
+			if (cmp != 0) return cmp;
+			return Long.compare(iMeetingId, m.iMeetingId);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == null || !(o instanceof IndexedMeeting)) return false;
+			return iMeetingId == ((IndexedMeeting)o).iMeetingId;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(iMeetingId);
+		}
+	}
+}
@@ -74,6 +74,7 @@ import org.unitime.timetable.security.rights.Right;
 import org.unitime.timetable.util.CalendarUtils;
 import org.unitime.timetable.util.Constants;
 import org.unitime.timetable.util.Formats;
+import org.unitime.timetable.util.RoomAvailability;
 
 /**
  * @author Tomas Muller
@@ -258,6 +259,9 @@ public class SaveEventBackend extends EventAction<SaveEventRpcRequest, SaveOrApp
 						
 			if (event.getMeetings() == null) event.setMeetings(new HashSet<Meeting>());
 			Set<Meeting> remove = new HashSet<Meeting>(event.getMeetings());
+			Set<Long> changedLocations = new HashSet<Long>();
+			for (Meeting meeting: event.getMeetings())
+				if (meeting.getLocationPermanentId() != null) changedLocations.add(meeting.getLocationPermanentId());
 			TreeSet<Meeting> createdMeetings = new TreeSet<Meeting>();
 			Set<Meeting> cancelledMeetings = new TreeSet<Meeting>();
 			Set<Meeting> updatedMeetings = new TreeSet<Meeting>();
@@ -680,6 +684,13 @@ public class SaveEventBackend extends EventAction<SaveEventRpcRequest, SaveOrApp
 			
 			tx.commit();
 			
+			EventSearchIndex.eventChanged(event.getUniqueId());
+			
+			for (Meeting meeting: event.getMeetings())
+				if (meeting.getLocationPermanentId() != null) changedLocations.add(meeting.getLocationPermanentId());
+			if (RoomAvailability.getInstance() != null)
+				RoomAvailability.getInstance().locationsChanged(session.getUniqueId(), changedLocations);
+			
 			new EventEmail(request, response).send(context);
 			
 			return response;
@@ -19,6 +19,7 @@
 */
 package org.unitime.timetable.gwt.client.solver;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -67,6 +68,9 @@ public class SolverLogPage extends SimpleForm {
 	private ListBox iLevel;
 	private int iLevelRow = -1;
 	private Timer iTimer = null;
+	private int iPollId = 0;
+	private Long iLogId = null;
+	private Integer iSequence = null;
 	
 	public SolverLogPage() {
 		addStyleName("unitime-SolverPage");
@@ -113,19 +117,7 @@ public class SolverLogPage extends SimpleForm {
 		iTimer = new Timer() {
 			@Override
 			public void run() {
-				if (iLog != null && iLog.getLastDate() != null) {
-					int level = SolverCookie.getInstance().getLogLevel();
-					RPC.execute(new SolverLogPageRequest(iType, ProgressLogLevel.values()[level], iLog.getLastDate()), new AsyncCallback<SolverLogPageResponse>() {
-						@Override
-						public void onFailure(Throwable caught) {}
-						
-						@Override
-						public void onSuccess(SolverLogPageResponse result) {
-							if (result.hasLog())
-								iLog.append(result.getLog());
-						}
-					});
-				}
+				poll(iPollId);
 			}
 		};
 		
@@ -137,7 +129,8 @@ public class SolverLogPage extends SimpleForm {
 		SolverCookie.getInstance().setLogLevel(level);
 		iHeader.showLoading();
 		iTimer.cancel();
-		RPC.execute(new SolverLogPageRequest(iType, ProgressLogLevel.values()[level], null), new AsyncCallback<SolverLogPageResponse>() {
+		final int pollId = ++iPollId;
+		RPC.execute(new SolverLogPageRequest(iType, ProgressLogLevel.values()[level], null, null, false), new AsyncCallback<SolverLogPageResponse>() {
 			@Override
 			public void onFailure(Throwable caught) {
 				iHeader.setErrorMessage(caught.getMessage());
@@ -152,7 +145,9 @@ public class SolverLogPage extends SimpleForm {
 					iLog = new ProgressLog(result.getLog());
 					addRow(iLog);
 					addBottomRow(iFooter);
-					iTimer.scheduleRepeating(1000);
+					iLogId = result.getLogId();
+					iSequence = result.getSequence();
+					if (result.hasSequence()) poll(pollId);
 				} else if (result.hasSolutionLogs()) {
 					for (SolutionLog log: result.getSolutionLogs()) {
 						if (log.hasLog()) {
@@ -166,6 +161,33 @@ public class SolverLogPage extends SimpleForm {
 		});
 	}
 	
+	/**
+	 * Long polling: the server responds when there are new messages (or after a timeout), the next request is sent right away.
+	 * Polling stops when the page is refreshed, it is retried in five seconds on failure.
+	 */
+	protected void poll(final int pollId) {
+		if (pollId != iPollId || iLog == null) return;
+		int level = SolverCookie.getInstance().getLogLevel();
+		RPC.execute(new SolverLogPageRequest(iType, ProgressLogLevel.values()[level], iLogId, iSequence, true), new AsyncCallback<SolverLogPageResponse>() {
+			@Override
+			public void onFailure(Throwable caught) {
+				if (pollId == iPollId) iTimer.schedule(5000);
+			}
+			
+			@Override
+			public void onSuccess(SolverLogPageResponse result) {
+				if (pollId != iPollId) return;
+				if (result.isReset())
+					iLog.setValue(result.hasLog() ? result.getLog() : new ArrayList<ProgressMessage>());
+				else if (result.hasLog())
+					iLog.append(result.getLog());
+				iLogId = result.getLogId();
+				iSequence = result.getSequence();
+				poll(pollId);
+			}
+		});
+	}
+	
 	public static class ProgressLog extends HTML implements TakesValue<List<ProgressMessage>>{
 		private List<ProgressMessage> iLog;
 		
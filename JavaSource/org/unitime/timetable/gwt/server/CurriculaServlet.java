@@ -99,6 +99,7 @@ import org.unitime.timetable.security.UserContext;
 import org.unitime.timetable.security.permissions.Permission.PermissionDepartment;
 import org.unitime.timetable.security.rights.Right;
 import org.unitime.timetable.server.curricula.CurriculumFilterBackend;
+import org.unitime.timetable.server.curricula.CurriculumProjectionCube;
 import org.unitime.timetable.test.MakeCurriculaFromLastlikeDemands;
 import org.unitime.timetable.util.Constants;
 import org.unitime.timetable.util.NameFormat;
@@ -2777,6 +2778,7 @@ public class CurriculaServlet implements CurriculaService {
 								
 				hibSession.flush();
 				tx.commit(); tx = null;
+				CurriculumProjectionCube.invalidateProjectionRules(sessionId);
 			} finally {
 				try {
 					if (tx != null && tx.isActive()) {
@@ -3613,7 +3615,23 @@ public class CurriculaServlet implements CurriculaService {
 		return clasf2enrl;
 	}
 	
+	/** Projection cube to be used for the given curriculum, null if not enabled or if the curriculum requires students with multiple majors */
+	private CurriculumProjectionCube getProjectionCube(Curriculum c) {
+		if (c.isMultipleMajors() && c.getMajors().size() != 1) return null;
+		return CurriculumProjectionCube.getInstance(c.getAcademicArea().getSessionId());
+	}
+	
+	private List<String> getMajorCodes(Curriculum c) {
+		List<String> majorCodes = new ArrayList<String>();
+		for (PosMajor major: c.getMajors())
+			majorCodes.add(major.getCode());
+		return majorCodes;
+	}
+	
 	private Hashtable<String, Hashtable<String, Integer>> loadClasfMajor2ll(org.hibernate.Session hibSession, Curriculum c) {
+		CurriculumProjectionCube cube = getProjectionCube(c);
+		if (cube != null)
+			return cube.getClasfMajor2ll(hibSession, c.getAcademicArea().getAcademicAreaAbbreviation(), getMajorCodes(c));
 		List<Object[]> lines = null;
 		String select = "f.code, m.code, sum(a.weight)";
 		String from = "Student s inner join s.areaClasfMajors a inner join a.academicClassification f inner join a.major m";
@@ -3920,6 +3938,9 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<String, Hashtable<String, Hashtable<Long, Integer>>> loadClasfMajorCourse2ll(org.hibernate.Session hibSession, Curriculum c) {
+		CurriculumProjectionCube cube = getProjectionCube(c);
+		if (cube != null)
+			return cube.getClasfMajorCourse2ll(hibSession, c.getAcademicArea().getAcademicAreaAbbreviation(), getMajorCodes(c));
 		String select = "f.code, m.code, co.uniqueId, sum(a.weight)";
 		String[] checks = new String[] {
 			"x.subjectArea.session.uniqueId = :sessionId and a.academicArea.academicAreaAbbreviation = :acadAbbv and co.subjectArea.uniqueId = x.subjectArea.uniqueId and x.coursePermId is not null and co.permId=x.coursePermId",
@@ -4169,6 +4190,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<String, Hashtable<String, Hashtable<String, Integer>>> loadAreaMajorClasf2ll(org.hibernate.Session hibSession) {
+		CurriculumProjectionCube cube = CurriculumProjectionCube.getInstance(getAcademicSessionId());
+		if (cube != null) return cube.getAreaMajorClasf2ll(hibSession);
 		Hashtable<String, Hashtable<String, Hashtable<String, Integer>>> area2major2clasf2ll = new Hashtable<String, Hashtable<String,Hashtable<String,Integer>>>();
 		for (Object[] o : hibSession.createQuery(
 				"select a.academicAreaAbbreviation, m.code, f.code, sum(ac.weight) from Student s " +
@@ -4528,6 +4551,11 @@ public class CurriculaServlet implements CurriculaService {
 	}
 
 	private Hashtable<String,HashMap<String, Float>> getRules(org.hibernate.Session hibSession, Long acadAreaId) {
+		CurriculumProjectionCube cube = CurriculumProjectionCube.getInstance(getAcademicSessionId());
+		if (cube != null) {
+			Hashtable<String,HashMap<String, Float>> rules = cube.getRules(hibSession, acadAreaId);
+			if (rules != null) return rules;
+		}
 		Hashtable<String,HashMap<String, Float>> clasf2major2proj = new Hashtable<String, HashMap<String,Float>>();
 		for (CurriculumProjectionRule rule: hibSession.createQuery(
 				"select r from CurriculumProjectionRule r where r.academicArea.uniqueId=:acadAreaId", CurriculumProjectionRule.class)
@@ -4546,6 +4574,8 @@ public class CurriculaServlet implements CurriculaService {
 	}
 	
 	private Hashtable<String, Hashtable<String, HashMap<String, Float>>> getRules(org.hibernate.Session hibSession) {
+		CurriculumProjectionCube cube = CurriculumProjectionCube.getInstance(getAcademicSessionId());
+		if (cube != null) return cube.getRules(hibSession);
 		Hashtable<String, Hashtable<String, HashMap<String, Float>>> area2clasf2major2proj = new Hashtable<String, Hashtable<String,HashMap<String,Float>>>();
 		for (CurriculumProjectionRule rule: hibSession.createQuery(
 				"select r from CurriculumProjectionRule r where r.academicArea.session.uniqueId = :sessionId", CurriculumProjectionRule.class)
@@ -4573,6 +4603,11 @@ public class CurriculaServlet implements CurriculaService {
 			Long acadAreaId) {
 		Hashtable<String, HashMap<String, Float>> clasf2major2ssproj = new Hashtable<String, HashMap<String, Float>>();
 		if (hasSnapshotData(hibSession, getAcademicSessionId())) {
+			CurriculumProjectionCube cube = CurriculumProjectionCube.getInstance(getAcademicSessionId());
+			if (cube != null) {
+				Hashtable<String, HashMap<String, Float>> rules = cube.getSnapshotRules(hibSession, acadAreaId);
+				if (rules != null) return rules;
+			}
 			for (CurriculumProjectionRule rule : hibSession
 					.createQuery("select r from CurriculumProjectionRule r where r.academicArea.uniqueId=:acadAreaId", CurriculumProjectionRule.class)
 					.setParameter("acadAreaId", acadAreaId).setCacheable(true).list()) {
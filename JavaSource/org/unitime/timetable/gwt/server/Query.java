@@ -22,7 +22,11 @@ package org.unitime.timetable.gwt.server;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * @author Tomas Muller
@@ -52,6 +56,49 @@ public class Query implements Serializable {
 		return ret;
 	}
 	
+	/**
+	 * Use the given index to compute a super-set of the items that can match the query. Intersections are used
+	 * for the AND terms (ignoring the terms that cannot be looked up), unions for the OR terms (when all the terms
+	 * can be looked up). NOT terms cannot be looked up.
+	 * @return candidate items, null when the index cannot be used (all items need to be checked)
+	 */
+	public <E> Set<E> candidates(TermIndex<E> index) {
+		return candidates(iQuery, index);
+	}
+	
+	private static <E> Set<E> candidates(Term term, TermIndex<E> index) {
+		if (term instanceof AtomTerm) {
+			return index.lookup(((AtomTerm)term).iAttr, ((AtomTerm)term).iBody);
+		} else if (term instanceof AndTerm) {
+			List<Set<E>> sets = new ArrayList<Set<E>>();
+			for (Term t: ((AndTerm)term).terms()) {
+				Set<E> c = candidates(t, index);
+				if (c != null) sets.add(c);
+			}
+			if (sets.isEmpty()) return null;
+			Collections.sort(sets, new Comparator<Set<E>>() {
+				@Override
+				public int compare(Set<E> s1, Set<E> s2) {
+					return Integer.compare(s1.size(), s2.size());
+				}
+			});
+			Set<E> ret = new HashSet<E>(sets.get(0));
+			for (int i = 1; i < sets.size() && !ret.isEmpty(); i++)
+				ret.retainAll(sets.get(i));
+			return ret;
+		} else if (term instanceof OrTerm) {
+			if (((OrTerm)term).terms().isEmpty()) return null;
+			Set<E> ret = new HashSet<E>();
+			for (Term t: ((OrTerm)term).terms()) {
+				Set<E> c = candidates(t, index);
+				if (c == null) return null;
+				ret.addAll(c);
+			}
+			return ret;
+		}
+		return null;
+	}
+	
 	public String toString() {
 		return iQuery.toString();
 	}
@@ -341,6 +388,11 @@ public class Query implements Serializable {
 		public Boolean match(String attr, String term);
 	}
 	
+	public static interface TermIndex<E> {
+		/** Items matching the given term, null when the term cannot be looked up */
+		public Set<E> lookup(String attr, String term);
+	}
+	
 	public static interface QueryFormatter {
 		String format(String attr, String term);
 	}
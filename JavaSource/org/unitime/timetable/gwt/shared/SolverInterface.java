@@ -503,6 +503,9 @@ public class SolverInterface implements IsSerializable {
 		private List<ProgressMessage> iLog = null;
 		private List<SolutionLog> iSolutionLogs = null;
 		private ProgressLogLevel iLevel;
+		private Long iLogId = null;
+		private Integer iSequence = null;
+		private boolean iReset = false;
 		
 		public SolverLogPageResponse() {}
 		public SolverLogPageResponse(int level) {
@@ -520,6 +523,14 @@ public class SolverInterface implements IsSerializable {
 		public boolean hasLog() { return iLog != null && !iLog.isEmpty(); }
 		public List<ProgressMessage> getLog() { return iLog; }
 		
+		public Long getLogId() { return iLogId; }
+		public void setLogId(Long logId) { iLogId = logId; }
+		public Integer getSequence() { return iSequence; }
+		public void setSequence(Integer sequence) { iSequence = sequence; }
+		public boolean hasSequence() { return iLogId != null && iSequence != null; }
+		public boolean isReset() { return iReset; }
+		public void setReset(boolean reset) { iReset = reset; }
+		
 		public boolean hasSolutionLogs() { return iSolutionLogs != null && !iSolutionLogs.isEmpty(); }
 		public List<SolutionLog> getSolutionLogs() { return iSolutionLogs; }
 		public void addSolutionLog(SolutionLog log) {
@@ -532,6 +543,9 @@ public class SolverInterface implements IsSerializable {
 		private ProgressLogLevel iLevel;
 		private SolverType iType;
 		private Date iLast;
+		private Long iLogId;
+		private Integer iSequence;
+		private boolean iWait = false;
 		
 		public SolverLogPageRequest() {}
 		public SolverLogPageRequest(SolverType type, ProgressLogLevel level, Date last) {
@@ -539,6 +553,13 @@ public class SolverInterface implements IsSerializable {
 			iLevel = level;
 			iLast = last;
 		}
+		public SolverLogPageRequest(SolverType type, ProgressLogLevel level, Long logId, Integer sequence, boolean wait) {
+			iType = type;
+			iLevel = level;
+			iLogId = logId;
+			iSequence = sequence;
+			iWait = wait;
+		}
 
 		public SolverType getType() { return iType; }
 		public void setType(SolverType type) { iType = type; }
@@ -549,6 +570,11 @@ public class SolverInterface implements IsSerializable {
 		
 		public Date getLastDate() { return iLast; }
 		
+		public Long getLogId() { return iLogId; }
+		public Integer getSequence() { return iSequence; }
+		public boolean hasSequence() { return iLogId != null && iSequence != null; }
+		public boolean isWait() { return iWait; }
+		
 		@Override
 		public String toString() { return getType() + ": " + getLevel(); }
 	}
@@ -23,6 +23,8 @@ import java.io.Serializable;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.unitime.timetable.defaults.ApplicationProperty;
 
@@ -36,8 +38,26 @@ public interface RoomAvailabilityInterface {
 
     public String getTimeStamp(Date startTime, Date endTime, String excludeType);
     public Collection<TimeBlock> getRoomAvailability(Long locationId, Date startTime, Date endTime, String excludeType);
+    /**
+     * Room availability of multiple rooms at once (e.g., when loading a solver), the implementations are expected to
+     * use a single lookup (or query) instead of one per room.
+     * @return location unique id -> time blocks, rooms with no availability information are not included
+     */
+    public default Map<Long, Collection<TimeBlock>> getRoomAvailability(Collection<Long> locationIds, Date startTime, Date endTime, String excludeType) {
+    	Map<Long, Collection<TimeBlock>> ret = new HashMap<Long, Collection<TimeBlock>>();
+    	for (Long locationId: locationIds) {
+    		Collection<TimeBlock> times = getRoomAvailability(locationId, startTime, endTime, excludeType);
+    		if (times != null) ret.put(locationId, times);
+    	}
+    	return ret;
+    }
     public Collection<TimeBlock> getInstructorAvailability(Long instructorId, Date startTime, Date endTime, String excludeType);
     public void activate(Long sessionId, Date startTime, Date endTime, String excludeType, boolean waitForSync);
+    /**
+     * Called when meetings of the given locations have been changed (e.g., an event has been created, updated, or approved),
+     * so that the implementation can refresh its cached availability of these locations.
+     */
+    public default void locationsChanged(Long sessionId, Collection<Long> locationPermanentIds) {}
     
     public void startService();
     public void stopService();
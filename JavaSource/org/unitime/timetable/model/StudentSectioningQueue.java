@@ -23,6 +23,8 @@ package org.unitime.timetable.model;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Table;
 import jakarta.persistence.Transient;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
 
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
@@ -34,10 +36,17 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
@@ -46,6 +55,8 @@ import org.dom4j.io.OutputFormat;
 import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 import org.hibernate.HibernateException;
+import org.hibernate.Transaction;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.model.base.BaseStudentSectioningQueue;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningLog;
 import org.unitime.timetable.security.UserContext;
@@ -58,6 +69,9 @@ import org.unitime.timetable.security.UserContext;
 @Table(name = "sectioning_queue")
 public class StudentSectioningQueue extends BaseStudentSectioningQueue implements Comparable<StudentSectioningQueue> {
 	private static final long serialVersionUID = 8492171207847794888L;
+	private static Log sLog = LogFactory.getLog(StudentSectioningQueue.class);
+	private static Map<Transaction, Set<Long>> sPendingNotifications = new WeakHashMap<Transaction, Set<Long>>();
+	private static List<ChangeListener> sChangeListeners = new CopyOnWriteArrayList<ChangeListener>();
 
 	public StudentSectioningQueue() {
 		super();
@@ -155,6 +169,7 @@ public class StudentSectioningQueue extends BaseStudentSectioningQueue implement
 		}
 		q.setMessage(d);
 		hibSession.persist(q);
+		notifyChange(hibSession, sessionId);
 	}
 	
 	protected static void addItem(org.hibernate.Session hibSession, UserContext user, Long sessionId, Type type, Long... ids) {
@@ -174,6 +189,72 @@ public class StudentSectioningQueue extends BaseStudentSectioningQueue implement
 		}
 		q.setMessage(d);
 		hibSession.persist(q);
+		notifyChange(hibSession, sessionId);
+	}
+	
+	/**
+	 * Listener that is notified when there are new items in the queue, the solver server registers itself when started
+	 * (see {@link #addChangeListener(ChangeListener)}) and sends the notification to the online student scheduling servers.
+	 */
+	public static interface ChangeListener {
+		public void studentSectioningQueueChanged(Long sessionId);
+	}
+	
+	public static void addChangeListener(ChangeListener listener) {
+		sChangeListeners.add(listener);
+	}
+	
+	public static void removeChangeListener(ChangeListener listener) {
+		sChangeListeners.remove(listener);
+	}
+	
+	/**
+	 * Notify the registered listeners that there are new items in the queue for the given academic session.
+	 * When there is an active transaction, the notification is sent after the transaction is committed (once per transaction and
+	 * academic session). The queue table remains the durable source of the changes, the notification only wakes up the updater.
+	 */
+	protected static void notifyChange(org.hibernate.Session hibSession, Long sessionId) {
+		if (sessionId == null || sChangeListeners.isEmpty() || !ApplicationProperty.OnlineSchedulingQueueNotify.isTrue()) return;
+		Transaction tx = hibSession.getTransaction();
+		if (tx != null && tx.isActive()) {
+			synchronized (sPendingNotifications) {
+				Set<Long> sessionIds = sPendingNotifications.get(tx);
+				if (sessionIds != null) {
+					sessionIds.add(sessionId);
+					return;
+				}
+				sessionIds = new HashSet<Long>();
+				sessionIds.add(sessionId);
+				sPendingNotifications.put(tx, sessionIds);
+			}
+			final Transaction transaction = tx;
+			tx.registerSynchronization(new Synchronization() {
+				@Override
+				public void beforeCompletion() {}
+				@Override
+				public void afterCompletion(int status) {
+					Set<Long> sessionIds = null;
+					synchronized (sPendingNotifications) {
+						sessionIds = sPendingNotifications.remove(transaction);
+					}
+					if (status == Status.STATUS_COMMITTED && sessionIds != null)
+						for (Long sessionId: sessionIds)
+							notifyChange(sessionId);
+				}
+			});
+		} else {
+			notifyChange(sessionId);
+		}
+	}
+	
+	private static void notifyChange(Long sessionId) {
+		for (ChangeListener listener: sChangeListeners) {
+			try {
+				listener.studentSectioningQueueChanged(sessionId);
+			} catch (Exception e) {
+				sLog.warn("Failed to notify servers about a student sectioning queue change: " + e.getMessage(), e);
+			}
+		}
 	}
 	
 	@Transient
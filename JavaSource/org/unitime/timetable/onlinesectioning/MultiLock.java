@@ -19,6 +19,7 @@
 */
 package org.unitime.timetable.onlinesectioning;
 
+import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -27,6 +28,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -40,10 +43,12 @@ import org.cpsolver.ifs.util.ToolBox;
  * @author Tomas Muller
  */
 public class MultiLock {
-    private Log iLog = LogFactory.getLog(MultiLock.class);
+    protected Log iLog = LogFactory.getLog(MultiLock.class);
     private Lock iLock = new ReentrantLock();
     private Condition iAllLocked = null;
     private Map<Long, Condition> iIndividualLocks = new HashMap<Long, Condition>();
+    private AtomicLong iNrLocks = new AtomicLong(0), iNrContended = new AtomicLong(0), iTotalWait = new AtomicLong(0), iMaxWait = new AtomicLong(0);
+    private AtomicInteger iNrWaiting = new AtomicInteger(0), iNrHolders = new AtomicInteger(0);
 
     public MultiLock() {
     	iLog = LogFactory.getLog(MultiLock.class.getName() + ".lock");
@@ -73,13 +78,19 @@ public class MultiLock {
 		iLock.lock();
 		try {
 			iLog.debug("Locking all ...");
-			while (iAllLocked != null)
+			long t0 = System.nanoTime();
+			boolean contended = false;
+			while (iAllLocked != null) {
+				if (!contended) { contended = true; lockWaiting(); }
 				iAllLocked.awaitUninterruptibly();
+			}
 			iAllLocked = iLock.newCondition();
 			while (!iIndividualLocks.isEmpty()) {
+				if (!contended) { contended = true; lockWaiting(); }
 				Condition otherCondition = iIndividualLocks.values().iterator().next();
 				otherCondition.awaitUninterruptibly();
 			}
+			lockAcquired(contended, t0);
 			iLog.debug("Locked: all");
 			return new UnlockAll();
 		} finally {
@@ -94,6 +105,7 @@ public class MultiLock {
 			Condition allLocked = iAllLocked;
 			iAllLocked = null;
 			allLocked.signalAll();
+			lockReleased();
 			iLog.debug("Unlocked: all");
 		} finally {
 			iLock.unlock();
@@ -105,12 +117,17 @@ public class MultiLock {
 		try {
 			if (ids == null || ids.isEmpty()) return new Unlock(ids);
 			iLog.debug("Locking " + ids + " ...");
+			long t0 = System.nanoTime();
+			boolean contended = false;
 			Condition otherCondition = null;
-			while ((otherCondition = hasLock(ids)) != null)
+			while ((otherCondition = hasLock(ids)) != null) {
+				if (!contended) { contended = true; lockWaiting(); }
 				otherCondition.awaitUninterruptibly();
+			}
 			Condition myCondition = iLock.newCondition();
 			for (Long id: ids)
 				iIndividualLocks.put(id, myCondition);
+			lockAcquired(contended, t0);
 			iLog.debug("Locked: " + ids);
 			return new Unlock(ids);
 		} finally {
@@ -118,7 +135,7 @@ public class MultiLock {
 		}
 	}
 	
-	private void unlock(Collection<Long> ids) {
+	protected void unlock(Collection<Long> ids) {
 		iLock.lock();
 		try {
 			if (ids == null || ids.isEmpty()) return;
@@ -128,12 +145,56 @@ public class MultiLock {
 				myCondition = iIndividualLocks.remove(id);
 			if (myCondition != null)
 				myCondition.signalAll();
+			lockReleased();
 			iLog.debug("Unlocked: " + ids);
 		} finally {
 			iLock.unlock();
 		}
 	}
 	
+	/** To be called when a lock cannot be acquired immediately (the caller is going to wait) */
+	protected void lockWaiting() {
+		iNrWaiting.incrementAndGet();
+	}
+	
+	/** To be called when a lock has been acquired, t0 is the {@link System#nanoTime()} when the locking started */
+	protected void lockAcquired(boolean contended, long t0) {
+		iNrLocks.incrementAndGet();
+		iNrHolders.incrementAndGet();
+		if (contended) {
+			iNrWaiting.decrementAndGet();
+			iNrContended.incrementAndGet();
+			long wait = System.nanoTime() - t0;
+			iTotalWait.addAndGet(wait);
+			long max = iMaxWait.get();
+			while (wait > max && !iMaxWait.compareAndSet(max, wait))
+				max = iMaxWait.get();
+		}
+	}
+	
+	/** To be called when a lock has been released */
+	protected void lockReleased() {
+		iNrHolders.decrementAndGet();
+	}
+	
+	/**
+	 * Lock contention statistics: number of locks, contended locks, wait times,
+	 * current number of lock holders and the number of threads waiting for a lock.
+	 */
+	public Map<String, String> getStatistics() {
+		Map<String, String> stats = new HashMap<String, String>();
+		DecimalFormat df = new DecimalFormat("0.00");
+		long locks = iNrLocks.get(), contended = iNrContended.get();
+		stats.put("Lock.Type", getClass().getSimpleName());
+		stats.put("Lock.Locks", String.valueOf(locks));
+		stats.put("Lock.Contended", String.valueOf(contended));
+		stats.put("Lock.AvgWait", contended == 0 ? "0 ms" : df.format(iTotalWait.get() / 1000000.0 / contended) + " ms");
+		stats.put("Lock.MaxWait", df.format(iMaxWait.get() / 1000000.0) + " ms");
+		stats.put("Lock.Holders", String.valueOf(iNrHolders.get()));
+		stats.put("Lock.Waiting", String.valueOf(iNrWaiting.get()));
+		return stats;
+	}
+	
 	public Set<Long> locked() {
 		iLock.lock();
 		try {
@@ -155,7 +216,7 @@ public class MultiLock {
 	public class Unlock implements OnlineSectioningServer.Lock {
 		private Collection<Long> iIds;
 		
-		private Unlock(Collection<Long> ids) {
+		protected Unlock(Collection<Long> ids) {
 			iIds = ids;
 		}
 		
@@ -166,7 +227,7 @@ public class MultiLock {
 
 	public class UnlockAll implements OnlineSectioningServer.Lock {
 		
-		private UnlockAll() {
+		protected UnlockAll() {
 		}
 		
 		public void release() {
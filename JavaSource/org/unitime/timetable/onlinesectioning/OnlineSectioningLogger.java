@@ -25,9 +25,14 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Vector;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,10 +42,8 @@ import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.resources.StudentSectioningConstants;
 import org.unitime.timetable.gwt.server.DayCode;
 import org.unitime.timetable.model.Session;
-import org.unitime.timetable.model.Student;
 import org.unitime.timetable.model.dao.OnlineSectioningLogDAO;
 import org.unitime.timetable.model.dao.SessionDAO;
-import org.unitime.timetable.model.dao.StudentDAO;
 
 /**
  * @author Tomas Muller
@@ -48,10 +51,16 @@ import org.unitime.timetable.model.dao.StudentDAO;
 public class OnlineSectioningLogger extends Thread {
 	private static Log sLog = LogFactory.getLog(OnlineSectioningLogger.class);
 	protected static StudentSectioningConstants CONST = Localization.create(StudentSectioningConstants.class);
-	private List<OnlineSectioningLog.Action> iActions = new Vector<OnlineSectioningLog.Action>();
-	private boolean iActive = false;
+	private Queue<OnlineSectioningLog.Action> iActions = new ConcurrentLinkedQueue<OnlineSectioningLog.Action>();
+	private Queue<OnlineSectioningLog.Action> iFileActions = null;
+	private AtomicInteger iQueueSize = new AtomicInteger(0), iFileQueueSize = new AtomicInteger(0);
+	private AtomicLong iQueued = new AtomicLong(0), iPersisted = new AtomicLong(0), iDropped = new AtomicLong(0), iFailed = new AtomicLong(0), iSkipped = new AtomicLong(0), iFileDropped = new AtomicLong(0);
+	private long iLastDropped = 0, iLastFileDropped = 0;
+	private volatile boolean iActive = false;
 	private boolean iEnabled = false;
 	private int iLogLimit = -1;
+	private int iBatchSize = 1000;
+	private long iFlushInterval = 60000;
 	private PrintWriter iOut = null;
 	
 	private static OnlineSectioningLogger sInstance = null;
@@ -61,6 +70,11 @@ public class OnlineSectioningLogger extends Thread {
 		return sInstance;
 	}
 	
+	/** Returns the logger when it has been started, null otherwise (unlike {@link #getInstance()}, the logger is not started) */
+	public static OnlineSectioningLogger getRunningInstance() {
+		return sInstance;
+	}
+	
 	public static void startLogger() {
 		if (sInstance == null) {
 			sInstance = new OnlineSectioningLogger();
@@ -71,7 +85,7 @@ public class OnlineSectioningLogger extends Thread {
 	public static void stopLogger() {
 		if (sInstance != null) {
 			sInstance.iActive = false;
-			sInstance.interrupt();
+			LockSupport.unpark(sInstance);
 			try {
 				sInstance.join();
 			} catch (InterruptedException e) {}
@@ -84,9 +98,13 @@ public class OnlineSectioningLogger extends Thread {
 		setDaemon(true);
 		iEnabled = ApplicationProperty.OnlineSchedulingLoggingEnabled.isTrue(); 
 		iLogLimit = ApplicationProperty.OnlineSchedulingLogLimit.intValue();
+		iBatchSize = ApplicationProperty.OnlineSchedulingLogBatchSize.intValue();
+		iFlushInterval = 1000l * ApplicationProperty.OnlineSchedulingLogFlushInterval.intValue();
 		try {
-			if (ApplicationProperty.OnlineSchedulingLogFile.value() != null)
+			if (ApplicationProperty.OnlineSchedulingLogFile.value() != null) {
 				iOut = new PrintWriter(new FileWriter(new File(ApplicationProperty.OnlineSchedulingLogFile.value()), true));
+				iFileActions = new ConcurrentLinkedQueue<OnlineSectioningLog.Action>();
+			}
 		} catch (IOException e) {
 			sLog.warn("Unable to create sectioning log: " + e.getMessage(), e);
 		}
@@ -95,20 +113,59 @@ public class OnlineSectioningLogger extends Thread {
 	public boolean isEnabled() { return iEnabled; }
 	public void setEnabled(boolean enabled) { iEnabled = enabled; }
 	public boolean isActive() { return iActive; }
+	
+	/** Number of actions waiting to be persisted */
+	public int getQueueSize() { return iQueueSize.get(); }
+	/** Number of actions that have been recorded */
+	public long getQueuedCount() { return iQueued.get(); }
+	/** Number of actions that have been persisted */
+	public long getPersistedCount() { return iPersisted.get(); }
+	/** Number of actions that have been dropped because the limit on the number of records held in memory was reached */
+	public long getDroppedCount() { return iDropped.get(); }
+	/** Number of actions that failed to persist */
+	public long getFailedCount() { return iFailed.get(); }
+	/** Number of actions that have not been persisted because the student external id is not known */
+	public long getSkippedCount() { return iSkipped.get(); }
+	/** Number of actions that have not been written into the log file because the limit on the number of records held in memory was reached */
+	public long getFileDroppedCount() { return iFileDropped.get(); }
+	
+	public Map<String, String> getStatistics() {
+		Map<String, String> stats = new HashMap<String, String>();
+		stats.put("Logger.Waiting", String.valueOf(getQueueSize()));
+		stats.put("Logger.Queued", String.valueOf(getQueuedCount()));
+		stats.put("Logger.Persisted", String.valueOf(getPersistedCount()));
+		stats.put("Logger.Dropped", String.valueOf(getDroppedCount()));
+		stats.put("Logger.Failed", String.valueOf(getFailedCount()));
+		stats.put("Logger.Skipped", String.valueOf(getSkippedCount()));
+		if (iFileActions != null)
+			stats.put("Logger.FileDropped", String.valueOf(getFileDroppedCount()));
+		return stats;
+	}
 
 	public void record(OnlineSectioningLog.Log log) {
 		if (log == null || !isEnabled() || !isActive()) return;
 		for (OnlineSectioningLog.Action action: log.getActionList()) {
 			if (action.hasStartTime() && action.hasStudent() && action.hasOperation() && action.hasSession() && ApplicationProperty.OnlineSchedulingLogOperation.isTrue(action.getOperation())
 				&& ApplicationProperty.OnlineSchedulingLogOperation.isTrue(action.getOperation() + "." + (action.hasResult() ? action.getResult().name() : "NULL"))) {
-				synchronized (iActions) {
-					if (iLogLimit <= 0 || iActions.size() < iLogLimit)
-						iActions.add(action);
+				int size = iQueueSize.incrementAndGet();
+				if (iLogLimit <= 0 || size <= iLogLimit) {
+					iActions.offer(action);
+					iQueued.incrementAndGet();
+					if (iBatchSize > 0 && size == iBatchSize)
+						LockSupport.unpark(this);
+				} else {
+					iQueueSize.decrementAndGet();
+					iDropped.incrementAndGet();
 				}
-				if (iOut != null) {
-					synchronized (iOut) {
-						iOut.print(OnlineSectioningLog.Log.newBuilder().addAction(action).build().toString());
-						iOut.flush();
+				if (iFileActions != null) {
+					int fileSize = iFileQueueSize.incrementAndGet();
+					if (iLogLimit <= 0 || fileSize <= iLogLimit) {
+						iFileActions.offer(action);
+						if (iBatchSize > 0 && fileSize == iBatchSize)
+							LockSupport.unpark(this);
+					} else {
+						iFileQueueSize.decrementAndGet();
+						iFileDropped.incrementAndGet();
 					}
 				}
 			}
@@ -249,84 +306,25 @@ public class OnlineSectioningLogger extends Thread {
 		try {
 			iActive = true;
 			while (true) {
-				try {
-					sleep(60000);
-				} catch (InterruptedException e) {
+				long deadline = System.currentTimeMillis() + iFlushInterval;
+				while (iActive && (iBatchSize <= 0 || (iQueueSize.get() < iBatchSize && iFileQueueSize.get() < iBatchSize))) {
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0) break;
+					LockSupport.parkNanos(this, 1000000l * wait);
 				}
-				List<OnlineSectioningLog.Action> actionsToSave = null;
-				synchronized (iActions) {
-					if (!iActions.isEmpty()) {
-						actionsToSave = new ArrayList<OnlineSectioningLog.Action>(iActions);
-						iActions.clear();
-					}
+				writeFile();
+				List<OnlineSectioningLog.Action> actionsToSave = new ArrayList<OnlineSectioningLog.Action>();
+				OnlineSectioningLog.Action action = null;
+				while ((action = iActions.poll()) != null) {
+					iQueueSize.decrementAndGet();
+					actionsToSave.add(action);
 				}
-				try {
-					if (actionsToSave != null) {
-						sLog.debug("Persisting " + actionsToSave.size() + " actions...");
-						if (iLogLimit > 0 && actionsToSave.size() >= iLogLimit)
-							sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, some messages have been dropped.");
-						org.hibernate.Session hibSession = OnlineSectioningLogDAO.getInstance().createNewSession();
-						hibSession.setCacheMode(CacheMode.IGNORE);
-						try {
-							Hashtable<Long, Session> sessions = new Hashtable<Long, Session>();
-							for (OnlineSectioningLog.Action q: actionsToSave) {
-								org.unitime.timetable.model.OnlineSectioningLog log = new org.unitime.timetable.model.OnlineSectioningLog();
-								log.setAction(q.toByteArray());
-								log.setOperation(q.getOperation());
-								String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
-								if (studentExternalId == null || studentExternalId.isEmpty()) {
-									Student student = StudentDAO.getInstance().get(q.getStudent().getUniqueId(), hibSession);
-									if (student == null) continue;
-									studentExternalId = student.getExternalUniqueId();
-								}
-								log.setStudent(studentExternalId);
-								log.setTimeStamp(new Date(q.getStartTime()));
-								if (q.hasResult())
-									log.setResult(q.getResult().getNumber());
-								if (q.hasUser() && q.getUser().hasExternalId())
-									log.setUser(q.getUser().getExternalId());
-								if (q.hasCpuTime())
-									log.setCpuTime(q.getCpuTime());
-								if (q.hasStartTime() && q.hasEndTime())
-									log.setWallTime(q.getEndTime() - q.getStartTime());
-								if (q.hasApiGetTime())
-									log.setApiGetTime(q.getApiGetTime());
-								if (q.hasApiPostTime())
-									log.setApiPostTime(q.getApiPostTime());
-								if (q.hasApiException())
-									log.setApiException(q.getApiException() != null && q.getApiException().length() > 255 ? q.getApiException().substring(0, 255) : q.getApiException());
-								try {
-									String message = getMessage(q);
-									if (message != null && !message.isEmpty())
-										log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
-								} catch (Exception e) {
-									if (!q.getMessageList().isEmpty()) {
-										String message = null; int level = 0;
-										for (OnlineSectioningLog.Message m: q.getMessageList()) {
-											if (message != null && !message.isEmpty() && (!m.hasLevel() || level > m.getLevel().getNumber())) continue;
-											if (m.hasText()) { message = m.getText(); level = m.getLevel().getNumber(); }
-											else if (m.hasException()) { message = m.getException(); level = m.getLevel().getNumber(); }
-										}
-										if (message != null && !message.isEmpty())
-											log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
-									}
-								}
-								Long sessionId = q.getSession().getUniqueId();
-								Session session = sessions.get(sessionId);
-								if (session == null) {
-									session = SessionDAO.getInstance().get(sessionId, hibSession);
-									sessions.put(sessionId, session);
-								}
-								log.setSession(session);
-								hibSession.persist(log);
-							}
-							hibSession.flush();
-						} finally {
-							hibSession.close();
-						}
+				if (!actionsToSave.isEmpty()) {
+					try {
+						persist(actionsToSave);
+					} catch (Throwable t) {
+						sLog.warn("Failed to save " + actionsToSave.size() + " log actions: " + t.getMessage(), t);
 					}
-				} catch (Throwable t) {
-					sLog.warn("Failed to save " + actionsToSave.size() + " log actions: " + t.getMessage(), t);
 				}
 				if (!iActive) break;
 			}
@@ -334,8 +332,140 @@ public class OnlineSectioningLogger extends Thread {
 			sLog.error("Online Sectioning Logger failed: " + t.getMessage(), t);
 		} finally {
 			iActive = false;
+			writeFile();
 			if (iOut != null) { iOut.flush(); iOut.close(); }
 		}
-		sLog.info("Online Sectioning Logger is down.");	}
+		sLog.info("Online Sectioning Logger is down.");
+	}
+	
+	protected void writeFile() {
+		if (iOut == null || iFileActions == null) return;
+		long dropped = iFileDropped.get();
+		if (dropped > iLastFileDropped) {
+			sLog.warn("The limit of " + iLogLimit + " unwritten log messages was reached, " + (dropped - iLastFileDropped) + " messages have not been written into the log file.");
+			iLastFileDropped = dropped;
+		}
+		OnlineSectioningLog.Action action = null;
+		boolean written = false;
+		while ((action = iFileActions.poll()) != null) {
+			iFileQueueSize.decrementAndGet();
+			iOut.print(OnlineSectioningLog.Log.newBuilder().addAction(action).build().toString());
+			written = true;
+		}
+		if (written) iOut.flush();
+	}
+	
+	/**
+	 * Lookup student external ids of the actions that do not have them, using a single query for each batch
+	 */
+	protected Map<Long, String> getStudentExternalIds(List<OnlineSectioningLog.Action> actions, org.hibernate.Session hibSession) {
+		Map<Long, String> externalIds = new HashMap<Long, String>();
+		List<Long> studentIds = new ArrayList<Long>();
+		for (OnlineSectioningLog.Action q: actions) {
+			String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
+			if ((studentExternalId == null || studentExternalId.isEmpty()) && q.getStudent().hasUniqueId())
+				studentIds.add(q.getStudent().getUniqueId());
+		}
+		for (int i = 0; i < studentIds.size(); i += 1000) {
+			List<Long> ids = studentIds.subList(i, Math.min(i + 1000, studentIds.size()));
+			for (Object[] o: hibSession.createQuery(
+					"select s.uniqueId, s.externalUniqueId from Student s where s.uniqueId in :ids", Object[].class)
+					.setParameterList("ids", ids, Long.class).list()) {
+				externalIds.put((Long)o[0], (String)o[1]);
+			}
+		}
+		return externalIds;
+	}
+	
+	/**
+	 * Persist the given actions. Each action is counted exactly once: as persisted (when flushed), as skipped (when the
+	 * student external id is not known), or as failed (when not flushed because of an error, the error is re-thrown).
+	 */
+	protected void persist(List<OnlineSectioningLog.Action> actionsToSave) {
+		sLog.debug("Persisting " + actionsToSave.size() + " actions...");
+		long dropped = iDropped.get();
+		if (dropped > iLastDropped) {
+			sLog.warn("The limit of " + iLogLimit + " unpersisted log messages was reached, " + (dropped - iLastDropped) + " messages have been dropped.");
+			iLastDropped = dropped;
+		}
+		int settled = 0; // actions that have been flushed or skipped
+		org.hibernate.Session hibSession = OnlineSectioningLogDAO.getInstance().createNewSession();
+		try {
+			hibSession.setCacheMode(CacheMode.IGNORE);
+			if (iBatchSize > 0)
+				hibSession.setJdbcBatchSize(Math.min(iBatchSize, 1000));
+			Map<Long, String> externalIds = getStudentExternalIds(actionsToSave, hibSession);
+			Map<Long, Session> sessions = new HashMap<Long, Session>();
+			int batch = 0;
+			for (OnlineSectioningLog.Action q: actionsToSave) {
+				org.unitime.timetable.model.OnlineSectioningLog log = new org.unitime.timetable.model.OnlineSectioningLog();
+				log.setAction(q.toByteArray());
+				log.setOperation(q.getOperation());
+				String studentExternalId = (q.getStudent().hasExternalId() ? q.getStudent().getExternalId() : null);
+				if (studentExternalId == null || studentExternalId.isEmpty()) {
+					studentExternalId = externalIds.get(q.getStudent().getUniqueId());
+					if (studentExternalId == null) {
+						iSkipped.incrementAndGet(); settled ++;
+						continue;
+					}
+				}
+				log.setStudent(studentExternalId);
+				log.setTimeStamp(new Date(q.getStartTime()));
+				if (q.hasResult())
+					log.setResult(q.getResult().getNumber());
+				if (q.hasUser() && q.getUser().hasExternalId())
+					log.setUser(q.getUser().getExternalId());
+				if (q.hasCpuTime())
+					log.setCpuTime(q.getCpuTime());
+				if (q.hasStartTime() && q.hasEndTime())
+					log.setWallTime(q.getEndTime() - q.getStartTime());
+				if (q.hasApiGetTime())
+					log.setApiGetTime(q.getApiGetTime());
+				if (q.hasApiPostTime())
+					log.setApiPostTime(q.getApiPostTime());
+				if (q.hasApiException())
+					log.setApiException(q.getApiException() != null && q.getApiException().length() > 255 ? q.getApiException().substring(0, 255) : q.getApiException());
+				try {
+					String message = getMessage(q);
+					if (message != null && !message.isEmpty())
+						log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
+				} catch (Exception e) {
+					if (!q.getMessageList().isEmpty()) {
+						String message = null; int level = 0;
+						for (OnlineSectioningLog.Message m: q.getMessageList()) {
+							if (message != null && !message.isEmpty() && (!m.hasLevel() || level > m.getLevel().getNumber())) continue;
+							if (m.hasText()) { message = m.getText(); level = m.getLevel().getNumber(); }
+							else if (m.hasException()) { message = m.getException(); level = m.getLevel().getNumber(); }
+						}
+						if (message != null && !message.isEmpty())
+							log.setMessage(message.length() > 255 ? message.substring(0, 252) + "..." : message);
+					}
+				}
+				Long sessionId = q.getSession().getUniqueId();
+				Session session = sessions.get(sessionId);
+				if (session == null) {
+					session = SessionDAO.getInstance().get(sessionId, hibSession);
+					sessions.put(sessionId, session);
+				}
+				log.setSession(session);
+				hibSession.persist(log);
+				batch ++;
+				if (iBatchSize > 0 && batch % iBatchSize == 0) {
+					hibSession.flush();
+					// do not keep the persisted records in the session
+					hibSession.clear();
+					sessions.clear();
+					iPersisted.addAndGet(batch); settled += batch; batch = 0;
+				}
+			}
+			hibSession.flush();
+			iPersisted.addAndGet(batch); settled += batch;
+		} finally {
+			// only the actions that have not been flushed (or skipped) are counted as failed
+			if (settled < actionsToSave.size())
+				iFailed.addAndGet(actionsToSave.size() - settled);
+			hibSession.close();
+		}
+	}
 
 }
@@ -0,0 +1,234 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Striped version of the {@link MultiLock}. The locked ids are split into a number of stripes,
+ * each with its own lock and condition, so that threads locking unrelated offerings and students
+ * do not contend on a single monitor. Stripes are always acquired in the ascending order, which
+ * prevents deadlocks between two threads locking overlapping sets of ids.
+ * <br>
+ * The {@link #lockAll()} is handled fairly: once there is a thread waiting for all the locks,
+ * no new individual locks are granted until the lock all is acquired and released again.
+ *
+ * @author Tomas Muller
+ */
+public class StripedMultiLock extends MultiLock {
+	private Stripe[] iStripes;
+	private ReentrantLock iGate = new ReentrantLock();
+	private Condition iGateChanged = iGate.newCondition();
+	private boolean iAllLocked = false;
+	private int iAllWaiting = 0;
+	private int iActive = 0;
+
+	public StripedMultiLock(int nrStripes) {
+		super();
+		iLog = LogFactory.getLog(StripedMultiLock.class.getName() + ".lock");
+		createStripes(nrStripes);
+	}
+
+	public StripedMultiLock(AcademicSessionInfo session, int nrStripes) {
+		super(session);
+		iLog = LogFactory.getLog(StripedMultiLock.class.getName() + ".lock[" + session.toCompactString() + "]");
+		createStripes(nrStripes);
+	}
+
+	private void createStripes(int nrStripes) {
+		iStripes = new Stripe[Math.max(1, nrStripes)];
+		for (int i = 0; i < iStripes.length; i++)
+			iStripes[i] = new Stripe();
+	}
+
+	public int getNrStripes() { return iStripes.length; }
+
+	protected int stripe(Long id) {
+		int h = id.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % iStripes.length;
+	}
+
+	/** Split the given ids by stripes, the stripes are ordered by their index */
+	protected Map<Integer, Set<Long>> split(Collection<Long> ids) {
+		Map<Integer, Set<Long>> ret = new TreeMap<Integer, Set<Long>>();
+		for (Long id: ids) {
+			Integer stripe = stripe(id);
+			Set<Long> set = ret.get(stripe);
+			if (set == null) {
+				set = new HashSet<Long>();
+				ret.put(stripe, set);
+			}
+			set.add(id);
+		}
+		return ret;
+	}
+
+	@Override
+	public UnlockAll lockAll() {
+		iGate.lock();
+		try {
+			iLog.debug("Locking all ...");
+			long t0 = System.nanoTime();
+			boolean contended = false;
+			iAllWaiting ++;
+			try {
+				while (iAllLocked) {
+					if (!contended) { contended = true; lockWaiting(); }
+					iGateChanged.awaitUninterruptibly();
+				}
+				iAllLocked = true;
+			} finally {
+				iAllWaiting --;
+			}
+			while (iActive > 0) {
+				if (!contended) { contended = true; lockWaiting(); }
+				iGateChanged.awaitUninterruptibly();
+			}
+			lockAcquired(contended, t0);
+			iLog.debug("Locked: all");
+			return new UnlockAll();
+		} finally {
+			iGate.unlock();
+		}
+	}
+
+	@Override
+	public void unlockAll() {
+		iGate.lock();
+		try {
+			iLog.debug("Unlocking all ...");
+			iAllLocked = false;
+			iGateChanged.signalAll();
+			lockReleased();
+			iLog.debug("Unlocked: all");
+		} finally {
+			iGate.unlock();
+		}
+	}
+
+	@Override
+	public Unlock lock(Collection<Long> ids) {
+		if (ids == null || ids.isEmpty()) return new Unlock(ids);
+		iLog.debug("Locking " + ids + " ...");
+		long t0 = System.nanoTime();
+		boolean contended = false;
+		iGate.lock();
+		try {
+			while (iAllLocked || iAllWaiting > 0) {
+				if (!contended) { contended = true; lockWaiting(); }
+				iGateChanged.awaitUninterruptibly();
+			}
+			iActive ++;
+		} finally {
+			iGate.unlock();
+		}
+		for (Map.Entry<Integer, Set<Long>> e: split(ids).entrySet()) {
+			Stripe stripe = iStripes[e.getKey()];
+			stripe.iLock.lock();
+			try {
+				while (!Collections.disjoint(stripe.iLocked, e.getValue())) {
+					if (!contended) { contended = true; lockWaiting(); }
+					stripe.iReleased.awaitUninterruptibly();
+				}
+				stripe.iLocked.addAll(e.getValue());
+			} finally {
+				stripe.iLock.unlock();
+			}
+		}
+		lockAcquired(contended, t0);
+		iLog.debug("Locked: " + ids);
+		return new Unlock(ids);
+	}
+
+	@Override
+	protected void unlock(Collection<Long> ids) {
+		if (ids == null || ids.isEmpty()) return;
+		iLog.debug("Unlocking " + ids + " ...");
+		for (Map.Entry<Integer, Set<Long>> e: split(ids).entrySet()) {
+			Stripe stripe = iStripes[e.getKey()];
+			stripe.iLock.lock();
+			try {
+				stripe.iLocked.removeAll(e.getValue());
+				stripe.iReleased.signalAll();
+			} finally {
+				stripe.iLock.unlock();
+			}
+		}
+		iGate.lock();
+		try {
+			iActive --;
+			if (iActive == 0 && (iAllLocked || iAllWaiting > 0))
+				iGateChanged.signalAll();
+		} finally {
+			iGate.unlock();
+		}
+		lockReleased();
+		iLog.debug("Unlocked: " + ids);
+	}
+
+	@Override
+	public Set<Long> locked() {
+		Set<Long> ret = new TreeSet<Long>();
+		for (Stripe stripe: iStripes) {
+			stripe.iLock.lock();
+			try {
+				ret.addAll(stripe.iLocked);
+			} finally {
+				stripe.iLock.unlock();
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public boolean isLocked(Long id) {
+		Stripe stripe = iStripes[stripe(id)];
+		stripe.iLock.lock();
+		try {
+			return stripe.iLocked.contains(id);
+		} finally {
+			stripe.iLock.unlock();
+		}
+	}
+
+	@Override
+	public Map<String, String> getStatistics() {
+		Map<String, String> stats = super.getStatistics();
+		stats.put("Lock.Stripes", String.valueOf(iStripes.length));
+		return stats;
+	}
+
+	private static class Stripe {
+		private ReentrantLock iLock = new ReentrantLock();
+		private Condition iReleased = iLock.newCondition();
+		private Set<Long> iLocked = new HashSet<Long>();
+	}
+}
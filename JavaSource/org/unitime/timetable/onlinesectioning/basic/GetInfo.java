@@ -68,6 +68,7 @@ import org.unitime.timetable.model.dao.StudentSectioningStatusDAO;
 import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningLogger;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.Lock;
 import org.unitime.timetable.onlinesectioning.match.AnyCourseMatcher;
@@ -98,6 +99,8 @@ import org.unitime.timetable.util.DateUtils;
 import org.unitime.timetable.onlinesectioning.model.XStudentId;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
 import org.unitime.timetable.onlinesectioning.model.XUniversalReservation;
+import org.unitime.timetable.onlinesectioning.server.AbstractLockingServer;
+import org.unitime.timetable.onlinesectioning.server.AbstractServer;
 
 /**
  * @author Tomas Muller
@@ -448,6 +451,13 @@ public class GetInfo implements OnlineSectioningAction<Map<String, String>>{
 		} finally {
 			lock.release();
 		}
+		if (server instanceof AbstractLockingServer)
+			info.putAll(((AbstractLockingServer)server).getLockStatistics());
+		if (server instanceof AbstractServer)
+			info.putAll(((AbstractServer)server).getExecutorStatistics());
+		OnlineSectioningLogger logger = OnlineSectioningLogger.getRunningInstance();
+		if (logger != null)
+			info.putAll(logger.getStatistics());
 		return info;		
 	}
 	
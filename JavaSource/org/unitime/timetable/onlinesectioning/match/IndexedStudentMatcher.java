@@ -0,0 +1,37 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.match;
+
+import java.util.Set;
+
+import org.unitime.timetable.onlinesectioning.server.StudentSearchIndex;
+
+/**
+ * Student matcher that can use the {@link StudentSearchIndex} to narrow down the students that need to be checked.
+ *
+ * @author Tomas Muller
+ */
+public interface IndexedStudentMatcher extends StudentMatcher {
+	/**
+	 * Students that may match (a super-set of the matching students, {@link #match(org.unitime.timetable.onlinesectioning.model.XStudentId)} is still called on each of them)
+	 * @return null when the index cannot be used and all the students need to be checked
+	 */
+	public Set<Long> getCandidates(StudentSearchIndex index);
+}
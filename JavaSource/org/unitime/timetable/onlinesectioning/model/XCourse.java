@@ -68,6 +68,7 @@ public class XCourse extends XCourseId {
     	super(course);
 		iNote = course.getScheduleBookNote();
 		iDepartment = (course.getSubjectArea().getDepartment().getDeptCode() == null ? course.getSubjectArea().getDepartment().getAbbreviation() : course.getSubjectArea().getDepartment().getDeptCode());
+		if (iDepartment != null) iDepartment = iDepartment.intern();
         boolean unlimited = false;
         iLimit = 0;
         for (InstrOfferingConfig config: course.getInstructionalOffering().getInstrOfferingConfigs()) {
@@ -160,8 +161,11 @@ public class XCourse extends XCourseId {
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		super.readExternal(in);
 		iDepartment = (String)in.readObject();
+		if (iDepartment != null) iDepartment = iDepartment.intern();
 		iConsentLabel = (String)in.readObject();
+		if (iConsentLabel != null) iConsentLabel = iConsentLabel.intern();
 		iConsentAbbv = (String)in.readObject();
+		if (iConsentAbbv != null) iConsentAbbv = iConsentAbbv.intern();
 		iNote = (String)in.readObject();
 		iDetails = (String)in.readObject();
 		iLimit = in.readInt();
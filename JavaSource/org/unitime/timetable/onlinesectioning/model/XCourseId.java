@@ -53,7 +53,7 @@ public class XCourseId implements Serializable, Comparable<XCourseId>, Externali
 	public XCourseId(CourseOffering course) {
 		iOfferingId = course.getInstructionalOffering().getUniqueId();
 		iCourseId = course.getUniqueId();
-		iSubjectArea = course.getSubjectAreaAbbv().trim();
+		iSubjectArea = course.getSubjectAreaAbbv().trim().intern();
 		iCourseNumber = course.getCourseNbr().trim();
 		iTitle = (course.getTitle() == null ? null : course.getTitle().trim());
 		iType = (course.getCourseType() == null ? null : course.getCourseType().getReference());
@@ -187,10 +187,12 @@ public class XCourseId implements Serializable, Comparable<XCourseId>, Externali
 		iOfferingId = in.readLong();
 		iCourseId = in.readLong();
 		iSubjectArea = (String)in.readObject();
+		if (iSubjectArea != null) iSubjectArea = iSubjectArea.intern();
 		iCourseNumber = (String)in.readObject();
 		iTitle = (String)in.readObject();
 		iHasUniqueName = in.readBoolean();
 		iType = (String)in.readObject();
+		if (iType != null) iType = iType.intern();
 	}
 
 	@Override
@@ -0,0 +1,212 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.model;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enrollment counts of an offering (per section, configuration, course and reservation, and the number of wait-listed
+ * requests per course). Unlike {@link XEnrollments}, the counts can be updated incrementally as course requests are
+ * added or removed, so that the server does not need to copy all the course requests of an offering to get them.
+ * <br>
+ * The contribution of each course request is recorded when the request is added, and the same contribution is removed
+ * when the request is removed (even when the request has been changed in the meantime). Updates are expected to be
+ * guarded by the server write lock, the counts can be read at any time.
+ *
+ * @author Tomas Muller
+ */
+public class XEnrollmentCounts implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private Long iOfferingId;
+	private Map<XCourseRequest, Contribution> iContributions = new ConcurrentHashMap<XCourseRequest, Contribution>();
+	private AtomicInteger iEnrollments = new AtomicInteger(0);
+	private Map<Long, AtomicInteger> iSection2Enrl = new ConcurrentHashMap<Long, AtomicInteger>();
+	private Map<Long, AtomicInteger> iConfig2Enrl = new ConcurrentHashMap<Long, AtomicInteger>();
+	private Map<Long, AtomicInteger> iCourse2Enrl = new ConcurrentHashMap<Long, AtomicInteger>();
+	private Map<Long, AtomicInteger> iReservation2Enrl = new ConcurrentHashMap<Long, AtomicInteger>();
+	private Map<Long, Map<Long, AtomicInteger>> iReservationConfig2Enrl = new ConcurrentHashMap<Long, Map<Long, AtomicInteger>>();
+	private Map<Long, AtomicInteger> iCourse2WaitListed = new ConcurrentHashMap<Long, AtomicInteger>();
+
+	public XEnrollmentCounts(Long offeringId) {
+		iOfferingId = offeringId;
+	}
+
+	public XEnrollmentCounts(Long offeringId, Collection<XCourseRequest> requests) {
+		this(offeringId);
+		if (requests != null)
+			for (XCourseRequest request: requests)
+				add(request);
+	}
+
+	/** Create a copy of the given counts, the copy is not affected by the later changes of the original counts */
+	public XEnrollmentCounts(XEnrollmentCounts counts) {
+		this(counts.getOfferingId());
+		for (Map.Entry<XCourseRequest, Contribution> e: counts.iContributions.entrySet()) {
+			iContributions.put(e.getKey(), e.getValue());
+			apply(e.getValue(), 1);
+		}
+	}
+
+	public Long getOfferingId() { return iOfferingId; }
+
+	/** Add a course request (replacing the previous version of the request, if present) */
+	public void add(XCourseRequest request) {
+		remove(request);
+		Contribution c = new Contribution(request);
+		if (c.isEmpty()) return;
+		iContributions.put(request, c);
+		apply(c, 1);
+	}
+
+	/** Remove a course request, using the counts recorded when the request was added */
+	public void remove(XCourseRequest request) {
+		Contribution c = iContributions.remove(request);
+		if (c != null) apply(c, -1);
+	}
+
+	/** Remove all course requests */
+	public void clear() {
+		iContributions.clear();
+		iEnrollments.set(0);
+		iSection2Enrl.clear();
+		iConfig2Enrl.clear();
+		iCourse2Enrl.clear();
+		iReservation2Enrl.clear();
+		iReservationConfig2Enrl.clear();
+		iCourse2WaitListed.clear();
+	}
+
+	public boolean isEmpty() {
+		return iContributions.isEmpty();
+	}
+
+	private static void inc(Map<Long, AtomicInteger> counts, Long id, int delta) {
+		AtomicInteger count = counts.get(id);
+		if (count == null) {
+			if (delta <= 0) return;
+			count = new AtomicInteger(0);
+			counts.put(id, count);
+		}
+		count.addAndGet(delta);
+	}
+
+	private static int get(Map<Long, AtomicInteger> counts, Long id) {
+		if (id == null) return 0;
+		AtomicInteger count = counts.get(id);
+		return count == null ? 0 : count.get();
+	}
+
+	private void apply(Contribution c, int delta) {
+		if (c.iCourseId != null) {
+			iEnrollments.addAndGet(delta);
+			inc(iCourse2Enrl, c.iCourseId, delta);
+			inc(iConfig2Enrl, c.iConfigId, delta);
+			for (Long sectionId: c.iSectionIds)
+				inc(iSection2Enrl, sectionId, delta);
+			if (c.iReservationId != null) {
+				inc(iReservation2Enrl, c.iReservationId, delta);
+				Map<Long, AtomicInteger> configs = iReservationConfig2Enrl.get(c.iReservationId);
+				if (configs == null) {
+					configs = new ConcurrentHashMap<Long, AtomicInteger>();
+					iReservationConfig2Enrl.put(c.iReservationId, configs);
+				}
+				inc(configs, c.iConfigId, delta);
+			}
+		}
+		if (c.iWaitListedCourseIds != null)
+			for (Long courseId: c.iWaitListedCourseIds)
+				inc(iCourse2WaitListed, courseId, delta);
+	}
+
+	public int countEnrollments() {
+		return iEnrollments.get();
+	}
+
+	public int countEnrollmentsForSection(Long sectionId) {
+		return get(iSection2Enrl, sectionId);
+	}
+
+	public int countEnrollmentsForConfig(Long configId) {
+		return get(iConfig2Enrl, configId);
+	}
+
+	public int countEnrollmentsForCourse(Long courseId) {
+		return get(iCourse2Enrl, courseId);
+	}
+
+	public int countEnrollmentsForReservation(Long reservationId) {
+		return get(iReservation2Enrl, reservationId);
+	}
+
+	public int countEnrollmentsForReservation(Long reservationId, Long configId) {
+		if (reservationId == null) return 0;
+		Map<Long, AtomicInteger> configs = iReservationConfig2Enrl.get(reservationId);
+		return configs == null ? 0 : get(configs, configId);
+	}
+
+	/** Number of course requests that are wait-listed (and not enrolled) for the given course */
+	public int countWaitListedForCourse(Long courseId) {
+		return get(iCourse2WaitListed, courseId);
+	}
+
+	@Override
+	public String toString() {
+		return "XEnrollmentCounts{offering=" + iOfferingId + ", enrollments=" + countEnrollments() + "}";
+	}
+
+	/** Counts contributed by a single course request */
+	private class Contribution implements Serializable {
+		private static final long serialVersionUID = 1L;
+		private Long iCourseId, iConfigId, iReservationId;
+		private Long[] iSectionIds;
+		private Long[] iWaitListedCourseIds;
+
+		Contribution(XCourseRequest request) {
+			XEnrollment enrollment = request.getEnrollment();
+			if (enrollment != null) {
+				if (enrollment.getOfferingId().equals(iOfferingId)) {
+					iCourseId = enrollment.getCourseId();
+					iConfigId = enrollment.getConfigId();
+					iSectionIds = enrollment.getSectionIds().toArray(new Long[enrollment.getSectionIds().size()]);
+					iReservationId = (enrollment.getReservation() == null ? null : enrollment.getReservation().getReservationId());
+				}
+			} else if (request.isWaitlist()) {
+				int count = 0;
+				for (XCourseId course: request.getCourseIds())
+					if (iOfferingId.equals(course.getOfferingId())) count ++;
+				if (count > 0) {
+					iWaitListedCourseIds = new Long[count];
+					int idx = 0;
+					for (XCourseId course: request.getCourseIds())
+						if (iOfferingId.equals(course.getOfferingId())) iWaitListedCourseIds[idx++] = course.getCourseId();
+				}
+			}
+		}
+
+		boolean isEmpty() {
+			return iCourseId == null && iWaitListedCourseIds == null;
+		}
+	}
+}
@@ -50,7 +50,7 @@ public class XRoom implements Serializable, Externalizable {
 	public XRoom(Location location) {
 		iUniqueId = location.getUniqueId();
 		iExternalId = location.getExternalUniqueId();
-		iName = location.getLabelWithDisplayName();
+		iName = location.getLabelWithDisplayName().intern();
 		iIgnoreTooFar = location.isIgnoreTooFar();
 		iX = location.getCoordinateX();
 		iY = location.getCoordinateY();
@@ -106,6 +106,7 @@ public class XRoom implements Serializable, Externalizable {
 	public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
 		iUniqueId = in.readLong();
 		iName = (String)in.readObject();
+		if (iName != null) iName = iName.intern();
 		iExternalId = (String)in.readObject();
 		iIgnoreTooFar = in.readBoolean();
 		if (in.readBoolean()) {
@@ -91,8 +91,8 @@ public class XSection implements Serializable, Comparable<XSection>, Externaliza
     	iUniqueId = clazz.getUniqueId();
     	iAllowOverlap = clazz.getSchedulingSubpart().isStudentAllowOverlap();
     	iName = (clazz.getClassSuffix() == null ? clazz.getSectionNumber(helper.getHibSession()) + clazz.getSchedulingSubpart().getSchedulingSubpartSuffix(helper.getHibSession()) : clazz.getClassSuffix());
-        iInstructionalType = clazz.getSchedulingSubpart().getItypeDesc();
-        iSubpartName = clazz.getSchedulingSubpart().getItype().getAbbv().trim();
+        iInstructionalType = clazz.getSchedulingSubpart().getItypeDesc().intern();
+        iSubpartName = clazz.getSchedulingSubpart().getItype().getAbbv().trim().intern();
     	Assignment assignment = clazz.getCommittedAssignment();
     	iEnabledForScheduling = clazz.isEnabledForStudentScheduling();
     	iCancelled = clazz.isCancelled();
@@ -753,7 +753,9 @@ public class XSection implements Serializable, Comparable<XSection>, Externaliza
 		
 		iAllowOverlap = in.readBoolean();
 		iInstructionalType = (String)in.readObject();
+		if (iInstructionalType != null) iInstructionalType = iInstructionalType.intern();
 		iSubpartName = (String)in.readObject();
+		if (iSubpartName != null) iSubpartName = iSubpartName.intern();
 		
 		iExternalId = (String)in.readObject();
 		int nrExtIds = in.readInt();
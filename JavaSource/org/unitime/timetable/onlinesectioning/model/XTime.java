@@ -77,6 +77,7 @@ public class XTime implements Serializable, Externalizable {
 		}
 		iDatePatternId = assignment.getDatePattern().getUniqueId();
 		iDatePatternName = datePatternName(assignment, datePatternFormat);
+		if (iDatePatternName != null) iDatePatternName = iDatePatternName.intern();
 		iWeeks = assignment.getDatePattern().getPatternBitSet();
 	}
 	
@@ -93,7 +94,7 @@ public class XTime implements Serializable, Externalizable {
     		Formats.Format<Date> dpf = Formats.getDateFormat(Formats.Pattern.DATE_PATTERN);
     		Date first = pattern.getStartDate();
     		Date last = pattern.getEndDate();
-    		iDatePatternName = dpf.format(first) + (first.equals(last) ? "" : " - " + dpf.format(last));
+    		iDatePatternName = (dpf.format(first) + (first.equals(last) ? "" : " - " + dpf.format(last))).intern();
     	}
 		iWeeks = pattern.getPatternBitSet();
 	}
@@ -453,6 +454,7 @@ public class XTime implements Serializable, Externalizable {
 		iDatePatternId = in.readLong();
 		if (iDatePatternId < 0) iDatePatternId = null;
 		iDatePatternName = (String)in.readObject();
+		if (iDatePatternName != null) iDatePatternName = iDatePatternName.intern();
 	}
 
 	@Override
@@ -21,6 +21,7 @@ package org.unitime.timetable.onlinesectioning.server;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Map;
@@ -32,6 +33,7 @@ import org.unitime.timetable.gwt.shared.SectioningException;
 import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
 import org.unitime.timetable.onlinesectioning.MultiLock;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
+import org.unitime.timetable.onlinesectioning.StripedMultiLock;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XRequest;
@@ -51,15 +53,32 @@ public abstract class AbstractLockingServer extends AbstractServer {
 	
 	protected AbstractLockingServer(AcademicSessionInfo session, boolean allowAsyncCalls) {
 		super(session, allowAsyncCalls);
-		iMultiLock = new MultiLock(getAcademicSession());
+		iMultiLock = createMultiLock();
 	}
 	
 	@Override
 	protected void load(OnlineSectioningServerContext context) {
-		iMultiLock = new MultiLock(getAcademicSession());
+		iMultiLock = createMultiLock();
 		super.load(context);
 	}
 	
+	/**
+	 * Create the lock used to lock offerings and students. Use the MultiLock.Striped parameter
+	 * to switch to the {@link StripedMultiLock} (with MultiLock.Stripes number of stripes).
+	 */
+	protected MultiLock createMultiLock() {
+		if (getConfig().getPropertyBoolean("MultiLock.Striped", false))
+			return new StripedMultiLock(getAcademicSession(), getConfig().getPropertyInt("MultiLock.Stripes", 64));
+		return new MultiLock(getAcademicSession());
+	}
+	
+	/**
+	 * Offering and student locking statistics
+	 */
+	public Map<String, String> getLockStatistics() {
+		return iMultiLock == null ? new HashMap<String, String>() : iMultiLock.getStatistics();
+	}
+	
 	@Override
 	public Lock readLock() {
 		if (iLock == null)
@@ -74,12 +93,33 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		};
 	}
 	
+	private void releaseWriteLock() {
+		try {
+			if (iLock.getWriteHoldCount() == 1) beforeWriteUnlock();
+		} finally {
+			iLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Called when the outermost write lock (see {@link #writeLock()} and {@link #lockAll()}) is about to be released,
+	 * while the lock is still held by the current thread.
+	 */
+	protected void beforeWriteUnlock() {}
+	
+	/**
+	 * Returns true if the write lock (see {@link #writeLock()} and {@link #lockAll()}) is held by the current thread.
+	 */
+	protected boolean isWriteLockedByCurrentThread() {
+		return iLock != null && iLock.isWriteLockedByCurrentThread();
+	}
+	
 	public Lock writeLockIfNotHeld() {
 		if (iLock == null || iLock.isWriteLockedByCurrentThread()) return null;
 		iLock.writeLock().lock();
 		return new Lock() {
 			public void release() {
-				iLock.writeLock().unlock();
+				releaseWriteLock();
 			}
 		};
 	}
@@ -93,7 +133,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		iLock.writeLock().lock();
 		return new Lock() {
 			public void release() {
-				iLock.writeLock().unlock();
+				releaseWriteLock();
 			}
 		};
 	}
@@ -107,7 +147,7 @@ public abstract class AbstractLockingServer extends AbstractServer {
 		iLock.writeLock().lock();
 		return new Lock() {
 			public void release() {
-				iLock.writeLock().unlock();
+				releaseWriteLock();
 			}
 		};
 	}
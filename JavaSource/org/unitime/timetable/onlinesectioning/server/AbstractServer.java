@@ -33,7 +33,6 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -47,7 +46,6 @@ import org.cpsolver.studentsct.online.expectations.AvoidUnbalancedWhenNoExpectat
 import org.cpsolver.studentsct.online.expectations.OverExpectedCriterion;
 import org.cpsolver.studentsct.online.selection.StudentSchedulingAssistantWeights;
 import org.hibernate.CacheMode;
-import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
@@ -82,6 +80,7 @@ import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XCredit;
 import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XEnrollmentCounts;
 import org.unitime.timetable.onlinesectioning.model.XEnrollments;
 import org.unitime.timetable.onlinesectioning.model.XOffering;
 import org.unitime.timetable.onlinesectioning.model.XRequest;
@@ -95,9 +94,9 @@ import org.unitime.timetable.onlinesectioning.model.XClassEnrollment;
 import org.unitime.timetable.onlinesectioning.updates.CheckAllOfferingsAction;
 import org.unitime.timetable.onlinesectioning.updates.PersistExpectedSpacesAction;
 import org.unitime.timetable.onlinesectioning.updates.ReloadAllData;
+import org.unitime.timetable.onlinesectioning.updates.RestoreSnapshotAction;
 import org.unitime.timetable.util.Constants;
 import org.unitime.timetable.util.DateUtils;
-import org.unitime.timetable.util.Formats;
 import org.unitime.timetable.util.MemoryCounter;
 
 /**
@@ -112,8 +111,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 	protected XSchedulingRules iRules = null;
 	private OnlineSectioningActionFactory iActionFactory = null;
 	
-	protected List<AsyncExecutor> iExecutors = new ArrayList<AsyncExecutor>();
-	private Queue<Runnable> iExecutorQueue = new LinkedList<Runnable>();
+	protected AsyncExecutorPool iExecutor = null;
 	private HashSet<CacheElement<Long>> iOfferingsToPersistExpectedSpaces = new HashSet<CacheElement<Long>>();
 	private static ThreadLocal<LinkedList<OnlineSectioningHelper>> sHelper = new ThreadLocal<LinkedList<OnlineSectioningHelper>>();
 	protected Map<String, Object> iProperties = new HashMap<String, Object>();
@@ -146,9 +144,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			AcademicSessionInfo academicSession = new AcademicSessionInfo(session);
 			iLog = LogFactory.getLog(OnlineSectioningServer.class.getName() + ".server[" + academicSession.toCompactString() + "]");
 			iProperties.put("AcademicSession", academicSession);
-			int asncPoolSize = ApplicationProperty.OnlineSchedulingServerAsyncPoolSize.intValue();
-			for (int i = 0; i < asncPoolSize; i++)
-				new AsyncExecutor(academicSession, 1 + i).start();
+			iExecutor = createExecutor(academicSession);
 		} finally {
 			hibSession.close();
 		}
@@ -175,11 +171,38 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		}
 		iLog = LogFactory.getLog(OnlineSectioningServer.class.getName() + ".server[" + session.toCompactString() + "]");
 		iProperties.put("AcademicSession", session);
-		if (allowAsyncCalls) {
-			int asncPoolSize = ApplicationProperty.OnlineSchedulingServerAsyncPoolSize.intValue();
-			for (int i = 0; i < asncPoolSize; i++)
-				new AsyncExecutor(session, 1 + i).start();
+		if (allowAsyncCalls)
+			iExecutor = createExecutor(session);
+	}
+	
+	protected AsyncExecutorPool createExecutor(AcademicSessionInfo session) {
+		int asncPoolSize = ApplicationProperty.OnlineSchedulingServerAsyncPoolSize.intValue();
+		if (asncPoolSize <= 0) return null;
+		return new AsyncExecutorPool(session, asncPoolSize,
+				ApplicationProperty.OnlineSchedulingServerAsyncQueueSize.intValue(),
+				ApplicationProperty.OnlineSchedulingServerAsyncVirtualThreads.isTrue());
+	}
+	
+	/**
+	 * Priority of an asynchronous action, using the [action class].Priority or [action name].Priority parameter
+	 */
+	protected AsyncExecutorPool.Priority getPriority(OnlineSectioningAction<?> action) {
+		String priority = getConfig().getProperty(action.getClass().getSimpleName() + ".Priority", getConfig().getProperty(action.name() + ".Priority"));
+		if (priority != null && !priority.isEmpty()) {
+			try {
+				return AsyncExecutorPool.Priority.valueOf(priority.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				iLog.warn("Unknown priority " + priority + " of action " + action.name() + ".");
+			}
 		}
+		return AsyncExecutorPool.Priority.NORMAL;
+	}
+	
+	/**
+	 * Asynchronous execution statistics
+	 */
+	public Map<String, String> getExecutorStatistics() {
+		return iExecutor == null ? new HashMap<String, String>() : iExecutor.getStatistics();
 	}
 	
 	protected void load(OnlineSectioningServerContext context) throws SectioningException {
@@ -188,6 +211,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		
 	protected void loadOnMaster(OnlineSectioningServerContext context) throws SectioningException {
 		try {
+			boolean reload = Boolean.TRUE.equals(getProperty("ReloadIsNeeded", Boolean.FALSE));
 			setProperty("ReloadIsNeeded", Boolean.FALSE);
 			final OnlineSectioningLog.Entity user = OnlineSectioningLog.Entity.newBuilder()
 					.setExternalId(StudentClassEnrollment.SystemChange.SYSTEM.name())
@@ -216,35 +240,27 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 					return;
 				}
 				setProperty("ReloadingAllData", Boolean.TRUE);
-				execute(createAction(ReloadAllData.class), user, new ServerCallback<Boolean>() {
-					@Override
-					public void onSuccess(Boolean result) {
-						if (getAcademicSession().isSectioningEnabled())
-							execute(createAction(CheckAllOfferingsAction.class), user, new ServerCallback<Boolean>() {
-								@Override
-								public void onSuccess(Boolean result) {
-									setProperty("ReloadingAllData", Boolean.FALSE);
-									setReady(true);
-									getMemUsage();
-								}
-								@Override
-								public void onFailure(Throwable exception) {
-									setProperty("ReloadingAllData", Boolean.FALSE);
-									iLog.error("Failed to check all offerings: " + exception.getMessage(), exception);
-								}
-							});
-						else {
-							setProperty("ReloadingAllData", Boolean.FALSE);
-							setReady(true);
-							getMemUsage();
+				if (!reload && ServerSnapshot.isEnabled(this)) {
+					execute(createAction(RestoreSnapshotAction.class), user, new ServerCallback<Boolean>() {
+						@Override
+						public void onSuccess(Boolean result) {
+							if (result) {
+								setProperty("ReloadingAllData", Boolean.FALSE);
+								setReady(true);
+								getMemUsage();
+							} else {
+								reloadAllData(user);
+							}
 						}
-					}
-					@Override
-					public void onFailure(Throwable exception) {
-						setProperty("ReloadingAllData", Boolean.FALSE);
-						iLog.error("Failed to load server: " + exception.getMessage(), exception);
-					}
-				});
+						@Override
+						public void onFailure(Throwable exception) {
+							iLog.error("Failed to restore server from snapshot: " + exception.getMessage(), exception);
+							reloadAllData(user);
+						}
+					});
+				} else {
+					reloadAllData(user);
+				}
 			}
 		} catch (Throwable t) {
 			if (t instanceof SectioningException) throw (SectioningException)t;
@@ -252,6 +268,38 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		}
 	}
 	
+	private void reloadAllData(final OnlineSectioningLog.Entity user) {
+		execute(createAction(ReloadAllData.class), user, new ServerCallback<Boolean>() {
+			@Override
+			public void onSuccess(Boolean result) {
+				if (getAcademicSession().isSectioningEnabled())
+					execute(createAction(CheckAllOfferingsAction.class), user, new ServerCallback<Boolean>() {
+						@Override
+						public void onSuccess(Boolean result) {
+							setProperty("ReloadingAllData", Boolean.FALSE);
+							setReady(true);
+							getMemUsage();
+						}
+						@Override
+						public void onFailure(Throwable exception) {
+							setProperty("ReloadingAllData", Boolean.FALSE);
+							iLog.error("Failed to check all offerings: " + exception.getMessage(), exception);
+						}
+					});
+				else {
+					setProperty("ReloadingAllData", Boolean.FALSE);
+					setReady(true);
+					getMemUsage();
+				}
+			}
+			@Override
+			public void onFailure(Throwable exception) {
+				setProperty("ReloadingAllData", Boolean.FALSE);
+				iLog.error("Failed to load server: " + exception.getMessage(), exception);
+			}
+		});
+	}
+	
 	@Override
 	public long getMemUsage() {
 		Runtime rt = Runtime.getRuntime();
@@ -473,7 +521,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 	
 	@Override
 	public <E> void execute(final OnlineSectioningAction<E> action, final OnlineSectioningLog.Entity user, final ServerCallback<E> callback) throws SectioningException {
-		if (iExecutors == null || iExecutors.isEmpty()) {
+		if (iExecutor == null) {
 			try {
 				callback.onSuccess(execute(action, user));
 			} catch (Throwable t) {
@@ -482,66 +530,18 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			return;
 		}
 		final String locale = Localization.getLocale();
-		synchronized (iExecutorQueue) {
-			iExecutorQueue.offer(new Runnable() {
-				@Override
-				public void run() {
-					Localization.setLocale(locale);
-					try {
-						callback.onSuccess(execute(action, user));
-					} catch (Throwable t) {
-						callback.onFailure(t);
-					}
-				}
-				
-				@Override
-				public String toString() {
-					return action.name();
-				}
-			});
-			iExecutorQueue.notify();
-		}
-	}
-	
-	public class AsyncExecutor extends Thread {
-		private boolean iStop = false;
-		private int iId;
-		
-		public AsyncExecutor(AcademicSessionInfo session, int id) {
-			iId = id;
-			setName("AsyncExecutor[" + session + "-" + id + "]");
-			setDaemon(true);
-			iExecutors.add(this);
-		}
-		
-		public void run() {
-			try {
-				ApplicationProperties.setSessionId(getAcademicSession().getUniqueId());
-				Runnable job;
-				while (!iStop) {
-					synchronized (iExecutorQueue) {
-						job = iExecutorQueue.poll();
-						if (job == null) {
-							try {
-								iLog.debug("Executor " + iId + " is waiting for a new job...");
-								iExecutorQueue.wait();
-							} catch (InterruptedException e) {}
-							continue;
-						}		
-					}
-					job.run();
-					if (HibernateUtil.closeCurrentThreadSessions())
-						iLog.debug("Job " + job + " did not close current-thread hibernate session.");
+		if (!iExecutor.execute(action.name(), getPriority(action), new Runnable() {
+			@Override
+			public void run() {
+				Localization.setLocale(locale);
+				try {
+					callback.onSuccess(execute(action, user));
+				} catch (Throwable t) {
+					callback.onFailure(t);
 				}
-				iLog.info("Executor " + iId + " stopped.");
-			} finally {
-				ApplicationProperties.setSessionId(null);
-				Localization.removeLocale();
-				Formats.removeFormats();
-				iExecutors.remove(this);
 			}
-		}
-		
+		}))
+			callback.onFailure(new SectioningException("Server is too busy, action " + action.name() + " has been rejected."));
 	}
 	
 	@Override
@@ -551,13 +551,8 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			iLog.info("There are " + offeringIds.size() + " offerings that need expected spaces persisted.");
 			execute(createAction(PersistExpectedSpacesAction.class).forOfferings(offeringIds), getSystemUser());
 		}
-		if (iExecutors != null) {
-			for (AsyncExecutor ex: iExecutors)
-				ex.iStop = true;
-			synchronized (iExecutorQueue) {
-				iExecutorQueue.notifyAll();
-			}
-		}
+		if (iExecutor != null)
+			iExecutor.shutdown();
 	}
 
 	@Override
@@ -696,6 +691,12 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 			setProperty("status-change.LockOfferings", "false");
 			setProperty("student-email.LockOfferings", "false");
 			setProperty("eligibility.LockOfferings", "false");
+			setProperty("check-offering.Priority", "HIGH");
+			setProperty("CheckAllOfferingsAction.Priority", "LOW");
+			setProperty("persist-expectations.Priority", "LOW");
+			setProperty("check-consistency.Priority", "LOW");
+			setProperty("expire-reservations.Priority", "LOW");
+			setProperty("reload-all.Priority", "LOW");
 			
 			org.hibernate.Session hibSession = SessionDAO.getInstance().createNewSession();
 			try {
@@ -754,6 +755,11 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 		return new XEnrollments(offeringId, getRequests(offeringId));
 	}
 
+	@Override
+	public XEnrollmentCounts getEnrollmentCounts(Long offeringId) {
+		return new XEnrollmentCounts(offeringId, getRequests(offeringId));
+	}
+
 	@Override
 	public <E> E getProperty(String name, E defaultValue) {
 		E ret = (E)iProperties.get(name);
@@ -848,7 +854,7 @@ public abstract class AbstractServer implements OnlineSectioningServer {
 				XEnrollment e = cr.getEnrollment();
 				if (e != null) {
 					XOffering offering = getOffering(e.getOfferingId());
-					XEnrollments enrl = getEnrollments(e.getOfferingId());
+					XEnrollmentCounts enrl = getEnrollmentCounts(e.getOfferingId());
 					for (XSection section: offering.getSections(e)) {
 						XClassEnrollment ce = new XClassEnrollment(e, section);
 						if (section.getParentId() != null)
@@ -0,0 +1,311 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
+import org.unitime.timetable.util.Formats;
+
+/**
+ * Executor of the asynchronous online sectioning actions (see {@link AbstractServer#execute(org.unitime.timetable.onlinesectioning.OnlineSectioningAction, org.unitime.timetable.onlinesectioning.OnlineSectioningLog.Entity, org.unitime.timetable.onlinesectioning.OnlineSectioningServer.ServerCallback)}).
+ * <br>
+ * Jobs are executed by a fixed pool of threads, ordered by their {@link Priority} and then by the time
+ * they were submitted. The number of waiting jobs is limited by the queue size. When the queue is full:<ul>
+ * <li>{@link Priority#LOW} (batch) jobs block the submitting thread until there is a room in the queue; when submitted
+ * by one of the executor threads (which cannot wait for the queue to drain), they are executed by the submitting thread,</li>
+ * <li>{@link Priority#HIGH} and {@link Priority#NORMAL} jobs are rejected (see {@link #execute(String, Priority, Runnable)}),
+ * they are never executed by the calling thread, as the caller may be holding a lock that the job needs (e.g., an enrollment
+ * submitting the check of an offering while holding the student lock).</li></ul>
+ * Queue time and run time statistics are kept for each action.
+ *
+ * @author Tomas Muller
+ */
+public class AsyncExecutorPool {
+	private Log iLog;
+	private AcademicSessionInfo iSession;
+	private ThreadPoolExecutor iExecutor;
+	private Semaphore iCapacity;
+	private AtomicLong iSequence = new AtomicLong(0);
+	private AtomicInteger iThreadId = new AtomicInteger(0);
+	private AtomicLong iRejected = new AtomicLong(0), iBlocked = new AtomicLong(0), iCallerRuns = new AtomicLong(0);
+	private volatile boolean iOverflowing = false;
+	private static ThreadLocal<AsyncExecutorPool> sCurrentPool = new ThreadLocal<AsyncExecutorPool>();
+	private Map<String, ActionStats> iStats = new HashMap<String, ActionStats>();
+	private boolean iVirtualThreads = false;
+
+	public static enum Priority {
+		/** Student facing actions */
+		HIGH,
+		/** Default priority */
+		NORMAL,
+		/** Batch actions, executed only when there are no other jobs waiting (the submitter waits when the queue is full) */
+		LOW,
+	}
+
+	public AsyncExecutorPool(AcademicSessionInfo session, int poolSize, int queueSize, boolean virtualThreads) {
+		iSession = session;
+		iLog = LogFactory.getLog(AsyncExecutorPool.class.getName() + "[" + session.toCompactString() + "]");
+		iCapacity = (queueSize <= 0 ? null : new Semaphore(queueSize));
+		ThreadFactory factory = null;
+		if (virtualThreads) {
+			factory = createVirtualThreadFactory();
+			iVirtualThreads = (factory != null);
+		}
+		if (factory == null)
+			factory = new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r);
+					thread.setName("AsyncExecutor[" + iSession + "]-" + iThreadId.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			};
+		final ThreadFactory threadFactory = factory;
+		iExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0l, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				return threadFactory.newThread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							sCurrentPool.set(AsyncExecutorPool.this);
+							ApplicationProperties.setSessionId(iSession.getUniqueId());
+							r.run();
+						} finally {
+							sCurrentPool.remove();
+							ApplicationProperties.setSessionId(null);
+							Localization.removeLocale();
+							Formats.removeFormats();
+						}
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Virtual threads are only available on Java 21 and newer, use reflection to create the thread factory.
+	 * Returns null when virtual threads are not available.
+	 */
+	protected ThreadFactory createVirtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "AsyncExecutor[" + iSession + "]-", 1l);
+			return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			iLog.warn("Virtual threads are not available (" + e.getMessage() + "), using platform threads instead.");
+			return null;
+		}
+	}
+
+	public boolean isVirtualThreads() { return iVirtualThreads; }
+
+	/**
+	 * Execute a job asynchronously. When the queue is full, a {@link Priority#LOW} job waits for a room in the queue
+	 * (or it is executed by the calling thread when called from one of the executor threads), other jobs are rejected.
+	 * Jobs submitted after the executor has been shut down are not executed.
+	 * @param name action name (used for the statistics)
+	 * @param priority job priority
+	 * @param job job to execute
+	 * @return false if the job has been rejected (queue is full or the executor has been shut down)
+	 */
+	public boolean execute(String name, Priority priority, Runnable job) {
+		if (iExecutor.isShutdown()) {
+			iLog.info("Executor has been shut down, job " + name + " will not be executed.");
+			return false;
+		}
+		Job j = new Job(name, priority, job);
+		if (iCapacity != null) {
+			if (iCapacity.tryAcquire()) {
+				j.iPermit = true;
+				iOverflowing = false;
+			} else if (j.iPriority != Priority.LOW) {
+				iRejected.incrementAndGet();
+				if (!iOverflowing) {
+					iOverflowing = true;
+					iLog.warn("Executor queue is full (" + getQueueSize() + " jobs waiting), rejecting " + name + ".");
+				}
+				return false;
+			} else if (sCurrentPool.get() == this) {
+				// executor thread cannot wait for the queue to drain -> execute the batch job right away
+				iCallerRuns.incrementAndGet();
+				j.run();
+				return true;
+			} else {
+				iBlocked.incrementAndGet();
+				try {
+					while (!iCapacity.tryAcquire(1, TimeUnit.SECONDS)) {
+						if (iExecutor.isShutdown()) {
+							iLog.info("Executor has been shut down, job " + name + " will not be executed.");
+							return false;
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					iLog.info("Interrupted while waiting for the executor queue, job " + name + " will not be executed.");
+					return false;
+				}
+				j.iPermit = true;
+			}
+		}
+		try {
+			iExecutor.execute(j);
+			return true;
+		} catch (RejectedExecutionException e) {
+			if (j.iPermit) iCapacity.release();
+			iLog.info("Executor has been shut down, job " + name + " will not be executed.");
+			return false;
+		}
+	}
+
+	/** Number of jobs waiting in the queue */
+	public int getQueueSize() {
+		return iExecutor.getQueue().size();
+	}
+
+	/** Number of jobs that are currently being executed */
+	public int getActiveCount() {
+		return iExecutor.getActiveCount();
+	}
+
+	/** Stop the executor, jobs that are still waiting in the queue are not executed */
+	public void shutdown() {
+		List<Runnable> pending = new ArrayList<Runnable>();
+		iExecutor.getQueue().drainTo(pending);
+		if (!pending.isEmpty())
+			iLog.info(pending.size() + " asynchronous jobs have not been executed: " + pending);
+		iExecutor.shutdown();
+	}
+
+	protected ActionStats getStats(String name) {
+		synchronized (iStats) {
+			ActionStats stats = iStats.get(name);
+			if (stats == null) {
+				stats = new ActionStats();
+				iStats.put(name, stats);
+			}
+			return stats;
+		}
+	}
+
+	/**
+	 * Executor statistics: queue length, active jobs, and average queue and run times for each action
+	 */
+	public Map<String, String> getStatistics() {
+		Map<String, String> ret = new TreeMap<String, String>();
+		DecimalFormat df = new DecimalFormat("0.00");
+		ret.put("Executor.PoolSize", String.valueOf(iExecutor.getCorePoolSize()) + (iVirtualThreads ? " (virtual)" : ""));
+		ret.put("Executor.Queued", String.valueOf(getQueueSize()));
+		ret.put("Executor.Active", String.valueOf(getActiveCount()));
+		ret.put("Executor.Rejected", String.valueOf(iRejected.get()));
+		ret.put("Executor.Blocked", String.valueOf(iBlocked.get()));
+		ret.put("Executor.CallerRuns", String.valueOf(iCallerRuns.get()));
+		synchronized (iStats) {
+			for (Map.Entry<String, ActionStats> e: iStats.entrySet()) {
+				ActionStats s = e.getValue();
+				long count = s.iCount.get();
+				if (count == 0) continue;
+				ret.put("Executor." + e.getKey(), count + " jobs, queue " + df.format(s.iQueueTime.get() / 1000000.0 / count) + " ms" +
+						" (max " + df.format(s.iMaxQueueTime.get() / 1000000.0) + " ms), run " + df.format(s.iRunTime.get() / 1000000.0 / count) + " ms");
+			}
+		}
+		return ret;
+	}
+
+	private static void max(AtomicLong max, long value) {
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value))
+			current = max.get();
+	}
+
+	private static class ActionStats {
+		private AtomicLong iCount = new AtomicLong(0);
+		private AtomicLong iQueueTime = new AtomicLong(0), iMaxQueueTime = new AtomicLong(0);
+		private AtomicLong iRunTime = new AtomicLong(0);
+	}
+
+	private class Job implements Runnable, Comparable<Job> {
+		private String iName;
+		private Priority iPriority;
+		private Runnable iJob;
+		private long iSequenceId;
+		private long iCreated;
+		private boolean iPermit = false;
+
+		private Job(String name, Priority priority, Runnable job) {
+			iName = name;
+			iPriority = (priority == null ? Priority.NORMAL : priority);
+			iJob = job;
+			iSequenceId = iSequence.incrementAndGet();
+			iCreated = System.nanoTime();
+		}
+
+		@Override
+		public void run() {
+			if (iPermit) { iPermit = false; iCapacity.release(); }
+			long t0 = System.nanoTime();
+			try {
+				iJob.run();
+			} finally {
+				long t1 = System.nanoTime();
+				ActionStats stats = getStats(iName);
+				stats.iCount.incrementAndGet();
+				stats.iQueueTime.addAndGet(t0 - iCreated);
+				max(stats.iMaxQueueTime, t0 - iCreated);
+				stats.iRunTime.addAndGet(t1 - t0);
+				if (HibernateUtil.closeCurrentThreadSessions())
+					iLog.debug("Job " + iName + " did not close current-thread hibernate session.");
+			}
+		}
+
+		@Override
+		public int compareTo(Job j) {
+			int cmp = iPriority.compareTo(j.iPriority);
+			if (cmp != 0) return cmp;
+			return Long.compare(iSequenceId, j.iSequenceId);
+		}
+
+		@Override
+		public String toString() {
+			return iName;
+		}
+	}
+}
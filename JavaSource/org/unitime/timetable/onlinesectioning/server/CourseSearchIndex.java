@@ -0,0 +1,149 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+
+/**
+ * Prefix index of courses used by {@link InMemoryServer#findCourses(String, Integer, org.unitime.timetable.onlinesectioning.match.CourseMatcher, java.util.Comparator)}.
+ * <br>
+ * Course names are indexed by all the strings that {@link XCourseId#matchCourseName(String)} checks with a prefix match
+ * (course name, course number, the part after the last dash, course name followed by the title), course titles
+ * are indexed by every word-starting suffix of the title (as used by {@link XCourseId#matchTitle(String)}).
+ * A lookup is then a range query on a sorted map, returning exactly the courses that would match
+ * without the need to iterate over all the courses.
+ * <br>
+ * The index is not thread safe, it is expected to be guarded by the server read / write locks.
+ *
+ * @author Tomas Muller
+ */
+public class CourseSearchIndex {
+	private NavigableMap<String, Set<XCourseId>> iNames = new TreeMap<String, Set<XCourseId>>();
+	private NavigableMap<String, Set<XCourseId>> iTitles = new TreeMap<String, Set<XCourseId>>();
+	private Map<Long, XCourseId> iCourses = new HashMap<Long, XCourseId>();
+
+	public CourseSearchIndex() {}
+
+	/** Course name keys, all lower cased, matching {@link XCourseId#matchCourseName(String)} */
+	protected Collection<String> getNameKeys(XCourseId course) {
+		Set<String> keys = new HashSet<String>();
+		String name = course.getCourseName().toLowerCase();
+		keys.add(name);
+		keys.add(course.getCourseNumber().toLowerCase());
+		if (name.indexOf('-') >= 0)
+			keys.add(name.substring(name.lastIndexOf('-') + 1).trim());
+		if (course.getTitle() != null) {
+			String title = course.getTitle().toLowerCase();
+			keys.add(name + " " + title);
+			keys.add(name + " - " + title);
+		}
+		return keys;
+	}
+
+	/** Course title keys, all lower cased, matching {@link XCourseId#matchTitle(String)} */
+	protected Collection<String> getTitleKeys(XCourseId course) {
+		Set<String> keys = new HashSet<String>();
+		if (course.getTitle() == null) return keys;
+		String title = course.getTitle().toLowerCase();
+		keys.add(title);
+		for (int idx = title.indexOf(' '); idx >= 0; idx = title.indexOf(' ', idx + 1))
+			keys.add(title.substring(idx + 1));
+		return keys;
+	}
+
+	private static void put(Map<String, Set<XCourseId>> index, String key, XCourseId course) {
+		Set<XCourseId> courses = index.get(key);
+		if (courses == null) {
+			courses = new HashSet<XCourseId>();
+			index.put(key, courses);
+		}
+		courses.add(course);
+	}
+
+	private static void remove(Map<String, Set<XCourseId>> index, String key, XCourseId course) {
+		Set<XCourseId> courses = index.get(key);
+		if (courses != null) {
+			courses.remove(course);
+			if (courses.isEmpty()) index.remove(key);
+		}
+	}
+
+	/** Add a course to the index (replacing the previous version of the course if present) */
+	public void add(XCourseId course) {
+		remove(course.getCourseId());
+		iCourses.put(course.getCourseId(), course);
+		for (String key: getNameKeys(course))
+			put(iNames, key, course);
+		for (String key: getTitleKeys(course))
+			put(iTitles, key, course);
+	}
+
+	/** Remove a course from the index */
+	public void remove(Long courseId) {
+		XCourseId course = iCourses.remove(courseId);
+		if (course == null) return;
+		for (String key: getNameKeys(course))
+			remove(iNames, key, course);
+		for (String key: getTitleKeys(course))
+			remove(iTitles, key, course);
+	}
+
+	/** Remove all courses from the index */
+	public void clear() {
+		iCourses.clear();
+		iNames.clear();
+		iTitles.clear();
+	}
+
+	public int size() {
+		return iCourses.size();
+	}
+
+	private static Collection<XCourseId> prefix(NavigableMap<String, Set<XCourseId>> index, String prefix, Set<XCourseId> exclude) {
+		Set<XCourseId> ret = new LinkedHashSet<XCourseId>();
+		for (Set<XCourseId> courses: index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values())
+			for (XCourseId course: courses)
+				if (exclude == null || !exclude.contains(course)) ret.add(course);
+		return ret;
+	}
+
+	/** Courses for which {@link XCourseId#matchCourseName(String)} is true */
+	public Collection<XCourseId> findCourseNames(String queryInLowerCase) {
+		if (queryInLowerCase.isEmpty()) return new ArrayList<XCourseId>(iCourses.values());
+		return prefix(iNames, queryInLowerCase, null);
+	}
+
+	/** Courses for which {@link XCourseId#matchTitle(String)} is true */
+	public Collection<XCourseId> findTitles(String queryInLowerCase) {
+		if (queryInLowerCase.isEmpty()) return new ArrayList<XCourseId>();
+		Set<XCourseId> names = new HashSet<XCourseId>(prefix(iNames, queryInLowerCase, null));
+		return prefix(iTitles, queryInLowerCase, names);
+	}
+}
@@ -21,39 +21,57 @@ package org.unitime.timetable.onlinesectioning.server;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.unitime.timetable.gwt.shared.SectioningException;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServerContext;
 import org.unitime.timetable.onlinesectioning.match.CourseMatcher;
+import org.unitime.timetable.onlinesectioning.match.IndexedStudentMatcher;
 import org.unitime.timetable.onlinesectioning.match.StudentMatcher;
 import org.unitime.timetable.onlinesectioning.model.XCourse;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XEnrollmentCounts;
 import org.unitime.timetable.onlinesectioning.model.XExpectations;
 import org.unitime.timetable.onlinesectioning.model.XOffering;
 import org.unitime.timetable.onlinesectioning.model.XRequest;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.solver.OfferingSkeletonCache;
 
 /**
+ * In-memory online student scheduling server.
+ * <br>
+ * When the InMemoryServer.CopyOnWrite parameter is set, the server also maintains a read view that is used by the
+ * lookups of students, offerings, courses, course requests, enrollment counts, and expectations without taking the
+ * read lock. Writers still use the write lock (and see their own changes), the course requests and enrollment counts of
+ * an offering are published as copies when the outermost write lock is released (so that the readers always see a
+ * consistent version of each offering). Published students and course requests are never changed, copies are made instead.
+ *
  * @author Tomas Muller
  */
 public class InMemoryServer extends AbstractLockingServer {
 	private Hashtable<Long, XCourseId> iCourseForId = new Hashtable<Long, XCourseId>();
 	private Hashtable<String, TreeSet<XCourseId>> iCourseForName = new Hashtable<String, TreeSet<XCourseId>>();
+	private CourseSearchIndex iCourseIndex = new CourseSearchIndex();
 	
 	private Hashtable<Long, XStudent> iStudentTable = new Hashtable<Long, XStudent>();
+	private StudentSearchIndex iStudentIndex = new StudentSearchIndex();
 	private Hashtable<String, XStudent> iStudentExtTable = new Hashtable<String, XStudent>();
 	private Hashtable<Long, XOffering> iOfferingTable = new Hashtable<Long, XOffering>();
 	private Hashtable<Long, List<XCourseRequest>> iOfferingRequests = new Hashtable<Long, List<XCourseRequest>>();
+	private Hashtable<Long, XEnrollmentCounts> iEnrollmentCounts = new Hashtable<Long, XEnrollmentCounts>();
 	private Hashtable<Long, XExpectations> iExpectations = new Hashtable<Long, XExpectations>();
 	private Hashtable<String, Set<Long>> iInstructedOfferings = new Hashtable<String, Set<Long>>();
+	private volatile ReadView iReadView;
 	
 	public InMemoryServer(OnlineSectioningServerContext context) throws SectioningException {
 		super(context);
@@ -71,12 +89,12 @@ public class InMemoryServer extends AbstractLockingServer {
 		try {
 			SubSet<XCourseId> ret = new SubSet<XCourseId>(limit, cmp);
 			String queryInLowerCase = query.toLowerCase();
-			for (XCourseId c : iCourseForId.values()) {
-				if (c.matchCourseName(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
+			for (XCourseId c : iCourseIndex.findCourseNames(queryInLowerCase)) {
+				if (matcher == null || matcher.match(c)) ret.add(c);
 			}
 			if (!ret.isLimitReached() && queryInLowerCase.length() > 2) {
-				for (XCourseId c : iCourseForId.values()) {
-					if (c.matchTitle(queryInLowerCase) && (matcher == null || matcher.match(c))) ret.add(c);
+				for (XCourseId c : iCourseIndex.findTitles(queryInLowerCase)) {
+					if (matcher == null || matcher.match(c)) ret.add(c);
 				}
 			}
 			return ret;
@@ -106,6 +124,16 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = readLock();
 		try {
 			List<XStudent> ret = new ArrayList<XStudent>();
+			if (matcher instanceof IndexedStudentMatcher) {
+				Set<Long> candidates = ((IndexedStudentMatcher)matcher).getCandidates(iStudentIndex);
+				if (candidates != null) {
+					for (Long studentId: candidates) {
+						XStudent s = iStudentTable.get(studentId);
+						if (s != null && matcher.match(s)) ret.add(s);
+					}
+					return ret;
+				}
+			}
 			for (XStudent s: iStudentTable.values())
 				if (matcher == null || matcher.match(s)) ret.add(s);
 			return ret;
@@ -144,6 +172,8 @@ public class InMemoryServer extends AbstractLockingServer {
 	
 	@Override
 	public XCourse getCourse(Long courseId) {
+		ReadView view = getReadView();
+		if (view != null) return toCourse(view.get(view.iCourses, courseId));
 		Lock lock = readLock();
 		try {
 			return toCourse(iCourseForId.get(courseId));
@@ -154,6 +184,8 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public XStudent getStudent(Long studentId) {
+		ReadView view = getReadView();
+		if (view != null) return view.get(view.iStudents, studentId);
 		Lock lock = readLock();
 		try {
 			return iStudentTable.get(studentId);
@@ -164,6 +196,8 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public XOffering getOffering(Long offeringId) {
+		ReadView view = getReadView();
+		if (view != null) return view.get(view.iOfferings, offeringId);
 		Lock lock = readLock();
 		try {
 			return iOfferingTable.get(offeringId);
@@ -174,6 +208,8 @@ public class InMemoryServer extends AbstractLockingServer {
 
 	@Override
 	public Collection<XCourseRequest> getRequests(Long offeringId) {
+		ReadView view = getReadView();
+		if (view != null) return view.get(view.iRequests, offeringId);
 		Lock lock = readLock();
 		try {
 			Collection<XCourseRequest> requests = iOfferingRequests.get(offeringId);
@@ -183,8 +219,57 @@ public class InMemoryServer extends AbstractLockingServer {
 		}		
 	}
 
+	@Override
+	public XEnrollmentCounts getEnrollmentCounts(Long offeringId) {
+		ReadView view = getReadView();
+		if (view != null) {
+			XEnrollmentCounts counts = view.get(view.iCounts, offeringId);
+			return counts == null ? new XEnrollmentCounts(offeringId) : counts;
+		}
+		Lock lock = readLock();
+		try {
+			XEnrollmentCounts counts = iEnrollmentCounts.get(offeringId);
+			return counts == null ? new XEnrollmentCounts(offeringId) : counts;
+		} finally {
+			lock.release();
+		}
+	}
+	
+	private void addOfferingRequest(Long offeringId, XCourseRequest request) {
+		List<XCourseRequest> requests = iOfferingRequests.get(offeringId);
+		if (requests == null) {
+			requests = new ArrayList<XCourseRequest>();
+			iOfferingRequests.put(offeringId, requests);
+		}
+		requests.add(request);
+		XEnrollmentCounts counts = iEnrollmentCounts.get(offeringId);
+		if (counts == null) {
+			counts = new XEnrollmentCounts(offeringId);
+			iEnrollmentCounts.put(offeringId, counts);
+		}
+		counts.add(request);
+		if (iReadView != null) iReadView.iDirtyOfferings.add(offeringId);
+	}
+	
+	private void removeOfferingRequest(Long offeringId, XCourseRequest request) {
+		List<XCourseRequest> requests = iOfferingRequests.get(offeringId);
+		if (requests != null && requests.remove(request) && requests.isEmpty())
+			iOfferingRequests.remove(offeringId);
+		XEnrollmentCounts counts = iEnrollmentCounts.get(offeringId);
+		if (counts != null) {
+			counts.remove(request);
+			if (counts.isEmpty()) iEnrollmentCounts.remove(offeringId);
+		}
+		if (iReadView != null) iReadView.iDirtyOfferings.add(offeringId);
+	}
+
 	@Override
 	public XExpectations getExpectations(Long offeringId) {
+		ReadView view = getReadView();
+		if (view != null) {
+			XExpectations expectations = view.get(view.iExpectations, offeringId);
+			return expectations == null ? new XExpectations(offeringId) : expectations;
+		}
 		Lock lock = readLock();
 		try {
 			XExpectations expectations = iExpectations.get(offeringId);
@@ -199,6 +284,7 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = writeLock();
 		try {
 			iExpectations.put(expectations.getOfferingId(), expectations);
+			if (iReadView != null) iReadView.iExpectations.put(expectations.getOfferingId(), expectations);
 		} finally {
 			lock.release();
 		}
@@ -209,15 +295,15 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = writeLock();
 		try {
 			XStudent oldStudent = iStudentTable.remove(student.getStudentId());
+			if (iReadView != null) iReadView.iStudents.remove(student.getStudentId());
+			iStudentIndex.remove(student.getStudentId());
 			if (oldStudent != null) {
 				if (oldStudent.getExternalId() != null && !oldStudent.getExternalId().isEmpty())
 					iStudentExtTable.remove(student.getExternalId());
 				for (XRequest request: oldStudent.getRequests())
 					if (request instanceof XCourseRequest)
-						for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
-							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-							if (requests != null) requests.remove(request);
-						}
+						for (XCourseId course: ((XCourseRequest)request).getCourseIds())
+							removeOfferingRequest(course.getOfferingId(), (XCourseRequest)request);
 			}
 		} finally {
 			lock.release();
@@ -229,6 +315,8 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = writeLock();
 		try {
 			XStudent oldStudent = iStudentTable.put(student.getStudentId(), student);
+			if (iReadView != null) iReadView.iStudents.put(student.getStudentId(), student);
+			iStudentIndex.update(student);
 			if (oldStudent != null && oldStudent.getExternalId() != null && !oldStudent.getExternalId().isEmpty() && !oldStudent.getExternalId().equals(student.getExternalId()))
 				iStudentExtTable.remove(oldStudent.getExternalId());
 			if (student.getExternalId() != null && !student.getExternalId().isEmpty())
@@ -237,22 +325,15 @@ public class InMemoryServer extends AbstractLockingServer {
 				if (oldStudent != null) {
 					for (XRequest request: oldStudent.getRequests())
 						if (request instanceof XCourseRequest)
-							for (XCourseId course: ((XCourseRequest)request).getCourseIds()) {
-								List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-								if (requests != null) requests.remove(request);
-							}
+							for (XCourseId course: ((XCourseRequest)request).getCourseIds())
+								removeOfferingRequest(course.getOfferingId(), (XCourseRequest)request);
 				}
 				for (XRequest request: student.getRequests())
 					if (request instanceof XCourseRequest) {
 						XCourseRequest cr = (XCourseRequest)request;
 						for (XCourseId course: cr.getCourseIds()) {
 							if (cr.isDuplicateOffering(course)) continue;
-							List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-							if (requests == null) {
-								requests = new ArrayList<XCourseRequest>();
-								iOfferingRequests.put(course.getOfferingId(), requests);
-							}
-							requests.add((XCourseRequest)request);
+							addOfferingRequest(course.getOfferingId(), (XCourseRequest)request);
 						}
 					}
 			}
@@ -271,6 +352,8 @@ public class InMemoryServer extends AbstractLockingServer {
 		try {
 			for (XCourse course: offering.getCourses()) {
 				iCourseForId.remove(course.getCourseId());
+				if (iReadView != null) iReadView.iCourses.remove(course.getCourseId());
+				iCourseIndex.remove(course.getCourseId());
 				TreeSet<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
 				if (courses != null) {
 					courses.remove(course);
@@ -281,8 +364,14 @@ public class InMemoryServer extends AbstractLockingServer {
 				}
 			}
 			iOfferingTable.remove(offering.getOfferingId());
+			OfferingSkeletonCache.invalidate(offering.getOfferingId());
 			if (removeExpectations)
 				iExpectations.remove(offering.getOfferingId());
+			if (iReadView != null) {
+				iReadView.iOfferings.remove(offering.getOfferingId());
+				if (removeExpectations)
+					iReadView.iExpectations.remove(offering.getOfferingId());
+			}
 			for (String externalId: offering.getInstructorExternalIds()) {
 				Set<Long> offeringIds = iInstructedOfferings.get(externalId);
 				if (offeringIds != null) offeringIds.remove(offering.getOfferingId());
@@ -301,8 +390,11 @@ public class InMemoryServer extends AbstractLockingServer {
 				remove(oldOffering, false);
 			
 			iOfferingTable.put(offering.getOfferingId(), offering);
+			if (iReadView != null) iReadView.iOfferings.put(offering.getOfferingId(), offering);
 			for (XCourse course: offering.getCourses()) {
 				iCourseForId.put(course.getCourseId(), course);
+				if (iReadView != null) iReadView.iCourses.put(course.getCourseId(), course);
+				iCourseIndex.add(course);
 				TreeSet<XCourseId> courses = iCourseForName.get(course.getCourseNameInLowerCase());
 				if (courses == null) {
 					courses = new TreeSet<XCourseId>();
@@ -335,6 +427,10 @@ public class InMemoryServer extends AbstractLockingServer {
 				iStudentTable = new Hashtable<Long, XStudent>();
 			else
 				iStudentTable.clear();
+			if (iStudentIndex == null)
+				iStudentIndex = new StudentSearchIndex();
+			else
+				iStudentIndex.clear();
 			if (iStudentExtTable == null)
 				iStudentExtTable = new Hashtable<String, XStudent>();
 			else
@@ -347,6 +443,10 @@ public class InMemoryServer extends AbstractLockingServer {
 				iOfferingRequests = new Hashtable<Long, List<XCourseRequest>>();
 			else
 				iOfferingRequests.clear();
+			if (iEnrollmentCounts == null)
+				iEnrollmentCounts = new Hashtable<Long, XEnrollmentCounts>();
+			else
+				iEnrollmentCounts.clear();
 			if (iExpectations == null)
 				iExpectations = new Hashtable<Long, XExpectations>();
 			else
@@ -359,10 +459,15 @@ public class InMemoryServer extends AbstractLockingServer {
 				iCourseForName = new Hashtable<String, TreeSet<XCourseId>>();
 			else
 				iCourseForName.clear();
+			if (iCourseIndex == null)
+				iCourseIndex = new CourseSearchIndex();
+			else
+				iCourseIndex.clear();
 			if (iInstructedOfferings == null)
 				iInstructedOfferings = new Hashtable<String, Set<Long>>();
 			else
 				iInstructedOfferings.clear();
+			iReadView = (getConfig().getPropertyBoolean("InMemoryServer.CopyOnWrite", false) ? new ReadView() : null);
 		} finally {
 			lock.release();
 		}
@@ -373,8 +478,16 @@ public class InMemoryServer extends AbstractLockingServer {
 		Lock lock = writeLock();
 		try {
 			iStudentTable.clear();
+			iStudentIndex.clear();
 			iStudentExtTable.clear();
 			iOfferingRequests.clear();
+			iEnrollmentCounts.clear();
+			if (iReadView != null) {
+				iReadView.iStudents.clear();
+				iReadView.iRequests.clear();
+				iReadView.iCounts.clear();
+				iReadView.iDirtyOfferings.clear();
+			}
 		} finally {
 			lock.release();
 		}
@@ -391,22 +504,17 @@ public class InMemoryServer extends AbstractLockingServer {
 
 					// remove old requests
 					for (XCourseId course: cr.getCourseIds()) {
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests != null) requests.remove(cr);
+						removeOfferingRequest(course.getOfferingId(), cr);
 					}
 
 					// assign
+					cr = copyOnWrite(student, cr);
 					cr.setEnrollment(enrollment);
 					
 					// put new requests
 					for (XCourseId course: cr.getCourseIds()) {
 						if (cr.isDuplicateOffering(course)) continue;
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests == null) {
-							requests = new ArrayList<XCourseRequest>();
-							iOfferingRequests.put(course.getOfferingId(), requests);
-						}
-						requests.add(cr);
+						addOfferingRequest(course.getOfferingId(), cr);
 					}
 					
 					return cr;
@@ -429,11 +537,11 @@ public class InMemoryServer extends AbstractLockingServer {
 
 					// remove old requests
 					for (XCourseId course: cr.getCourseIds()) {
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests != null) requests.remove(cr);
+						removeOfferingRequest(course.getOfferingId(), cr);
 					}
 
 					// assign
+					cr = copyOnWrite(student, cr);
 					cr.setWaitlist(waitlist);
 					cr.setWaitListedTimeStamp(request.getWaitListedTimeStamp());
 					cr.setWaitListSwapWithCourseOffering(request.getWaitListSwapWithCourseOffering());
@@ -441,12 +549,7 @@ public class InMemoryServer extends AbstractLockingServer {
 					// put new requests
 					for (XCourseId course: cr.getCourseIds()) {
 						if (cr.isDuplicateOffering(course)) continue;
-						List<XCourseRequest> requests = iOfferingRequests.get(course.getOfferingId());
-						if (requests == null) {
-							requests = new ArrayList<XCourseRequest>();
-							iOfferingRequests.put(course.getOfferingId(), requests);
-						}
-						requests.add(cr);
+						addOfferingRequest(course.getOfferingId(), cr);
 					}
 					
 					return cr;
@@ -470,6 +573,11 @@ public class InMemoryServer extends AbstractLockingServer {
 	
 	@Override
 	public Set<Long> getRequestedCourseIds(Long studentId) {
+		ReadView view = getReadView();
+		if (view != null) {
+			XStudent student = view.get(view.iStudents, studentId);
+			return (student == null ? null : student.getRequestedCourseIds());
+		}
 		Lock lock = readLock();
 		try {
 			XStudent student = iStudentTable.get(studentId);
@@ -489,4 +597,68 @@ public class InMemoryServer extends AbstractLockingServer {
 			lock.release();
 		}
 	}
+
+	/**
+	 * Read view to be used by the lookups, null when the server is not in the copy-on-write mode or when the current
+	 * thread holds the write lock (the view may not contain the changes made under the lock yet).
+	 */
+	private ReadView getReadView() {
+		ReadView view = iReadView;
+		return (view == null || isWriteLockedByCurrentThread() ? null : view);
+	}
+	
+	/**
+	 * In the copy-on-write mode, the published course requests (and students) are never changed. The given student
+	 * is replaced by its copy with the given course request replaced by its copy, which is returned to be updated.
+	 */
+	private XCourseRequest copyOnWrite(XStudent student, XCourseRequest request) {
+		if (iReadView == null) return request;
+		XCourseRequest requestCopy = new XCourseRequest(request, request.getEnrollment());
+		requestCopy.setWaitListSwapWithCourseOffering(request.getWaitListSwapWithCourseOffering());
+		XStudent studentCopy = new XStudent(student);
+		studentCopy.getRequests().set(studentCopy.getRequests().indexOf(request), requestCopy);
+		iStudentTable.put(studentCopy.getStudentId(), studentCopy);
+		iReadView.iStudents.put(studentCopy.getStudentId(), studentCopy);
+		if (studentCopy.getExternalId() != null && !studentCopy.getExternalId().isEmpty())
+			iStudentExtTable.put(studentCopy.getExternalId(), studentCopy);
+		return requestCopy;
+	}
+
+	@Override
+	protected void beforeWriteUnlock() {
+		ReadView view = iReadView;
+		if (view == null || view.iDirtyOfferings.isEmpty()) return;
+		for (Long offeringId: view.iDirtyOfferings) {
+			List<XCourseRequest> requests = iOfferingRequests.get(offeringId);
+			if (requests == null)
+				view.iRequests.remove(offeringId);
+			else
+				view.iRequests.put(offeringId, Collections.unmodifiableList(new ArrayList<XCourseRequest>(requests)));
+			XEnrollmentCounts counts = iEnrollmentCounts.get(offeringId);
+			if (counts == null)
+				view.iCounts.remove(offeringId);
+			else
+				view.iCounts.put(offeringId, new XEnrollmentCounts(counts));
+		}
+		view.iDirtyOfferings.clear();
+	}
+	
+	/**
+	 * Read view of the server tables that is used by the lookups when the server is in the copy-on-write mode.
+	 * The maps can be read without locking, they are only updated under the write lock. The course requests and
+	 * enrollment counts of an offering are never changed once published, new copies are published instead.
+	 */
+	private static class ReadView {
+		private Map<Long, XStudent> iStudents = new ConcurrentHashMap<Long, XStudent>();
+		private Map<Long, XOffering> iOfferings = new ConcurrentHashMap<Long, XOffering>();
+		private Map<Long, XCourseId> iCourses = new ConcurrentHashMap<Long, XCourseId>();
+		private Map<Long, List<XCourseRequest>> iRequests = new ConcurrentHashMap<Long, List<XCourseRequest>>();
+		private Map<Long, XEnrollmentCounts> iCounts = new ConcurrentHashMap<Long, XEnrollmentCounts>();
+		private Map<Long, XExpectations> iExpectations = new ConcurrentHashMap<Long, XExpectations>();
+		private Set<Long> iDirtyOfferings = new HashSet<Long>();
+		
+		private <V> V get(Map<Long, V> map, Long id) {
+			return id == null ? null : map.get(id);
+		}
+	}
 }
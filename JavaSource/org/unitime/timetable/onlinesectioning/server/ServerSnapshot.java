@@ -0,0 +1,281 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.dao.SessionDAO;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.Lock;
+import org.unitime.timetable.onlinesectioning.match.AnyCourseMatcher;
+import org.unitime.timetable.onlinesectioning.match.AnyStudentMatcher;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XExpectations;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.onlinesectioning.model.XStudentId;
+import org.unitime.timetable.util.Constants;
+
+/**
+ * Binary snapshot of the online student scheduling server. The snapshot contains all the offerings (including
+ * their reservations and restrictions), students (including their requests and enrollments) and expectations,
+ * written using their {@link java.io.Externalizable} implementations into a compressed file in the snapshot folder.
+ * <br>
+ * The snapshot also records the time stamp of the last processed student sectioning queue item, so that when
+ * the server is started from the snapshot, only the queue changes made after the snapshot need to be replayed.
+ * A snapshot is only used when it was created by the same version of UniTime (and the same snapshot format)
+ * and it is not older than the maximal age (see {@link ApplicationProperty#OnlineSchedulingServerSnapshotMaxAge}).
+ * <br>
+ * Since enrollment changes made directly by the server (e.g., student enrollments) are not recorded in the
+ * student sectioning queue, the snapshot also records the state of the student enrollments and course requests
+ * in the database (see {@link #getDatabaseState(org.hibernate.Session, Long)}). A snapshot is ignored when the
+ * database state has changed since the snapshot was written, so a periodic snapshot (see
+ * {@link ApplicationProperty#OnlineSchedulingServerSnapshotInterval}) is only used when the server made no changes
+ * after it. Changes that update a row in place without changing any of its time stamps are not detected.
+ * The snapshot is deleted once read.
+ *
+ * @author Tomas Muller
+ */
+public class ServerSnapshot {
+	private static Log sLog = LogFactory.getLog(ServerSnapshot.class);
+	private static final String MAGIC = "UniTime Online Student Scheduling Snapshot";
+	private static final int VERSION = 2;
+
+	/** Snapshots are only supported by the {@link InMemoryServer} (when enabled) */
+	public static boolean isEnabled(OnlineSectioningServer server) {
+		return server instanceof InMemoryServer && ApplicationProperty.OnlineSchedulingServerSnapshot.isTrue();
+	}
+
+	public static File getSnapshotFile(Long sessionId) {
+		return new File(ApplicationProperties.getSnapshotFolder(), "server-" + sessionId + ".snapshot");
+	}
+
+	/**
+	 * State of the student class enrollments, course demands, and course requests of an academic session in the database:
+	 * the number of rows, the last unique id, and the last time stamps of each table. Unlike the time of the last change,
+	 * the state also changes when a row is deleted, and it does not need to be compared with the clock of the server that
+	 * wrote the snapshot.
+	 */
+	public static long[] getDatabaseState(org.hibernate.Session hibSession, Long sessionId) {
+		List<Long> state = new ArrayList<Long>();
+		for (String query: new String[] {
+				"select count(e), max(e.uniqueId), max(e.timestamp), max(e.approvedDate) from StudentClassEnrollment e where e.student.session.uniqueId = :sessionId",
+				"select count(d), max(d.uniqueId), max(d.timestamp), max(d.waitlistedTimeStamp) from CourseDemand d where d.student.session.uniqueId = :sessionId",
+				"select count(r), max(r.uniqueId), max(r.overrideTimeStamp) from CourseRequest r where r.courseDemand.student.session.uniqueId = :sessionId"
+			}) {
+			Object[] o = hibSession.createQuery(query, Object[].class).setParameter("sessionId", sessionId).uniqueResult();
+			for (Object value: o) {
+				if (value == null)
+					state.add(-1l);
+				else if (value instanceof Date)
+					state.add(((Date)value).getTime());
+				else
+					state.add(((Number)value).longValue());
+			}
+		}
+		long[] ret = new long[state.size()];
+		for (int i = 0; i < ret.length; i++) ret[i] = state.get(i);
+		return ret;
+	}
+
+	/**
+	 * Save server snapshot. The server is locked for writing (see {@link OnlineSectioningServer#lockAll()}) while the snapshot is being written.
+	 * @param server online scheduling server
+	 * @param queueTimeStamp time stamp of the last processed student sectioning queue item (the server property Updater.LastTimeStamp is used when set)
+	 * @return true if the snapshot was written
+	 */
+	public static boolean save(OnlineSectioningServer server, Date queueTimeStamp) {
+		if (!isEnabled(server) || !server.isReady()) return false;
+		Long sessionId = server.getAcademicSession().getUniqueId();
+		File file = getSnapshotFile(sessionId);
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		long t0 = System.currentTimeMillis();
+		Lock lock = server.lockAll();
+		try {
+			Date ts = server.getProperty("Updater.LastTimeStamp", queueTimeStamp);
+			if (ts == null) ts = new Date(t0);
+			long[] state;
+			org.hibernate.Session hibSession = SessionDAO.getInstance().createNewSession();
+			try {
+				state = getDatabaseState(hibSession, sessionId);
+			} finally {
+				hibSession.close();
+			}
+
+			Set<Long> offeringIds = new LinkedHashSet<Long>();
+			for (XCourseId course: server.findCourses(new AnyCourseMatcher()))
+				offeringIds.add(course.getOfferingId());
+			List<XOffering> offerings = new ArrayList<XOffering>(offeringIds.size());
+			List<XExpectations> expectations = new ArrayList<XExpectations>(offeringIds.size());
+			for (Long offeringId: offeringIds) {
+				XOffering offering = server.getOffering(offeringId);
+				if (offering == null) continue;
+				offerings.add(offering);
+				XExpectations expectation = server.getExpectations(offeringId);
+				if (expectation != null && expectation.hasExpectations())
+					expectations.add(expectation);
+			}
+			List<XStudent> students = new ArrayList<XStudent>();
+			for (XStudentId student: server.findStudents(new AnyStudentMatcher()))
+				if (student instanceof XStudent) students.add((XStudent)student);
+
+			ObjectOutputStream out = new ObjectOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536)));
+			try {
+				out.writeUTF(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(Constants.getVersion());
+				out.writeLong(sessionId);
+				out.writeLong(t0);
+				out.writeLong(ts.getTime());
+				out.writeInt(state.length);
+				for (long s: state)
+					out.writeLong(s);
+
+				out.writeInt(offerings.size());
+				for (XOffering offering: offerings)
+					offering.writeExternal(out);
+				out.writeInt(students.size());
+				for (XStudent student: students)
+					student.writeExternal(out);
+				out.writeInt(expectations.size());
+				for (XExpectations expectation: expectations)
+					expectation.writeExternal(out);
+
+				out.writeUTF(MAGIC);
+				out.flush();
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			sLog.info("Snapshot of " + server.getAcademicSession() + " saved in " + new DecimalFormat("0.00").format((System.currentTimeMillis() - t0) / 1000.0) + " s (" +
+					offerings.size() + " offerings, " + students.size() + " students, " + new DecimalFormat("#,##0.0").format(file.length() / 1024.0) + " kB).");
+			return true;
+		} catch (Exception e) {
+			sLog.error("Failed to save snapshot of " + server.getAcademicSession() + ": " + e.getMessage(), e);
+			temp.delete();
+			return false;
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Load server snapshot. The server must be locked (see {@link OnlineSectioningServer#lockAll()}) and empty.
+	 * The snapshot file is deleted afterwards, so that the same snapshot is never used twice.
+	 * @param server online scheduling server
+	 * @param databaseState current state of the database (see {@link #getDatabaseState(org.hibernate.Session, Long)}), the snapshot is ignored when it does not match
+	 * @return time stamp of the last student sectioning queue item included in the snapshot, null if there is no (valid) snapshot
+	 * @throws IOException when the snapshot cannot be read (the server may be partially loaded)
+	 */
+	public static Date load(OnlineSectioningServer server, long[] databaseState) throws IOException, ClassNotFoundException {
+		if (!isEnabled(server)) return null;
+		Long sessionId = server.getAcademicSession().getUniqueId();
+		File file = getSnapshotFile(sessionId);
+		if (!file.exists()) return null;
+		long t0 = System.currentTimeMillis();
+		try {
+			return load(server, file, databaseState, t0);
+		} finally {
+			if (!file.delete())
+				sLog.warn("Failed to delete snapshot " + file + ".");
+		}
+	}
+	
+	private static Date load(OnlineSectioningServer server, File file, long[] databaseState, long t0) throws IOException, ClassNotFoundException {
+		Long sessionId = server.getAcademicSession().getUniqueId();
+		ObjectInputStream in = new ObjectInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 65536)));
+		try {
+			if (!MAGIC.equals(in.readUTF())) {
+				sLog.warn("Snapshot " + file + " is not valid.");
+				return null;
+			}
+			int version = in.readInt();
+			String unitimeVersion = in.readUTF();
+			if (version != VERSION || !Constants.getVersion().equals(unitimeVersion)) {
+				sLog.info("Snapshot " + file + " was created by a different version (" + unitimeVersion + "), ignoring it.");
+				return null;
+			}
+			if (sessionId != in.readLong()) {
+				sLog.warn("Snapshot " + file + " belongs to a different academic session.");
+				return null;
+			}
+			Date created = new Date(in.readLong());
+			Date ts = new Date(in.readLong());
+			long[] state = new long[in.readInt()];
+			for (int i = 0; i < state.length; i++)
+				state[i] = in.readLong();
+			int maxAge = ApplicationProperty.OnlineSchedulingServerSnapshotMaxAge.intValue();
+			if (maxAge > 0 && t0 - created.getTime() > 3600000l * maxAge) {
+				sLog.info("Snapshot " + file + " is too old (created on " + created + "), ignoring it.");
+				return null;
+			}
+			if (databaseState != null && !Arrays.equals(state, databaseState)) {
+				sLog.info("Snapshot " + file + " is out of date (created on " + created + ", there are enrollment changes made after it), ignoring it.");
+				return null;
+			}
+
+			int nrOfferings = in.readInt();
+			for (int i = 0; i < nrOfferings; i++)
+				server.update(new XOffering(in));
+			int nrStudents = in.readInt();
+			for (int i = 0; i < nrStudents; i++)
+				server.update(new XStudent(in), true);
+			int nrExpectations = in.readInt();
+			for (int i = 0; i < nrExpectations; i++)
+				server.update(new XExpectations(in));
+			if (!MAGIC.equals(in.readUTF()))
+				throw new IOException("Snapshot " + file + " is not complete.");
+
+			sLog.info("Snapshot of " + server.getAcademicSession() + " created on " + created + " loaded in " + new DecimalFormat("0.00").format((System.currentTimeMillis() - t0) / 1000.0) + " s (" +
+					nrOfferings + " offerings, " + nrStudents + " students).");
+			return ts;
+		} finally {
+			in.close();
+		}
+	}
+
+	/** Delete server snapshot (if exists) */
+	public static void delete(Long sessionId) {
+		File file = getSnapshotFile(sessionId);
+		if (file.exists()) file.delete();
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.unitime.timetable.onlinesectioning.model.XAreaClassificationMajor;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+
+/**
+ * Secondary indexes of the students on the commonly filtered attributes, used by {@link InMemoryServer#findStudents(org.unitime.timetable.onlinesectioning.match.StudentMatcher)}
+ * when the matcher is an {@link org.unitime.timetable.onlinesectioning.match.IndexedStudentMatcher}.
+ * <br>
+ * For each indexed attribute (academic area, classification, major, minor, concentration, degree, program, campus, the same for
+ * the primary major, group, accommodation, advisor, and student status) and each (lower cased) value, the index contains the
+ * set of matching student ids. The attribute names are the same as used by the student filter on the Student Scheduling Dashboard
+ * (e.g., area:A, primary-major:M, group:G). Students without a status are indexed with an empty status.
+ * <br>
+ * The index is not thread safe, it is expected to be guarded by the server read / write locks.
+ *
+ * @author Tomas Muller
+ */
+public class StudentSearchIndex {
+	private static final Set<String> sAttributes = new HashSet<String>();
+	static {
+		for (String attr: new String[] {"area", "clasf", "major", "minor", "concentration", "degree", "program", "campus",
+				"primary-area", "primary-clasf", "primary-major", "primary-concentration", "primary-degree", "primary-program", "primary-campus",
+				"group", "accommodation", "advisor", "status"})
+			sAttributes.add(attr);
+	}
+	private Map<String, Set<Long>> iPostings = new HashMap<String, Set<Long>>();
+	private Map<Long, String[]> iStudentKeys = new HashMap<Long, String[]>();
+
+	public StudentSearchIndex() {}
+
+	/** Attribute name, resolving the aliases (classification for clasf) */
+	protected static String attribute(String attr) {
+		if ("classification".equals(attr)) return "clasf";
+		if ("primary-classification".equals(attr)) return "primary-clasf";
+		return attr;
+	}
+
+	/** Returns true if the given attribute is indexed */
+	public static boolean isIndexed(String attr) {
+		return attr != null && sAttributes.contains(attribute(attr));
+	}
+
+	private static String key(String attr, String value) {
+		return attr + ":" + (value == null ? "" : value.toLowerCase());
+	}
+
+	private static void add(Set<String> keys, String attr, String value) {
+		if (value != null && !value.isEmpty()) keys.add(key(attr, value));
+	}
+
+	/** All the keys under which the given student is indexed */
+	protected Set<String> getKeys(XStudent student) {
+		Set<String> keys = new HashSet<String>();
+		if (student.getMajors() != null)
+			for (XAreaClassificationMajor acm: student.getMajors()) {
+				add(keys, "area", acm.getArea());
+				add(keys, "clasf", acm.getClassification());
+				add(keys, "major", acm.getMajor());
+				add(keys, "concentration", acm.getConcentration());
+				add(keys, "degree", acm.getDegree());
+				add(keys, "program", acm.getProgram());
+				add(keys, "campus", acm.getCampus());
+			}
+		if (student.getMinors() != null)
+			for (XAreaClassificationMajor acm: student.getMinors()) {
+				add(keys, "area", acm.getArea());
+				add(keys, "minor", acm.getMajor());
+			}
+		XAreaClassificationMajor primary = student.getPrimaryMajor();
+		if (primary != null) {
+			add(keys, "primary-area", primary.getArea());
+			add(keys, "primary-clasf", primary.getClassification());
+			add(keys, "primary-major", primary.getMajor());
+			add(keys, "primary-concentration", primary.getConcentration());
+			add(keys, "primary-degree", primary.getDegree());
+			add(keys, "primary-program", primary.getProgram());
+			add(keys, "primary-campus", primary.getCampus());
+		}
+		if (student.getGroups() != null)
+			for (XStudent.XGroup group: student.getGroups())
+				add(keys, "group", group.getAbbreviation());
+		if (student.getAccomodations() != null)
+			for (XStudent.XGroup acc: student.getAccomodations())
+				add(keys, "accommodation", acc.getAbbreviation());
+		if (student.getAdvisors() != null)
+			for (XStudent.XAdvisor advisor: student.getAdvisors())
+				add(keys, "advisor", advisor.getExternalId());
+		keys.add(key("status", student.getStatus()));
+		return keys;
+	}
+
+	/** Add or update a student */
+	public void update(XStudent student) {
+		remove(student.getStudentId());
+		Set<String> keys = getKeys(student);
+		for (String key: keys) {
+			Set<Long> ids = iPostings.get(key);
+			if (ids == null) {
+				ids = new HashSet<Long>();
+				iPostings.put(key, ids);
+			}
+			ids.add(student.getStudentId());
+		}
+		iStudentKeys.put(student.getStudentId(), keys.toArray(new String[keys.size()]));
+	}
+
+	/** Remove a student, using the keys under which the student was indexed */
+	public void remove(Long studentId) {
+		String[] keys = iStudentKeys.remove(studentId);
+		if (keys == null) return;
+		for (String key: keys) {
+			Set<Long> ids = iPostings.get(key);
+			if (ids != null && ids.remove(studentId) && ids.isEmpty())
+				iPostings.remove(key);
+		}
+	}
+
+	public void clear() {
+		iPostings.clear();
+		iStudentKeys.clear();
+	}
+
+	/**
+	 * Students with the given attribute value (case insensitive, no wildcards)
+	 * @param attr attribute name (see {@link #isIndexed(String)})
+	 * @param value attribute value, null or empty for the students without a value (only supported for the status)
+	 * @return ids of the matching students, null when the attribute is not indexed
+	 */
+	public Set<Long> getStudentIds(String attr, String value) {
+		if (!isIndexed(attr)) return null;
+		Set<Long> ids = iPostings.get(key(attribute(attr), value));
+		return ids == null ? Collections.<Long>emptySet() : Collections.unmodifiableSet(ids);
+	}
+
+	public int size() {
+		return iStudentKeys.size();
+	}
+}
@@ -225,7 +225,7 @@ public class ComputeSuggestionsAction extends FindAssignmentAction {
 								if (ci != null) {
 									XOffering x = server.getOffering(ci.getOfferingId());
 									if (x != null) {
-										cr.getCourses().add(clone(x, server.getEnrollments(x.getOfferingId()), ci.getCourseId(), student.getId(), original, classTable, server, model, getAssignment() != null, checkDeadlines, currentDateIndex, onlineOnlyFilter, helper));
+										cr.getCourses().add(clone(x, server.getEnrollmentCounts(x.getOfferingId()), ci.getCourseId(), student.getId(), original, classTable, server, model, getAssignment() != null, checkDeadlines, currentDateIndex, onlineOnlyFilter, helper));
 										distributions.addAll(x.getDistributions());
 									}
 								}
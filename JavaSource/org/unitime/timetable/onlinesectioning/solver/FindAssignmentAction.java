@@ -34,7 +34,6 @@ import java.util.TreeSet;
 import java.util.Vector;
 
 import org.cpsolver.coursett.Constants;
-import org.cpsolver.coursett.model.Lecture;
 import org.cpsolver.coursett.model.Placement;
 import org.cpsolver.coursett.model.RoomLocation;
 import org.cpsolver.coursett.model.TimeLocation;
@@ -106,7 +105,7 @@ import org.unitime.timetable.onlinesectioning.model.XCourseReservation;
 import org.unitime.timetable.onlinesectioning.model.XDistributionType;
 import org.unitime.timetable.onlinesectioning.model.XDummyReservation;
 import org.unitime.timetable.onlinesectioning.model.XEnrollment;
-import org.unitime.timetable.onlinesectioning.model.XEnrollments;
+import org.unitime.timetable.onlinesectioning.model.XEnrollmentCounts;
 import org.unitime.timetable.onlinesectioning.model.XExpectations;
 import org.unitime.timetable.onlinesectioning.model.XDistribution;
 import org.unitime.timetable.onlinesectioning.model.XOffering;
@@ -119,6 +118,8 @@ import org.unitime.timetable.onlinesectioning.model.XSchedulingRule;
 import org.unitime.timetable.onlinesectioning.model.XSection;
 import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
+import org.unitime.timetable.onlinesectioning.solver.OfferingSkeletonCache.OfferingSkeleton;
+import org.unitime.timetable.onlinesectioning.solver.OfferingSkeletonCache.SectionSkeleton;
 import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.StudentMatcher;
 import org.unitime.timetable.solver.studentsct.StudentSolver;
 
@@ -265,7 +266,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 								if (ci != null) {
 									XOffering x = server.getOffering(ci.getOfferingId());
 									if (x != null) {
-										cr.getCourses().add(clone(x, server.getEnrollments(x.getOfferingId()), ci.getCourseId(), student.getId(), original, classTable, server, model, getAssignment() != null, checkDeadlines, currentDateIndex, onlineOnlyFilter, helper));
+										cr.getCourses().add(clone(x, server.getEnrollmentCounts(x.getOfferingId()), ci.getCourseId(), student.getId(), original, classTable, server, model, getAssignment() != null, checkDeadlines, currentDateIndex, onlineOnlyFilter, helper));
 										distributions.addAll(x.getDistributions());
 									}
 								}
@@ -631,20 +632,39 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 		return rets;
 	}
 	
+	/**
+	 * Enrollment of the given student in the given offering (from the server's version of the student)
+	 */
+	protected static XEnrollment getStudentEnrollment(XStudent student, long studentId, Long offeringId) {
+		if (student == null || student.getStudentId() == null || student.getStudentId().longValue() != studentId) return null;
+		for (XRequest r: student.getRequests()) {
+			if (r instanceof XCourseRequest) {
+				XEnrollment enrollment = ((XCourseRequest)r).getEnrollment();
+				if (enrollment != null && offeringId.equals(enrollment.getOfferingId())) return enrollment;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Create solver offering for the given course. The student independent parts of the offering are taken from the {@link OfferingSkeletonCache},
+	 * the enrollment counts are adjusted by the current enrollment of the student.
+	 */
 	@SuppressWarnings("unchecked")
-	public static Course clone(XOffering offering, XEnrollments enrollments, Long courseId, long studentId, XStudent originalStudent, Map<Long, Section> sections, OnlineSectioningServer server, StudentSectioningModel model, boolean hasAssignment, boolean checkDeadlines, Integer currentDateIndex, boolean onlineOnlyFilter, OnlineSectioningHelper helper) {
+	public static Course clone(XOffering offering, XEnrollmentCounts enrollments, Long courseId, long studentId, XStudent originalStudent, Map<Long, Section> sections, OnlineSectioningServer server, StudentSectioningModel model, boolean hasAssignment, boolean checkDeadlines, Integer currentDateIndex, boolean onlineOnlyFilter, OnlineSectioningHelper helper) {
+		XEnrollment studentEnrollment = getStudentEnrollment(originalStudent, studentId, offering.getOfferingId());
+		OfferingSkeleton skeleton = OfferingSkeletonCache.getSkeleton(offering);
 		Offering clonedOffering = new Offering(offering.getOfferingId(), offering.getName());
 		clonedOffering.setModel(model);
 		XExpectations expectations = server.getExpectations(offering.getOfferingId());
 		XCourse course = offering.getCourse(courseId);
 		int courseLimit = course.getLimit();
 		boolean courseEnrolled = false;
+		boolean studentEnrolled = (studentEnrollment != null && courseId.equals(studentEnrollment.getCourseId()));
 		if (courseLimit >= 0) {
 			courseLimit -= enrollments.countEnrollmentsForCourse(courseId);
 			if (courseLimit < 0) courseLimit = 0;
-			for (XEnrollment enrollment: enrollments.getEnrollmentsForCourse(courseId)) {
-				if (enrollment.getStudentId().equals(studentId)) { courseLimit++; courseEnrolled = true; break; }
-			}
+			if (studentEnrolled) { courseLimit++; courseEnrolled = true; }
 		}
 		Course clonedCourse = new Course(courseId, course.getSubjectArea(), course.getCourseNumber(), clonedOffering, courseLimit, course.getProjected());
 		clonedCourse.setNote(course.getNote());
@@ -660,9 +680,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 			int configLimit = config.getLimit();
 			int configEnrl = enrollments.countEnrollmentsForConfig(config.getConfigId());
 			boolean configStudent = false;
-			if (studentId >= 0)
-				for (XEnrollment enrollment: enrollments.getEnrollmentsForConfig(config.getConfigId()))
-					if (enrollment.getStudentId().equals(studentId)) { configEnrl--; configStudent = true; break; }
+			if (studentEnrollment != null && config.getConfigId().equals(studentEnrollment.getConfigId())) { configEnrl--; configStudent = true; }
 			if (configLimit >= 0) {
 				// limited configuration, deduct enrollments
 				configLimit -= configEnrl;
@@ -687,26 +705,16 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 					int limit = section.getLimit();
 					int enrl = enrollments.countEnrollmentsForSection(section.getSectionId());
 					boolean student = false;
-					if (studentId >= 0)
-						for (XEnrollment enrollment: enrollments.getEnrollmentsForSection(section.getSectionId()))
-							if (enrollment.getStudentId().equals(studentId)) { enrl--; student = true; break; }
+					if (studentEnrollment != null && studentEnrollment.getSectionIds().contains(section.getSectionId())) { enrl--; student = true; }
 					if (limit >= 0) {
 						// limited section, deduct enrollments
 						limit -= enrl;
 						if (limit < 0) limit = 0; // over-enrolled, but not unlimited
 						if (student && limit == 0) limit = 1; // allow enrolled student in
 					}
-                    List<RoomLocation> rooms = new ArrayList<RoomLocation>();
-                    for (XRoom r: section.getRooms())
-                    	rooms.add(new RoomLocation(r.getUniqueId(), r.getName(), null, 0, 0, r.getX(), r.getY(), r.getIgnoreTooFar(), null));
-                    Placement placement = section.getTime() == null ? null : new Placement(
-                    		new Lecture(section.getSectionId(), null, section.getSubpartId(), section.getName(), new ArrayList<TimeLocation>(), new ArrayList<RoomLocation>(), section.getNrRooms(), null, section.getLimit(), section.getLimit(), 1.0),
-                    		new TimeLocation(section.getTime().getDays(), section.getTime().getSlot(), section.getTime().getLength(), 0, 0.0,
-                    				section.getTime().getDatePatternId(), section.getTime().getDatePatternName(), section.getTime().getWeeks(),
-                    				section.getTime().getBreakTime()),
-                    		rooms);
+					SectionSkeleton sectionSkeleton = skeleton.getSection(section.getSectionId());
 					OnlineSection clonedSection = new OnlineSection(section.getSectionId(), limit,
-							section.getName(course.getCourseId()), clonedSubpart, placement, section.toInstructors(),
+							section.getName(course.getCourseId()), clonedSubpart, sectionSkeleton.getPlacement(), section.toInstructors(),
 							(section.getParentId() == null ? null : sections.get(section.getParentId())));
 					clonedSection.setName(-1l, section.getName(-1l));
 					clonedSection.setNote(section.getNote());
@@ -721,11 +729,8 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 						clonedSection.setEnabled(false);
 					if (section.getTime() != null && currentDateIndex != null && !(server instanceof StudentSolver))
 						clonedSection.setPast(section.getTime().isPast(currentDateIndex, server.getAcademicSession()));
-					for (XDistribution distribution: offering.getDistributions())
-						if (distribution.getDistributionType() == XDistributionType.IngoreConflicts && distribution.hasSection(section.getSectionId()))
-							for (Long id: distribution.getSectionIds())
-								if (!id.equals(section.getSectionId()))
-									clonedSection.addIgnoreConflictWith(id);
+					for (Long id: sectionSkeleton.getIgnoreConflictWith())
+						clonedSection.addIgnoreConflictWith(id);
 			        if (limit > 0) {
 			        	double available = Math.round(clonedSection.getSpaceExpected() - limit);
 						clonedSection.setPenalty(available / section.getLimit());
@@ -740,9 +745,8 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 			if (reservationLimit >= 0) {
 				reservationLimit -= enrollments.countEnrollmentsForReservation(reservation.getReservationId());
 				if (reservationLimit < 0) reservationLimit = 0;
-				for (XEnrollment enrollment: enrollments.getEnrollmentsForReservation(reservation.getReservationId())) {
-					if (enrollment.getStudentId().equals(studentId)) { reservationLimit++; break; }
-				}
+				if (studentEnrollment != null && studentEnrollment.getReservation() != null && reservation.getReservationId().equals(studentEnrollment.getReservation().getReservationId()))
+					reservationLimit++;
 				if (reservationLimit <= 0 && !(reservation.mustBeUsed() && !reservation.isExpired())) continue;
 			}
 			boolean applicable = originalStudent != null && reservation.isApplicable(originalStudent, course);
@@ -750,8 +754,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 				applicable = ((XCourseReservation)reservation).getCourseId().equals(courseId);
 			if (reservation instanceof XDummyReservation) {
 				// Ignore by reservation only flag (dummy reservation) when the student is already enrolled in the course
-				for (XEnrollment enrollment: enrollments.getEnrollmentsForCourse(courseId))
-					if (enrollment.getStudentId().equals(studentId)) { applicable = true; break; }
+				if (studentEnrolled) applicable = true;
 			}
 			if (applicable && reservation.mustBeUsed() && (reservation.isOverride() || !reservation.isExpired())) hasMustUse = true;
 			if (!applicable && reservation.isExpired()) continue;
@@ -889,25 +892,18 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 			}
 		}
 		// There are reservations >> allow user to keep the current enrollment by providing a dummy reservation for it
-		if ((clonedOffering.hasReservations() || needLinkOverride) && hasAssignment)
-			for (XEnrollment enrollment: enrollments.getEnrollmentsForCourse(courseId))
-				if (enrollment.getStudentId().equals(studentId)) {
-					Reservation clonedReservation = new OnlineReservation(XReservationType.Dummy.ordinal(), -2l, clonedOffering, 1000, false, 1, true, hasMustUse, false, true, true);
-					clonedReservation.addConfig(configs.get(enrollment.getConfigId()));
-					for (Long sectionId: enrollment.getSectionIds())
-						clonedReservation.addSection(sections.get(sectionId));
-					clonedReservation.setBreakLinkedSections(needLinkOverride);
-					break;
-				}
-		if (clonedOffering.hasRestrictions() && hasAssignment) {
-			for (XEnrollment enrollment: enrollments.getEnrollmentsForCourse(courseId))
-				if (enrollment.getStudentId().equals(studentId)) {
-					IndividualRestriction clonnerRestriction = new IndividualRestriction(-2l, clonedOffering, studentId);
-					clonnerRestriction.addConfig(configs.get(enrollment.getConfigId()));
-					for (Long sectionId: enrollment.getSectionIds())
-						clonnerRestriction.addSection(sections.get(sectionId));
-					break;
-				}
+		if ((clonedOffering.hasReservations() || needLinkOverride) && hasAssignment && studentEnrolled) {
+			Reservation clonedReservation = new OnlineReservation(XReservationType.Dummy.ordinal(), -2l, clonedOffering, 1000, false, 1, true, hasMustUse, false, true, true);
+			clonedReservation.addConfig(configs.get(studentEnrollment.getConfigId()));
+			for (Long sectionId: studentEnrollment.getSectionIds())
+				clonedReservation.addSection(sections.get(sectionId));
+			clonedReservation.setBreakLinkedSections(needLinkOverride);
+		}
+		if (clonedOffering.hasRestrictions() && hasAssignment && studentEnrolled) {
+			IndividualRestriction clonnerRestriction = new IndividualRestriction(-2l, clonedOffering, studentId);
+			clonnerRestriction.addConfig(configs.get(studentEnrollment.getConfigId()));
+			for (Long sectionId: studentEnrollment.getSectionIds())
+				clonnerRestriction.addSection(sections.get(sectionId));
 		}
 		return clonedCourse;
 	}
@@ -943,7 +939,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 					XOffering offering = null;
 					if (courseInfo != null) offering = server.getOffering(courseInfo.getOfferingId());
 					if (offering != null) {
-						Course course = clone(offering, server.getEnrollments(offering.getOfferingId()), courseInfo.getCourseId(), student.getId(), originalStudent, classTable, server, model, hasAssignment, checkDeadline, currentDateIndex, onlineOnlyFilter, helper);
+						Course course = clone(offering, server.getEnrollmentCounts(offering.getOfferingId()), courseInfo.getCourseId(), student.getId(), originalStudent, classTable, server, model, hasAssignment, checkDeadline, currentDateIndex, onlineOnlyFilter, helper);
 						cr.add(course);
 						if (rc.hasSelectedIntructionalMethods()) {
 							for (Config config: course.getOffering().getConfigs()) {
@@ -1323,7 +1319,7 @@ public class FindAssignmentAction implements OnlineSectioningAction<List<ClassAs
 				XOffering offering = server.getOffering(course.getOffering().getId());
 				ca.setCanWaitList(offering.isWaitList());
 				ca.setTitle(offering.getCourse(course.getId()).getTitle());
-				XEnrollments enrl = server.getEnrollments(offering.getOfferingId());
+				XEnrollmentCounts enrl = server.getEnrollmentCounts(offering.getOfferingId());
 				for (Iterator<Section> i = sections.iterator(); i.hasNext();) {
 					Section section = (Section)i.next();
 					ClassAssignmentInterface.ClassAssignment a = ca.addClassAssignment();
@@ -0,0 +1,177 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.solver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.cpsolver.coursett.model.Lecture;
+import org.cpsolver.coursett.model.Placement;
+import org.cpsolver.coursett.model.RoomLocation;
+import org.cpsolver.coursett.model.TimeLocation;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.onlinesectioning.model.XConfig;
+import org.unitime.timetable.onlinesectioning.model.XDistribution;
+import org.unitime.timetable.onlinesectioning.model.XDistributionType;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XRoom;
+import org.unitime.timetable.onlinesectioning.model.XSection;
+import org.unitime.timetable.onlinesectioning.model.XSubpart;
+
+/**
+ * Cache of the student independent parts of an offering that {@link FindAssignmentAction#clone(XOffering, org.unitime.timetable.onlinesectioning.model.XEnrollmentCounts, Long, long, org.unitime.timetable.onlinesectioning.model.XStudent, Map, org.unitime.timetable.onlinesectioning.OnlineSectioningServer, org.cpsolver.studentsct.StudentSectioningModel, boolean, boolean, Integer, boolean, org.unitime.timetable.onlinesectioning.OnlineSectioningHelper)}
+ * would otherwise need to build for every request: the section placements (time and rooms) and the sections with which
+ * the student conflicts are to be ignored.
+ * <br>
+ * The cache is keyed by the offering id, an entry is only used for the same version (instance) of the offering it was
+ * built from, so that any {@link org.unitime.timetable.onlinesectioning.OnlineSectioningServer#update(XOffering)} invalidates it
+ * (the in-memory server also removes the offering from the cache explicitly).
+ * The enrollment counts are not cached, they are maintained incrementally by the server (see {@link org.unitime.timetable.onlinesectioning.model.XEnrollmentCounts}).
+ * The least recently used offerings are removed when there are more than {@link ApplicationProperty#OnlineSchedulingOfferingCacheSize} offerings.
+ *
+ * @author Tomas Muller
+ */
+public class OfferingSkeletonCache {
+	private static volatile OfferingSkeletonCache sInstance = null;
+	private Map<Long, OfferingSkeleton> iCache;
+	private int iHits = 0, iMisses = 0;
+
+	private OfferingSkeletonCache(final int size) {
+		iCache = new LinkedHashMap<Long, OfferingSkeleton>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, OfferingSkeleton> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	public static synchronized OfferingSkeletonCache getInstance() {
+		if (sInstance == null)
+			sInstance = new OfferingSkeletonCache(ApplicationProperty.OnlineSchedulingOfferingCacheSize.intValue());
+		return sInstance;
+	}
+
+	/** Skeleton of the given offering, built when not cached (or when the offering has been changed) */
+	public static OfferingSkeleton getSkeleton(XOffering offering) {
+		if (ApplicationProperty.OnlineSchedulingOfferingCacheSize.intValue() <= 0)
+			return new OfferingSkeleton(offering);
+		return getInstance().get(offering);
+	}
+
+	protected OfferingSkeleton get(XOffering offering) {
+		synchronized (iCache) {
+			OfferingSkeleton skeleton = iCache.get(offering.getOfferingId());
+			if (skeleton != null && skeleton.getOffering() == offering) {
+				iHits ++;
+				return skeleton;
+			}
+			iMisses ++;
+		}
+		OfferingSkeleton skeleton = new OfferingSkeleton(offering);
+		synchronized (iCache) {
+			iCache.put(offering.getOfferingId(), skeleton);
+		}
+		return skeleton;
+	}
+
+	/** Remove the given offering from the cache (called when the offering is updated or removed) */
+	public static void invalidate(Long offeringId) {
+		OfferingSkeletonCache cache = sInstance;
+		if (cache != null)
+			synchronized (cache.iCache) {
+				cache.iCache.remove(offeringId);
+			}
+	}
+
+	public void clear() {
+		synchronized (iCache) {
+			iCache.clear();
+		}
+	}
+
+	@Override
+	public String toString() {
+		synchronized (iCache) {
+			return "OfferingSkeletonCache{size=" + iCache.size() + ", hits=" + iHits + ", misses=" + iMisses + "}";
+		}
+	}
+
+	/**
+	 * Student independent data of an offering, never changed once created.
+	 */
+	public static class OfferingSkeleton {
+		private XOffering iOffering;
+		private Map<Long, SectionSkeleton> iSections = new HashMap<Long, SectionSkeleton>();
+
+		public OfferingSkeleton(XOffering offering) {
+			iOffering = offering;
+			for (XConfig config: offering.getConfigs())
+				for (XSubpart subpart: config.getSubparts())
+					for (XSection section: subpart.getSections())
+						iSections.put(section.getSectionId(), new SectionSkeleton(offering, section));
+		}
+
+		/** The version of the offering from which the skeleton was built */
+		public XOffering getOffering() { return iOffering; }
+
+		public SectionSkeleton getSection(Long sectionId) {
+			return iSections.get(sectionId);
+		}
+	}
+
+	public static class SectionSkeleton {
+		private Placement iPlacement;
+		private Set<Long> iIgnoreConflictWith;
+
+		public SectionSkeleton(XOffering offering, XSection section) {
+			List<RoomLocation> rooms = new ArrayList<RoomLocation>();
+			for (XRoom r: section.getRooms())
+				rooms.add(new RoomLocation(r.getUniqueId(), r.getName(), null, 0, 0, r.getX(), r.getY(), r.getIgnoreTooFar(), null));
+			iPlacement = section.getTime() == null ? null : new Placement(
+					new Lecture(section.getSectionId(), null, section.getSubpartId(), section.getName(), new ArrayList<TimeLocation>(), new ArrayList<RoomLocation>(), section.getNrRooms(), null, section.getLimit(), section.getLimit(), 1.0),
+					new TimeLocation(section.getTime().getDays(), section.getTime().getSlot(), section.getTime().getLength(), 0, 0.0,
+							section.getTime().getDatePatternId(), section.getTime().getDatePatternName(), section.getTime().getWeeks(),
+							section.getTime().getBreakTime()),
+					rooms);
+			Set<Long> ignoreConflictWith = null;
+			for (XDistribution distribution: offering.getDistributions())
+				if (distribution.getDistributionType() == XDistributionType.IngoreConflicts && distribution.hasSection(section.getSectionId()))
+					for (Long id: distribution.getSectionIds())
+						if (!id.equals(section.getSectionId())) {
+							if (ignoreConflictWith == null) ignoreConflictWith = new HashSet<Long>();
+							ignoreConflictWith.add(id);
+						}
+			iIgnoreConflictWith = (ignoreConflictWith == null ? Collections.<Long>emptySet() : Collections.unmodifiableSet(ignoreConflictWith));
+		}
+
+		/** Section placement (time and rooms), null when the section has no time */
+		public Placement getPlacement() { return iPlacement; }
+
+		/** Sections with which the student conflicts are to be ignored */
+		public Set<Long> getIgnoreConflictWith() { return iIgnoreConflictWith; }
+	}
+}
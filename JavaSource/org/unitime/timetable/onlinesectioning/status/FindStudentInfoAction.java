@@ -58,6 +58,7 @@ import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.basic.GetAssignment.CourseSection;
 import org.unitime.timetable.onlinesectioning.match.AbstractStudentMatcher;
+import org.unitime.timetable.onlinesectioning.match.IndexedStudentMatcher;
 import org.unitime.timetable.onlinesectioning.model.XAdvisorRequest;
 import org.unitime.timetable.onlinesectioning.model.XAreaClassificationMajor;
 import org.unitime.timetable.onlinesectioning.model.XConfig;
@@ -75,6 +76,7 @@ import org.unitime.timetable.onlinesectioning.model.XStudent;
 import org.unitime.timetable.onlinesectioning.model.XStudentId;
 import org.unitime.timetable.onlinesectioning.model.XSubpart;
 import org.unitime.timetable.onlinesectioning.server.DatabaseServer;
+import org.unitime.timetable.onlinesectioning.server.StudentSearchIndex;
 import org.unitime.timetable.onlinesectioning.status.FindEnrollmentInfoAction.FindEnrollmentInfoCourseMatcher;
 import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseLookup;
 import org.unitime.timetable.onlinesectioning.status.StatusPageSuggestionsAction.CourseRequestMatcher;
@@ -827,7 +829,7 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 		return "find-student-infos";
 	}
 	
-	public static class FindStudentInfoMatcher extends AbstractStudentMatcher {
+	public static class FindStudentInfoMatcher extends AbstractStudentMatcher implements IndexedStudentMatcher {
 		private static final long serialVersionUID = 1L;
 		protected Query iQuery;
 		protected String iDefaultSectioningStatus;
@@ -848,6 +850,32 @@ public class FindStudentInfoAction implements OnlineSectioningAction<List<Studen
 			XStudent student = (id instanceof XStudent ? (XStudent)id : getServer().getStudent(id.getStudentId()));
 			return student != null && iQuery.match(new StudentMatcher(student, iDefaultSectioningStatus, getServer(), isMyStudent(student)));
 		}
+		
+		@Override
+		public Set<Long> getCandidates(final StudentSearchIndex index) {
+			if (index == null) return null;
+			return iQuery.candidates(new Query.TermIndex<Long>() {
+				@Override
+				public Set<Long> lookup(String attr, String term) {
+					if ("mode".equals(attr)) {
+						if ("My Students".equalsIgnoreCase(term) || "My Advised".equalsIgnoreCase(term) || "My Not Advised".equalsIgnoreCase(term))
+							return (iMyStudents == null ? new HashSet<Long>() : iMyStudents);
+						return null;
+					}
+					if (term.indexOf('%') >= 0 || !StudentSearchIndex.isIndexed(attr)) return null;
+					if ("status".equals(attr)) {
+						if ("default".equalsIgnoreCase(term) || "Not Set".equalsIgnoreCase(term))
+							return index.getStudentIds(attr, null);
+						if (term.equalsIgnoreCase(iDefaultSectioningStatus)) {
+							Set<Long> ids = new HashSet<Long>(index.getStudentIds(attr, term));
+							ids.addAll(index.getStudentIds(attr, null));
+							return ids;
+						}
+					}
+					return index.getStudentIds(attr, term);
+				}
+			});
+		}
 	}
 	
 	public static String getStudentSchedulingPreference(XStudent student, OnlineSectioningServer server, OnlineSectioningHelper helper) {
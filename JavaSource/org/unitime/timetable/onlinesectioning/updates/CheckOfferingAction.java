@@ -64,6 +64,7 @@ import org.unitime.timetable.onlinesectioning.model.XCourse;
 import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XEnrollmentCounts;
 import org.unitime.timetable.onlinesectioning.model.XEnrollments;
 import org.unitime.timetable.onlinesectioning.model.XOffering;
 import org.unitime.timetable.onlinesectioning.model.XRequest;
@@ -223,7 +224,7 @@ public class CheckOfferingAction extends WaitlistedOnlineSectioningAction<Boolea
 			}
 		}
 		
-		XEnrollments enrollments = server.getEnrollments(oldEnrollment.getOfferingId());
+		XEnrollmentCounts enrollments = server.getEnrollmentCounts(oldEnrollment.getOfferingId());
 		for (Long sectionId: oldSections) {
 			XSection section = offering.getSection(sectionId);
 			if (section != null && section.getLimit() >= 0 && section.getLimit() - enrollments.countEnrollmentsForSection(sectionId) == 1) {
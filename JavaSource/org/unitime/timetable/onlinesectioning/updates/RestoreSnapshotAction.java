@@ -0,0 +1,78 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.onlinesectioning.updates;
+
+import java.util.Date;
+
+import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.Lock;
+import org.unitime.timetable.onlinesectioning.model.XSchedulingRules;
+import org.unitime.timetable.onlinesectioning.server.ServerSnapshot;
+
+/**
+ * Restore the server from its snapshot (see {@link ServerSnapshot}). Returns false when there is no
+ * valid snapshot, in which case {@link ReloadAllData} needs to be used instead. The snapshot is not used
+ * when the student enrollments or course requests in the database have changed after the snapshot was
+ * created (see {@link ServerSnapshot#getDatabaseState(org.hibernate.Session, Long)}). When the snapshot is loaded,
+ * the student sectioning queue changes made after the snapshot are replayed by the updater.
+ *
+ * @author Tomas Muller
+ */
+public class RestoreSnapshotAction implements OnlineSectioningAction<Boolean> {
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Boolean execute(OnlineSectioningServer server, OnlineSectioningHelper helper) {
+		if (!ServerSnapshot.isEnabled(server)) return false;
+		Lock lock = server.lockAll();
+		try {
+			helper.beginTransaction();
+			try {
+				server.clearAll();
+				Date ts = ServerSnapshot.load(server, ServerSnapshot.getDatabaseState(helper.getHibSession(), server.getAcademicSession().getUniqueId()));
+				if (ts == null) {
+					helper.commitTransaction();
+					return false;
+				}
+				server.setSchedulingRules(new XSchedulingRules(server.getAcademicSession(), helper.getHibSession()));
+				server.setProperty("Updater.LastTimeStamp", ts);
+				helper.info("Session " + server.getAcademicSession() + " restored from snapshot, replaying changes made after " + ts + ".");
+				helper.commitTransaction();
+				return true;
+			} catch (Exception e) {
+				helper.rollbackTransaction();
+				helper.warn("Failed to restore session " + server.getAcademicSession() + " from snapshot: " + e.getMessage(), e);
+				server.clearAll();
+				ServerSnapshot.delete(server.getAcademicSession().getUniqueId());
+				return false;
+			}
+		} finally {
+			lock.release();
+		}
+	}
+
+	@Override
+	public String name() {
+		return "restore-snapshot";
+	}
+
+}
@@ -0,0 +1,398 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.server.curricula;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.model.CurriculumProjectionRule;
+import org.unitime.timetable.solver.jgroups.SolverServer;
+import org.unitime.timetable.solver.jgroups.SolverServerImplementation;
+
+/**
+ * In-memory projection cube of an academic session: curriculum projection rules and last-like students
+ * aggregated by academic area, classification, major (and course). It is used by the curricula pages
+ * instead of querying the database for each curriculum and academic area.
+ * <br>
+ * The cube consists of two parts that are loaded independently (projection rules and last-like demands), each
+ * is refreshed when it gets older than {@link ApplicationProperty#CurriculumProjectionCacheTimeToLive} or when
+ * invalidated by {@link #invalidateProjectionRules(Long)} (projection rules have been changed) or
+ * {@link #invalidateLastLikeDemands(Long)} (students or last-like course demands have been imported). The invalidation
+ * is sent to all the nodes of the cluster (see {@link SolverServer#curriculumProjectionChanged(Long, boolean, boolean)}),
+ * it is to be called after the changes have been committed.
+ *
+ * @author Tomas Muller
+ */
+public class CurriculumProjectionCube {
+	private static Log sLog = LogFactory.getLog(CurriculumProjectionCube.class);
+	private static Map<Long, CurriculumProjectionCube> sCubes = new HashMap<Long, CurriculumProjectionCube>();
+	private static String[] sCourseChecks = new String[] {
+			"x.subjectArea.session.uniqueId = :sessionId and co.subjectArea.uniqueId = x.subjectArea.uniqueId and x.coursePermId is not null and co.permId=x.coursePermId",
+			"x.subjectArea.session.uniqueId = :sessionId and co.subjectArea.uniqueId = x.subjectArea.uniqueId and x.coursePermId is null and co.courseNbr=x.courseNbr",
+			"x.subjectArea.session.uniqueId = :sessionId and co.demandOffering.subjectArea.uniqueId = x.subjectArea.uniqueId and x.coursePermId is not null and co.demandOffering.permId=x.coursePermId",
+			"x.subjectArea.session.uniqueId = :sessionId and co.demandOffering.subjectArea.uniqueId = x.subjectArea.uniqueId and x.coursePermId is null and co.demandOffering.courseNbr=x.courseNbr"
+	};
+
+	private Long iSessionId;
+	private ProjectionRules iRules = null;
+	private LastLikeDemands iLastLike = null;
+	private int iRulesVersion = 0, iLastLikeVersion = 0;
+
+	private CurriculumProjectionCube(Long sessionId) {
+		iSessionId = sessionId;
+	}
+
+	/** Time to live in milliseconds, zero when the cube is disabled */
+	protected static long getTimeToLive() {
+		return 1000l * Math.max(0, ApplicationProperty.CurriculumProjectionCacheTimeToLive.intValue());
+	}
+
+	/** Projection cube of the given academic session, null when disabled */
+	public static CurriculumProjectionCube getInstance(Long sessionId) {
+		if (sessionId == null || getTimeToLive() <= 0) return null;
+		synchronized (sCubes) {
+			CurriculumProjectionCube cube = sCubes.get(sessionId);
+			if (cube == null) {
+				cube = new CurriculumProjectionCube(sessionId);
+				sCubes.put(sessionId, cube);
+			}
+			return cube;
+		}
+	}
+
+	private static CurriculumProjectionCube getExistingInstance(Long sessionId) {
+		synchronized (sCubes) {
+			return sCubes.get(sessionId);
+		}
+	}
+
+	/** Projection rules of the given academic session have been changed (on all the nodes of the cluster) */
+	public static void invalidateProjectionRules(Long sessionId) {
+		invalidate(sessionId, true, false);
+	}
+
+	/** Students or last-like course demands of the given academic session have been changed (on all the nodes of the cluster) */
+	public static void invalidateLastLikeDemands(Long sessionId) {
+		invalidate(sessionId, false, true);
+	}
+
+	private static void invalidate(Long sessionId, boolean rules, boolean lastLike) {
+		if (sessionId == null || getTimeToLive() <= 0) return;
+		SolverServer server = SolverServerImplementation.getInstance();
+		if (server != null)
+			server.curriculumProjectionChanged(sessionId, rules, lastLike);
+		else
+			invalidateLocal(sessionId, rules, lastLike);
+	}
+
+	/** Invalidate the projection cube of this node, called by {@link SolverServer#curriculumProjectionChanged(Long, boolean, boolean)} */
+	public static void invalidateLocal(Long sessionId, boolean rules, boolean lastLike) {
+		CurriculumProjectionCube cube = getExistingInstance(sessionId);
+		if (cube != null) {
+			synchronized (cube) {
+				if (rules) { cube.iRules = null; cube.iRulesVersion ++; }
+				if (lastLike) { cube.iLastLike = null; cube.iLastLikeVersion ++; }
+			}
+		}
+	}
+
+	protected ProjectionRules getProjectionRules(org.hibernate.Session hibSession) {
+		int version;
+		synchronized (this) {
+			if (iRules != null && !iRules.isExpired()) return iRules;
+			version = iRulesVersion;
+		}
+		ProjectionRules rules = new ProjectionRules(hibSession, iSessionId);
+		synchronized (this) {
+			// do not keep the rules when they have been invalidated while loading
+			if (version == iRulesVersion) iRules = rules;
+		}
+		return rules;
+	}
+
+	protected LastLikeDemands getLastLikeDemands(org.hibernate.Session hibSession) {
+		int version;
+		synchronized (this) {
+			if (iLastLike != null && !iLastLike.isExpired()) return iLastLike;
+			version = iLastLikeVersion;
+		}
+		LastLikeDemands lastLike = new LastLikeDemands(hibSession, iSessionId);
+		synchronized (this) {
+			// do not keep the demands when they have been invalidated while loading
+			if (version == iLastLikeVersion) iLastLike = lastLike;
+		}
+		return lastLike;
+	}
+
+	/**
+	 * Projection rules of an academic area (classification code -> major code -> projection), the returned table must not be modified.
+	 * Returns null when the academic area is not of this academic session.
+	 */
+	public Hashtable<String, HashMap<String, Float>> getRules(org.hibernate.Session hibSession, Long acadAreaId) {
+		ProjectionRules rules = getProjectionRules(hibSession);
+		if (!rules.iAreaIds.contains(acadAreaId)) return null;
+		Hashtable<String, HashMap<String, Float>> clasf2major2proj = rules.iRules.get(acadAreaId);
+		return (clasf2major2proj == null ? new Hashtable<String, HashMap<String, Float>>() : clasf2major2proj);
+	}
+
+	/**
+	 * Snapshot projection rules of an academic area (classification code -> major code -> snapshot projection), the returned table must not be modified.
+	 * Returns null when the academic area is not of this academic session.
+	 */
+	public Hashtable<String, HashMap<String, Float>> getSnapshotRules(org.hibernate.Session hibSession, Long acadAreaId) {
+		ProjectionRules rules = getProjectionRules(hibSession);
+		if (!rules.iAreaIds.contains(acadAreaId)) return null;
+		Hashtable<String, HashMap<String, Float>> clasf2major2ssproj = rules.iSnapshotRules.get(acadAreaId);
+		return (clasf2major2ssproj == null ? new Hashtable<String, HashMap<String, Float>>() : clasf2major2ssproj);
+	}
+
+	/** Projection rules of the academic session (academic area abbreviation -> classification code -> major code -> projection), the returned table must not be modified */
+	public Hashtable<String, Hashtable<String, HashMap<String, Float>>> getRules(org.hibernate.Session hibSession) {
+		return getProjectionRules(hibSession).iAreaRules;
+	}
+
+	/**
+	 * Number of last-like students of an academic area (classification code -> major code -> students)
+	 * @param majorCodes majors to consider, all majors when null or empty (the major code is an empty string in this case)
+	 */
+	public Hashtable<String, Hashtable<String, Integer>> getClasfMajor2ll(org.hibernate.Session hibSession, String acadAreaAbbv, Collection<String> majorCodes) {
+		Hashtable<String, Hashtable<String, Integer>> clasfMajor2ll = new Hashtable<String, Hashtable<String, Integer>>();
+		Map<String, Map<String, Double>> clasf2major2ll = getLastLikeDemands(hibSession).iStudents.get(acadAreaAbbv);
+		if (clasf2major2ll == null) return clasfMajor2ll;
+		boolean allMajors = (majorCodes == null || majorCodes.isEmpty());
+		for (Map.Entry<String, Map<String, Double>> e: clasf2major2ll.entrySet()) {
+			Hashtable<String, Integer> major2ll = new Hashtable<String, Integer>();
+			if (allMajors) {
+				double total = 0.0;
+				for (Double ll: e.getValue().values()) total += ll;
+				major2ll.put("", Math.round((float)total));
+			} else {
+				for (String majorCode: majorCodes) {
+					Double ll = e.getValue().get(majorCode);
+					if (ll != null) major2ll.put(majorCode, Math.round(ll.floatValue()));
+				}
+			}
+			if (!major2ll.isEmpty()) clasfMajor2ll.put(e.getKey(), major2ll);
+		}
+		return clasfMajor2ll;
+	}
+
+	/**
+	 * Number of last-like students of an academic area by course (classification code -> major code -> course offering id -> students)
+	 * @param majorCodes majors to consider, all majors when null or empty (the major code is an empty string in this case)
+	 */
+	public Hashtable<String, Hashtable<String, Hashtable<Long, Integer>>> getClasfMajorCourse2ll(org.hibernate.Session hibSession, String acadAreaAbbv, Collection<String> majorCodes) {
+		Hashtable<String, Hashtable<String, Hashtable<Long, Integer>>> clasfMajor2course2ll = new Hashtable<String, Hashtable<String, Hashtable<Long, Integer>>>();
+		Map<String, Map<String, Map<Long, double[]>>> clasf2major2course2ll = getLastLikeDemands(hibSession).iCourses.get(acadAreaAbbv);
+		if (clasf2major2course2ll == null) return clasfMajor2course2ll;
+		boolean allMajors = (majorCodes == null || majorCodes.isEmpty());
+		for (Map.Entry<String, Map<String, Map<Long, double[]>>> e: clasf2major2course2ll.entrySet()) {
+			Hashtable<String, Hashtable<Long, Integer>> major2course2ll = new Hashtable<String, Hashtable<Long, Integer>>();
+			// the course matching checks are applied in the order, a later check overrides an earlier one
+			for (int check = 0; check < sCourseChecks.length; check++) {
+				Map<String, Map<Long, Double>> major2course = new HashMap<String, Map<Long, Double>>();
+				for (Map.Entry<String, Map<Long, double[]>> f: e.getValue().entrySet()) {
+					if (!allMajors && !majorCodes.contains(f.getKey())) continue;
+					String majorCode = (allMajors ? "" : f.getKey());
+					for (Map.Entry<Long, double[]> g: f.getValue().entrySet()) {
+						double ll = g.getValue()[check];
+						if (Double.isNaN(ll)) continue;
+						Map<Long, Double> course2ll = major2course.get(majorCode);
+						if (course2ll == null) {
+							course2ll = new HashMap<Long, Double>();
+							major2course.put(majorCode, course2ll);
+						}
+						Double total = course2ll.get(g.getKey());
+						course2ll.put(g.getKey(), (total == null ? 0.0 : total.doubleValue()) + ll);
+					}
+				}
+				for (Map.Entry<String, Map<Long, Double>> f: major2course.entrySet()) {
+					Hashtable<Long, Integer> course2ll = major2course2ll.get(f.getKey());
+					if (course2ll == null) {
+						course2ll = new Hashtable<Long, Integer>();
+						major2course2ll.put(f.getKey(), course2ll);
+					}
+					for (Map.Entry<Long, Double> g: f.getValue().entrySet())
+						course2ll.put(g.getKey(), Math.round(g.getValue().floatValue()));
+				}
+			}
+			if (!major2course2ll.isEmpty()) clasfMajor2course2ll.put(e.getKey(), major2course2ll);
+		}
+		return clasfMajor2course2ll;
+	}
+
+	/** Number of last-like students of the academic session (academic area abbreviation -> major code -> classification code -> students) */
+	public Hashtable<String, Hashtable<String, Hashtable<String, Integer>>> getAreaMajorClasf2ll(org.hibernate.Session hibSession) {
+		Hashtable<String, Hashtable<String, Hashtable<String, Integer>>> area2major2clasf2ll = new Hashtable<String, Hashtable<String, Hashtable<String, Integer>>>();
+		for (Map.Entry<String, Map<String, Map<String, Double>>> a: getLastLikeDemands(hibSession).iStudents.entrySet()) {
+			Hashtable<String, Hashtable<String, Integer>> major2clasf2ll = new Hashtable<String, Hashtable<String, Integer>>();
+			for (Map.Entry<String, Map<String, Double>> f: a.getValue().entrySet()) {
+				for (Map.Entry<String, Double> m: f.getValue().entrySet()) {
+					Hashtable<String, Integer> clasf2ll = major2clasf2ll.get(m.getKey());
+					if (clasf2ll == null) {
+						clasf2ll = new Hashtable<String, Integer>();
+						major2clasf2ll.put(m.getKey(), clasf2ll);
+					}
+					clasf2ll.put(f.getKey(), Math.round(m.getValue().floatValue()));
+				}
+			}
+			area2major2clasf2ll.put(a.getKey(), major2clasf2ll);
+		}
+		return area2major2clasf2ll;
+	}
+
+	/** Projection rules of an academic session */
+	protected static class ProjectionRules {
+		private long iCreated = System.currentTimeMillis();
+		private Set<Long> iAreaIds = new HashSet<Long>();
+		private Map<Long, Hashtable<String, HashMap<String, Float>>> iRules = new HashMap<Long, Hashtable<String, HashMap<String, Float>>>();
+		private Map<Long, Hashtable<String, HashMap<String, Float>>> iSnapshotRules = new HashMap<Long, Hashtable<String, HashMap<String, Float>>>();
+		private Hashtable<String, Hashtable<String, HashMap<String, Float>>> iAreaRules = new Hashtable<String, Hashtable<String, HashMap<String, Float>>>();
+
+		protected ProjectionRules(org.hibernate.Session hibSession, Long sessionId) {
+			long t0 = System.currentTimeMillis();
+			iAreaIds.addAll(hibSession.createQuery(
+					"select a.uniqueId from AcademicArea a where a.session.uniqueId = :sessionId", Long.class)
+					.setParameter("sessionId", sessionId).setCacheable(true).list());
+			for (CurriculumProjectionRule rule: hibSession.createQuery(
+					"select r from CurriculumProjectionRule r where r.academicArea.session.uniqueId = :sessionId", CurriculumProjectionRule.class)
+					.setParameter("sessionId", sessionId).setCacheable(true).list()) {
+				Long areaId = rule.getAcademicArea().getUniqueId();
+				String areaAbbv = rule.getAcademicArea().getAcademicAreaAbbreviation();
+				String majorCode = (rule.getMajor() == null ? "" : rule.getMajor().getCode());
+				String clasfCode = rule.getAcademicClassification().getCode();
+				getMajor2Proj(iRules, areaId, clasfCode).put(majorCode, rule.getProjection());
+				getMajor2Proj(iSnapshotRules, areaId, clasfCode).put(majorCode, rule.getSnapshotProjection());
+				Hashtable<String, HashMap<String, Float>> clasf2major2proj = iAreaRules.get(areaAbbv);
+				if (clasf2major2proj == null) {
+					clasf2major2proj = new Hashtable<String, HashMap<String, Float>>();
+					iAreaRules.put(areaAbbv, clasf2major2proj);
+				}
+				HashMap<String, Float> major2proj = clasf2major2proj.get(clasfCode);
+				if (major2proj == null) {
+					major2proj = new HashMap<String, Float>();
+					clasf2major2proj.put(clasfCode, major2proj);
+				}
+				major2proj.put(majorCode, rule.getProjection());
+			}
+			sLog.debug("Projection rules of session " + sessionId + " loaded in " + (System.currentTimeMillis() - t0) + " ms.");
+		}
+
+		private static HashMap<String, Float> getMajor2Proj(Map<Long, Hashtable<String, HashMap<String, Float>>> rules, Long areaId, String clasfCode) {
+			Hashtable<String, HashMap<String, Float>> clasf2major2proj = rules.get(areaId);
+			if (clasf2major2proj == null) {
+				clasf2major2proj = new Hashtable<String, HashMap<String, Float>>();
+				rules.put(areaId, clasf2major2proj);
+			}
+			HashMap<String, Float> major2proj = clasf2major2proj.get(clasfCode);
+			if (major2proj == null) {
+				major2proj = new HashMap<String, Float>();
+				clasf2major2proj.put(clasfCode, major2proj);
+			}
+			return major2proj;
+		}
+
+		protected boolean isExpired() {
+			return System.currentTimeMillis() - iCreated > getTimeToLive();
+		}
+	}
+
+	/** Last-like students of an academic session, aggregated by academic area, classification, major, and course */
+	protected static class LastLikeDemands {
+		private long iCreated = System.currentTimeMillis();
+		private Map<String, Map<String, Map<String, Double>>> iStudents = new HashMap<String, Map<String, Map<String, Double>>>();
+		private Map<String, Map<String, Map<String, Map<Long, double[]>>>> iCourses = new HashMap<String, Map<String, Map<String, Map<Long, double[]>>>>();
+
+		protected LastLikeDemands(org.hibernate.Session hibSession, Long sessionId) {
+			long t0 = System.currentTimeMillis();
+			for (Object[] o: hibSession.createQuery(
+					"select r.academicAreaAbbreviation, f.code, m.code, sum(a.weight) from Student s " +
+					"inner join s.areaClasfMajors a inner join a.academicClassification f inner join a.academicArea r inner join a.major m " +
+					"where s.uniqueId in (select x.student.uniqueId from LastLikeCourseDemand x where x.subjectArea.session.uniqueId = :sessionId) " +
+					"group by r.academicAreaAbbreviation, f.code, m.code", Object[].class)
+					.setParameter("sessionId", sessionId).setCacheable(true).list()) {
+				String areaAbbv = (String)o[0];
+				String clasfCode = (String)o[1];
+				if (areaAbbv == null || clasfCode == null) continue;
+				String majorCode = (o[2] == null ? "" : (String)o[2]);
+				Map<String, Map<String, Double>> clasf2major2ll = iStudents.get(areaAbbv);
+				if (clasf2major2ll == null) {
+					clasf2major2ll = new HashMap<String, Map<String, Double>>();
+					iStudents.put(areaAbbv, clasf2major2ll);
+				}
+				Map<String, Double> major2ll = clasf2major2ll.get(clasfCode);
+				if (major2ll == null) {
+					major2ll = new HashMap<String, Double>();
+					clasf2major2ll.put(clasfCode, major2ll);
+				}
+				major2ll.put(majorCode, ((Number)o[3]).doubleValue());
+			}
+			for (int check = 0; check < sCourseChecks.length; check++) {
+				for (Object[] o: hibSession.createQuery(
+						"select r.academicAreaAbbreviation, f.code, m.code, co.uniqueId, sum(a.weight) from " +
+						"CourseOffering co, LastLikeCourseDemand x inner join x.student s inner join s.areaClasfMajors a " +
+						"inner join a.academicClassification f inner join a.academicArea r inner join a.major m " +
+						"where " + sCourseChecks[check] + " group by r.academicAreaAbbreviation, f.code, m.code, co.uniqueId", Object[].class)
+						.setParameter("sessionId", sessionId).setCacheable(true).list()) {
+					String areaAbbv = (String)o[0];
+					String clasfCode = (String)o[1];
+					if (areaAbbv == null || clasfCode == null) continue;
+					String majorCode = (o[2] == null ? "" : (String)o[2]);
+					Long courseId = (Long)o[3];
+					Map<String, Map<String, Map<Long, double[]>>> clasf2major2course2ll = iCourses.get(areaAbbv);
+					if (clasf2major2course2ll == null) {
+						clasf2major2course2ll = new HashMap<String, Map<String, Map<Long, double[]>>>();
+						iCourses.put(areaAbbv, clasf2major2course2ll);
+					}
+					Map<String, Map<Long, double[]>> major2course2ll = clasf2major2course2ll.get(clasfCode);
+					if (major2course2ll == null) {
+						major2course2ll = new HashMap<String, Map<Long, double[]>>();
+						clasf2major2course2ll.put(clasfCode, major2course2ll);
+					}
+					Map<Long, double[]> course2ll = major2course2ll.get(majorCode);
+					if (course2ll == null) {
+						course2ll = new HashMap<Long, double[]>();
+						major2course2ll.put(majorCode, course2ll);
+					}
+					double[] ll = course2ll.get(courseId);
+					if (ll == null) {
+						ll = new double[sCourseChecks.length];
+						Arrays.fill(ll, Double.NaN);
+						course2ll.put(courseId, ll);
+					}
+					ll[check] = ((Number)o[4]).doubleValue();
+				}
+			}
+			sLog.debug("Last-like demands of session " + sessionId + " loaded in " + (System.currentTimeMillis() - t0) + " ms.");
+		}
+
+		protected boolean isExpired() {
+			return System.currentTimeMillis() - iCreated > getTimeToLive();
+		}
+	}
+}
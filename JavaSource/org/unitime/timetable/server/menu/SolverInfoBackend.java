@@ -37,10 +37,11 @@ import org.unitime.timetable.gwt.resources.GwtMessages;
 import org.unitime.timetable.gwt.shared.MenuInterface.InfoPairInterface;
 import org.unitime.timetable.gwt.shared.MenuInterface.SolverInfoInterface;
 import org.unitime.timetable.gwt.shared.MenuInterface.SolverInfoRpcRequest;
-import org.unitime.timetable.model.SolverParameterGroup.SolverType;
+import org.unitime.timetable.gwt.shared.SolverInterface.SolverType;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.security.SessionContext;
 import org.unitime.timetable.security.rights.Right;
+import org.unitime.timetable.server.solver.SolverProgressWatcher;
 import org.unitime.timetable.solver.CommonSolverInterface;
 import org.unitime.timetable.solver.SolverProxy;
 import org.unitime.timetable.solver.exam.ExamSolverProxy;
@@ -64,21 +65,23 @@ public class SolverInfoBackend implements GwtRpcImplementation<SolverInfoRpcRequ
 
 	@Override
 	public SolverInfoInterface execute(SolverInfoRpcRequest request, SessionContext context) {
+		SolverType type = SolverType.STUDENT;
 		CommonSolverInterface solver = studentSectioningSolverService.getSolver(false);
-		if (solver == null) solver = examinationSolverService.getSolver();
-		if (solver == null) solver = courseTimetablingSolverService.getSolver();
-		if (solver == null) solver = instructorSchedulingSolverService.getSolver();
-		if (solver == null && context.hasPermission(Right.StudentSectioningSolverDashboard))
-			solver = studentSectioningSolverService.getPublishedSolver(); 
-		SolverInfoInterface info = getInfo(solver, request.isIncludeSolutionInfo());
-		if (solver != null && solver.getType() == SolverType.STUDENT && info != null && !context.hasPermission(Right.StudentSectioningSolver))
+		if (solver == null) { solver = examinationSolverService.getSolver(); type = SolverType.EXAM; }
+		if (solver == null) { solver = courseTimetablingSolverService.getSolver(); type = SolverType.COURSE; }
+		if (solver == null) { solver = instructorSchedulingSolverService.getSolver(); type = SolverType.INSTRUCTOR; }
+		if (solver == null && context.hasPermission(Right.StudentSectioningSolverDashboard)) {
+			solver = studentSectioningSolverService.getPublishedSolver(); type = SolverType.STUDENT;
+		}
+		SolverInfoInterface info = getInfo(type, solver, request.isIncludeSolutionInfo());
+		if (solver != null && type == SolverType.STUDENT && info != null && !context.hasPermission(Right.StudentSectioningSolver))
 			info.setUrl("gwt.jsp?page=batchsctdash");
 		return info;
 	}
 	
-	public SolverInfoInterface getInfo(CommonSolverInterface solver, boolean includeSolutionInfo) {
+	public SolverInfoInterface getInfo(SolverType type, CommonSolverInterface solver, boolean includeSolutionInfo) {
 		if (solver == null) return null;
-		Map progress = solver.getProgress();
+		Map<String, Object> progress = SolverProgressWatcher.getProgress(type, solver);
 		if (progress == null) return null;
 		
 		SolverInfoInterface ret = new SolverInfoInterface();
@@ -95,7 +98,7 @@ public class SolverInfoBackend implements GwtRpcImplementation<SolverInfoRpcRequ
 			ownerName = ownerName.substring(0,47) + "...";
 
 		Map<String, String> translations = null;
-		switch (solver.getType()) {
+		switch (type) {
 		case COURSE:
 			ret.setType(MESSAGES.solverCourse());
 			ret.setUrl("gwt.jsp?page=solver&type=course");
@@ -36,6 +36,7 @@ import org.cpsolver.coursett.model.RoomLocation;
 import org.cpsolver.coursett.model.TimetableModel;
 import org.cpsolver.ifs.assignment.Assignment;
 import org.cpsolver.ifs.criteria.Criterion;
+import org.cpsolver.ifs.model.Model;
 import org.cpsolver.ifs.solution.Solution;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.unitime.localization.impl.Localization;
@@ -155,7 +156,10 @@ public class ComputeSuggestionsBackend implements GwtRpcImplementation<ComputeSu
                 if (!resolvedLectures.contains(request.getClassId())) {
                 	initialLectures =  new ArrayList<Lecture>(1); initialLectures.add(lecture);
                 }
-            	backtrack(context, solver, suggestions, new Query(request.getFilter()), System.currentTimeMillis(), initialLectures, resolvedLectures, conflictsToResolve, initialAssignments, request.getDepth());
+                if (ParallelSuggestionsSearch.isEnabled(solver.getProperties(), request.getDepth()))
+                	new ParallelSuggestionsSearch(context, solver, suggestions, new Query(request.getFilter()), System.currentTimeMillis()).backtrack(initialLectures, resolvedLectures, conflictsToResolve, initialAssignments, request.getDepth());
+                else
+                	backtrack(context, solver, suggestions, new Query(request.getFilter()), System.currentTimeMillis(), initialLectures, resolvedLectures, conflictsToResolve, initialAssignments, request.getDepth());
         	}
         }
         
@@ -226,41 +230,13 @@ public class ComputeSuggestionsBackend implements GwtRpcImplementation<ComputeSu
             	if (suggestions.isTimeoutReached()) break;
                 Placement placement = placementValue.getPlacement();
                 Placement current = assignment.getValue(lecture);
-                if (placement.equals(current)) continue;
-                if (!suggestions.isAllowBreakHard() && placement.isHard(assignment)) continue;
-                if (suggestions.isSameTime() && current!=null && !placement.getTimeLocation().equals(((Placement)current).getTimeLocation())) continue;
-                if (suggestions.isSameRoom() && current!=null && !placement.sameRooms((Placement)current)) continue;
-                if (suggestions.isSameTime() && current==null) {
-                    Placement ini = (Placement)initialAssignments.get(lecture);
-                    if (ini!=null && !placement.sameTime(ini)) continue;
-                }
-                if (suggestions.isSameRoom() && current==null) {
-                    Placement ini = (Placement)initialAssignments.get(lecture);
-                    if (ini!=null && !placement.sameRooms(ini)) continue;
-                }
-                Set<Placement> conflicts = model.conflictValues(assignment, placement);
-                if (conflicts!=null && (nrUnassigned + conflicts.size()>depth)) continue;
-                if (containsCommited(model, conflicts)) continue;
-                if (conflicts.contains(placement)) continue;
-                boolean containException = false;
-                if (conflicts!=null) {
-                    for (Iterator<Placement> i=conflicts.iterator();!containException && i.hasNext();) {
-                        Placement c = i.next();
-                        if (resolvedLectures.contains(c.variable().getClassId())) containException = true;
-                    }
-                }
-                if (containException) continue;
-                if (conflicts!=null) {
-                    for (Iterator<Placement> i=conflicts.iterator();!containException && i.hasNext();) {
-                        Placement c = i.next();
-                        assignment.unassign(0, c.variable());
-                    }
-                }
+                Set<Placement> conflicts = getConflicts(suggestions, model, assignment, placement, resolvedLectures, initialAssignments, nrUnassigned, depth);
+                if (conflicts == null) continue;
+                for (Placement c: conflicts)
+                	assignment.unassign(0, c.variable());
                 assignment.assign(0, placement);
-                for (Iterator<Placement> i=conflicts.iterator();!containException && i.hasNext();) {
-                    Placement c = i.next();
-                    conflictsToResolve.put(c.variable(),c);
-                }
+                for (Placement c: conflicts)
+                	conflictsToResolve.put(c.variable(), c);
                 Placement resolvedConf = (Placement)conflictsToResolve.remove(lecture);
                 backtrack(context, solver, suggestions, query, startTime, null, resolvedLectures, conflictsToResolve, initialAssignments, depth-1);
                 if (current==null)
@@ -280,6 +256,35 @@ public class ComputeSuggestionsBackend implements GwtRpcImplementation<ComputeSu
         }
     }
 	
+	/**
+	 * Conflicts of the given placement of a lecture that is being resolved by {@link #backtrack(SuggestionsContext, TimetableSolver, Suggestions, Query, long, List, List, Map, Map, int)}
+	 * @return null if the placement is not to be considered (e.g., it is the current placement, it does not meet the same time / same room
+	 * restrictions, or it would create too many conflicts or conflicts that cannot be resolved)
+	 */
+	protected static Set<Placement> getConflicts(Suggestions suggestions, TimetableModel model, Assignment<Lecture, Placement> assignment, Placement placement, List<Long> resolvedLectures, Map<Lecture, Placement> initialAssignments, int nrUnassigned, int depth) {
+		Lecture lecture = placement.variable();
+		Placement current = assignment.getValue(lecture);
+        if (placement.equals(current)) return null;
+        if (!suggestions.isAllowBreakHard() && placement.isHard(assignment)) return null;
+        if (suggestions.isSameTime() && current!=null && !placement.getTimeLocation().equals(current.getTimeLocation())) return null;
+        if (suggestions.isSameRoom() && current!=null && !placement.sameRooms(current)) return null;
+        if (suggestions.isSameTime() && current==null) {
+            Placement ini = initialAssignments.get(lecture);
+            if (ini!=null && !placement.sameTime(ini)) return null;
+        }
+        if (suggestions.isSameRoom() && current==null) {
+            Placement ini = initialAssignments.get(lecture);
+            if (ini!=null && !placement.sameRooms(ini)) return null;
+        }
+        Set<Placement> conflicts = model.conflictValues(assignment, placement);
+        if (nrUnassigned + conflicts.size() > depth) return null;
+        if (containsCommited(model, conflicts)) return null;
+        if (conflicts.contains(placement)) return null;
+        for (Placement c: conflicts)
+        	if (resolvedLectures.contains(c.variable().getClassId())) return null;
+        return conflicts;
+	}
+	
 	private static void placements(SuggestionsContext context, TimetableSolver solver, Suggestions suggestions, Query query, long startTime, Lecture lecture, List<Long> resolvedLectures, Map<Lecture, Placement> conflictsToResolve, Map<Lecture, Placement> initialAssignments) {
 		int nrUnassigned = conflictsToResolve.size();
 		if (conflictsToResolve.containsKey(lecture)) nrUnassigned--;
@@ -352,9 +357,13 @@ public class ComputeSuggestionsBackend implements GwtRpcImplementation<ComputeSu
     }
 	
 	protected static double getBound(Query query, Suggestions suggestions, TimetableSolver solver, Map<Lecture, Placement> conflictsToResolve) {
-    	double value = solver.currentSolution().getModel().getTotalValue(solver.currentSolution().getAssignment());
+		return getBound(query, suggestions, solver.currentSolution().getModel(), solver.currentSolution().getAssignment(), conflictsToResolve);
+	}
+	
+	protected static double getBound(Query query, Suggestions suggestions, Model<Lecture, Placement> model, Assignment<Lecture, Placement> assignment, Map<Lecture, Placement> conflictsToResolve) {
+    	double value = model.getTotalValue(assignment);
     	for (Lecture lect: conflictsToResolve.keySet()) {
-    		TreeSet<PlacementValue> values = values(query, suggestions, solver, lect);
+    		TreeSet<PlacementValue> values = values(query, suggestions, assignment, lect);
     		if (!values.isEmpty()) {
     			PlacementValue val = values.first();
     			value += val.getValue();
@@ -450,8 +459,11 @@ public class ComputeSuggestionsBackend implements GwtRpcImplementation<ComputeSu
 	}
 	
 	protected static TreeSet<PlacementValue> values(Query query, Suggestions suggestions, TimetableSolver solver, Lecture lecture) {
+		return values(query, suggestions, solver.currentSolution().getAssignment(), lecture);
+	}
+	
+	protected static TreeSet<PlacementValue> values(Query query, Suggestions suggestions, Assignment<Lecture, Placement> assignment, Lecture lecture) {
     	TreeSet<PlacementValue> vals = new TreeSet();
-    	Assignment<Lecture, Placement> assignment = solver.currentSolution().getAssignment();
     	if (lecture.getClassId().equals(suggestions.getClassId())) {
     		for (Placement p: (lecture.allowBreakHard() || !suggestions.isAllowBreakHard() ? lecture.values(assignment) : lecture.computeValues(assignment, true))) {
     			if (match(query, suggestions, p)) vals.add(new PlacementValue(assignment, p));
@@ -0,0 +1,337 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.server.solver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.coursett.model.Lecture;
+import org.cpsolver.coursett.model.Placement;
+import org.cpsolver.coursett.model.TimetableModel;
+import org.cpsolver.ifs.assignment.Assignment;
+import org.cpsolver.ifs.assignment.AssignmentMap;
+import org.cpsolver.ifs.util.DataProperties;
+import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.shared.SuggestionsInterface.Suggestion;
+import org.unitime.timetable.gwt.shared.SuggestionsInterface.Suggestions;
+import org.unitime.timetable.server.solver.ComputeSuggestionsBackend.PlacementValue;
+import org.unitime.timetable.solver.TimetableSolver;
+
+/**
+ * Multi-threaded version of the suggestions backtracking search of {@link ComputeSuggestionsBackend}.
+ * The search tree is split by the first level placement alternatives (a lecture to resolve and its placement), which are
+ * processed by a pool of workers, each worker searching on its own copy of the current assignment. The best suggestions found
+ * so far are shared between the workers, so that the bound of the worst kept suggestion is used to prune the search of all of them.
+ * <br>
+ * The workers only keep the changed placements of the best suggestions. Once the search is done, these are applied
+ * to the solver's assignment one by one to create the resulting {@link Suggestion}s.
+ * <br>
+ * Configuration: Suggestions.NrThreads (defaults to Parallel.NrSolvers, one when not set; parallel search is disabled when set to one),
+ * Suggestions.ParallelDepth (minimal search depth for which the parallel search is used, defaults to 2).
+ *
+ * @author Tomas Muller
+ */
+public class ParallelSuggestionsSearch {
+	private static Log sLog = LogFactory.getLog(ParallelSuggestionsSearch.class);
+	private SuggestionsContext iContext;
+	private TimetableSolver iSolver;
+	private TimetableModel iModel;
+	private Suggestions iSuggestions;
+	private Query iQuery;
+	private long iStartTime;
+	private int iNrThreads;
+	private AtomicInteger iNrCombinationsConsidered = new AtomicInteger(0);
+	private volatile boolean iTimeoutReached = false;
+	private TreeSet<Candidate> iCandidates = new TreeSet<Candidate>();
+	private Set<Map<Long, Placement>> iCandidateKeys = new HashSet<Map<Long, Placement>>();
+	private volatile double iWorstValue = Double.MAX_VALUE;
+	private int iCandidateId = 0;
+
+	public ParallelSuggestionsSearch(SuggestionsContext context, TimetableSolver solver, Suggestions suggestions, Query query, long startTime) {
+		iContext = context;
+		iSolver = solver;
+		iModel = (TimetableModel)solver.currentSolution().getModel();
+		iSuggestions = suggestions;
+		iQuery = query;
+		iStartTime = startTime;
+		iNrThreads = getNrThreads(solver.getProperties());
+	}
+
+	protected static int getNrThreads(DataProperties properties) {
+		return Math.max(1, properties.getPropertyInt("Suggestions.NrThreads", properties.getPropertyInt("Parallel.NrSolvers", 1)));
+	}
+
+	/** True if the parallel search is to be used for the given depth */
+	public static boolean isEnabled(DataProperties properties, int depth) {
+		return getNrThreads(properties) > 1 && depth >= properties.getPropertyInt("Suggestions.ParallelDepth", 2);
+	}
+
+	/**
+	 * Compute suggestions, the parameters have the same meaning as in the first call of the backtracking search.
+	 * The resulting suggestions are added to the suggestions given in the constructor.
+	 */
+	public void backtrack(List<Lecture> initialLectures, List<Long> resolvedLectures, Map<Lecture, Placement> conflictsToResolve, Map<Lecture, Placement> initialAssignments, int depth) {
+		iNrCombinationsConsidered.incrementAndGet();
+		Assignment<Lecture, Placement> assignment = iSolver.currentSolution().getAssignment();
+		if ((initialLectures == null || initialLectures.isEmpty()) && conflictsToResolve.isEmpty()) {
+			addCandidate(new Candidate(iModel.getTotalValue(assignment), new HashMap<Lecture, Placement>(), resolvedLectures));
+		} else if (depth > 0) {
+			// first level alternatives, the best placements are tried first
+			List<Alternative> alternatives = new ArrayList<Alternative>();
+			for (Lecture lecture: (initialLectures != null && !initialAssignments.isEmpty() ? initialLectures : conflictsToResolve.keySet())) {
+				if (resolvedLectures.contains(lecture.getClassId())) continue;
+				for (PlacementValue value: ComputeSuggestionsBackend.values(iQuery, iSuggestions, assignment, lecture))
+					alternatives.add(new Alternative(alternatives.size(), value));
+			}
+			Collections.sort(alternatives);
+			search(new ConcurrentLinkedQueue<Alternative>(alternatives), resolvedLectures, conflictsToResolve, initialAssignments, depth);
+		}
+		iSuggestions.setNrCombinationsConsidered(iSuggestions.getNrCombinationsConsidered() + iNrCombinationsConsidered.get());
+		if (iTimeoutReached) iSuggestions.setTimeoutReached(true);
+
+		// create the suggestions on the solver's assignment
+		for (Candidate candidate: iCandidates) {
+			Map<Lecture, Placement> original = new HashMap<Lecture, Placement>();
+			for (Lecture lecture: candidate.getChanges().keySet()) {
+				Placement placement = assignment.getValue(lecture);
+				if (placement != null) {
+					original.put(lecture, placement);
+					assignment.unassign(0, lecture);
+				}
+			}
+			for (Placement placement: candidate.getChanges().values())
+				assignment.assign(0, placement);
+			iSuggestions.addSuggestion(SelectedAssignmentBackend.createSuggestion(iContext, iSolver, initialAssignments, candidate.getOrder(), Collections.<Placement>emptyList()));
+			for (Lecture lecture: candidate.getChanges().keySet())
+				assignment.unassign(0, lecture);
+			for (Placement placement: original.values())
+				assignment.assign(0, placement);
+		}
+	}
+
+	protected void search(final ConcurrentLinkedQueue<Alternative> alternatives, final List<Long> resolvedLectures, final Map<Lecture, Placement> conflictsToResolve, final Map<Lecture, Placement> initialAssignments, final int depth) {
+		long t0 = System.currentTimeMillis();
+		int nrAlternatives = alternatives.size();
+		final Assignment<Lecture, Placement> assignment = iSolver.currentSolution().getAssignment();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(iNrThreads, Math.max(1, nrAlternatives)), new ThreadFactory() {
+			private AtomicInteger iIndex = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Suggestions-" + iIndex.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < Math.min(iNrThreads, nrAlternatives); i++)
+				futures.add(executor.submit(() -> {
+					new Worker(new AssignmentMap<Lecture, Placement>(assignment), resolvedLectures, conflictsToResolve, initialAssignments, depth).run(alternatives);
+				}));
+			for (Future<?> future: futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Computation of suggestions was interrupted.", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Computation of suggestions failed: " + e.getCause().getMessage(), e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		sLog.debug("Searched " + nrAlternatives + " alternatives (" + iNrCombinationsConsidered.get() + " combinations) using " + iNrThreads + " threads in " + (System.currentTimeMillis() - t0) + " ms.");
+	}
+
+	/** True if the limit of suggestions has been reached and the given value is worse than the worst of them */
+	protected boolean isWorse(double value) {
+		return iWorstValue < value;
+	}
+
+	protected void addCandidate(Candidate candidate) {
+		synchronized (iCandidates) {
+			if (!iCandidateKeys.add(candidate.getKey())) return;
+			candidate.setId(iCandidateId++);
+			iCandidates.add(candidate);
+			if (iCandidates.size() > iSuggestions.getLimit()) {
+				Candidate last = iCandidates.pollLast();
+				iCandidateKeys.remove(last.getKey());
+			}
+			if (iCandidates.size() >= iSuggestions.getLimit())
+				iWorstValue = iCandidates.last().getValue();
+		}
+	}
+
+	protected boolean checkTimeout() {
+		if (!iTimeoutReached && iSuggestions.getTimeLimit() > 0 && System.currentTimeMillis() - iStartTime > iSuggestions.getTimeLimit())
+			iTimeoutReached = true;
+		return iTimeoutReached;
+	}
+
+	/**
+	 * Search of one thread, using its own assignment
+	 */
+	protected class Worker {
+		private Assignment<Lecture, Placement> iAssignment;
+		private List<Long> iResolvedLectures;
+		private Map<Lecture, Placement> iConflictsToResolve;
+		private Map<Lecture, Placement> iInitialAssignments;
+		private int iDepth;
+		private List<Lecture> iPath = new ArrayList<Lecture>();
+
+		Worker(Assignment<Lecture, Placement> assignment, List<Long> resolvedLectures, Map<Lecture, Placement> conflictsToResolve, Map<Lecture, Placement> initialAssignments, int depth) {
+			iAssignment = assignment;
+			iResolvedLectures = new ArrayList<Long>(resolvedLectures);
+			iConflictsToResolve = new HashMap<Lecture, Placement>(conflictsToResolve);
+			iInitialAssignments = initialAssignments;
+			iDepth = depth;
+		}
+
+		void run(ConcurrentLinkedQueue<Alternative> alternatives) {
+			Alternative alternative = null;
+			while (!iTimeoutReached && (alternative = alternatives.poll()) != null) {
+				Lecture lecture = alternative.getPlacement().variable();
+				iResolvedLectures.add(lecture.getClassId());
+				try {
+					assign(alternative.getPlacement(), iDepth);
+				} finally {
+					iResolvedLectures.remove(lecture.getClassId());
+				}
+			}
+		}
+
+		/** Assign the given placement (unassigning its conflicts), continue the search, and restore the assignment */
+		private void assign(Placement placement, int depth) {
+			Lecture lecture = placement.variable();
+			Placement current = iAssignment.getValue(lecture);
+			Set<Placement> conflicts = ComputeSuggestionsBackend.getConflicts(iSuggestions, iModel, iAssignment, placement, iResolvedLectures, iInitialAssignments, iConflictsToResolve.size(), depth);
+			if (conflicts == null) return;
+			for (Placement c: conflicts)
+				iAssignment.unassign(0, c.variable());
+			iAssignment.assign(0, placement);
+			for (Placement c: conflicts)
+				iConflictsToResolve.put(c.variable(), c);
+			Placement resolvedConf = iConflictsToResolve.remove(lecture);
+			iPath.add(lecture);
+			backtrack(depth - 1);
+			iPath.remove(iPath.size() - 1);
+			if (current == null)
+				iAssignment.unassign(0, lecture);
+			else
+				iAssignment.assign(0, current);
+			for (Placement p: conflicts) {
+				iAssignment.assign(0, p);
+				iConflictsToResolve.remove(p.variable());
+			}
+			if (resolvedConf != null)
+				iConflictsToResolve.put(lecture, resolvedConf);
+		}
+
+		private void backtrack(int depth) {
+			iNrCombinationsConsidered.incrementAndGet();
+			if (iConflictsToResolve.isEmpty()) {
+				double value = iModel.getTotalValue(iAssignment);
+				if (isWorse(value)) return;
+				Map<Lecture, Placement> changes = new LinkedHashMap<Lecture, Placement>();
+				for (Lecture lecture: iPath)
+					changes.put(lecture, iAssignment.getValue(lecture));
+				addCandidate(new Candidate(value, changes, iResolvedLectures));
+				return;
+			}
+			if (depth <= 0) return;
+			if (checkTimeout()) return;
+			if (iWorstValue < Double.MAX_VALUE && isWorse(ComputeSuggestionsBackend.getBound(iQuery, iSuggestions, iModel, iAssignment, iConflictsToResolve))) return;
+			for (Lecture lecture: new ArrayList<Lecture>(iConflictsToResolve.keySet())) {
+				if (iTimeoutReached) break;
+				if (iResolvedLectures.contains(lecture.getClassId())) continue;
+				iResolvedLectures.add(lecture.getClassId());
+				for (PlacementValue value: ComputeSuggestionsBackend.values(iQuery, iSuggestions, iAssignment, lecture)) {
+					if (iTimeoutReached) break;
+					assign(value.getPlacement(), depth);
+				}
+				iResolvedLectures.remove(lecture.getClassId());
+			}
+		}
+	}
+
+	/** First level alternative: a placement of a lecture that is to be resolved */
+	protected static class Alternative implements Comparable<Alternative> {
+		private int iIndex;
+		private PlacementValue iValue;
+
+		Alternative(int index, PlacementValue value) {
+			iIndex = index; iValue = value;
+		}
+
+		public Placement getPlacement() { return iValue.getPlacement(); }
+
+		@Override
+		public int compareTo(Alternative a) {
+			int cmp = Double.compare(iValue.getValue(), a.iValue.getValue());
+			if (cmp != 0) return cmp;
+			return Integer.compare(iIndex, a.iIndex);
+		}
+	}
+
+	/** A suggestion found by a worker: its value and the changed placements */
+	protected static class Candidate implements Comparable<Candidate> {
+		private double iValue;
+		private Map<Lecture, Placement> iChanges;
+		private List<Long> iOrder;
+		private Map<Long, Placement> iKey = new HashMap<Long, Placement>();
+		private int iId = 0;
+
+		Candidate(double value, Map<Lecture, Placement> changes, List<Long> order) {
+			iValue = value;
+			iChanges = changes;
+			iOrder = new ArrayList<Long>(order);
+			for (Map.Entry<Lecture, Placement> e: changes.entrySet())
+				iKey.put(e.getKey().getClassId(), e.getValue());
+		}
+
+		public double getValue() { return iValue; }
+		public Map<Lecture, Placement> getChanges() { return iChanges; }
+		public List<Long> getOrder() { return iOrder; }
+		/** Changed placements by class id, used to detect the same suggestion found in a different order */
+		public Map<Long, Placement> getKey() { return iKey; }
+		void setId(int id) { iId = id; }
+
+		@Override
+		public int compareTo(Candidate c) {
+			int cmp = Double.compare(iValue, c.iValue);
+			if (cmp != 0) return cmp;
+			return Integer.compare(iId, c.iId);
+		}
+	}
+}
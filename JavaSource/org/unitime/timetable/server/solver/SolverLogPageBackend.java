@@ -25,6 +25,7 @@ import java.util.StringTokenizer;
 import org.cpsolver.ifs.util.Progress;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.unitime.localization.impl.Localization;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.defaults.SessionAttribute;
 import org.unitime.timetable.gwt.command.client.GwtRpcException;
 import org.unitime.timetable.gwt.command.server.GwtRpcImplementation;
@@ -42,6 +43,7 @@ import org.unitime.timetable.model.dao.SolutionDAO;
 import org.unitime.timetable.security.SessionContext;
 import org.unitime.timetable.security.rights.Right;
 import org.unitime.timetable.solver.CommonSolverInterface;
+import org.unitime.timetable.solver.ProgressLogUpdate;
 import org.unitime.timetable.solver.SolverProxy;
 import org.unitime.timetable.solver.exam.ExamSolverProxy;
 import org.unitime.timetable.solver.instructor.InstructorSchedulingProxy;
@@ -113,10 +115,27 @@ public class SolverLogPageBackend implements GwtRpcImplementation<SolverLogPageR
 			throw new GwtRpcException(MESSAGES.warnSolverNotStarted());
 		}
 		
-		List<Progress.Message> log = solver.getProgressLog(level.ordinal(), null, request.getLastDate());
-		if (log != null)
-			for (Progress.Message m: log)
-				response.addMessage(m.getLevel(), m.getDate(), m.getMessage(), m.getTrace());
+		if (request.getLastDate() != null) {
+			List<Progress.Message> log = solver.getProgressLog(level.ordinal(), null, request.getLastDate());
+			if (log != null)
+				for (Progress.Message m: log)
+					response.addMessage(m.getLevel(), m.getDate(), m.getMessage(), m.getTrace());
+		} else {
+			// incremental log, shared with the other users watching the same solver
+			long timeout = (request.isWait() ? 1000l * Math.max(0, ApplicationProperty.SolverLogLongPollTimeout.intValue()) : 0l);
+			try {
+				ProgressLogUpdate update = SolverProgressWatcher.waitForUpdate(request.getType(), solver, level.ordinal(), request.getLogId(), request.getSequence(), timeout);
+				response.setLogId(update.getLogId());
+				response.setSequence(update.getSequence());
+				response.setReset(update.isReset());
+				for (Progress.Message m: update.getMessages())
+					response.addMessage(m.getLevel(), m.getDate(), m.getMessage(), m.getTrace());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				response.setLogId(request.getLogId());
+				response.setSequence(request.getSequence());
+			}
+		}
 		
 		switch (request.getType()) {
 		case COURSE:
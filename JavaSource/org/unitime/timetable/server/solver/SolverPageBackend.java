@@ -613,7 +613,7 @@ public class SolverPageBackend implements GwtRpcImplementation<SolverPageRequest
 			response.setLoadDate(solver.getLoadedDate());
 			response.setWorking(solver.isRunning() || solver.isWorking());
 			try {
-				Map p = solver.getProgress();
+				Map<String, Object> p = SolverProgressWatcher.getProgress(request.getType(), solver);
 				response.setSolverStatus((String)p.get("STATUS"));
 				long progressMax = ((Long)p.get("MAX_PROGRESS")).longValue();
 				if (progressMax > 0) {
@@ -0,0 +1,214 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.server.solver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.cpsolver.ifs.util.Progress;
+import org.unitime.timetable.defaults.ApplicationProperty;
+import org.unitime.timetable.gwt.shared.SolverInterface.SolverType;
+import org.unitime.timetable.solver.CommonSolverInterface;
+import org.unitime.timetable.solver.ProgressLogUpdate;
+
+/**
+ * Shares the solver progress and progress log among all the users that are watching the same solver.
+ * There is one channel per solver (solver type, host, and owner), which asks the solver for the progress and for
+ * the new log messages (using {@link CommonSolverInterface#getProgressLogUpdate(Integer, Long, Integer)}) at most once per
+ * {@link ApplicationProperty#SolverProgressRefreshInterval} milliseconds, no matter how many users are watching it.
+ * The log messages are cached by the channel, so that each watcher only gets the messages it has not seen yet.
+ * Only the last {@link ApplicationProperty#SolverLogCacheSize} messages are cached, a watcher that is behind the cached
+ * window gets a reset containing the cached messages.
+ * <br>
+ * The solver log page uses {@link #waitForUpdate(SolverType, CommonSolverInterface, int, Long, Integer, long)} for long polling: the request
+ * returns as soon as there are new messages (or when the timeout is reached).
+ *
+ * @author Tomas Muller
+ */
+public class SolverProgressWatcher {
+	private static Map<String, Channel> sChannels = new HashMap<String, Channel>();
+	private static long sChannelTimeout = 600000l;
+
+	/**
+	 * Channel of the given solver, channels that have not been used for ten minutes are dropped
+	 * @param type solver type (as requested, the solver is not asked for its type as it may be a remote solver)
+	 * @param solver solver to watch
+	 */
+	public static Channel getChannel(SolverType type, CommonSolverInterface solver) {
+		String key = type + ":" + solver.getHost() + ":" + solver.getUser();
+		long now = System.currentTimeMillis();
+		synchronized (sChannels) {
+			for (Iterator<Channel> i = sChannels.values().iterator(); i.hasNext(); ) {
+				Channel channel = i.next();
+				if (now - channel.getLastUsed() > sChannelTimeout) i.remove();
+			}
+			Channel channel = sChannels.get(key);
+			if (channel == null) {
+				channel = new Channel();
+				sChannels.put(key, channel);
+			}
+			return channel;
+		}
+	}
+
+	/** Solver progress (see {@link CommonSolverInterface#getProgress()}), shared by all the watchers of the solver */
+	public static Map<String, Object> getProgress(SolverType type, CommonSolverInterface solver) {
+		return getChannel(type, solver).getProgress(solver);
+	}
+
+	/**
+	 * Wait for new log messages
+	 * @param type solver type
+	 * @param solver solver to watch
+	 * @param level minimal message level
+	 * @param logId log identification returned by the previous update, null for the first call
+	 * @param sequence sequence number returned by the previous update, null for the first call
+	 * @param timeout maximal time to wait in milliseconds
+	 * @return log update, it may contain no messages when the timeout has been reached
+	 */
+	public static ProgressLogUpdate waitForUpdate(SolverType type, CommonSolverInterface solver, int level, Long logId, Integer sequence, long timeout) throws InterruptedException {
+		return getChannel(type, solver).waitForUpdate(solver, level, logId, sequence, timeout);
+	}
+
+	protected static long getRefreshInterval() {
+		return Math.max(0, ApplicationProperty.SolverProgressRefreshInterval.intValue());
+	}
+
+	protected static int getCacheSize() {
+		return Math.max(1, ApplicationProperty.SolverLogCacheSize.intValue());
+	}
+
+	public static class Channel {
+		private Integer iLevel = null;
+		private Long iLogId = null;
+		private int iSequence = 0, iWindowStart = 0;
+		private List<Integer> iSequences = new ArrayList<Integer>();
+		private List<Progress.Message> iMessages = new ArrayList<Progress.Message>();
+		private boolean iRefreshing = false;
+		private long iLastRefresh = 0, iLastUsed = System.currentTimeMillis();
+		private Map<String, Object> iProgress = null;
+		private long iProgressTime = 0;
+
+		public synchronized long getLastUsed() { return iLastUsed; }
+
+		public Map<String, Object> getProgress(CommonSolverInterface solver) {
+			synchronized (this) {
+				iLastUsed = System.currentTimeMillis();
+				if (iProgress != null && iLastUsed - iProgressTime < getRefreshInterval()) return iProgress;
+			}
+			Map<String, Object> progress = solver.getProgress();
+			synchronized (this) {
+				iProgress = progress;
+				iProgressTime = System.currentTimeMillis();
+			}
+			return progress;
+		}
+
+		/** True if the cached messages can be used for the given level */
+		private boolean isValid(int level) {
+			return iLogId != null && iLevel != null && iLevel <= level;
+		}
+
+		public ProgressLogUpdate waitForUpdate(CommonSolverInterface solver, int level, Long logId, Integer sequence, long timeout) throws InterruptedException {
+			long end = System.currentTimeMillis() + timeout;
+			while (true) {
+				synchronized (this) {
+					long now = System.currentTimeMillis();
+					iLastUsed = now;
+					ProgressLogUpdate update = null;
+					if (isValid(level)) {
+						update = getUpdate(level, logId, sequence);
+						if (update.isReset() || update.hasMessages()) return update;
+					}
+					if (!iRefreshing && (update == null || now - iLastRefresh >= getRefreshInterval())) {
+						// this thread will ask the solver, the others will wait for the result
+						iRefreshing = true;
+					} else if (update != null && now >= end) {
+						return update;
+					} else {
+						wait(Math.max(10l, Math.min(end - now, getRefreshInterval() - (now - iLastRefresh))));
+						continue;
+					}
+				}
+				refresh(solver, level);
+			}
+		}
+
+		private void refresh(CommonSolverInterface solver, int level) {
+			Integer l; Long id; Integer seq;
+			synchronized (this) {
+				if (iLevel == null || level < iLevel) {
+					l = level; id = null; seq = null;
+				} else {
+					l = iLevel; id = iLogId; seq = iSequence;
+				}
+			}
+			ProgressLogUpdate update = null;
+			try {
+				update = solver.getProgressLogUpdate(l, id, seq);
+			} finally {
+				synchronized (this) {
+					if (update != null) {
+						if (update.isReset() || !l.equals(iLevel)) {
+							iSequences.clear();
+							iMessages.clear();
+							iLevel = l;
+							iWindowStart = update.getFirstSequence();
+						}
+						iSequences.addAll(update.getSequences());
+						iMessages.addAll(update.getMessages());
+						int drop = iMessages.size() - getCacheSize();
+						if (drop > 0) {
+							// keep only the last messages, the window starts right after the last dropped message
+							iWindowStart = iSequences.get(drop - 1) + 1;
+							iSequences.subList(0, drop).clear();
+							iMessages.subList(0, drop).clear();
+						}
+						iLogId = update.getLogId();
+						iSequence = update.getSequence();
+					}
+					iRefreshing = false;
+					iLastRefresh = System.currentTimeMillis();
+					notifyAll();
+				}
+			}
+		}
+
+		/** Cached messages of the given level that come after the given sequence number (reset when the sequence number is outside of the cached window) */
+		private ProgressLogUpdate getUpdate(int level, Long logId, Integer sequence) {
+			boolean reset = (logId == null || sequence == null || !logId.equals(iLogId) || sequence > iSequence || sequence < iWindowStart);
+			int first = (reset ? iWindowStart : sequence);
+			ProgressLogUpdate update = new ProgressLogUpdate(iLogId, first, reset);
+			int index = Collections.binarySearch(iSequences, first);
+			if (index < 0) index = -index - 1;
+			for (int i = index; i < iSequences.size(); i++) {
+				Progress.Message m = iMessages.get(i);
+				if (m.getLevel() >= level)
+					update.addMessage(iSequences.get(i), m);
+			}
+			update.setSequence(iSequence);
+			return update;
+		}
+	}
+}
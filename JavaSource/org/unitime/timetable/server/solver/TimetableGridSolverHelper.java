@@ -74,6 +74,7 @@ import org.unitime.timetable.model.dao.Class_DAO;
 import org.unitime.timetable.model.dao.CurriculumDAO;
 import org.unitime.timetable.model.dao.InstrOfferingConfigDAO;
 import org.unitime.timetable.model.dao.TeachingResponsibilityDAO;
+import org.unitime.timetable.solver.TimetableGridIndex;
 import org.unitime.timetable.solver.TimetableSolver;
 import org.unitime.timetable.solver.ui.StudentGroupInfo;
 import org.unitime.timetable.util.Constants;
@@ -107,34 +108,23 @@ public class TimetableGridSolverHelper extends TimetableGridHelper {
 			}
 			week = null;
 		}
-		for (Lecture lecture: room.variables()) {
-			Placement placement = assignment.getValue(lecture);
-			if (placement == null) continue;
-			if (placement.hasRoomLocation(model.getResourceId())) {
-				if (week == null || placement.getTimeLocation().shareWeeks(week))
-					assignments.add(placement);
-			}
+		TimetableGridIndex index = solver.getTimetableGridIndex();
+		for (Placement placement: getRoomPlacements(index, assignment, room)) {
+			if (week == null || placement.getTimeLocation().shareWeeks(week))
+				assignments.add(placement);
 		}
 		if (ApplicationProperty.TimeGridShowClassesAcrossPartitions.isTrue()) {
 			if (room.getParentRoom() != null) {
-				for (Lecture lecture: room.getParentRoom().variables()) {
-					Placement placement = assignment.getValue(lecture);
-					if (placement == null) continue;
-					if (placement.hasRoomLocation(room.getParentRoom().getResourceId())) {
-						if (week == null || placement.getTimeLocation().shareWeeks(week))
-							assignments.add(placement);
-					}
+				for (Placement placement: getRoomPlacements(index, assignment, room.getParentRoom())) {
+					if (week == null || placement.getTimeLocation().shareWeeks(week))
+						assignments.add(placement);
 				}
 			}
 			if (room.getPartitions() != null) {
 				for (RoomConstraint rc: room.getPartitions()) {
-					for (Lecture lecture: rc.variables()) {
-						Placement placement = assignment.getValue(lecture);
-						if (placement == null) continue;
-						if (placement.hasRoomLocation(rc.getResourceId())) {
-							if (week == null || placement.getTimeLocation().shareWeeks(week))
-								assignments.add(placement);
-						}
+					for (Placement placement: getRoomPlacements(index, assignment, rc)) {
+						if (week == null || placement.getTimeLocation().shareWeeks(week))
+							assignments.add(placement);
 					}
 				}
 			}
@@ -241,6 +231,20 @@ public class TimetableGridSolverHelper extends TimetableGridHelper {
 		return model;
 	}
 	
+	/**
+	 * Placements assigned to the given room, taken from the timetable grid index when available
+	 */
+	protected static Collection<Placement> getRoomPlacements(TimetableGridIndex index, Assignment<Lecture, Placement> assignment, RoomConstraint room) {
+		if (index != null) return index.getRoomPlacements(room.getResourceId());
+		List<Placement> placements = new ArrayList<Placement>();
+		for (Lecture lecture: room.variables()) {
+			Placement placement = assignment.getValue(lecture);
+			if (placement != null && placement.hasRoomLocation(room.getResourceId()))
+				placements.add(placement);
+		}
+		return placements;
+	}
+	
 	public static TimetableGridModel createModel(TimetableSolver solver, InstructorConstraint instructor, TimetableGridContext context) {
     	TimetableGridModel model = new TimetableGridModel(ResourceType.INSTRUCTOR.ordinal(), instructor.getId());
     	model.setName(instructor.getName());
@@ -275,7 +279,8 @@ public class TimetableGridSolverHelper extends TimetableGridHelper {
 					createCells(model, solver, p, context, true, false);
 			}
 		}
-		for (Student student: ((TimetableModel)solver.currentSolution().getModel()).getAllStudents()) {
+		TimetableGridIndex index = solver.getTimetableGridIndex();
+		for (Student student: (index == null ? ((TimetableModel)solver.currentSolution().getModel()).getAllStudents() : index.getInstructorStudents(instructor))) {
 			if (instructor.equals(student.getInstructor())) {
 				for (Lecture lecture: student.getLectures()) {
 					Placement placement = assignment.getValue(lecture);
@@ -19,11 +19,16 @@
 */
 package org.unitime.timetable.solver;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.Date;
@@ -33,6 +38,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.locks.Lock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -75,7 +82,7 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     
     private long iLastTimeStamp = System.currentTimeMillis();
     private boolean iIsPassivated = false;
-    private Map iProgressBeforePassivation = null;
+    private Map<String, Object> iProgressBeforePassivation = null;
     private Map<String,String> iCurrentSolutionInfoBeforePassivation = null;
     private Map<String,String> iBestSolutionInfoBeforePassivation = null;
     private File iPassivationFolder = null;
@@ -116,6 +123,26 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
 		}
     }
     
+    @Override
+    public ProgressLogUpdate getProgressLogUpdate(Integer level, Long logId, Integer sequence) {
+    	Progress p = Progress.getInstance(currentSolution().getModel());
+    	synchronized (p.getLog()) {
+    		List<Progress.Message> log = p.getLog();
+    		// the log is identified by the progress instance and the date of its first message, so that a cleared log is detected as well
+    		Long id = (((long)System.identityHashCode(p)) << 32) | (log.isEmpty() ? 0l : log.get(0).getDate().getTime() & 0xffffffffl);
+    		boolean reset = (logId == null || sequence == null || !logId.equals(id) || sequence > log.size() || sequence < 0);
+    		int first = (reset ? 0 : sequence);
+    		ProgressLogUpdate update = new ProgressLogUpdate(id, first, reset);
+    		for (int i = first; i < log.size(); i++) {
+    			Progress.Message m = log.get(i);
+    			if (level != null && m.getLevel() < level) continue;
+    			update.addMessage(i, m);
+    		}
+    		update.setSequence(log.size());
+    		return update;
+    	}
+    }
+    
     @Override
     public String getLog(int level, boolean includeDate, String fromStage) {
     	if (fromStage == null)
@@ -141,10 +168,10 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     }
 
     @Override
-    public Map getProgress() {
+    public Map<String, Object> getProgress() {
         if (isPassivated()) return iProgressBeforePassivation;
         try {
-            Hashtable ret = new Hashtable(); 
+            Hashtable<String, Object> ret = new Hashtable<String, Object>(); 
             Progress p = Progress.getInstance(super.currentSolution().getModel());
             ret.put("STATUS",p.getStatus());
             ret.put("PHASE",p.getPhase());
@@ -395,6 +422,10 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         }
     }
     
+    /**
+     * Current solution as an XML document. The document is created by the appropriate cpsolver XML saver, which
+     * only produces complete dom4j documents, so the whole document is kept in memory while the backup is written.
+     */
     protected abstract Document createCurrentSolutionBackup(boolean anonymize, boolean idconv);
     
     protected void saveProperties(Document document) {
@@ -413,6 +444,20 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     		}
     }
     
+    /**
+     * Backup file of the given owner, the compressed file is returned when it exists (or when compressed is true)
+     */
+    protected File getBackupFile(File folder, String puid, boolean compressed) {
+    	File xmlFile = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
+    	File gzFile = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sXmlExtension + BackupFileFilter.sGzipExtension);
+    	return (compressed || gzFile.exists() ? gzFile : xmlFile);
+    }
+    
+    /**
+     * Write the current solution into the backup file (compressed when {@link ApplicationProperty#SolverBackupCompressed} is set).
+     * Only the output is streamed: the backup document is first created in memory (see {@link #createCurrentSolutionBackup(boolean, boolean)}),
+     * and then written through the (compressing) output stream.
+     */
     @Override
     public boolean backup(File folder, String puid) {
         folder.mkdirs();
@@ -420,20 +465,27 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         Lock lock = currentSolution().getLock().readLock();
         lock.lock();
         try {
-            File outXmlFile = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
+        	boolean compressed = ApplicationProperty.SolverBackupCompressed.isTrue();
+            File outXmlFile = getBackupFile(folder, puid, compressed);
             try {
-                FileOutputStream fos = null;
+            	long t0 = System.currentTimeMillis();
+                OutputStream out = null;
                 try {
-                    fos = new FileOutputStream(outXmlFile);
+                    out = new BufferedOutputStream(new FileOutputStream(outXmlFile));
+                    if (compressed) out = new GZIPOutputStream(out);
                     Document document = createCurrentSolutionBackup(false, false);
                     saveProperties(document);
-                    (new XMLWriter(fos,OutputFormat.createPrettyPrint())).write(document);
-                    fos.flush(); fos.close(); fos=null;
+                    (new XMLWriter(out, compressed ? OutputFormat.createCompactFormat() : OutputFormat.createPrettyPrint())).write(document);
+                    out.flush(); out.close(); out=null;
                 } finally {
                     try {
-                        if (fos!=null) fos.close();
+                        if (out!=null) out.close();
                     } catch (IOException e) {}
                 }
+                // remove backup of the other format, if there is one
+                File other = new File(folder, getType().getPrefix() + puid + BackupFileFilter.sXmlExtension + (compressed ? "" : BackupFileFilter.sGzipExtension));
+                if (other.exists()) other.delete();
+                sLog.info("Solver " + getType().getPrefix() + puid + " saved to " + outXmlFile.getName() + ": " + outXmlFile.length() + " bytes written in " + (System.currentTimeMillis() - t0) + " ms.");
                 return true;
             } catch (Exception e) {
                 sLog.error(e.getMessage(),e);
@@ -455,14 +507,22 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
     @Override
     public boolean restore(File folder, String puid, boolean removeFiles) {
         sLog.debug("restore(folder="+folder+","+puid+")");
-        File inXmlFile = new File(folder,getType().getPrefix() + puid + BackupFileFilter.sXmlExtension);
+        File inXmlFile = getBackupFile(folder, puid, false);
         
         M model = null;
         try {
             if (isRunning()) stopSolver();
             disposeNoInherit(false);
 
-            Document document = (new SAXReader()).read(inXmlFile);
+            long t0 = System.currentTimeMillis();
+            Document document = null;
+            InputStream in = new BufferedInputStream(new FileInputStream(inXmlFile));
+            try {
+            	if (BackupFileFilter.isCompressed(inXmlFile)) in = new GZIPInputStream(in);
+            	document = (new SAXReader()).read(in);
+            } finally {
+            	in.close();
+            }
             readProperties(document);
             
             model = createModel(getProperties());
@@ -472,6 +532,7 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
 
             restureCurrentSolutionFromBackup(document);
             Progress.getInstance(model).setStatus(MSG.statusReady());
+            sLog.info("Solver " + getType().getPrefix() + puid + " restored from " + inXmlFile.getName() + ": " + inXmlFile.length() + " bytes read in " + (System.currentTimeMillis() - t0) + " ms.");
             
             if (removeFiles) {
                 inXmlFile.delete();
@@ -571,7 +632,10 @@ public abstract class AbstractSolver<V extends Variable<V, T>, T extends Value<V
         
         iPassivationFolder = folder;
         iPassivationPuid = puid;
-        backup(iPassivationFolder, iPassivationPuid);
+        if (!backup(iPassivationFolder, iPassivationPuid)) {
+        	sLog.warn("Failed to passivate " + puid + ": backup could not be created.");
+        	return false;
+        }
 
         disposeNoInherit(false);
         
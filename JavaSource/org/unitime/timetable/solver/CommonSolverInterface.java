@@ -52,8 +52,15 @@ public interface CommonSolverInterface {
     public byte[] exportXml() throws IOException;
     public void importXml(byte[] data) throws IOException;
 
-    public Map getProgress();
+    public Map<String, Object> getProgress();
     public List<Progress.Message> getProgressLog(Integer level, String fromStage, Date since);
+    /**
+     * Incremental progress log: messages of the given level (or above) that come after the given sequence number
+     * @param level minimal message level, null for all messages
+     * @param logId identification of the log of the previous update, null for the first call
+     * @param sequence sequence number returned by the previous update, null for the first call
+     */
+    public ProgressLogUpdate getProgressLogUpdate(Integer level, Long logId, Integer sequence);
     @Deprecated
     public String getLog(int level, boolean includeDate, String fromStage);
 	
@@ -0,0 +1,84 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.solver;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cpsolver.ifs.util.Progress;
+
+/**
+ * Incremental update of the solver progress log, see {@link CommonSolverInterface#getProgressLogUpdate(Integer, Long, Integer)}.
+ * Messages of the progress log are identified by their position (sequence number) in the log. An update contains the messages
+ * that come after the given sequence number, together with the sequence number to be used to ask for the following update.
+ * When the log has been replaced (e.g., the solver has been reloaded) or cleared, the update is a reset: it contains the whole log
+ * and the previously received messages are to be discarded.
+ *
+ * @author Tomas Muller
+ */
+public class ProgressLogUpdate implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private Long iLogId;
+	private int iFirstSequence;
+	private int iSequence;
+	private boolean iReset;
+	private List<Progress.Message> iMessages = new ArrayList<Progress.Message>();
+	private List<Integer> iSequences = new ArrayList<Integer>();
+
+	public ProgressLogUpdate(Long logId, int firstSequence, boolean reset) {
+		iLogId = logId;
+		iFirstSequence = firstSequence;
+		iSequence = firstSequence;
+		iReset = reset;
+	}
+
+	/** Identification of the progress log, changes when the log is replaced or cleared */
+	public Long getLogId() { return iLogId; }
+
+	/** Sequence number of the first message that has been checked */
+	public int getFirstSequence() { return iFirstSequence; }
+
+	/** Sequence number to be used to ask for the next update (number of messages in the log) */
+	public int getSequence() { return iSequence; }
+	public void setSequence(int sequence) { iSequence = sequence; }
+
+	/** True if the previously received messages are to be discarded */
+	public boolean isReset() { return iReset; }
+
+	/** Add a message of the given sequence number */
+	public void addMessage(int sequence, Progress.Message message) {
+		iSequences.add(sequence);
+		iMessages.add(message);
+	}
+
+	/** New messages (matching the requested level) */
+	public List<Progress.Message> getMessages() { return iMessages; }
+
+	/** Sequence numbers of the new messages */
+	public List<Integer> getSequences() { return iSequences; }
+
+	public boolean hasMessages() { return !iMessages.isEmpty(); }
+
+	@Override
+	public String toString() {
+		return "ProgressLogUpdate{id=" + iLogId + ", seq=" + iFirstSequence + ".." + iSequence + (iReset ? ", reset" : "") + ", messages=" + iMessages.size() + "}";
+	}
+}
@@ -4068,11 +4068,15 @@ public class TimetableDatabaseLoader extends TimetableLoader {
         Calendar c = Calendar.getInstance(Locale.US);
         Formats.Format<Date> df = Formats.getDateFormat(Formats.Pattern.DATE_PATTERN);
         int sessionYear = iSession.getSessionStartYear();
+        List<Long> roomIds = new ArrayList<Long>();
+        for (RoomConstraint room: iRooms.values())
+            if (room.getConstraint()) roomIds.add(room.getResourceId());
+        Map<Long, Collection<TimeBlock>> availabilities = getRoomAvailability(availability, roomIds, startEnd[0], startEnd[1]);
         for (Enumeration e=iRooms.elements();e.hasMoreElements();) {
             RoomConstraint room = (RoomConstraint)e.nextElement();
             incProgress();
             if (!room.getConstraint()) continue;
-            Collection<TimeBlock> times = getRoomAvailability(availability, room, startEnd[0], startEnd[1]);
+            Collection<TimeBlock> times = (availabilities == null ? null : availabilities.get(room.getResourceId()));
             if (times==null) continue;
             for (TimeBlock time : times) {
                 iProgress.debug(room.getName()+" not available due to "+time);
@@ -4120,11 +4124,11 @@ public class TimetableDatabaseLoader extends TimetableLoader {
         }
     }
     
-    public Collection<TimeBlock> getRoomAvailability(RoomAvailabilityInterface availability, RoomConstraint room, Date startTime, Date endTime) {
-        Collection<TimeBlock> ret = null;
+    public Map<Long, Collection<TimeBlock>> getRoomAvailability(RoomAvailabilityInterface availability, List<Long> roomIds, Date startTime, Date endTime) {
+        Map<Long, Collection<TimeBlock>> ret = null;
         String ts = null;
         try {
-            ret = availability.getRoomAvailability(room.getResourceId(), startTime, endTime, RoomAvailabilityInterface.sClassType);
+            ret = availability.getRoomAvailability(roomIds, startTime, endTime, RoomAvailabilityInterface.sClassType);
             if (!iRoomAvailabilityTimeStampIsSet) ts = availability.getTimeStamp(startTime, endTime, RoomAvailabilityInterface.sClassType);
         } catch (Exception e) {
             sLog.error(e.getMessage(),e);
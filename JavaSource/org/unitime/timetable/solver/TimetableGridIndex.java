@@ -0,0 +1,210 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.solver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.coursett.constraint.InstructorConstraint;
+import org.cpsolver.coursett.constraint.RoomConstraint;
+import org.cpsolver.coursett.model.Lecture;
+import org.cpsolver.coursett.model.Placement;
+import org.cpsolver.coursett.model.RoomLocation;
+import org.cpsolver.coursett.model.Student;
+import org.cpsolver.coursett.model.TimetableModel;
+import org.cpsolver.ifs.assignment.Assignment;
+import org.cpsolver.ifs.model.Constraint;
+import org.cpsolver.ifs.model.ModelListener;
+import org.cpsolver.ifs.solver.Solver;
+
+/**
+ * Index of the course timetabling solver that is used to create the timetable grid
+ * (see {@link TimetableSolver#getTimetableGridTables(org.unitime.timetable.server.solver.TimetableGridContext)}),
+ * so that a grid model of a resource can be created without iterating over all the classes or students of the problem.
+ * <br>
+ * The assigned placements of each room are updated incrementally, the index is registered as a model listener and
+ * it follows the assignments and unassignments of the solver's current assignment. The remaining parts of the index
+ * (classes by their ids, students of instructors, students of curricula) do not depend on the assignment, they are
+ * computed once.
+ * <br>
+ * The index can be disabled by setting TimetableGrid.Index to false.
+ *
+ * @author Tomas Muller
+ */
+public class TimetableGridIndex implements ModelListener<Lecture, Placement> {
+	private static Log sLog = LogFactory.getLog(TimetableGridIndex.class);
+	private TimetableModel iModel;
+	private Assignment<Lecture, Placement> iAssignment;
+	private Map<Long, Set<Placement>> iRoomPlacements = new HashMap<Long, Set<Placement>>();
+	private Map<Long, Lecture> iLectures = new HashMap<Long, Lecture>();
+	private Map<InstructorConstraint, List<Student>> iInstructorStudents = new HashMap<InstructorConstraint, List<Student>>();
+	private Map<String, List<Student>> iCurricula = new HashMap<String, List<Student>>();
+
+	public TimetableGridIndex(TimetableModel model, Assignment<Lecture, Placement> assignment) {
+		long t0 = System.currentTimeMillis();
+		iModel = model;
+		iAssignment = assignment;
+		for (RoomConstraint rc: model.getRoomConstraints()) {
+			for (Lecture lecture: rc.variables()) {
+				Placement placement = assignment.getValue(lecture);
+				if (placement != null && placement.hasRoomLocation(rc.getResourceId()))
+					getRoomPlacements(rc.getResourceId(), true).add(placement);
+			}
+		}
+		for (Lecture lecture: model.variables())
+			iLectures.put(lecture.getClassId(), lecture);
+		boolean hasCurricula = false;
+		for (Student student: model.getAllStudents()) {
+			if (student.getInstructor() != null) {
+				List<Student> students = iInstructorStudents.get(student.getInstructor());
+				if (students == null) {
+					students = new ArrayList<Student>();
+					iInstructorStudents.put(student.getInstructor(), students);
+				}
+				students.add(student);
+			}
+			if (student.getCurriculum() != null && !student.getCurriculum().isEmpty()) {
+				// curricula take precedence over academic area and classification combinations
+				if (!hasCurricula) {
+					iCurricula.clear(); hasCurricula = true;
+				}
+				for (String c: student.getCurriculum().split("\\|"))
+					addCurriculumStudent(c, student);
+			} else if (!hasCurricula && student.getAcademicArea() != null && student.getAcademicClassification() != null) {
+				addCurriculumStudent(student.getAcademicArea() + (student.getMajor() == null ? "" : "/" + student.getMajor()) + " " + student.getAcademicClassification(), student);
+			}
+		}
+		model.addModelListener(this);
+		sLog.debug("Timetable grid index created in " + (System.currentTimeMillis() - t0) + " ms.");
+	}
+
+	private void addCurriculumStudent(String curriculum, Student student) {
+		List<Student> students = iCurricula.get(curriculum);
+		if (students == null) {
+			students = new ArrayList<Student>();
+			iCurricula.put(curriculum, students);
+		}
+		students.add(student);
+	}
+
+	private Set<Placement> getRoomPlacements(Long roomId, boolean create) {
+		Set<Placement> placements = iRoomPlacements.get(roomId);
+		if (placements == null && create) {
+			placements = new LinkedHashSet<Placement>();
+			iRoomPlacements.put(roomId, placements);
+		}
+		return placements;
+	}
+
+	/** True if the index has been created for the given model and assignment */
+	public boolean isValid(TimetableModel model, Assignment<Lecture, Placement> assignment) {
+		return iModel == model && iAssignment == assignment;
+	}
+
+	/** Stop following the changes of the model */
+	public void dispose() {
+		iModel.removeModelListener(this);
+	}
+
+	/** Placements that are assigned to the given room */
+	public synchronized List<Placement> getRoomPlacements(Long roomId) {
+		Set<Placement> placements = iRoomPlacements.get(roomId);
+		return (placements == null ? new ArrayList<Placement>() : new ArrayList<Placement>(placements));
+	}
+
+	/** Class of the given id, null if not in the problem */
+	public Lecture getLecture(Long classId) {
+		return iLectures.get(classId);
+	}
+
+	/** Classes of the given ids (ids of the classes that are not in the problem are ignored) */
+	public List<Lecture> getLectures(Collection<Long> classIds) {
+		List<Lecture> lectures = new ArrayList<Lecture>(classIds.size());
+		for (Long classId: classIds) {
+			Lecture lecture = iLectures.get(classId);
+			if (lecture != null) lectures.add(lecture);
+		}
+		return lectures;
+	}
+
+	/** Students that are the given instructor */
+	public List<Student> getInstructorStudents(InstructorConstraint instructor) {
+		List<Student> students = iInstructorStudents.get(instructor);
+		return (students == null ? Collections.<Student>emptyList() : students);
+	}
+
+	/** Students of each curriculum (or academic area, major, and classification combination when there are no curricula) */
+	public Map<String, List<Student>> getCurricula() {
+		return iCurricula;
+	}
+
+	private synchronized void update(Placement placement, boolean assigned) {
+		if (placement.isMultiRoom()) {
+			for (RoomLocation room: placement.getRoomLocations()) {
+				Set<Placement> placements = getRoomPlacements(room.getId(), assigned);
+				if (assigned) placements.add(placement);
+				else if (placements != null) placements.remove(placement);
+			}
+		} else if (placement.getRoomLocation() != null) {
+			Set<Placement> placements = getRoomPlacements(placement.getRoomLocation().getId(), assigned);
+			if (assigned) placements.add(placement);
+			else if (placements != null) placements.remove(placement);
+		}
+	}
+
+	@Override
+	public void afterAssigned(Assignment<Lecture, Placement> assignment, long iteration, Placement value) {
+		if (assignment == iAssignment) update(value, true);
+	}
+
+	@Override
+	public void afterUnassigned(Assignment<Lecture, Placement> assignment, long iteration, Placement value) {
+		if (assignment == iAssignment) update(value, false);
+	}
+
+	@Override
+	public void beforeAssigned(Assignment<Lecture, Placement> assignment, long iteration, Placement value) {}
+
+	@Override
+	public void beforeUnassigned(Assignment<Lecture, Placement> assignment, long iteration, Placement value) {}
+
+	@Override
+	public void variableAdded(Lecture variable) {}
+
+	@Override
+	public void variableRemoved(Lecture variable) {}
+
+	@Override
+	public void constraintAdded(Constraint<Lecture, Placement> constraint) {}
+
+	@Override
+	public void constraintRemoved(Constraint<Lecture, Placement> constraint) {}
+
+	@Override
+	public boolean init(Solver<Lecture, Placement> solver) { return true; }
+}
@@ -126,6 +126,8 @@ public class TimetableSolver extends AbstractSolver<Lecture, Placement, Timetabl
 	private Vector<AssignmentRecord> iBestAssignmentRecords = new Vector<AssignmentRecord>();
 	private ConflictStatisticsInfo iCbsInfo = null;
 	private CommitedClassAssignmentProxy iCommitedClassAssignmentProxy;
+	private TimetableGridIndex iGridIndex = null;
+	private Object iGridIndexLock = new Object();
 
 	public TimetableSolver(DataProperties properties, SolverDisposeListener solverDisposeListener) {
 		super(properties, solverDisposeListener);
@@ -1283,6 +1285,25 @@ public class TimetableSolver extends AbstractSolver<Lecture, Placement, Timetabl
 		}
 	}
 
+	/**
+	 * Timetable grid index of the current solution, (re)created when needed. The index is not created while the solver is running,
+	 * since registering a model listener is not safe while other solver threads may be changing their assignments.
+	 * @return null when disabled (TimetableGrid.Index is false) or not available
+	 */
+	public TimetableGridIndex getTimetableGridIndex() {
+		if (!getProperties().getPropertyBoolean("TimetableGrid.Index", true)) return null;
+		TimetableModel model = (TimetableModel)currentSolution().getModel();
+		org.cpsolver.ifs.assignment.Assignment<Lecture, Placement> assignment = currentSolution().getAssignment();
+		synchronized (iGridIndexLock) {
+			if (iGridIndex == null || !iGridIndex.isValid(model, assignment)) {
+				if (isRunning()) return null;
+				if (iGridIndex != null) iGridIndex.dispose();
+				iGridIndex = new TimetableGridIndex(model, assignment);
+			}
+			return iGridIndex;
+		}
+	}
+	
 	@Override
 	public List<org.unitime.timetable.gwt.shared.TimetableGridInterface.TimetableGridModel> getTimetableGridTables(org.unitime.timetable.server.solver.TimetableGridContext context) {
 		context.ensureLocalizationIsSet();
@@ -1292,6 +1313,7 @@ public class TimetableSolver extends AbstractSolver<Lecture, Placement, Timetabl
 		lock.lock();
 		try {
     		TimetableModel model = (TimetableModel)currentSolution().getModel();
+    		TimetableGridIndex index = getTimetableGridIndex();
     		switch (ResourceType.values()[context.getResourceType()]) {
     		case ROOM:
     			for (RoomConstraint rc: model.getRoomConstraints()) {
@@ -1335,7 +1357,7 @@ public class TimetableSolver extends AbstractSolver<Lecture, Placement, Timetabl
     					Set<Long> classIds = dept2class.get(d);
     					int size = 0;
     					List<Placement> placements = new ArrayList<Placement>();
-    					for (Lecture lecture: getModel().variables()) {
+    					for (Lecture lecture: (index == null ? getModel().variables() : index.getLectures(classIds))) {
     						if (classIds.contains(lecture.getClassId())) {
     							size ++;
     							Placement placement = assignment.getValue(lecture);
@@ -1354,7 +1376,10 @@ public class TimetableSolver extends AbstractSolver<Lecture, Placement, Timetabl
     			Hashtable<String, List<Student>> curricula = new Hashtable<String, List<Student>>();
     			boolean hasCurricula = false;
     			HashSet<String> ignore = new HashSet<String>(), tested = new HashSet<String>();
-    			for (Student student: model.getAllStudents()) {
+    			if (index != null) {
+    				for (Map.Entry<String, List<Student>> curriculum: index.getCurricula().entrySet())
+    					if (match(q, curriculum.getKey())) curricula.put(curriculum.getKey(), curriculum.getValue());
+    			} else for (Student student: model.getAllStudents()) {
     				if (student.getCurriculum() != null && !student.getCurriculum().isEmpty()) {
     					if (!hasCurricula) {
     						curricula.clear(); hasCurricula = true;
@@ -1404,7 +1429,7 @@ public class TimetableSolver extends AbstractSolver<Lecture, Placement, Timetabl
 					Set<Long> classIds = sa2class.get(sa);
 					int size = 0;
 					List<Placement> placements = new ArrayList<Placement>();
-					for (Lecture lecture: getModel().variables()) {
+					for (Lecture lecture: (index == null ? getModel().variables() : index.getLectures(classIds))) {
 						if (classIds.contains(lecture.getClassId())) {
 							size ++;
 							Placement placement = assignment.getValue(lecture);
@@ -20,19 +20,37 @@
 package org.unitime.timetable.solver.curricula;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Deque;
 import java.util.List;
-import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.cpsolver.ifs.util.Progress;
 
+/**
+ * Parallel execution of independent loading tasks. Each task is set up (and torn down) using the given Hibernate session,
+ * one task at a time, while the execution of the tasks runs in parallel. The tasks are distributed among the workers
+ * (each worker has its own deque), a worker that runs out of its tasks steals the last task of another worker. The worker
+ * threads are taken from a shared pool that is reused by all the phases.
+ * <br>
+ * When a task fails or when the calling thread is interrupted, the remaining tasks are cancelled.
+ *
+ * @author Tomas Muller
+ */
 public class ParallelInitialization {
+	private static ExecutorService sPool = null;
 	private Lock iLock = new ReentrantLock();
 	private List<? extends Task> iTasks = null;
 	private int iNrThreads;
 	private String iPhase;
+	private volatile boolean iCancelled = false;
 	
 	public ParallelInitialization(String phase, int nrThreads, List<? extends Task> tasks) {
 		iPhase = phase;
@@ -40,36 +58,70 @@ public class ParallelInitialization {
 		iTasks = tasks;
 	}
 	
+	/** Shared pool of daemon threads, idle threads are released after a minute */
+	protected static synchronized ExecutorService getPool() {
+		if (sPool == null) {
+			sPool = Executors.newCachedThreadPool(new ThreadFactory() {
+				private AtomicInteger iIndex = new AtomicInteger(0);
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Initialization-" + iIndex.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sPool;
+	}
+	
+	/** Stop the execution, the tasks that have not been started yet are skipped */
+	public void cancel() {
+		iCancelled = true;
+	}
+	
+	public boolean isCancelled() { return iCancelled; }
+	
 	public void execute(org.hibernate.Session hibSession, Progress progress) {
 		progress.setPhase(iPhase, iTasks.size());
-		if (iNrThreads <= 1) {
+		if (iNrThreads <= 1 || iTasks.size() <= 1) {
 			for (Task task: iTasks) {
 				task.setup(hibSession);
 				task.execute();
 				task.teardown(hibSession);
 				progress.incProgress();
-				if (Thread.currentThread().isInterrupted())
+				if (Thread.currentThread().isInterrupted() || iCancelled)
 					throw new RuntimeException("The load was interrupted.");
 			}
 		} else {
-			Iterator<? extends Task> iterator = iTasks.iterator();
-	        List<Executor> executors = new ArrayList<Executor>();
-	        for (int i = 0; i < iNrThreads; i++) {
-	        	Executor executor = new Executor(i, iterator, progress, hibSession);
-	        	executor.start();
-	        	executors.add(executor);
-	        }
-        	try {
-        		for (Executor executor: executors)
-        			executor.join();
-        	} catch (InterruptedException e) {
-        		for (Executor executor: executors)
-        			if (executor.isAlive()) executor.interrupt();
-        		Thread.currentThread().interrupt();
-	        }
-	        for (Executor executor: executors)
-	        	if (executor.getException() != null) 
-	        		throw new ParallelInitializationException(executor.getException());
+			int nrWorkers = Math.min(iNrThreads, iTasks.size());
+			List<Deque<Task>> queues = new ArrayList<Deque<Task>>(nrWorkers);
+			for (int i = 0; i < nrWorkers; i++)
+				queues.add(new ConcurrentLinkedDeque<Task>());
+			for (int i = 0; i < iTasks.size(); i++)
+				queues.get(i % nrWorkers).add(iTasks.get(i));
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < nrWorkers; i++)
+				futures.add(getPool().submit(new Worker(i, queues, progress, hibSession)));
+			Exception exception = null;
+			try {
+				for (Future<?> future: futures) {
+					try {
+						future.get();
+					} catch (ExecutionException e) {
+						iCancelled = true;
+						if (exception == null)
+							exception = (e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+					}
+				}
+			} catch (InterruptedException e) {
+				iCancelled = true;
+				for (Future<?> future: futures)
+					future.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("The load was interrupted.");
+			}
+			if (exception != null)
+				throw new ParallelInitializationException(exception);
 		}
 	}
 	
@@ -79,27 +131,32 @@ public class ParallelInitialization {
 		public void teardown(org.hibernate.Session hibSession);
 	}
 	
-    public class Executor extends Thread {
-    	private Iterator<? extends Task> iIterator;
+    protected class Worker implements Runnable {
+    	private int iIndex;
+    	private List<Deque<Task>> iQueues;
     	private Progress iProgress;
     	private org.hibernate.Session iHibSession;
-    	private Exception iException;
 		
-		public Executor(int index, Iterator<? extends Task> iterator, Progress progress, org.hibernate.Session hibSession) {
-			setName("Initialization-" + (1 + index));
-			iIterator = iterator;
+		public Worker(int index, List<Deque<Task>> queues, Progress progress, org.hibernate.Session hibSession) {
+			iIndex = index;
+			iQueues = queues;
 			iProgress = progress;
 			iHibSession = hibSession;
 		}
 		
-		public Exception getException() { return iException; }
+		/** Next task of this worker, or the last task of some other worker when there are none left */
+		protected Task nextTask() {
+			Task task = iQueues.get(iIndex).pollFirst();
+			for (int i = 1; task == null && i < iQueues.size(); i++)
+				task = iQueues.get((iIndex + i) % iQueues.size()).pollLast();
+			return task;
+		}
 		
 		@Override
 		public void run() {
 			try {
-				while (!isInterrupted()) {
-					Task task = iIterator.next();
-					
+				Task task;
+				while (!iCancelled && !Thread.currentThread().isInterrupted() && (task = nextTask()) != null) {
 					// setup task (one at a time)
 					iLock.lock();
 					try {
@@ -120,9 +177,10 @@ public class ParallelInitialization {
 						iLock.unlock();
 					}
 				}
-			} catch (NoSuchElementException e) {
-			} catch (Exception e) {
-				iException = e;
+			} catch (RuntimeException | Error e) {
+				// stop the other workers
+				iCancelled = true;
+				throw e;
 			}
 		}
 	}
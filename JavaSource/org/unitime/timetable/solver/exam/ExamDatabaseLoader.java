@@ -104,7 +104,7 @@ public class ExamDatabaseLoader extends ProblemLoader<Exam, ExamPlacement, ExamM
     private Hashtable iExams = new Hashtable();
     private Hashtable iInstructors = new Hashtable();
     private Hashtable iStudents = new Hashtable();
-    private Set iAllRooms = null;
+    private Set<Location> iAllRooms = null;
     private Set<ExamPeriod> iProhibitedPeriods = new HashSet();
     private PredefinedExamRoomSharing iSharing = null;
     
@@ -1058,13 +1058,18 @@ public class ExamDatabaseLoader extends ProblemLoader<Exam, ExamPlacement, ExamM
         String exclude = type.getReference();
         roomAvailabilityActivate(availability, bounds[0],bounds[1],exclude);
         iProgress.setPhase("Loading room availability...", iAllRooms.size());
+        List<Long> locationIds = new ArrayList<Long>();
+        for (Location location: iAllRooms)
+            if (!location.isIgnoreRoomCheck() && iRooms.containsKey(location.getUniqueId()))
+            	locationIds.add(location.getUniqueId());
+        Map<Long, Collection<TimeBlock>> availabilities = getRoomAvailability(availability, locationIds, bounds[0], bounds[1], exclude);
         for (Iterator i=iAllRooms.iterator();i.hasNext();) {
             iProgress.incProgress();
             Location location = (Location)i.next();
             if (location.isIgnoreRoomCheck()) continue;
             ExamRoom roomEx = iRooms.get(location.getUniqueId());
             if (roomEx==null) continue;
-            Collection<TimeBlock> times = getRoomAvailability(availability, location, bounds[0], bounds[1], exclude);
+            Collection<TimeBlock> times = (availabilities == null ? null : availabilities.get(location.getUniqueId()));
             if (times==null) continue;
             for (TimeBlock time : times) {
                 for (Iterator j=periods.iterator();j.hasNext();) {
@@ -1092,11 +1097,11 @@ public class ExamDatabaseLoader extends ProblemLoader<Exam, ExamPlacement, ExamM
         }
     }
     
-    public Collection<TimeBlock> getRoomAvailability(RoomAvailabilityInterface availability, Location location, Date startTime, Date endTime, String exclude) {
-        Collection<TimeBlock> ret = null;
+    public Map<Long, Collection<TimeBlock>> getRoomAvailability(RoomAvailabilityInterface availability, List<Long> locationIds, Date startTime, Date endTime, String exclude) {
+        Map<Long, Collection<TimeBlock>> ret = null;
         String ts = null;
         try {
-        	ret = availability.getRoomAvailability(location.getUniqueId(), startTime, endTime, exclude);
+        	ret = availability.getRoomAvailability(locationIds, startTime, endTime, exclude);
         	if (!iRoomAvailabilityTimeStampIsSet) ts = availability.getTimeStamp(startTime, endTime, exclude);
         } catch (Exception e) {
             sLog.error(e.getMessage(),e);
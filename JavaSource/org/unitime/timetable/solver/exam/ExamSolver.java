@@ -40,6 +40,7 @@ import org.cpsolver.exam.model.ExamPlacement;
 import org.cpsolver.exam.model.ExamRoom;
 import org.cpsolver.exam.model.ExamRoomPlacement;
 import org.cpsolver.ifs.assignment.Assignment;
+import org.cpsolver.ifs.assignment.AssignmentMap;
 import org.cpsolver.ifs.extension.ConflictStatistics;
 import org.cpsolver.ifs.extension.Extension;
 import org.cpsolver.ifs.model.Constraint;
@@ -758,174 +759,121 @@ public class ExamSolver extends AbstractSolver<Exam, ExamPlacement, ExamModel> i
         }
     }
     
-    @Override
-    public Vector<ExamRoomInfo> getRooms(long examId, long periodId, ExamProposedChange change, int minRoomSize, int maxRoomSize, String filter, boolean allowConflicts) {
+    /**
+     * Copy of the current assignment with the given change applied. The solver is only locked while the current
+     * assignment is being copied, the returned assignment can be used (and changed) without holding the solver lock.
+     */
+    public Assignment<Exam, ExamPlacement> getAssignmentSnapshot(ExamProposedChange change) {
+        Assignment<Exam, ExamPlacement> assignment = null;
         Lock lock = currentSolution().getLock().readLock();
         lock.lock();
         try {
-            //lookup exam, period etc.
-            Exam exam = getExam(examId);
-            if (exam==null) return null;
-            ExamPeriodPlacement period = null;
-            for (ExamPeriodPlacement p: exam.getPeriodPlacements()) {
-                if (periodId==p.getId()) { period = p; break; }
-            }
-            if (period==null) return null;
-            Vector<ExamRoomInfo> rooms = new Vector<ExamRoomInfo>();
-            if (exam.getMaxRooms()==0) return rooms;
-            
-            //assign change
-            Hashtable<Exam, ExamPlacement> undoAssign = new Hashtable();
-            HashSet<Exam> undoUnassing = new HashSet();
-            if (change!=null) {
-                for (ExamAssignment assignment: change.getConflicts()) {
-                    ExamPlacement placement = getPlacement(assignment);
-                    if (placement==null) continue;
-                    undoAssign.put((Exam)placement.variable(),placement);
-                    currentSolution().getAssignment().unassign(0, placement.variable());
-                }
-                for (ExamAssignment assignment: change.getAssignments()) {
-                    ExamPlacement placement = getPlacement(assignment);
-                    if (placement==null) continue;
-                    for (Iterator i=placement.variable().getModel().conflictValues(currentSolution().getAssignment(), placement).iterator();i.hasNext();) {
-                        ExamPlacement conflict = (ExamPlacement)i.next();
-                        if (conflict.variable().equals(placement.variable())) continue;
-                        Exam conflictingExam = (Exam)conflict.variable();
-                        if (!undoAssign.containsKey(conflictingExam) && !undoUnassing.contains(conflictingExam)) 
-                            undoAssign.put(conflictingExam,conflict);
-                        currentSolution().getAssignment().unassign(0, conflict.variable());
-                    }
-                    if (currentSolution().getAssignment().getValue(placement.variable())!=null)
-                        undoAssign.put((Exam)placement.variable(), currentSolution().getAssignment().getValue(placement.variable()));
-                    else
-                        undoUnassing.add((Exam)placement.variable());
-                    currentSolution().getAssignment().assign(0, placement);
+            assignment = new AssignmentMap<Exam, ExamPlacement>(currentSolution().getAssignment());
+        } finally {
+        	lock.unlock();
+        }
+        if (change!=null) {
+            for (ExamAssignment a: change.getConflicts()) {
+                ExamPlacement placement = getPlacement(a);
+                if (placement==null) continue;
+                assignment.unassign(0, placement.variable());
+            }
+            for (ExamAssignment a: change.getAssignments()) {
+                ExamPlacement placement = getPlacement(a);
+                if (placement==null) continue;
+                for (ExamPlacement conflict: placement.variable().getModel().conflictValues(assignment, placement)) {
+                    if (conflict.variable().equals(placement.variable())) continue;
+                    assignment.unassign(0, conflict.variable());
                 }
+                assignment.assign(0, placement);
             }
+        }
+        return assignment;
+    }
+    
+    @Override
+    public Vector<ExamRoomInfo> getRooms(long examId, long periodId, ExamProposedChange change, int minRoomSize, int maxRoomSize, String filter, boolean allowConflicts) {
+        //lookup exam, period etc.
+        Exam exam = getExam(examId);
+        if (exam==null) return null;
+        ExamPeriodPlacement period = null;
+        for (ExamPeriodPlacement p: exam.getPeriodPlacements()) {
+            if (periodId==p.getId()) { period = p; break; }
+        }
+        if (period==null) return null;
+        Vector<ExamRoomInfo> rooms = new Vector<ExamRoomInfo>();
+        if (exam.getMaxRooms()==0) return rooms;
+        
+        //assign change (on a copy of the current assignment, the solver is not locked)
+        Assignment<Exam, ExamPlacement> assignment = getAssignmentSnapshot(change);
+        
+        //compute rooms
+        for (ExamRoomPlacement room: exam.getRoomPlacements()) {
             
-            //compute rooms
-            for (ExamRoomPlacement room: exam.getRoomPlacements()) {
-                
-                int cap = room.getSize(exam.hasAltSeating());
-                if (minRoomSize>=0 && cap<minRoomSize) continue;
-                if (maxRoomSize>=0 && cap>maxRoomSize) continue;
-                if (!ExamInfoModel.match(room.getName(), filter)) continue;
-                if (!room.isAvailable(period.getPeriod())) continue;
-                
-                boolean conf = !exam.checkDistributionConstraints(currentSolution().getAssignment(), room);
-                if (!conf && room.getRoom().inConflict(currentSolution().getAssignment(), exam, period.getPeriod())) conf = true;
-
-                if (!allowConflicts && conf) continue;
-                
-                rooms.add(new ExamRoomInfo(room.getRoom(), (conf?100:0) + room.getPenalty(period.getPeriod())));
-            }
+            int cap = room.getSize(exam.hasAltSeating());
+            if (minRoomSize>=0 && cap<minRoomSize) continue;
+            if (maxRoomSize>=0 && cap>maxRoomSize) continue;
+            if (!ExamInfoModel.match(room.getName(), filter)) continue;
+            if (!room.isAvailable(period.getPeriod())) continue;
             
-            //undo change
-            for (Exam undoExam: undoUnassing)
-                if (currentSolution().getAssignment().getValue(undoExam)!=null) currentSolution().getAssignment().unassign(0, undoExam);
-            for (Map.Entry<Exam, ExamPlacement> entry : undoAssign.entrySet())
-            	currentSolution().getAssignment().unassign(0, entry.getKey());
-            for (Map.Entry<Exam, ExamPlacement> entry : undoAssign.entrySet())
-            	currentSolution().getAssignment().assign(0, entry.getValue());
+            boolean conf = !exam.checkDistributionConstraints(assignment, room);
+            if (!conf && room.getRoom().inConflict(assignment, exam, period.getPeriod())) conf = true;
 
-            return rooms;
-        } finally {
-        	lock.unlock();
+            if (!allowConflicts && conf) continue;
+            
+            rooms.add(new ExamRoomInfo(room.getRoom(), (conf?100:0) + room.getPenalty(period.getPeriod())));
         }
+        
+        return rooms;
     }
     
     @Override
     public Collection<ExamAssignmentInfo> getPeriods(long examId, ExamProposedChange change) {
-        Lock lock = currentSolution().getLock().readLock();
-        lock.lock();
-        try {
-            //lookup exam
-            Exam exam = getExam(examId);
-            if (exam==null) return null;
-            
-            //assign change
-            Hashtable<Exam, ExamPlacement> undoAssign = new Hashtable();
-            HashSet<Exam> undoUnassing = new HashSet();
-            if (change!=null) {
-                for (ExamAssignment assignment: change.getConflicts()) {
-                    ExamPlacement placement = getPlacement(assignment);
-                    if (placement==null) continue;
-                    undoAssign.put((Exam)placement.variable(),placement);
-                    currentSolution().getAssignment().unassign(0, placement.variable());
-                }
-                for (ExamAssignment assignment: change.getAssignments()) {
-                    ExamPlacement placement = getPlacement(assignment);
-                    if (placement==null) continue;
-                    for (Iterator i=placement.variable().getModel().conflictValues(currentSolution().getAssignment(), placement).iterator();i.hasNext();) {
-                        ExamPlacement conflict = (ExamPlacement)i.next();
-                        if (conflict.variable().equals(placement.variable())) continue;
-                        Exam conflictingExam = (Exam)conflict.variable();
-                        if (!undoAssign.containsKey(conflictingExam) && !undoUnassing.contains(conflictingExam)) 
-                            undoAssign.put(conflictingExam,conflict);
-                        currentSolution().getAssignment().unassign(0, conflict.variable());
-                    }
-                    if (currentSolution().getAssignment().getValue(placement.variable())!=null)
-                        undoAssign.put((Exam)placement.variable(),currentSolution().getAssignment().getValue(placement.variable()));
-                    else
-                        undoUnassing.add((Exam)placement.variable());
-                    currentSolution().getAssignment().assign(0, placement);
-                }
-            }
+        //lookup exam
+        Exam exam = getExam(examId);
+        if (exam==null) return null;
+        
+        //assign change (on a copy of the current assignment, the solver is not locked)
+        Assignment<Exam, ExamPlacement> assignment = getAssignmentSnapshot(change);
 
-            Vector<ExamAssignmentInfo> periods = new Vector<ExamAssignmentInfo>();
-            for (ExamPeriodPlacement period: exam.getPeriodPlacements()) {
-                Set rooms = exam.findBestAvailableRooms(currentSolution().getAssignment(), period);
-                if (rooms==null) rooms = new HashSet();
-                boolean conf = !exam.checkDistributionConstraints(currentSolution().getAssignment(), period);
-                ExamAssignmentInfo assignment = new ExamAssignmentInfo(new ExamPlacement(exam, period, rooms), currentSolution().getAssignment());
-                if (conf) assignment.setPeriodPref("P");
-                periods.add(assignment);
-            }
-            
-            //undo change
-            for (Exam undoExam: undoUnassing)
-                if (currentSolution().getAssignment().getValue(undoExam)!=null) currentSolution().getAssignment().unassign(0, undoExam);
-            for (Map.Entry<Exam, ExamPlacement> entry : undoAssign.entrySet())
-            	currentSolution().getAssignment().unassign(0, entry.getKey());
-            for (Map.Entry<Exam, ExamPlacement> entry : undoAssign.entrySet())
-            	currentSolution().getAssignment().assign(0, entry.getValue());
-            
-            return periods;
-        } finally {
-        	lock.unlock();
-        }
+        Vector<ExamAssignmentInfo> periods = new Vector<ExamAssignmentInfo>();
+        for (ExamPeriodPlacement period: exam.getPeriodPlacements()) {
+            Set rooms = exam.findBestAvailableRooms(assignment, period);
+            if (rooms==null) rooms = new HashSet();
+            boolean conf = !exam.checkDistributionConstraints(assignment, period);
+            ExamAssignmentInfo info = new ExamAssignmentInfo(new ExamPlacement(exam, period, rooms), assignment);
+            if (conf) info.setPeriodPref("P");
+            periods.add(info);
+        }
+        
+        return periods;
     }
     
     @Override
     public ExamSuggestionsInfo getSuggestions(long examId, ExamProposedChange change, String filter, int depth, int limit, long timeOut) {
-    	Lock lock = currentSolution().getLock().writeLock();
-    	lock.lock();
-        try {
-            Exam exam = getExam(examId);
-            if (exam==null) return null;
-            ExamSuggestions s = new ExamSuggestions(this);
-            s.setDepth(depth);
-            s.setFilter(filter);
-            s.setLimit(limit);
-            s.setTimeOut(timeOut);
-            TreeSet<ExamProposedChange> suggestions = s.computeSuggestions(exam, (change==null?null:change.getAssignments()));
-            String message = null;
-            if (s.wasTimeoutReached()) {
-                message = "("+MSG.infoTimeoutReached(timeOut/1000l)+", "+MSG.infoPossibilitiesConsidereUpToChnages(s.getNrCombinationsConsidered(), depth)+ ", ";
-            } else {
-                message = "("+MSG.infoAllPossibilitiesConsidereUpToChnages(s.getNrCombinationsConsidered(), depth) + ", ";
-            }
-            if (suggestions.isEmpty()) {
-                message += MSG.infoNoSuggestionFound() + ")";
-            } else if (s.getNrSolutions()>suggestions.size()) {
-                message += MSG.infoTopSuggestionsDisplayed(suggestions.size(), s.getNrSolutions()) + ")";
-            } else {
-                message += MSG.infoAllSuggestionsDisplayed(suggestions.size()) + ")";
-            }
-            return new ExamSuggestionsInfo(suggestions, message, s.wasTimeoutReached());
-        } finally {
-        	lock.unlock();
-        }
+        Exam exam = getExam(examId);
+        if (exam==null) return null;
+        // the search runs on a snapshot of the current assignment, other users of the solver are not blocked
+        ExamSuggestions s = new ExamSuggestions(this, getAssignmentSnapshot(null));
+        s.setDepth(depth);
+        s.setFilter(filter);
+        s.setLimit(limit);
+        s.setTimeOut(timeOut);
+        TreeSet<ExamProposedChange> suggestions = s.computeSuggestions(exam, (change==null?null:change.getAssignments()));
+        String message = null;
+        if (s.wasTimeoutReached()) {
+            message = "("+MSG.infoTimeoutReached(timeOut/1000l)+", "+MSG.infoPossibilitiesConsidereUpToChnages(s.getNrCombinationsConsidered(), depth)+ ", ";
+        } else {
+            message = "("+MSG.infoAllPossibilitiesConsidereUpToChnages(s.getNrCombinationsConsidered(), depth) + ", ";
+        }
+        if (suggestions.isEmpty()) {
+            message += MSG.infoNoSuggestionFound() + ")";
+        } else if (s.getNrSolutions()>suggestions.size()) {
+            message += MSG.infoTopSuggestionsDisplayed(suggestions.size(), s.getNrSolutions()) + ")";
+        } else {
+            message += MSG.infoAllSuggestionsDisplayed(suggestions.size()) + ")";
+        }
+        return new ExamSuggestionsInfo(suggestions, message, s.wasTimeoutReached());
     }
     
     @Override
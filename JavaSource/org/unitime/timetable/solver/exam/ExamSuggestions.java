@@ -19,19 +19,30 @@
 */
 package org.unitime.timetable.solver.exam;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.cpsolver.exam.model.Exam;
 import org.cpsolver.exam.model.ExamModel;
 import org.cpsolver.exam.model.ExamPeriodPlacement;
@@ -39,14 +50,27 @@ import org.cpsolver.exam.model.ExamPlacement;
 import org.cpsolver.exam.model.ExamRoomPlacement;
 import org.cpsolver.exam.model.ExamStudent;
 import org.cpsolver.ifs.assignment.Assignment;
+import org.cpsolver.ifs.assignment.AssignmentMap;
+import org.cpsolver.ifs.util.DataProperties;
 import org.unitime.timetable.solver.exam.ui.ExamAssignment;
 import org.unitime.timetable.solver.exam.ui.ExamAssignmentInfo;
 import org.unitime.timetable.solver.exam.ui.ExamProposedChange;
 
 /**
+ * Examination suggestions: a branch and bound search for the best placements of the given exam,
+ * allowing up to the given number of other exams to be moved.
+ * <br>
+ * The search works on the given assignment, which is typically a snapshot of the current solution
+ * (see {@link ExamSolver#getAssignmentSnapshot(ExamProposedChange)}), so that the solver does not need to be locked
+ * while the suggestions are being computed. When Suggestions.NrThreads is greater than one, the periods of the exam
+ * are explored in parallel, each thread working on its own copy of the assignment and all the threads sharing the
+ * found suggestions (and hence the bound). The parallel search is only used when the depth is at least
+ * Suggestions.ParallelDepth (defaults to 2).
+ *
  * @author Tomas Muller
  */
 public class ExamSuggestions {
+    private static Log sLog = LogFactory.getLog(ExamSuggestions.class);
     private ExamSolver iSolver;
     private ExamModel iModel;
     private Assignment<Exam, ExamPlacement> iAssignment;
@@ -66,11 +90,25 @@ public class ExamSuggestions {
     private long iStartTime = 0;
     private boolean iTimeoutReached = false;
     private String iFilter = null;
+    private int iNrThreads = 1;
+    private int iParallelDepth = 2;
     
     public ExamSuggestions(ExamSolver solver) {
+        this(solver, solver.currentSolution().getAssignment());
+    }
+    
+    /**
+     * Suggestions computed on the given assignment
+     * @param solver examination solver
+     * @param assignment assignment to be used, e.g., a copy of the current assignment so that the solver does not need to be locked
+     */
+    public ExamSuggestions(ExamSolver solver, Assignment<Exam, ExamPlacement> assignment) {
         iSolver = solver;
         iModel = (ExamModel)solver.currentSolution().getModel();
-        iAssignment = solver.currentSolution().getAssignment();
+        iAssignment = assignment;
+        DataProperties properties = solver.getProperties();
+        iNrThreads = Math.max(1, properties.getPropertyInt("Suggestions.NrThreads", properties.getPropertyInt("Parallel.NrSolvers", 1)));
+        iParallelDepth = properties.getPropertyInt("Suggestions.ParallelDepth", 2);
         iInitialAssignment = new Hashtable();
         iInitialUnassignment = new Vector();
         iInitialInfo = new Hashtable();
@@ -85,6 +123,25 @@ public class ExamSuggestions {
         }
     }
     
+    /** Worker of the parallel search, it shares everything but the assignment and the search state with the parent */
+    private ExamSuggestions(ExamSuggestions parent) {
+        iSolver = parent.iSolver;
+        iModel = parent.iModel;
+        iAssignment = new AssignmentMap<Exam, ExamPlacement>(parent.iAssignment);
+        iInitialAssignment = parent.iInitialAssignment;
+        iInitialInfo = parent.iInitialInfo;
+        iInitialUnassignment = parent.iInitialUnassignment;
+        iSuggestions = parent.iSuggestions;
+        iResolvedExams = new Vector<Exam>(parent.iResolvedExams);
+        iConflictsToResolve = new Hashtable<Exam, ExamPlacement>(parent.iConflictsToResolve);
+        iExam = parent.iExam;
+        iDepth = parent.iDepth;
+        iLimit = parent.iLimit;
+        iTimeOut = parent.iTimeOut;
+        iStartTime = parent.iStartTime;
+        iFilter = parent.iFilter;
+    }
+    
     public int getDepth() { return iDepth; }
     public void setDepth(int depth) { iDepth = depth; }
     public int getLimit() { return iLimit; }
@@ -93,6 +150,8 @@ public class ExamSuggestions {
     public void setTimeOut(long timeOut) { iTimeOut = timeOut; }
     public String getFilter() { return iFilter; }
     public void setFilter(String filter) { iFilter = filter; }
+    public int getNrThreads() { return iNrThreads; }
+    public void setNrThreads(int nrThreads) { iNrThreads = Math.max(1, nrThreads); }
     
     public int getNrSolutions() { return iNrSolutions; }
     public int getNrCombinationsConsidered() { return iNrCombinationsConsidered; }
@@ -148,7 +207,10 @@ public class ExamSuggestions {
         }
         
         iStartTime= System.currentTimeMillis();
-        backtrack(iDepth);
+        if (iNrThreads > 1 && iDepth >= iParallelDepth && iDepth > 0)
+            parallelBacktrack();
+        else
+            backtrack(iDepth);
         
         for (Exam x : iInitialUnassignment)
             if (iAssignment.getValue(x)!=null) iAssignment.unassign(0, x);
@@ -187,6 +249,78 @@ public class ExamSuggestions {
         return null;
     }
     
+    /** Placement of the given exam in the given period using the best available rooms, null if there are not enough rooms */
+    private ExamPlacement getPlacement(Exam exam, ExamPeriodPlacement period) {
+        Set rooms = findBestAvailableRooms(exam, period, true);
+        if (rooms == null) rooms = findBestAvailableRooms(exam, period, false);
+        return (rooms == null ? null : new ExamPlacement(exam, period, rooms));
+    }
+    
+    /**
+     * First level of the search done in parallel: the placements of the exam (one for each period) are
+     * taken from a shared queue by the worker threads, each thread having its own copy of the assignment.
+     */
+    private void parallelBacktrack() {
+        long t0 = System.currentTimeMillis();
+        if (iResolvedExams.contains(iExam)) return;
+        iResolvedExams.add(iExam);
+        final ConcurrentLinkedQueue<ExamPlacement> placements = new ConcurrentLinkedQueue<ExamPlacement>();
+        for (ExamPeriodPlacement period: iExam.getPeriodPlacements()) {
+            ExamPlacement placement = getPlacement(iExam, period);
+            if (placement != null) placements.add(placement);
+        }
+        int nrPlacements = placements.size();
+        List<ExamSuggestions> workers = new ArrayList<ExamSuggestions>();
+        for (int i = 0; i < Math.min(iNrThreads, nrPlacements); i++)
+            workers.add(new ExamSuggestions(this));
+        if (!workers.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(workers.size(), new ThreadFactory() {
+                private AtomicInteger iIndex = new AtomicInteger(0);
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ExamSuggestions-" + iIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (final ExamSuggestions worker: workers)
+                    futures.add(executor.submit(() -> {
+                        ExamPlacement placement;
+                        while ((placement = placements.poll()) != null) {
+                            if (worker.checkTimeout()) break;
+                            worker.tryPlacement(placement, worker.iDepth);
+                        }
+                    }));
+                for (Future<?> future: futures)
+                    future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Computation of suggestions was interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Computation of suggestions failed: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        for (ExamSuggestions worker: workers) {
+            iNrSolutions += worker.iNrSolutions;
+            iNrCombinationsConsidered += worker.iNrCombinationsConsidered;
+            if (worker.iTimeoutReached) iTimeoutReached = true;
+        }
+        iResolvedExams.remove(iExam);
+        sLog.debug("Searched " + nrPlacements + " placements of " + iExam.getName() + " (" + iNrCombinationsConsidered + " combinations) using " + workers.size() + " threads in " + (System.currentTimeMillis() - t0) + " ms.");
+    }
+    
+    private boolean checkTimeout() {
+        if (iTimeOut>0 && System.currentTimeMillis()-iStartTime>iTimeOut) {
+            iTimeoutReached = true;
+            return true;
+        }
+        return false;
+    }
+    
     private void tryPlacement(ExamPlacement placement, int depth) {
         if (placement.equals(iAssignment.getValue(placement.variable()))) return;
         if (placement.variable().equals(iExam) && !match(placement.getPeriod().toString()+" "+placement.getRoomName(", "))) return;
@@ -264,29 +398,27 @@ public class ExamSuggestions {
     
     private void backtrack(int depth) {
         if (iDepth>depth && iConflictsToResolve.isEmpty()) {
-            if (iSuggestions.size()==iLimit && iSuggestions.last().isBetter(iModel, iAssignment)) return;
-            iSuggestions.add(new ExamProposedChange(iModel, iAssignment, iInitialAssignment, iInitialInfo, iConflictsToResolve.values(), iResolvedExams));
+            // suggestions may be shared with other threads of the parallel search
+            synchronized (iSuggestions) {
+                if (iSuggestions.size()==iLimit && iSuggestions.last().isBetter(iModel, iAssignment)) return;
+            }
+            ExamProposedChange change = new ExamProposedChange(iModel, iAssignment, iInitialAssignment, iInitialInfo, iConflictsToResolve.values(), iResolvedExams);
+            synchronized (iSuggestions) {
+                iSuggestions.add(change);
+                if (iSuggestions.size()>iLimit) iSuggestions.remove(iSuggestions.last());
+            }
             iNrSolutions++;
-            if (iSuggestions.size()>iLimit) iSuggestions.remove(iSuggestions.last());
             return;
         }
         if (depth<=0) return;
-        if (iTimeOut>0 && System.currentTimeMillis()-iStartTime>iTimeOut) {
-            iTimeoutReached = true;
-            return;
-        }
+        if (checkTimeout()) return;
         Exam exam = (iDepth==depth && !iResolvedExams.contains(iExam)?iExam:iConflictsToResolve.keys().nextElement());
         if (iResolvedExams.contains(exam)) return;
         iResolvedExams.add(exam);
         for (ExamPeriodPlacement period: exam.getPeriodPlacements()) {
             //if (exam.equals(iExam) && !match(period.getPeriod().toString())) continue;
-            Set rooms = findBestAvailableRooms(exam, period, true);
-            if (rooms!=null) {
-                tryPlacement(new ExamPlacement(exam, period, rooms), depth);
-            } else {
-                rooms = findBestAvailableRooms(exam, period, false);
-                if (rooms!=null) tryPlacement(new ExamPlacement(exam, period, rooms), depth);
-            }
+            ExamPlacement placement = getPlacement(exam, period);
+            if (placement!=null) tryPlacement(placement, depth);
         }
         iResolvedExams.remove(exam);
     }
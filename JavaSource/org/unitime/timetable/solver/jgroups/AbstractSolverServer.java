@@ -39,8 +39,11 @@ import org.unitime.timetable.model.DepartmentalInstructor;
 import org.unitime.timetable.model.ExamType;
 import org.unitime.timetable.model.InstructionalOffering;
 import org.unitime.timetable.model.Solution;
+import org.unitime.timetable.model.StudentSectioningQueue;
 import org.unitime.timetable.model.TeachingRequest;
 import org.unitime.timetable.model.dao._RootDAO;
+import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
+import org.unitime.timetable.server.curricula.CurriculumProjectionCube;
 import org.unitime.timetable.util.Constants;
 import org.unitime.timetable.util.RoomAvailability;
 import org.unitime.timetable.util.queue.LocalQueueProcessor;
@@ -49,7 +52,7 @@ import org.unitime.timetable.util.queue.QueueProcessor;
 /**
  * @author Tomas Muller
  */
-public abstract class AbstractSolverServer implements SolverServer {
+public abstract class AbstractSolverServer implements SolverServer, StudentSectioningQueue.ChangeListener {
 	protected static Log sLog = LogFactory.getLog(AbstractSolverServer.class);
 	
 	protected int iUsageBase = 0;
@@ -62,6 +65,7 @@ public abstract class AbstractSolverServer implements SolverServer {
 	@Override
 	public void start() throws Exception {
 		iActive = true;
+		StudentSectioningQueue.addChangeListener(this);
 		sLog.info("Solver server is up and running.");
 	}
 	
@@ -69,6 +73,7 @@ public abstract class AbstractSolverServer implements SolverServer {
 	public void stop() throws Exception {
 		sLog.info("Solver server is going down...");
 		iActive = false;
+		StudentSectioningQueue.removeChangeListener(this);
 	}
 
 	@Override
@@ -222,6 +227,18 @@ public abstract class AbstractSolverServer implements SolverServer {
 		}
 	}
 
+	
+	@Override
+	public void studentSectioningQueueChanged(Long sessionId) {
+		SolverContainer<OnlineSectioningServer> container = getOnlineStudentSchedulingContainer();
+		if (container != null && container instanceof OnlineStudentSchedulingContainer)
+			((OnlineStudentSchedulingContainer)container).studentSectioningQueueChanged(sessionId);
+	}
+	
+	@Override
+	public void curriculumProjectionChanged(Long sessionId, boolean rules, boolean lastLike) {
+		CurriculumProjectionCube.invalidateLocal(sessionId, rules, lastLike);
+	}
 
 	@Override
 	public void setApplicationProperty(Long sessionId, String key, String value) {
@@ -191,6 +191,12 @@ public class OnlineStudentSchedulingContainer implements SolverContainer<OnlineS
 		unload(Long.valueOf(sessionId), true);
 	}
 	
+	/** Wake up the updater of the given academic session (there are new items in the student sectioning queue) */
+	public void studentSectioningQueueChanged(Long academicSessionId) {
+		OnlineStudentSchedulingUpdater u = iUpdaters.get(academicSessionId);
+		if (u != null) u.wakeUp();
+	}
+	
 	public void unload(Long academicSessionId, boolean interrupt) {
 		iGlobalLock.writeLock().lock();
 		try {
@@ -199,7 +205,8 @@ public class OnlineStudentSchedulingContainer implements SolverContainer<OnlineS
 				u.stopUpdating(interrupt);
 			OnlineSectioningServer s = iInstances.get(academicSessionId);
 			if (s != null) {
-				sLog.info("Unloading " + u.getAcademicSession() + "...");
+				sLog.info("Unloading " + s.getAcademicSession() + "...");
+				if (u != null) u.saveSnapshot(s);
 				s.unload();
 			}
 			iInstances.remove(academicSessionId);
@@ -314,7 +321,10 @@ public class OnlineStudentSchedulingContainer implements SolverContainer<OnlineS
 				u.stopUpdating(true);
 				if (u.getAcademicSession() != null) {
 					OnlineSectioningServer s = iInstances.get(u.getAcademicSession().getUniqueId());
-					if (s != null) s.unload();
+					if (s != null) {
+						u.saveSnapshot(s);
+						s.unload();
+					}
 				}
 			}
 			iInstances.clear();
@@ -19,9 +19,12 @@
 */
 package org.unitime.timetable.solver.jgroups;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +40,7 @@ import org.unitime.timetable.onlinesectioning.AcademicSessionInfo;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningLog;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningServer.ServerCallback;
+import org.unitime.timetable.onlinesectioning.server.ServerSnapshot;
 import org.unitime.timetable.onlinesectioning.updates.CheckAllOfferingsAction;
 import org.unitime.timetable.onlinesectioning.updates.ClassAssignmentChanged;
 import org.unitime.timetable.onlinesectioning.updates.ExpireReservationsAction;
@@ -58,6 +62,8 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 	private OnlineStudentSchedulingContainer iContainer = null;
 	private AcademicSessionInfo iSession = null; 
 	private Date iLastTimeStamp = null;
+	private Object iWakeUpLock = new Object();
+	private boolean iWakeUp = false;
 	
 	public OnlineStudentSchedulingUpdater(OnlineStudentSchedulingContainer container, AcademicSessionInfo session, Date lastTimeStamp) {
 		super();
@@ -76,17 +82,21 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 			if (getAcademicSession() != null)
 				ApplicationProperties.setSessionId(getAcademicSession().getUniqueId());
 			while (iRun) {
-				try {
-					sleep(iSleepTimeInSeconds * 1000);
-				} catch (InterruptedException e) {}
+				boolean notified = waitForChanges(iSleepTimeInSeconds * 1000);
 				if (!iRun) break;
 				try {
 					OnlineSectioningServer server = iContainer.getInstance(getAcademicSession().getUniqueId());
 					if (server != null) {
-						checkForUpdates(server);
+						if (checkForUpdates(server) == 0 && notified) {
+							// notified, but no changes found -- the notifying transaction may not be visible yet, check again shortly
+							waitForChanges(1000);
+							if (!iRun) break;
+							checkForUpdates(server);
+						}
 						if (!iRun) break;
 						checkForExpiredReservations(server);
 						persistExpectedSpaces(server);
+						checkForSnapshot(server);
 					}
 				} finally {
 					HibernateUtil.closeCurrentThreadSessions();
@@ -109,27 +119,69 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 		return iContainer.getInstance(getAcademicSession().getUniqueId());
 	}
 	
-	public void checkForUpdates(OnlineSectioningServer server) {
+	/**
+	 * Wait until notified about a change (see {@link #wakeUp()}) or until the given time has elapsed.
+	 * @return true if notified
+	 */
+	protected boolean waitForChanges(long timeInMillis) {
+		synchronized (iWakeUpLock) {
+			if (!iWakeUp) {
+				try {
+					iWakeUpLock.wait(timeInMillis);
+				} catch (InterruptedException e) {}
+			}
+			boolean notified = iWakeUp;
+			iWakeUp = false;
+			return notified;
+		}
+	}
+	
+	/** Notify the updater that there are new items in the student sectioning queue */
+	public void wakeUp() {
+		synchronized (iWakeUpLock) {
+			iWakeUp = true;
+			iWakeUpLock.notifyAll();
+		}
+	}
+	
+	/**
+	 * Process new items of the student sectioning queue. Consecutive items of the same type and user are
+	 * merged into a single change (with duplicate ids removed).
+	 * @return number of processed queue items
+	 */
+	public int checkForUpdates(OnlineSectioningServer server) {
+		int count = 0;
 		try {
 			org.hibernate.Session hibSession = StudentSectioningQueueDAO.getInstance().createNewSession();
 			try {
 				iLastTimeStamp = server.getProperty("Updater.LastTimeStamp", iLastTimeStamp);
+				QueueBatch batch = null;
 				for (StudentSectioningQueue q: StudentSectioningQueue.getItems(hibSession, getAcademicSession().getUniqueId(), iLastTimeStamp)) {
-					try {
-						processChange(server, q);
-					} catch (Exception e) {
-						iLog.error("Update failed: " + e.getMessage(), e);
-					}
-					if (!iRun) break;
-					iLastTimeStamp = q.getTimeStamp();
-					server.setProperty("Updater.LastTimeStamp", iLastTimeStamp);
+					count ++;
+					if (batch != null && batch.merge(q)) continue;
+					if (batch != null && !processBatch(server, batch)) return count;
+					batch = new QueueBatch(q);
 				}
+				if (batch != null) processBatch(server, batch);
 			} finally {
 				hibSession.close();
 			}
 		} catch (Exception e) {
 			iLog.error("Unable to check for updates: " + e.getMessage(), e);
 		}
+		return count;
+	}
+	
+	private boolean processBatch(OnlineSectioningServer server, QueueBatch batch) {
+		try {
+			processChange(server, batch.getType(), batch.getUser(), batch.getIds());
+		} catch (Exception e) {
+			iLog.error("Update failed: " + e.getMessage(), e);
+		}
+		if (!iRun) return false;
+		iLastTimeStamp = batch.getTimeStamp();
+		server.setProperty("Updater.LastTimeStamp", iLastTimeStamp);
+		return true;
 	}
 	
 	public void checkForExpiredReservations(OnlineSectioningServer server) {
@@ -149,6 +201,27 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 		}
 	}
 	
+	public void checkForSnapshot(OnlineSectioningServer server) {
+		if (!ServerSnapshot.isEnabled(server) || !server.isReady()) return;
+		int interval = ApplicationProperty.OnlineSchedulingServerSnapshotInterval.intValue();
+		if (interval <= 0) return;
+		long ts = System.currentTimeMillis(); // current time stamp
+		Long lastSnapshot = server.getProperty("Updater.LastSnapshot", null);
+		if (lastSnapshot == null) {
+			// server has just started -> wait for the next interval
+			server.setProperty("Updater.LastSnapshot", ts);
+			return;
+		}
+		if (ts - lastSnapshot < 60000l * interval) return;
+		server.setProperty("Updater.LastSnapshot", ts);
+		ServerSnapshot.save(server, iLastTimeStamp);
+	}
+	
+	public void saveSnapshot(OnlineSectioningServer server) {
+		if (ServerSnapshot.isEnabled(server) && server.isReady())
+			ServerSnapshot.save(server, iLastTimeStamp);
+	}
+	
 	protected OnlineSectioningLog.Entity user() {
 		return OnlineSectioningLog.Entity.newBuilder()
 			.setExternalId(StudentClassEnrollment.SystemChange.SYSTEM.name())
@@ -175,12 +248,16 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 	}
 	
 	protected void processChange(OnlineSectioningServer server, StudentSectioningQueue q) {
-		switch (StudentSectioningQueue.Type.values()[q.getType()]) {
+		processChange(server, StudentSectioningQueue.Type.values()[q.getType()], q.getUser(), q.getIds());
+	}
+	
+	protected void processChange(OnlineSectioningServer server, StudentSectioningQueue.Type type, OnlineSectioningLog.Entity user, List<Long> ids) {
+		switch (type) {
 		case SESSION_RELOAD:
 			iLog.info("Reloading " + server.getAcademicSession());
-			server.execute(server.createAction(ReloadAllData.class), q.getUser());
+			server.execute(server.createAction(ReloadAllData.class), user);
 			if (server.getAcademicSession().isSectioningEnabled())
-				server.execute(server.createAction(CheckAllOfferingsAction.class), q.getUser());
+				server.execute(server.createAction(CheckAllOfferingsAction.class), user);
 			break;
 		case SESSION_STATUS_CHANGE:
 			Session session = SessionDAO.getInstance().get(iSession.getUniqueId());
@@ -204,26 +281,72 @@ public class OnlineStudentSchedulingUpdater extends Thread {
 			}
 			break;
 		case STUDENT_ENROLLMENT_CHANGE:
-			List<Long> studentIds = q.getIds();
+			List<Long> studentIds = ids;
 			if (studentIds == null || studentIds.isEmpty()) {
 				iLog.info("All students changed for " + server.getAcademicSession());
-				server.execute(server.createAction(ReloadAllStudents.class), q.getUser());
+				server.execute(server.createAction(ReloadAllStudents.class), user);
 			} else {
-				server.execute(server.createAction(ReloadStudent.class).forStudents(studentIds), q.getUser());
+				server.execute(server.createAction(ReloadStudent.class).forStudents(studentIds), user);
 			}
 			break;
 		case CLASS_ASSIGNMENT_CHANGE:
-			server.execute(server.createAction(ClassAssignmentChanged.class).forClasses(q.getIds()), q.getUser());
+			server.execute(server.createAction(ClassAssignmentChanged.class).forClasses(ids), user);
 			break;
 		case OFFERING_CHANGE:
-			server.execute(server.createAction(ReloadOfferingAction.class).forOfferings(q.getIds()), q.getUser());
+			server.execute(server.createAction(ReloadOfferingAction.class).forOfferings(ids), user);
 			break;
 		case SCHEDULING_RULES_CHANGED:
-			server.execute(server.createAction(ReloadSchedulingRules.class), q.getUser());
+			server.execute(server.createAction(ReloadSchedulingRules.class), user);
 			break;
 		default:
-			iLog.error("Student sectioning queue type " + StudentSectioningQueue.Type.values()[q.getType()] + " not known.");
+			iLog.error("Student sectioning queue type " + type + " not known.");
+		}
+	}
+
+	/**
+	 * Consecutive student sectioning queue items of the same type and user, merged into a single change
+	 */
+	private static class QueueBatch {
+		private StudentSectioningQueue.Type iType;
+		private OnlineSectioningLog.Entity iUser;
+		private Set<Long> iIds = null;
+		private Date iTimeStamp;
+		
+		private QueueBatch(StudentSectioningQueue q) {
+			iType = StudentSectioningQueue.Type.values()[q.getType()];
+			iUser = q.getUser();
+			List<Long> ids = q.getIds();
+			if (ids != null) iIds = new LinkedHashSet<Long>(ids);
+			iTimeStamp = q.getTimeStamp();
 		}
+		
+		private boolean isMergeable() {
+			switch (iType) {
+			case STUDENT_ENROLLMENT_CHANGE:
+			case CLASS_ASSIGNMENT_CHANGE:
+			case OFFERING_CHANGE:
+				// an empty list of students means all students have changed
+				return iIds != null && !iIds.isEmpty();
+			default:
+				return false;
+			}
+		}
+		
+		private boolean merge(StudentSectioningQueue q) {
+			if (!isMergeable() || iType.ordinal() != q.getType()) return false;
+			OnlineSectioningLog.Entity user = q.getUser();
+			if (iUser == null ? user != null : user == null || !iUser.getExternalId().equals(user.getExternalId())) return false;
+			List<Long> ids = q.getIds();
+			if (ids == null || ids.isEmpty()) return false;
+			iIds.addAll(ids);
+			iTimeStamp = q.getTimeStamp();
+			return true;
+		}
+		
+		public StudentSectioningQueue.Type getType() { return iType; }
+		public OnlineSectioningLog.Entity getUser() { return iUser; }
+		public List<Long> getIds() { return iIds == null ? null : new ArrayList<Long>(iIds); }
+		public Date getTimeStamp() { return iTimeStamp; }
 	}
 
 	public void stopUpdating(boolean interrupt) {
@@ -99,6 +99,10 @@ public interface SolverServer {
 	
 	public void refreshInstructorSolution(Collection<Long> solverGroupIds);
 	
+	public void studentSectioningQueueChanged(Long sessionId);
+	
+	public void curriculumProjectionChanged(Long sessionId, boolean rules, boolean lastLike);
+	
 	public void setApplicationProperty(Long sessionId, String key, String value);
 	
 	public void setLoggingLevel(String name, String level);
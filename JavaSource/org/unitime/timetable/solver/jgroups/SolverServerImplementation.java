@@ -88,6 +88,7 @@ public class SolverServerImplementation extends AbstractSolverServer {
 	private static SolverServerImplementation sInstance = null;
 	public static final RequestOptions sFirstResponse = new RequestOptions(ResponseMode.GET_FIRST, ApplicationProperty.SolverClusterTimeout.intValue()).setFlags(Flag.DONT_BUNDLE, Flag.OOB);
 	public static final RequestOptions sAllResponses = new RequestOptions(ResponseMode.GET_ALL, ApplicationProperty.SolverClusterTimeout.intValue()).setFlags(Flag.DONT_BUNDLE, Flag.OOB);
+	public static final RequestOptions sNoResponse = new RequestOptions(ResponseMode.GET_NONE, ApplicationProperty.SolverClusterTimeout.intValue()).setFlags(Flag.DONT_BUNDLE, Flag.OOB);
 	
 	private JChannel iChannel;
 	private ForkChannel iServerChannel;
@@ -398,6 +399,33 @@ public class SolverServerImplementation extends AbstractSolverServer {
 		}
 	}
 	
+	public void studentSectioningQueueChangedLocal(Long sessionId) {
+		super.studentSectioningQueueChanged(sessionId);
+	}
+	
+	@Override
+	public void studentSectioningQueueChanged(Long sessionId) {
+		try {
+			iDispatcher.callRemoteMethods(null, "studentSectioningQueueChangedLocal", new Object[] { sessionId }, new Class<?>[] { Long.class }, sNoResponse);
+		} catch (Exception e) {
+			sLog.error("Failed to notify about student sectioning queue change: " + e.getMessage(), e);
+		}
+	}
+	
+	public void curriculumProjectionChangedLocal(Long sessionId, Boolean rules, Boolean lastLike) {
+		super.curriculumProjectionChanged(sessionId, rules, lastLike);
+	}
+	
+	@Override
+	public void curriculumProjectionChanged(Long sessionId, boolean rules, boolean lastLike) {
+		try {
+			iDispatcher.callRemoteMethods(null, "curriculumProjectionChangedLocal", new Object[] { sessionId, rules, lastLike }, new Class<?>[] { Long.class, Boolean.class, Boolean.class }, sAllResponses);
+		} catch (Exception e) {
+			sLog.error("Failed to invalidate curriculum projections: " + e.getMessage(), e);
+			super.curriculumProjectionChanged(sessionId, rules, lastLike);
+		}
+	}
+	
 	public Collection<XClassEnrollment> getUnavailabilitiesFromOtherSessionsLocal(AcademicSessionInfo session, String studentExternalId) {
 		return iOnlineStudentSchedulingContainer.getUnavailabilitiesFromOtherSessions(session, studentExternalId);
 	}
@@ -29,6 +29,7 @@ import org.unitime.timetable.model.SolverParameterGroup.SolverType;
  */
 public class BackupFileFilter implements FileFilter {
 	public static String sXmlExtension = ".backup.xml";
+	public static String sGzipExtension = ".gz";
 	private SolverType iType;
 	
 	public BackupFileFilter(SolverType type) {
@@ -37,13 +38,19 @@ public class BackupFileFilter implements FileFilter {
 
 	public boolean accept(File file) {
 		if (iType != null && !file.getName().startsWith(iType.getPrefix())) return false;
-		return file.getName().endsWith(sXmlExtension);
+		return file.getName().endsWith(sXmlExtension) || file.getName().endsWith(sXmlExtension + sGzipExtension);
+	}
+	
+	/** Returns true if the given backup file is compressed */
+	public static boolean isCompressed(File file) {
+		return file.getName().endsWith(sGzipExtension);
 	}
 
 	public String getUser(File file) {
 		if (accept(file)) {
 			String name = file.getName();
 			if (iType != null) name = name.substring(iType.getPrefix().length());
+			if (name.endsWith(sGzipExtension)) name = name.substring(0, name.length() - sGzipExtension.length());
 			if (name.endsWith(sXmlExtension)) name = name.substring(0, name.length() - sXmlExtension.length());
 			return name;
 		} else {
@@ -0,0 +1,206 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.solver.studentsct;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.SessionFactory;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Loads entities by their unique ids in partitions, using a pool of threads. Each partition is loaded on its own
+ * hibernate session, and the partitions are returned in the order of the given ids, so that the caller can process
+ * the first partitions while the following ones are still being loaded. Optionally, the loaded entities can be also
+ * converted on the loading thread (see {@link #load(List, PartitionQuery, PartitionConverter)}).
+ * <br>
+ * A partition session is only used by one thread at a time: first by the loading thread, then (once the partition
+ * is returned) by the caller, who may still initialize lazy associations of the loaded entities. The sessions release
+ * their database connections after each statement and they are all closed by {@link #close()}.
+ *
+ * @author Tomas Muller
+ */
+public class PartitionedEntityLoader {
+	private SessionFactory iSessionFactory;
+	private Long iSessionId;
+	private int iPartitionSize;
+	private ExecutorService iExecutor;
+	private List<org.hibernate.Session> iSessions = Collections.synchronizedList(new ArrayList<org.hibernate.Session>());
+
+	/**
+	 * Loading of one partition
+	 */
+	public static interface PartitionQuery<T> {
+		/**
+		 * Load entities of the given ids, initializing the associations that are needed by the caller
+		 * @param hibSession partition session
+		 * @param ids unique ids of the entities to load (at most partition size)
+		 */
+		public List<T> load(org.hibernate.Session hibSession, List<Long> ids);
+	}
+
+	/**
+	 * Conversion of the loaded entities, called on the loading threads (concurrently for different partitions)
+	 */
+	public static interface PartitionConverter<T, R> {
+		/**
+		 * Convert a loaded entity, the conversion must not change any state that is shared between the partitions
+		 * (unless it is properly synchronized)
+		 * @param entity entity loaded by the partition query (its lazy associations can be initialized)
+		 * @return converted entity, may be null
+		 */
+		public R convert(T entity);
+	}
+
+	/**
+	 * An entity together with its conversion
+	 */
+	public static class Converted<T, R> {
+		private T iEntity;
+		private R iResult;
+
+		Converted(T entity, R result) {
+			iEntity = entity; iResult = result;
+		}
+
+		public T getEntity() { return iEntity; }
+		public R getResult() { return iResult; }
+	}
+
+	public PartitionedEntityLoader(SessionFactory sessionFactory, Long sessionId, int nrThreads, int partitionSize) {
+		iSessionFactory = sessionFactory;
+		iSessionId = sessionId;
+		iPartitionSize = Math.max(1, partitionSize);
+		iExecutor = Executors.newFixedThreadPool(Math.max(1, nrThreads), new ThreadFactory() {
+			private AtomicInteger iIndex = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "PartitionLoader-" + iIndex.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Start loading of the entities with the given ids (all the partitions are submitted at once).
+	 * @return entities in the order of the partitions, iterator blocks until the next partition is loaded
+	 */
+	public <T> Iterable<T> load(List<Long> ids, final PartitionQuery<T> query) {
+		return submit(ids, query, entities -> entities);
+	}
+
+	/**
+	 * Start loading of the entities with the given ids (all the partitions are submitted at once). Each partition is
+	 * converted by the thread that has loaded it, so the conversion of different partitions runs in parallel.
+	 * @return entities with their conversions in the order of the partitions, iterator blocks until the next partition
+	 * is loaded and converted
+	 */
+	public <T, R> Iterable<Converted<T, R>> load(List<Long> ids, final PartitionQuery<T> query, final PartitionConverter<T, R> converter) {
+		return submit(ids, query, entities -> {
+			List<Converted<T, R>> converted = new ArrayList<Converted<T, R>>(entities.size());
+			for (T entity: entities)
+				converted.add(new Converted<T, R>(entity, converter.convert(entity)));
+			return converted;
+		});
+	}
+
+	private <T, X> Iterable<X> submit(List<Long> ids, final PartitionQuery<T> query, final Function<List<T>, List<X>> process) {
+		final List<Future<List<X>>> partitions = new ArrayList<Future<List<X>>>();
+		for (int i = 0; i < ids.size(); i += iPartitionSize) {
+			final List<Long> partition = new ArrayList<Long>(ids.subList(i, Math.min(i + iPartitionSize, ids.size())));
+			partitions.add(iExecutor.submit(() -> {
+				ApplicationProperties.setSessionId(iSessionId);
+				try {
+					org.hibernate.Session hibSession = iSessionFactory.withOptions()
+							.connectionHandlingMode(PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_STATEMENT)
+							.openSession();
+					iSessions.add(hibSession);
+					hibSession.setCacheMode(CacheMode.IGNORE);
+					hibSession.setHibernateFlushMode(FlushMode.MANUAL);
+					return process.apply(query.load(hibSession, partition));
+				} finally {
+					ApplicationProperties.setSessionId(null);
+				}
+			}));
+		}
+		return new Iterable<X>() {
+			@Override
+			public Iterator<X> iterator() {
+				return new PartitionIterator<X>(partitions.iterator());
+			}
+		};
+	}
+
+	/**
+	 * Stop the loading threads and close all the partition sessions (entities that are not yet fully loaded can no longer be used).
+	 */
+	public void close() {
+		iExecutor.shutdownNow();
+		synchronized (iSessions) {
+			for (org.hibernate.Session hibSession: iSessions)
+				if (hibSession.isOpen()) hibSession.close();
+			iSessions.clear();
+		}
+	}
+
+	private static class PartitionIterator<T> implements Iterator<T> {
+		private Iterator<Future<List<T>>> iPartitions;
+		private Iterator<T> iCurrent = null;
+
+		PartitionIterator(Iterator<Future<List<T>>> partitions) {
+			iPartitions = partitions;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while ((iCurrent == null || !iCurrent.hasNext()) && iPartitions.hasNext()) {
+				try {
+					iCurrent = iPartitions.next().get().iterator();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Loading was interrupted.", e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("Failed to load a partition: " + e.getCause().getMessage(), e.getCause());
+				}
+			}
+			return iCurrent != null && iCurrent.hasNext();
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return iCurrent.next();
+		}
+	}
+}
@@ -38,6 +38,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -88,6 +89,7 @@ import org.cpsolver.studentsct.reservation.Restriction;
 import org.cpsolver.studentsct.reservation.UniversalOverride;
 import org.hibernate.CacheMode;
 import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
 import org.hibernate.Transaction;
 import org.joda.time.Days;
 import org.joda.time.LocalDate;
@@ -191,6 +193,7 @@ import org.unitime.timetable.util.duration.DurationModel;
  */
 public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
     private static Log sLog = LogFactory.getLog(StudentSectioningDatabaseLoader.class);
+    private static DecimalFormat sTimeFormat = new DecimalFormat("0.00");
     private boolean iIncludeCourseDemands = true;
     private boolean iIncludeUseCommittedAssignments = false;
     private boolean iMakeupAssignmentsFromRequiredPrefs = false;
@@ -200,7 +203,7 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
     private String iYear = null;
     private String iOwnerId = null;
     private Long iSessionId = null;
-    private long iMakeupAssignmentId = 0;
+    private AtomicLong iMakeupAssignmentId = new AtomicLong(0);
 	private BitSet iFreeTimePattern = null;
 	private Date iDatePatternFirstDate = null;
 	private boolean iTweakLimits = false;
@@ -277,6 +280,9 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
     private boolean iReplacePendingWithAlternative = false;
     private boolean iReplaceCancelledWitAlternative = false;
     private boolean iReplaceNotOfferedWithAlternative = false;
+    private int iNrLoadThreads = 1;
+    private int iLoadPartitionSize = 1000;
+    private PartitionedEntityLoader iPartitionedLoader = null;
     
     public StudentSectioningDatabaseLoader(StudentSolver solver, StudentSectioningModel model, org.cpsolver.ifs.assignment.Assignment<Request, Enrollment> assignment) {
         super(model, assignment);
@@ -461,6 +467,8 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
         iReplacePendingWithAlternative = model.getProperties().getPropertyBoolean("Load.ReplacePendingWithSubstitute", iReplacePendingWithAlternative);
         iReplaceCancelledWitAlternative = model.getProperties().getPropertyBoolean("Load.ReplaceCancelledWithSubstitute", iReplaceCancelledWitAlternative);
         iReplaceNotOfferedWithAlternative = model.getProperties().getPropertyBoolean("Load.ReplaceNotOfferedWithSubstitute", iReplaceNotOfferedWithAlternative);
+        iNrLoadThreads = model.getProperties().getPropertyInt("Load.NrThreads", iNrLoadThreads);
+        iLoadPartitionSize = model.getProperties().getPropertyInt("Load.PartitionSize", iLoadPartitionSize);
     }
     
     public void load() {
@@ -514,6 +522,11 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
             if (getModel().getDistanceConflict() != null)
             	TravelTime.populateTravelTimes(getModel().getDistanceConflict().getDistanceMetric(), iSessionId, hibSession);
             
+            if (iNrLoadThreads > 1) {
+            	iProgress.info("Loading offerings and students in partitions of " + iLoadPartitionSize + " using " + iNrLoadThreads + " threads.");
+            	iPartitionedLoader = new PartitionedEntityLoader(hibSession.getSessionFactory(), iSessionId, iNrLoadThreads, iLoadPartitionSize);
+            }
+            
             load(session, hibSession);
             
             if (!iUpdatedStudents.isEmpty()) {
@@ -529,6 +542,7 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
         } finally {
             // here we need to close the session since this code may run in a separate thread
             if (hibSession!=null && hibSession.isOpen()) hibSession.close();
+            if (iPartitionedLoader != null) { iPartitionedLoader.close(); iPartitionedLoader = null; }
             if (iValidationProvider != null) iValidationProvider.dispose();
             if (iCriticalCoursesProvider != null) iCriticalCoursesProvider.dispose();
         }
@@ -621,7 +635,7 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
         Lecture lecture = new Lecture(c.getUniqueId(), null, c.getSchedulingSubpart().getUniqueId(), c.getClassLabel(iShowClassSuffix, iShowConfigName), times, rooms, rooms.size(), new Placement(null,time,rooms), 0, 0, 1.0);
         lecture.setNote(c.getNotes());
         Placement p = (Placement)lecture.getInitialAssignment();
-        p.setAssignmentId(Long.valueOf(iMakeupAssignmentId++));
+        p.setAssignmentId(Long.valueOf(iMakeupAssignmentId.getAndIncrement()));
         lecture.setBestAssignment(p, 0l);
         iProgress.trace("makup placement for "+c.getClassLabel(iShowClassSuffix, iShowConfigName)+": "+p.getLongName(iUseAmPm));
         return p;
@@ -1049,13 +1063,16 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
             		StudentGroupType type = ((StudentGroupReservation)reservation).getGroup().getType();
             		if (type != null && type.getAllowDisabledSection() == StudentGroupType.AllowDisabledSection.WithGroupReservation) r.setAllowDisabled(true);
             		if (iLCRequestPriority != null) {
-                		Set<Long> courseStudentIds = iLCDemands.get(co.getUniqueId());
-                		if (courseStudentIds == null) {
-                			courseStudentIds = new HashSet<Long>();
-                			iLCDemands.put(co.getUniqueId(), courseStudentIds);
-                		}
-                		for (org.unitime.timetable.model.Student s: ((LearningCommunityReservation)reservation).getGroup().getStudents())
-                			courseStudentIds.add(s.getUniqueId());
+            			// offerings may be loaded in parallel (see Load.NrThreads)
+            			synchronized (iLCDemands) {
+                    		Set<Long> courseStudentIds = iLCDemands.get(co.getUniqueId());
+                    		if (courseStudentIds == null) {
+                    			courseStudentIds = new HashSet<Long>();
+                    			iLCDemands.put(co.getUniqueId(), courseStudentIds);
+                    		}
+                    		for (org.unitime.timetable.model.Student s: ((LearningCommunityReservation)reservation).getGroup().getStudents())
+                    			courseStudentIds.add(s.getUniqueId());
+            			}
             		}
         		}
         	} else if (reservation instanceof StudentGroupReservation) {
@@ -2650,23 +2667,51 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
     	
         Hashtable<Long, Course> courseTable = new Hashtable<Long, Course>();
         final Hashtable<Long, Section> classTable = new Hashtable<Long, Section>();
-        List<InstructionalOffering> offerings = hibSession.createQuery(
-                "select distinct io from InstructionalOffering io " +
-                "left join io.courseOfferings as co "+
-                "left join fetch io.instrOfferingConfigs as ioc "+
-                "left join fetch ioc.schedulingSubparts as ss "+
-                "left join fetch ss.classes as c "+
-                "left join fetch io.reservations as r "+
-                "where " +
-                "io.session.uniqueId = :sessionId and io.notOffered = false and co.subjectArea.department.allowStudentScheduling = true", InstructionalOffering.class).
-                setParameter("sessionId", session.getUniqueId().longValue()).
-                setFetchSize(1000).list();
-        setPhase("Loading course offerings...", offerings.size());
-        for (InstructionalOffering io: offerings) {
-        	incProgress();
-            Offering offering = loadOffering(io, courseTable, classTable, 0);
-            if (offering!=null) getModel().addOffering(offering);
+        long t0 = System.currentTimeMillis();
+        List<InstructionalOffering> offerings = null;
+        if (iPartitionedLoader != null) {
+        	List<Long> offeringIds = hibSession.createQuery(
+        			"select distinct io.uniqueId from InstructionalOffering io left join io.courseOfferings as co where " +
+        			"io.session.uniqueId = :sessionId and io.notOffered = false and co.subjectArea.department.allowStudentScheduling = true " +
+        			"order by io.uniqueId", Long.class).
+        			setParameter("sessionId", session.getUniqueId().longValue()).list();
+        	offerings = new ArrayList<InstructionalOffering>(offeringIds.size());
+        	setPhase("Loading course offerings...", offeringIds.size());
+        	// offerings are converted on the loading threads, only adding them into the model is done here
+        	final AtomicLong conversionTime = new AtomicLong(0);
+        	for (PartitionedEntityLoader.Converted<InstructionalOffering, Offering> loaded: iPartitionedLoader.load(offeringIds, new OfferingPartitionQuery(), io -> {
+        		long t1 = System.currentTimeMillis();
+        		try {
+        			return loadOffering(io, courseTable, classTable, 0);
+        		} finally {
+        			conversionTime.addAndGet(System.currentTimeMillis() - t1);
+        		}
+        	})) {
+        		incProgress();
+        		offerings.add(loaded.getEntity());
+        		if (loaded.getResult() != null) getModel().addOffering(loaded.getResult());
+        	}
+        	iProgress.info("Course offerings converted in " + sTimeFormat.format(conversionTime.get() / 1000.0) + " s (total of all loading threads).");
+        } else {
+            offerings = hibSession.createQuery(
+                    "select distinct io from InstructionalOffering io " +
+                    "left join io.courseOfferings as co "+
+                    "left join fetch io.instrOfferingConfigs as ioc "+
+                    "left join fetch ioc.schedulingSubparts as ss "+
+                    "left join fetch ss.classes as c "+
+                    "left join fetch io.reservations as r "+
+                    "where " +
+                    "io.session.uniqueId = :sessionId and io.notOffered = false and co.subjectArea.department.allowStudentScheduling = true", InstructionalOffering.class).
+                    setParameter("sessionId", session.getUniqueId().longValue()).
+                    setFetchSize(1000).list();
+            setPhase("Loading course offerings...", offerings.size());
+            for (InstructionalOffering io: offerings) {
+            	incProgress();
+                Offering offering = loadOffering(io, courseTable, classTable, 0);
+                if (offering!=null) getModel().addOffering(offering);
+            }
         }
+        iProgress.info(offerings.size() + " course offerings loaded in " + sTimeFormat.format((System.currentTimeMillis() - t0) / 1000.0) + " s.");
         
         List<DistributionPref> distPrefs = hibSession.createQuery(
         		"select p from DistributionPref p, Department d where p.distributionType.reference in (:ref1, :ref2) and d.session.uniqueId = :sessionId" +
@@ -2711,7 +2756,19 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
         Map<StudentSchedulingRule, Set<Student>> rule2students = new HashMap<StudentSchedulingRule, Set<Student>>();
         Map<Student, StudentSchedulingRule> student2rule = new HashMap<Student, StudentSchedulingRule>();
         if (iIncludeCourseDemands || iProjections) {
-            List<org.unitime.timetable.model.Student> students = hibSession.createQuery(
+        	t0 = System.currentTimeMillis();
+        	Iterable<org.unitime.timetable.model.Student> students = null;
+        	int nrStudents = 0;
+        	if (iPartitionedLoader != null && !(iValidateOverrides && iValidationProvider != null) && !(iCheckOverrideStatus && iValidationProvider != null) && !iCheckCriticalCourses) {
+        		List<Long> studentIds = hibSession.createQuery(
+        				"select s.uniqueId from Student s where s.session.uniqueId=:sessionId order by s.uniqueId", Long.class).
+        				setParameter("sessionId", session.getUniqueId().longValue()).list();
+        		nrStudents = studentIds.size();
+        		// unlike offerings, students are converted here: a new course request registers itself with its courses
+        		// (Course.getRequests()), and the conversion also updates course limits, reservations, and curriculum counts
+        		students = iPartitionedLoader.load(studentIds, new StudentPartitionQuery());
+        	} else {
+            List<org.unitime.timetable.model.Student> studentList = hibSession.createQuery(
                     "select distinct s from Student s " +
 /*                    "left join fetch s.courseDemands as cd "+
                     "left join fetch cd.courseRequests as cr "+
@@ -2723,14 +2780,17 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
                     setParameter("sessionId", session.getUniqueId().longValue()).
                     setFetchSize(1000).list();
             if (iValidateOverrides && iValidationProvider != null) {
-            	validateOverrides(hibSession, students);
+            	validateOverrides(hibSession, studentList);
             } else if (iCheckOverrideStatus && iValidationProvider != null) {
-            	checkOverrideStatuses(hibSession, students);
+            	checkOverrideStatuses(hibSession, studentList);
             }
             if (iCheckCriticalCourses)
-            	checkCriticalCourses(hibSession, students);
+            	checkCriticalCourses(hibSession, studentList);
+            students = studentList;
+            nrStudents = studentList.size();
+        	}
             
-            setPhase("Loading student requests...", students.size());
+            setPhase("Loading student requests...", nrStudents);
             for (Iterator i=students.iterator();i.hasNext();) {
                 org.unitime.timetable.model.Student s = (org.unitime.timetable.model.Student)i.next(); incProgress();
                 if (s.getCourseDemands().isEmpty() && s.getClassEnrollments().isEmpty()) continue;
@@ -2795,6 +2855,7 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
                     // assignStudent(student);
                 }
             }
+            iProgress.info(nrStudents + " students loaded in " + sTimeFormat.format((System.currentTimeMillis() - t0) / 1000.0) + " s.");
         }
         
         if (iIncludeUnavailabilities) {
@@ -3348,6 +3409,49 @@ public class StudentSectioningDatabaseLoader extends StudentSectioningLoader {
     	iProgress.incProgress();
     }
     
+    /**
+     * Partition of the offerings (with configurations, subparts, classes, reservations, and courses) for the {@link PartitionedEntityLoader}
+     */
+    protected static class OfferingPartitionQuery implements PartitionedEntityLoader.PartitionQuery<InstructionalOffering> {
+		@Override
+		public List<InstructionalOffering> load(org.hibernate.Session hibSession, List<Long> ids) {
+			List<InstructionalOffering> offerings = hibSession.createQuery(
+                    "select distinct io from InstructionalOffering io " +
+                    "left join fetch io.instrOfferingConfigs as ioc "+
+                    "left join fetch ioc.schedulingSubparts as ss "+
+                    "left join fetch ss.classes as c "+
+                    "left join fetch io.reservations as r "+
+                    "where io.uniqueId in :ids order by io.uniqueId", InstructionalOffering.class).
+                    setParameterList("ids", ids, Long.class).list();
+			for (InstructionalOffering io: offerings)
+				Hibernate.initialize(io.getCourseOfferings());
+			return offerings;
+		}
+    }
+    
+    /**
+     * Partition of the students (with course demands, course requests, enrollments, and wait-lists) for the {@link PartitionedEntityLoader}
+     */
+    protected class StudentPartitionQuery implements PartitionedEntityLoader.PartitionQuery<org.unitime.timetable.model.Student> {
+		@Override
+		public List<org.unitime.timetable.model.Student> load(org.hibernate.Session hibSession, List<Long> ids) {
+			List<org.unitime.timetable.model.Student> students = hibSession.createQuery(
+					"select s from Student s where s.uniqueId in :ids order by s.uniqueId", org.unitime.timetable.model.Student.class).
+					setParameterList("ids", ids, Long.class).list();
+			for (org.unitime.timetable.model.Student s: students) {
+				for (CourseDemand cd: s.getCourseDemands())
+					Hibernate.initialize(cd.getCourseRequests());
+				Hibernate.initialize(s.getClassEnrollments());
+				Hibernate.initialize(s.getWaitlists());
+				if (iLoadStudentInfo) {
+					Hibernate.initialize(s.getAreaClasfMajors());
+					Hibernate.initialize(s.getGroups());
+				}
+			}
+			return students;
+		}
+    }
+    
     protected class Worker extends Thread {
     	private org.hibernate.Session iHibSession;
 		private Iterator<org.unitime.timetable.model.Student> iStudents;
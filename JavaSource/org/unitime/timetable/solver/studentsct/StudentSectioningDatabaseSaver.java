@@ -19,11 +19,20 @@
 */
 package org.unitime.timetable.solver.studentsct;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -31,6 +40,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.cpsolver.ifs.solver.Solver;
 import org.cpsolver.ifs.util.Progress;
+import org.cpsolver.ifs.util.ToolBox;
 import org.cpsolver.studentsct.StudentSectioningSaver;
 import org.cpsolver.studentsct.model.Config;
 import org.cpsolver.studentsct.model.Course;
@@ -42,10 +52,15 @@ import org.cpsolver.studentsct.model.Request;
 import org.cpsolver.studentsct.model.Section;
 import org.cpsolver.studentsct.model.Student;
 import org.cpsolver.studentsct.model.Subpart;
+import org.hibernate.Cache;
 import org.hibernate.CacheMode;
 import org.hibernate.FlushMode;
 import org.hibernate.Transaction;
+import org.hibernate.jdbc.Work;
+import org.hibernate.query.MutationQuery;
+import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.shared.OnlineSectioningInterface.WaitListMode;
 import org.unitime.timetable.model.Class_;
 import org.unitime.timetable.model.CourseDemand;
@@ -66,6 +81,7 @@ import org.unitime.timetable.model.dao.SessionDAO;
  */
 public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
     private static Log sLog = LogFactory.getLog(StudentSectioningDatabaseSaver.class);
+    private static DecimalFormat sTimeFormat = new DecimalFormat("0.00");
     private boolean iIncludeCourseDemands = true;
     private String iInitiative = null;
     private String iTerm = null;
@@ -84,6 +100,8 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
     
     private Progress iProgress = null;
 	private boolean iProjections = false;
+	private boolean iBulkSave = false;
+	private int iBatchSize = 1000;
 
     public StudentSectioningDatabaseSaver(Solver solver) {
         super(solver);
@@ -95,6 +113,8 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
         iProjections = "Projection".equals(solver.getProperties().getProperty("StudentSctBasic.Mode", "Initial"));
         iUpdateCourseRequests = solver.getProperties().getPropertyBoolean("Interactive.UpdateCourseRequests", true);
         iOwnerId = solver.getProperties().getProperty("General.OwnerPuid");
+        iBulkSave = solver.getProperties().getPropertyBoolean("Save.BulkMode", iBulkSave);
+        iBatchSize = Math.max(1, solver.getProperties().getPropertyInt("Save.BatchSize", iBatchSize));
     }
     
     public void save() {
@@ -122,6 +142,7 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
             
             tx.commit(); tx = null;
             
+            if (iBulkSave) evictCaches(hibSession);
         } catch (Exception e) {
             iProgress.fatal("Unable to save student schedule, reason: "+e.getMessage(),e);
             sLog.error(e.getMessage(),e);
@@ -334,56 +355,49 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
             }
             incProgress();
 
-            iStudents = new Hashtable<Long, org.unitime.timetable.model.Student>();
-            setPhase("Loading students...", 1);
-            for (org.unitime.timetable.model.Student student: hibSession.createQuery(
-            		"select distinct s from Student s " +
-                    "left join fetch s.courseDemands as cd "+
-                    "left join fetch cd.courseRequests as cr "+
-                    "left join fetch s.classEnrollments as e " +
-                    "left join fetch s.waitlists as w " +
-            		"where s.session.uniqueId = :sessionId", org.unitime.timetable.model.Student.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-            	iStudents.put(student.getUniqueId(), student);
-            }
-            incProgress();
+            setStatusToSet(session, hibSession);
             
+            if (iBulkSave) {
+            	saveStudentsBulk(session, hibSession);
+            } else {
+	            iStudents = new Hashtable<Long, org.unitime.timetable.model.Student>();
+	            setPhase("Loading students...", 1);
+	            for (org.unitime.timetable.model.Student student: hibSession.createQuery(
+	            		"select distinct s from Student s " +
+	                    "left join fetch s.courseDemands as cd "+
+	                    "left join fetch cd.courseRequests as cr "+
+	                    "left join fetch s.classEnrollments as e " +
+	                    "left join fetch s.waitlists as w " +
+	            		"where s.session.uniqueId = :sessionId", org.unitime.timetable.model.Student.class)
+	            		.setParameter("sessionId", session.getUniqueId()).list()) {
+	            	iStudents.put(student.getUniqueId(), student);
+	            }
+	            incProgress();
             
-            iRequests = new Hashtable<String, org.unitime.timetable.model.CourseRequest>();
-            setPhase("Loading course demands...", 1);
-            for (CourseDemand demand: hibSession.createQuery(
-            		"select distinct c from CourseDemand c " +
-            		"left join fetch c.courseRequests r " +
-            		"left join fetch r.courseOffering as co " +
-            		"left join fetch co.instructionalOffering as io " +
-            		"where c.student.session.uniqueId=:sessionId", CourseDemand.class)
-            		.setParameter("sessionId", session.getUniqueId()).list()) {
-                for (org.unitime.timetable.model.CourseRequest request: demand.getCourseRequests()) {
-                    iRequests.put(demand.getUniqueId()+":"+request.getCourseOffering().getInstructionalOffering().getUniqueId(), request);
-                }
-            }
-            incProgress();
             
-            setPhase("Saving student enrollments...", getModel().getStudents().size());
-            String statusToSet = getSolver().getProperties().getProperty("Save.StudentSectioningStatusToSet");
-            if ("Default".equalsIgnoreCase(statusToSet)) {
-            	iStatusToSet = null; iResetStatus = true;
-            	iProgress.info("Setting student sectioning status to " + (session.getDefaultSectioningStatus() == null ? "System Default (All Enabled)" : "Session Default (" + session.getDefaultSectioningStatus().getLabel() + ")") + ".");
-            } else if (statusToSet != null && !statusToSet.isEmpty() && !statusToSet.equals("N/A")) {
-            	iStatusToSet = StudentSectioningStatus.getStatus(statusToSet, session.getUniqueId(), hibSession);
-            	if (iStatusToSet == null)
-            		iProgress.warn("Student sectioning status " + statusToSet + " does not exist.");
-            	else
-            		iProgress.info("Setting student sectioning status to " + iStatusToSet.getLabel());
-            }
-            if (iStatusToSet == null && !iResetStatus)
-            	iProgress.info("Keeping student sectioning status unchanged.");
-            for (Iterator e=getModel().getStudents().iterator();e.hasNext();) {
-                Student student = (Student)e.next(); incProgress();
-                if (student.isDummy()) continue;
-                saveStudent(hibSession, student);
+	            iRequests = new Hashtable<String, org.unitime.timetable.model.CourseRequest>();
+	            setPhase("Loading course demands...", 1);
+	            for (CourseDemand demand: hibSession.createQuery(
+	            		"select distinct c from CourseDemand c " +
+	            		"left join fetch c.courseRequests r " +
+	            		"left join fetch r.courseOffering as co " +
+	            		"left join fetch co.instructionalOffering as io " +
+	            		"where c.student.session.uniqueId=:sessionId", CourseDemand.class)
+	            		.setParameter("sessionId", session.getUniqueId()).list()) {
+	                for (org.unitime.timetable.model.CourseRequest request: demand.getCourseRequests()) {
+	                    iRequests.put(demand.getUniqueId()+":"+request.getCourseOffering().getInstructionalOffering().getUniqueId(), request);
+	                }
+	            }
+	            incProgress();
+            
+	            setPhase("Saving student enrollments...", getModel().getStudents().size());
+	            for (Iterator e=getModel().getStudents().iterator();e.hasNext();) {
+	                Student student = (Student)e.next(); incProgress();
+	                if (student.isDummy()) continue;
+	                saveStudent(hibSession, student);
+	            }
+	            flush(hibSession);
             }
-            flush(hibSession);
         }
         
         if (getModel().getNrLastLikeRequests(false) > 0 || iProjections) {
@@ -391,41 +405,45 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
             getModel().computeOnlineSectioningInfos(getAssignment());
             incProgress();
             
-        	Hashtable<Long, SectioningInfo> infoTable = new Hashtable<Long, SectioningInfo>();
-        	List<SectioningInfo> infos = hibSession.createQuery(
-        			"select i from SectioningInfo i where i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId", SectioningInfo.class)
-        			.setParameter("sessionId", session.getUniqueId())
-        			.list();
-        	for (SectioningInfo info : infos)
-        		infoTable.put(info.getClazz().getUniqueId(), info);
+            if (iBulkSave) {
+            	saveSectioningInfosBulk(session, hibSession);
+            } else {
+	        	Hashtable<Long, SectioningInfo> infoTable = new Hashtable<Long, SectioningInfo>();
+	        	List<SectioningInfo> infos = hibSession.createQuery(
+	        			"select i from SectioningInfo i where i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId", SectioningInfo.class)
+	        			.setParameter("sessionId", session.getUniqueId())
+	        			.list();
+	        	for (SectioningInfo info : infos)
+	        		infoTable.put(info.getClazz().getUniqueId(), info);
             
-            setPhase("Saving expected/held space for online sectioning...", getModel().getOfferings().size());
-            for (Iterator e=getModel().getOfferings().iterator();e.hasNext();) {
-                Offering offering = (Offering)e.next(); incProgress();
-                if (offering.isDummy()) continue;
-                for (Iterator f=offering.getConfigs().iterator();f.hasNext();) {
-                    Config config = (Config)f.next();
-                    for (Iterator g=config.getSubparts().iterator();g.hasNext();) {
-                        Subpart subpart = (Subpart)g.next();
-                        for (Iterator h=subpart.getSections().iterator();h.hasNext();) {
-                            Section section = (Section)h.next();
-                            Class_ clazz = iClasses.get(section.getId());
-                            if (clazz==null) continue;
-                            SectioningInfo info = infoTable.get(section.getId());
-                            if (info==null) {
-                                info = new SectioningInfo();
-                                info.setClazz(clazz);
-                            }
-                            info.setNbrExpectedStudents(section.getSpaceExpected());
-                            info.setNbrHoldingStudents(section.getSpaceHeld());
-                            if (info.getUniqueId() == null)
-                            	hibSession.persist(info);
-                            else
-                            	hibSession.merge(info);
-                            flushIfNeeded(hibSession);
-                        }
-                    }
-                }
+	            setPhase("Saving expected/held space for online sectioning...", getModel().getOfferings().size());
+	            for (Iterator e=getModel().getOfferings().iterator();e.hasNext();) {
+	                Offering offering = (Offering)e.next(); incProgress();
+	                if (offering.isDummy()) continue;
+	                for (Iterator f=offering.getConfigs().iterator();f.hasNext();) {
+	                    Config config = (Config)f.next();
+	                    for (Iterator g=config.getSubparts().iterator();g.hasNext();) {
+	                        Subpart subpart = (Subpart)g.next();
+	                        for (Iterator h=subpart.getSections().iterator();h.hasNext();) {
+	                            Section section = (Section)h.next();
+	                            Class_ clazz = iClasses.get(section.getId());
+	                            if (clazz==null) continue;
+	                            SectioningInfo info = infoTable.get(section.getId());
+	                            if (info==null) {
+	                                info = new SectioningInfo();
+	                                info.setClazz(clazz);
+	                            }
+	                            info.setNbrExpectedStudents(section.getSpaceExpected());
+	                            info.setNbrHoldingStudents(section.getSpaceHeld());
+	                            if (info.getUniqueId() == null)
+	                            	hibSession.persist(info);
+	                            else
+	                            	hibSession.merge(info);
+	                            flushIfNeeded(hibSession);
+	                        }
+	                    }
+	                }
+	            }
             }
         }
         
@@ -468,6 +486,314 @@ public class StudentSectioningDatabaseSaver extends StudentSectioningSaver {
         setPhase("Done",1);incProgress();
     }
     
+    protected void setStatusToSet(Session session, org.hibernate.Session hibSession) {
+        String statusToSet = getSolver().getProperties().getProperty("Save.StudentSectioningStatusToSet");
+        if ("Default".equalsIgnoreCase(statusToSet)) {
+        	iStatusToSet = null; iResetStatus = true;
+        	iProgress.info("Setting student sectioning status to " + (session.getDefaultSectioningStatus() == null ? "System Default (All Enabled)" : "Session Default (" + session.getDefaultSectioningStatus().getLabel() + ")") + ".");
+        } else if (statusToSet != null && !statusToSet.isEmpty() && !statusToSet.equals("N/A")) {
+        	iStatusToSet = StudentSectioningStatus.getStatus(statusToSet, session.getUniqueId(), hibSession);
+        	if (iStatusToSet == null)
+        		iProgress.warn("Student sectioning status " + statusToSet + " does not exist.");
+        	else
+        		iProgress.info("Setting student sectioning status to " + iStatusToSet.getLabel());
+        }
+        if (iStatusToSet == null && !iResetStatus)
+        	iProgress.info("Keeping student sectioning status unchanged.");
+    }
+    
+    /**
+     * Bulk save of the student enrollments. The existing enrollments are only loaded as identifiers and compared with the solution,
+     * only the differences are written: removed and changed enrollments using batched JDBC statements, new enrollments using
+     * batched inserts. Students with course requests changed by the solver are saved using {@link #saveStudent(org.hibernate.Session, Student)}.
+     * Unchanged enrollments keep their time stamp.
+     */
+    protected void saveStudentsBulk(Session session, org.hibernate.Session hibSession) {
+    	Long sessionId = session.getUniqueId();
+    	long t0 = System.currentTimeMillis();
+    	
+    	setPhase("Loading enrollments...", 1);
+    	Set<Long> studentIds = new HashSet<Long>(hibSession.createQuery(
+    			"select s.uniqueId from Student s where s.session.uniqueId = :sessionId", Long.class)
+    			.setParameter("sessionId", sessionId).list());
+    	// student id -> class id -> [enrollment id, course offering id, course request id]
+    	Map<Long, Map<Long, Long[]>> current = new HashMap<Long, Map<Long, Long[]>>();
+    	for (Object[] o: hibSession.createQuery(
+    			"select e.student.uniqueId, e.clazz.uniqueId, e.uniqueId, co.uniqueId, cr.uniqueId from StudentClassEnrollment e " +
+    			"left join e.courseOffering co left join e.courseRequest cr where e.student.session.uniqueId = :sessionId", Object[].class)
+    			.setParameter("sessionId", sessionId).list()) {
+    		Map<Long, Long[]> enrollments = current.get((Long)o[0]);
+    		if (enrollments == null) {
+    			enrollments = new HashMap<Long, Long[]>();
+    			current.put((Long)o[0], enrollments);
+    		}
+    		enrollments.put((Long)o[1], new Long[] {(Long)o[2], (Long)o[3], (Long)o[4]});
+    	}
+    	// course demand id:instructional offering id -> [course request id, course offering id]
+    	Map<String, Long[]> requests = new HashMap<String, Long[]>();
+    	for (Object[] o: hibSession.createQuery(
+    			"select cd.uniqueId, co.instructionalOffering.uniqueId, cr.uniqueId, co.uniqueId from CourseRequest cr " +
+    			"inner join cr.courseDemand cd inner join cr.courseOffering co where cd.student.session.uniqueId = :sessionId", Object[].class)
+    			.setParameter("sessionId", sessionId).list()) {
+    		requests.put(o[0] + ":" + o[1], new Long[] {(Long)o[2], (Long)o[3]});
+    	}
+    	Map<Long, Long> controllingCourses = new HashMap<Long, Long>();
+    	for (Object[] o: hibSession.createQuery(
+    			"select c.uniqueId, co.uniqueId from Class_ c inner join c.schedulingSubpart.instrOfferingConfig.instructionalOffering.courseOfferings co " +
+    			"where co.isControl = true and c.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId", Object[].class)
+    			.setParameter("sessionId", sessionId).list()) {
+    		controllingCourses.put((Long)o[0], (Long)o[1]);
+    	}
+    	incProgress();
+    	
+    	setPhase("Computing enrollment changes...", getModel().getStudents().size());
+    	List<Student> changedRequests = new ArrayList<Student>();
+    	List<Long> savedStudentIds = new ArrayList<Long>();
+    	List<Long> deletes = new ArrayList<Long>();
+    	List<Long[]> updates = new ArrayList<Long[]>();
+    	List<Long[]> inserts = new ArrayList<Long[]>();
+    	for (Student student: getModel().getStudents()) {
+    		incProgress();
+    		if (student.isDummy()) continue;
+    		if (!studentIds.contains(student.getId())) {
+    			iProgress.warn("Student "+student.getId()+" not found.");
+    			continue;
+    		}
+    		if (iUpdateCourseRequests && BatchEnrollStudent.sRequestsChangedStatus.equals(student.getStatus())) {
+    			changedRequests.add(student);
+    			continue;
+    		}
+    		savedStudentIds.add(student.getId());
+    		Map<Long, Long[]> enrollments = current.get(student.getId());
+    		for (Request request: student.getRequests()) {
+    			Enrollment enrollment = getAssignment().getValue(request);
+    			if (enrollment == null || !(request instanceof CourseRequest)) continue;
+    			Long[] cr = requests.get(request.getId() + ":" + enrollment.getOffering().getId());
+    			for (Section section: enrollment.getSections()) {
+    				if (!iClasses.containsKey(section.getId())) {
+    					iProgress.warn("Class " + section.getId() + " not found.");
+    					continue;
+    				}
+    				Long courseId = (cr == null ? null : cr[1]), requestId = (cr == null ? null : cr[0]);
+    				if (cr == null)
+    					courseId = (iCourses.containsKey(enrollment.getCourse().getId()) ? enrollment.getCourse().getId() : controllingCourses.get(section.getId()));
+    				Long[] existing = (enrollments == null ? null : enrollments.remove(section.getId()));
+    				if (existing == null)
+    					inserts.add(new Long[] {student.getId(), section.getId(), courseId, requestId});
+    				else if (!ToolBox.equals(existing[1], courseId) || !ToolBox.equals(existing[2], requestId))
+    					updates.add(new Long[] {existing[0], courseId, requestId});
+    			}
+    		}
+    		if (enrollments != null)
+    			for (Long[] e: enrollments.values())
+    				deletes.add(e[0]);
+    	}
+    	t0 = logPhase("Computed enrollment changes: " + inserts.size() + " new, " + updates.size() + " changed, and " + deletes.size() + " removed enrollments", t0);
+    	
+    	if (!changedRequests.isEmpty()) {
+    		setPhase("Saving students with changed course requests...", changedRequests.size());
+    		iStudents = new Hashtable<Long, org.unitime.timetable.model.Student>();
+    		iRequests = new Hashtable<String, org.unitime.timetable.model.CourseRequest>();
+    		List<Long> ids = new ArrayList<Long>();
+    		for (Student student: changedRequests) ids.add(student.getId());
+    		for (int i = 0; i < ids.size(); i += 1000) {
+    			List<Long> chunk = ids.subList(i, Math.min(i + 1000, ids.size()));
+    			for (org.unitime.timetable.model.Student student: hibSession.createQuery(
+    					"select distinct s from Student s " +
+    					"left join fetch s.courseDemands as cd "+
+    					"left join fetch cd.courseRequests as cr "+
+    					"left join fetch s.classEnrollments as e " +
+    					"left join fetch s.waitlists as w " +
+    					"where s.uniqueId in :ids", org.unitime.timetable.model.Student.class)
+    					.setParameterList("ids", chunk, Long.class).list()) {
+    				iStudents.put(student.getUniqueId(), student);
+    				for (CourseDemand demand: student.getCourseDemands())
+    					for (org.unitime.timetable.model.CourseRequest request: demand.getCourseRequests())
+    						iRequests.put(demand.getUniqueId()+":"+request.getCourseOffering().getInstructionalOffering().getUniqueId(), request);
+    			}
+    		}
+    		for (Student student: changedRequests) {
+    			incProgress();
+    			saveStudent(hibSession, student);
+    		}
+    		flush(hibSession);
+    		t0 = logPhase("Saved " + changedRequests.size() + " students with changed course requests", t0);
+    	}
+    	
+    	setPhase("Saving enrollment changes...", deletes.size() + updates.size() + inserts.size());
+    	final String table = getTableName("student_class_enrl");
+    	final List<Long> enrlDeletes = deletes;
+    	final List<Long[]> enrlUpdates = updates;
+    	final Timestamp ts = new Timestamp(iTimeStamp.getTime());
+    	hibSession.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				try (PreparedStatement ps = connection.prepareStatement("delete from " + table + " where uniqueid = ?")) {
+					int count = 0;
+					for (Long id: enrlDeletes) {
+						ps.setLong(1, id);
+						ps.addBatch();
+						if (++count % iBatchSize == 0) ps.executeBatch();
+						iProgress.incProgress();
+					}
+					if (count % iBatchSize != 0) ps.executeBatch();
+				}
+				try (PreparedStatement ps = connection.prepareStatement("update " + table + " set course_offering_id = ?, course_request_id = ?, timestamp = ?, changed_by = ? where uniqueid = ?")) {
+					int count = 0;
+					for (Long[] update: enrlUpdates) {
+						if (update[1] == null) ps.setNull(1, Types.BIGINT); else ps.setLong(1, update[1]);
+						if (update[2] == null) ps.setNull(2, Types.BIGINT); else ps.setLong(2, update[2]);
+						ps.setTimestamp(3, ts);
+						ps.setString(4, StudentClassEnrollment.SystemChange.BATCH.toString());
+						ps.setLong(5, update[0]);
+						ps.addBatch();
+						if (++count % iBatchSize == 0) ps.executeBatch();
+						iProgress.incProgress();
+					}
+					if (count % iBatchSize != 0) ps.executeBatch();
+				}
+			}
+		});
+    	
+    	hibSession.setJdbcBatchSize(iBatchSize);
+    	int count = 0;
+    	for (Long[] insert: inserts) {
+    		incProgress();
+    		StudentClassEnrollment sce = new StudentClassEnrollment();
+    		sce.setChangedBy(StudentClassEnrollment.SystemChange.BATCH.toString());
+    		sce.setStudent(hibSession.getReference(org.unitime.timetable.model.Student.class, insert[0]));
+    		sce.setClazz(hibSession.getReference(Class_.class, insert[1]));
+    		if (insert[2] != null)
+    			sce.setCourseOffering(hibSession.getReference(CourseOffering.class, insert[2]));
+    		if (insert[3] != null)
+    			sce.setCourseRequest(hibSession.getReference(org.unitime.timetable.model.CourseRequest.class, insert[3]));
+    		sce.setTimestamp(iTimeStamp);
+    		hibSession.persist(sce);
+    		if (++count % iBatchSize == 0) {
+    			hibSession.flush(); hibSession.clear();
+    		}
+    	}
+    	hibSession.flush(); hibSession.clear();
+    	
+    	if (!savedStudentIds.isEmpty() && (iStatusToSet != null || iResetStatus)) {
+    		for (int i = 0; i < savedStudentIds.size(); i += 1000) {
+    			MutationQuery q = hibSession.createMutationQuery("update Student set sectioningStatus = " + (iStatusToSet == null ? "null" : ":status") + " where uniqueId in :ids")
+    					.setParameterList("ids", savedStudentIds.subList(i, Math.min(i + 1000, savedStudentIds.size())), Long.class);
+    			if (iStatusToSet != null) q.setParameter("status", iStatusToSet);
+    			q.executeUpdate();
+    		}
+    	}
+    	t0 = logPhase("Saved enrollment changes", t0);
+    	
+    	if (ApplicationProperty.WaitListLogging.isTrue() && !savedStudentIds.isEmpty()) {
+    		setPhase("Updating wait-lists...", savedStudentIds.size());
+    		for (int i = 0; i < savedStudentIds.size(); i += 1000) {
+    			for (org.unitime.timetable.model.Student s: hibSession.createQuery(
+    					"select distinct s from Student s " +
+    					"left join fetch s.courseDemands as cd "+
+    					"left join fetch cd.courseRequests as cr "+
+    					"left join fetch s.classEnrollments as e " +
+    					"left join fetch s.waitlists as w " +
+    					"where s.uniqueId in :ids", org.unitime.timetable.model.Student.class)
+    					.setParameterList("ids", savedStudentIds.subList(i, Math.min(i + 1000, savedStudentIds.size())), Long.class).list()) {
+    				incProgress();
+    				if (s.getWaitListMode() == WaitListMode.WaitList)
+    					s.resetWaitLists(WaitList.WaitListType.BATCH_SOLVER, iOwnerId, iTimeStamp, hibSession);
+    			}
+    			flush(hibSession);
+    		}
+    		logPhase("Updated wait-lists", t0);
+    	}
+    }
+    
+    /**
+     * Bulk save of the expected and held space: only changed values are written, updates using batched JDBC statements.
+     */
+    protected void saveSectioningInfosBulk(Session session, org.hibernate.Session hibSession) {
+    	long t0 = System.currentTimeMillis();
+    	// class id -> [sectioning info id, expected, held]
+    	Map<Long, Object[]> infoTable = new HashMap<Long, Object[]>();
+    	for (Object[] o: hibSession.createQuery(
+    			"select i.clazz.uniqueId, i.uniqueId, i.nbrExpectedStudents, i.nbrHoldingStudents from SectioningInfo i " +
+    			"where i.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId = :sessionId", Object[].class)
+    			.setParameter("sessionId", session.getUniqueId()).list()) {
+    		infoTable.put((Long)o[0], new Object[] {o[1], o[2], o[3]});
+    	}
+    	
+    	setPhase("Saving expected/held space for online sectioning...", getModel().getOfferings().size());
+    	final List<Object[]> updates = new ArrayList<Object[]>();
+    	hibSession.setJdbcBatchSize(iBatchSize);
+    	int count = 0;
+    	for (Offering offering: getModel().getOfferings()) {
+    		incProgress();
+    		if (offering.isDummy()) continue;
+    		for (Config config: offering.getConfigs())
+    			for (Subpart subpart: config.getSubparts())
+    				for (Section section: subpart.getSections()) {
+    					if (!iClasses.containsKey(section.getId())) continue;
+    					Object[] info = infoTable.get(section.getId());
+    					if (info == null) {
+    						SectioningInfo si = new SectioningInfo();
+    						si.setClazz(hibSession.getReference(Class_.class, section.getId()));
+    						si.setNbrExpectedStudents(section.getSpaceExpected());
+    						si.setNbrHoldingStudents(section.getSpaceHeld());
+    						hibSession.persist(si);
+    						if (++count % iBatchSize == 0) {
+    							hibSession.flush(); hibSession.clear();
+    						}
+    					} else if (!ToolBox.equals(info[1], section.getSpaceExpected()) || !ToolBox.equals(info[2], section.getSpaceHeld())) {
+    						updates.add(new Object[] {section.getSpaceExpected(), section.getSpaceHeld(), info[0]});
+    					}
+    				}
+    	}
+    	hibSession.flush(); hibSession.clear();
+    	
+    	final String table = getTableName("sectioning_info");
+    	hibSession.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				try (PreparedStatement ps = connection.prepareStatement("update " + table + " set nbr_exp_students = ?, nbr_hold_students = ? where uniqueid = ?")) {
+					int count = 0;
+					for (Object[] update: updates) {
+						ps.setDouble(1, (Double)update[0]);
+						ps.setDouble(2, (Double)update[1]);
+						ps.setLong(3, (Long)update[2]);
+						ps.addBatch();
+						if (++count % iBatchSize == 0) ps.executeBatch();
+					}
+					if (count % iBatchSize != 0) ps.executeBatch();
+				}
+			}
+		});
+    	logPhase("Saved expected/held space (" + count + " new, " + updates.size() + " changed)", t0);
+    }
+    
+    /**
+     * Table name, including the default schema (if set)
+     */
+    protected static String getTableName(String table) {
+    	String schema = (HibernateUtil.getConfiguration() == null ? null : HibernateUtil.getConfiguration().getProperty("hibernate.default_schema"));
+    	return (schema == null || schema.isEmpty() ? table : schema + "." + table);
+    }
+    
+    /**
+     * Evict second level cache regions that have been changed by the bulk save (JDBC statements bypass the cache)
+     */
+    protected void evictCaches(org.hibernate.Session hibSession) {
+    	Cache cache = hibSession.getSessionFactory().getCache();
+    	cache.evictEntityData(StudentClassEnrollment.class);
+    	cache.evictEntityData(SectioningInfo.class);
+    	cache.evictEntityData(org.unitime.timetable.model.Student.class);
+    	cache.evictCollectionData(org.unitime.timetable.model.Student.class.getName() + ".classEnrollments");
+    	cache.evictCollectionData(Class_.class.getName() + ".studentEnrollments");
+    }
+    
+    private long logPhase(String message, long start) {
+    	long now = System.currentTimeMillis();
+    	iProgress.info(message + " (" + sTimeFormat.format((now - start) / 1000.0) + " s).");
+    	return now;
+    }
+    
     protected void checkTermination() {
     	if (getTerminationCondition() != null && !getTerminationCondition().canContinue(getSolution()))
     		throw new RuntimeException("The save was interrupted.");
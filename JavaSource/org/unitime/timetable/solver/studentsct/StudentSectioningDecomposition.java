@@ -0,0 +1,327 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.solver.studentsct;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cpsolver.ifs.assignment.Assignment;
+import org.cpsolver.ifs.assignment.AssignmentMap;
+import org.cpsolver.ifs.solution.Solution;
+import org.cpsolver.ifs.solver.Solver;
+import org.cpsolver.ifs.util.DataProperties;
+import org.cpsolver.ifs.util.Progress;
+import org.cpsolver.studentsct.StudentSectioningModel;
+import org.cpsolver.studentsct.heuristics.selection.BranchBoundSelection;
+import org.cpsolver.studentsct.heuristics.selection.BranchBoundSelection.BranchBoundNeighbour;
+import org.cpsolver.studentsct.heuristics.studentord.StudentGroupsChoiceRealFirstOrder;
+import org.cpsolver.studentsct.heuristics.studentord.StudentOrder;
+import org.cpsolver.studentsct.model.Course;
+import org.cpsolver.studentsct.model.CourseRequest;
+import org.cpsolver.studentsct.model.Enrollment;
+import org.cpsolver.studentsct.model.Offering;
+import org.cpsolver.studentsct.model.Request;
+import org.cpsolver.studentsct.model.Student;
+
+/**
+ * Decomposition of the batch student sectioning problem into independent components. Two students are in the same
+ * component when they (transitively) request a course of the same instructional offering, so that the enrollments of
+ * students of different components can never interact.
+ * <br>
+ * The components are solved concurrently using the branch &amp; bound selection, each on its own thread and with its own
+ * assignment (starting from the current assignment of its students). The found schedules are then merged back into the
+ * solver's current solution, which is further improved by the regular (parallel) search.
+ * <br>
+ * Configuration: Decomposition.Enabled (default false), Decomposition.NrThreads (defaults to Parallel.NrSolvers, one when not set),
+ * Decomposition.NrReportedComponents (number of the largest components listed in the log, defaults to 10).
+ *
+ * @author Tomas Muller
+ */
+public class StudentSectioningDecomposition {
+	private static Log sLog = LogFactory.getLog(StudentSectioningDecomposition.class);
+	private static DecimalFormat sTimeFormat = new DecimalFormat("0.00");
+	private Solver<Request, Enrollment> iSolver;
+	private StudentSectioningModel iModel;
+	private int iNrThreads;
+	private int iNrReportedComponents;
+	private StudentOrder iOrder = new StudentGroupsChoiceRealFirstOrder();
+
+	public StudentSectioningDecomposition(Solver<Request, Enrollment> solver) {
+		iSolver = solver;
+		iModel = (StudentSectioningModel)solver.currentSolution().getModel();
+		DataProperties properties = solver.getProperties();
+		iNrThreads = Math.max(1, properties.getPropertyInt("Decomposition.NrThreads", properties.getPropertyInt("Parallel.NrSolvers", 1)));
+		iNrReportedComponents = properties.getPropertyInt("Decomposition.NrReportedComponents", 10);
+		if (properties.getProperty("Neighbour.BranchAndBoundOrder") != null) {
+			try {
+				iOrder = (StudentOrder) Class.forName(properties.getProperty("Neighbour.BranchAndBoundOrder"))
+						.getConstructor(new Class<?>[] { DataProperties.class }).newInstance(new Object[] { properties });
+			} catch (Exception e) {
+				sLog.error("Unable to set student order, reason:" + e.getMessage(), e);
+			}
+		}
+	}
+
+	/** Returns true if the decomposition is enabled in the solver configuration */
+	public static boolean isEnabled(DataProperties properties) {
+		return properties.getPropertyBoolean("Decomposition.Enabled", false);
+	}
+
+	/**
+	 * Split students into components, students that do not request any course are put together in a single component
+	 * @return components, largest first
+	 */
+	public List<Component> getComponents() {
+		Map<Offering, Offering> parent = new HashMap<Offering, Offering>();
+		for (Student student: iModel.getStudents()) {
+			Offering first = null;
+			for (Request request: student.getRequests()) {
+				if (!(request instanceof CourseRequest)) continue;
+				for (Course course: ((CourseRequest)request).getCourses()) {
+					if (first == null) {
+						first = find(parent, course.getOffering());
+					} else {
+						Offering other = find(parent, course.getOffering());
+						if (!other.equals(first)) parent.put(other, first);
+					}
+				}
+			}
+		}
+		Map<Offering, Component> components = new HashMap<Offering, Component>();
+		Component noCourses = new Component();
+		for (Student student: iModel.getStudents()) {
+			Offering offering = null;
+			for (Request request: student.getRequests())
+				if (request instanceof CourseRequest) {
+					offering = ((CourseRequest)request).getCourses().get(0).getOffering(); break;
+				}
+			if (offering == null) {
+				noCourses.addStudent(student);
+				continue;
+			}
+			Offering root = find(parent, offering);
+			Component component = components.get(root);
+			if (component == null) {
+				component = new Component();
+				components.put(root, component);
+			}
+			component.addStudent(student);
+		}
+		List<Component> ret = new ArrayList<Component>(components.values());
+		if (!noCourses.getStudents().isEmpty()) ret.add(noCourses);
+		Collections.sort(ret, new Comparator<Component>() {
+			@Override
+			public int compare(Component c1, Component c2) {
+				int cmp = Integer.compare(c2.getNrRequests(), c1.getNrRequests());
+				if (cmp != 0) return cmp;
+				return Integer.compare(c2.getStudents().size(), c1.getStudents().size());
+			}
+		});
+		for (int i = 0; i < ret.size(); i++)
+			ret.get(i).iIndex = i + 1;
+		return ret;
+	}
+
+	private static Offering find(Map<Offering, Offering> parent, Offering offering) {
+		Offering root = offering;
+		Offering p;
+		while ((p = parent.get(root)) != null) root = p;
+		// path compression
+		while (!offering.equals(root)) {
+			p = parent.get(offering);
+			parent.put(offering, root);
+			offering = p;
+		}
+		return root;
+	}
+
+	/**
+	 * Solve all the components concurrently and merge the found schedules into the current solution
+	 */
+	public void solve() {
+		final Progress progress = Progress.getInstance(iModel);
+		long t0 = System.currentTimeMillis();
+		List<Component> components = getComponents();
+		int nrStudents = 0;
+		for (Component component: components)
+			nrStudents += component.getStudents().size();
+		progress.info("Decomposition: " + components.size() + " components found in " + sTimeFormat.format((System.currentTimeMillis() - t0) / 1000.0) + " s" +
+				(components.isEmpty() ? "" : ", the largest component has " + components.get(0).getStudents().size() + " of " + nrStudents + " students and " + components.get(0).getOfferings().size() + " offerings") + ".");
+		if (components.isEmpty()) return;
+
+		final Solution<Request, Enrollment> solution = iSolver.currentSolution();
+		final BranchBoundSelection selection = new BranchBoundSelection(iSolver.getProperties());
+		selection.setModel(iModel);
+
+		progress.setPhase("Solving components...", nrStudents);
+		final AtomicInteger done = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(iNrThreads, components.size()), new ThreadFactory() {
+			private AtomicInteger iIndex = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Decomposition-" + iIndex.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		List<Future<Assignment<Request, Enrollment>>> results = new ArrayList<Future<Assignment<Request, Enrollment>>>();
+		try {
+			for (final Component component: components) {
+				results.add(executor.submit(() -> {
+					Assignment<Request, Enrollment> assignment = component.solve(solution.getAssignment(), selection, iOrder);
+					synchronized (progress) {
+						progress.setProgress(done.addAndGet(component.getStudents().size()));
+					}
+					return assignment;
+				}));
+			}
+
+			// wait for all the components to be solved before the merging phase is started
+			List<Assignment<Request, Enrollment>> assignments = new ArrayList<Assignment<Request, Enrollment>>(components.size());
+			for (Future<Assignment<Request, Enrollment>> result: results)
+				assignments.add(result.get());
+
+			progress.setPhase("Merging components...", components.size());
+			Lock lock = solution.getLock().writeLock();
+			for (int i = 0; i < components.size(); i++) {
+				if (iSolver.isStop()) break;
+				lock.lock();
+				try {
+					components.get(i).merge(solution.getAssignment(), assignments.get(i), solution.getIteration());
+				} finally {
+					lock.unlock();
+				}
+				progress.incProgress();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			progress.warn("Decomposition was interrupted.");
+		} catch (ExecutionException e) {
+			progress.error("Decomposition failed: " + e.getCause().getMessage(), e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		List<Component> slowest = new ArrayList<Component>(components);
+		Collections.sort(slowest, new Comparator<Component>() {
+			@Override
+			public int compare(Component c1, Component c2) {
+				return Long.compare(c2.getTime(), c1.getTime());
+			}
+		});
+		long total = 0;
+		for (Component component: components) total += component.getTime();
+		for (int i = 0; i < Math.min(iNrReportedComponents, components.size()); i++)
+			progress.info("Decomposition: " + components.get(i));
+		if (components.size() > iNrReportedComponents && iNrReportedComponents > 0)
+			progress.info("Decomposition: the slowest component was " + slowest.get(0));
+		progress.info("Decomposition: " + components.size() + " components solved in " + sTimeFormat.format((System.currentTimeMillis() - t0) / 1000.0) + " s" +
+				" (" + sTimeFormat.format(total / 1000.0) + " s on " + Math.min(iNrThreads, components.size()) + " threads), " +
+				solution.getAssignment().nrAssignedVariables() + " of " + iModel.variables().size() + " requests assigned.");
+	}
+
+	/**
+	 * Independent part of the problem
+	 */
+	public static class Component {
+		private int iIndex;
+		private List<Student> iStudents = new ArrayList<Student>();
+		private Set<Offering> iOfferings = new HashSet<Offering>();
+		private int iNrRequests = 0, iNrAssigned = 0;
+		private long iTime = 0;
+
+		protected void addStudent(Student student) {
+			iStudents.add(student);
+			iNrRequests += student.getRequests().size();
+			for (Request request: student.getRequests())
+				if (request instanceof CourseRequest)
+					for (Course course: ((CourseRequest)request).getCourses())
+						iOfferings.add(course.getOffering());
+		}
+
+		public List<Student> getStudents() { return iStudents; }
+		public Set<Offering> getOfferings() { return iOfferings; }
+		public int getNrRequests() { return iNrRequests; }
+		public int getNrAssigned() { return iNrAssigned; }
+		/** Solve time in milliseconds */
+		public long getTime() { return iTime; }
+
+		/**
+		 * Run the branch &amp; bound selection on all the students of the component, using a new assignment
+		 * that is initialized with the current enrollments of the students.
+		 */
+		protected Assignment<Request, Enrollment> solve(Assignment<Request, Enrollment> current, BranchBoundSelection selection, StudentOrder order) {
+			long t0 = System.currentTimeMillis();
+			Assignment<Request, Enrollment> assignment = new AssignmentMap<Request, Enrollment>();
+			for (Student student: iStudents)
+				for (Request request: student.getRequests()) {
+					Enrollment enrollment = current.getValue(request);
+					if (enrollment != null) assignment.assign(0, enrollment);
+				}
+			for (Student student: order.order(iStudents)) {
+				if (Thread.currentThread().isInterrupted()) break;
+				BranchBoundNeighbour neighbour = selection.getSelection(assignment, student).select();
+				if (neighbour != null) neighbour.assign(assignment, 0);
+			}
+			iNrAssigned = assignment.nrAssignedVariables();
+			iTime = System.currentTimeMillis() - t0;
+			return assignment;
+		}
+
+		/**
+		 * Copy enrollments of the component into the given assignment, only the requests with a different enrollment are changed
+		 */
+		protected void merge(Assignment<Request, Enrollment> target, Assignment<Request, Enrollment> assignment, long iteration) {
+			List<Enrollment> changed = new ArrayList<Enrollment>();
+			for (Student student: iStudents)
+				for (Request request: student.getRequests()) {
+					Enrollment enrollment = assignment.getValue(request);
+					Enrollment original = target.getValue(request);
+					if (enrollment == null ? original == null : enrollment.equals(original)) continue;
+					if (original != null) target.unassign(iteration, request);
+					if (enrollment != null) changed.add(enrollment);
+				}
+			for (Enrollment enrollment: changed)
+				target.assign(iteration, enrollment);
+		}
+
+		@Override
+		public String toString() {
+			return "component " + iIndex + " with " + iStudents.size() + " students, " + iOfferings.size() + " offerings, " +
+					iNrAssigned + " of " + iNrRequests + " requests assigned in " + sTimeFormat.format(iTime / 1000.0) + " s";
+		}
+	}
+}
@@ -138,6 +138,7 @@ import org.unitime.timetable.onlinesectioning.model.XCourseId;
 import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
 import org.unitime.timetable.onlinesectioning.model.XCredit;
 import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XEnrollmentCounts;
 import org.unitime.timetable.onlinesectioning.model.XEnrollments;
 import org.unitime.timetable.onlinesectioning.model.XExpectations;
 import org.unitime.timetable.onlinesectioning.model.XOffering;
@@ -303,6 +304,19 @@ public class StudentSolver extends AbstractSolver<Request, Enrollment, StudentSe
 		clearCachedData();
 	}
 	
+	@Override
+	protected void onStart() {
+		super.onStart();
+		if (StudentSectioningDecomposition.isEnabled(getProperties()) && !isStop()) {
+			try {
+				new StudentSectioningDecomposition(this).solve();
+			} catch (Exception e) {
+				sLog.error("Failed to solve the problem by components: " + e.getMessage(), e);
+			}
+			clearCachedData();
+		}
+	}
+	
 	@Override
     public Callback getReloadingDoneCallback() {
         return new ReloadingDoneCallback();
@@ -873,6 +887,11 @@ public class StudentSolver extends AbstractSolver<Request, Enrollment, StudentSe
 		return new XEnrollments(offeringId, getRequests(offeringId));
 	}
 
+	@Override
+	public XEnrollmentCounts getEnrollmentCounts(Long offeringId) {
+		return new XEnrollmentCounts(offeringId, getRequests(offeringId));
+	}
+
 	@Override
 	public XExpectations getExpectations(Long offeringId) {
 		for (Offering offering: getModel().getOfferings())
@@ -0,0 +1,180 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.timetable.test;
+
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.cpsolver.coursett.model.Placement;
+import org.cpsolver.coursett.model.RoomLocation;
+import org.cpsolver.coursett.model.TimeLocation;
+import org.cpsolver.studentsct.model.Config;
+import org.cpsolver.studentsct.model.Course;
+import org.cpsolver.studentsct.model.CourseRequest;
+import org.cpsolver.studentsct.model.Enrollment;
+import org.cpsolver.studentsct.model.Offering;
+import org.cpsolver.studentsct.model.Section;
+import org.cpsolver.studentsct.model.Student;
+import org.cpsolver.studentsct.model.Subpart;
+import org.unitime.timetable.onlinesectioning.model.XCourseId;
+import org.unitime.timetable.onlinesectioning.model.XCourseRequest;
+import org.unitime.timetable.onlinesectioning.model.XEnrollment;
+import org.unitime.timetable.onlinesectioning.model.XOffering;
+import org.unitime.timetable.onlinesectioning.model.XRequest;
+import org.unitime.timetable.onlinesectioning.model.XStudent;
+import org.unitime.timetable.util.MemoryCounter;
+
+/**
+ * Memory benchmark of the tables kept by the InMemoryServer on a generated term. Offerings (a lecture with a few
+ * recitations each, with times, date patterns, and rooms) and students (with enrolled course requests) are generated
+ * as a student sectioning model and converted into {@link XOffering} and {@link XStudent} objects the same way
+ * the server does it. The sizes of the student, offering, course, and offering request tables are then reported,
+ * including the stored objects. The repeated section strings (date pattern names, instructional types) are compared
+ * with and without interning.
+ * <br>
+ * Usage: InMemoryServerMemoryBenchmark [students=60000] [offerings=5000] [requests per student=8] [seed=1]
+ *
+ * @author Tomas Muller
+ */
+public class InMemoryServerMemoryBenchmark {
+	private static DecimalFormat sDF = new DecimalFormat("#,##0.0");
+	private static String[] sDatePatterns = new String[] {"Full Term", "First Half", "Second Half", "Odd Weeks", "Even Weeks"};
+	private static int[] sDays = new int[] {64 + 16 + 4, 32 + 8, 64 + 32 + 16 + 8 + 4, 16, 64};
+
+	public static void main(String[] args) {
+		int nrStudents = (args.length > 0 ? Integer.parseInt(args[0]) : 60000);
+		int nrOfferings = (args.length > 1 ? Integer.parseInt(args[1]) : 5000);
+		int nrRequests = (args.length > 2 ? Integer.parseInt(args[2]) : 8);
+		long seed = (args.length > 3 ? Long.parseLong(args[3]) : 1l);
+		Random rnd = new Random(seed);
+		MemoryCounter mc = new MemoryCounter();
+		
+		BitSet weekCode = new BitSet(112);
+		weekCode.set(0, 112);
+		long id = 1000000l;
+		
+		List<Offering> offerings = new ArrayList<Offering>(nrOfferings);
+		List<XOffering> xOfferings = new ArrayList<XOffering>(nrOfferings);
+		for (int i = 0; i < nrOfferings; i++) {
+			Offering offering = new Offering(id++, "SUBJ" + (i / 500) + " " + (100 + i % 500));
+			new Course(id++, "SUBJ" + (i / 500), String.valueOf(100 + i % 500), offering, 120, 0);
+			Config config = new Config(id++, 120, "1", offering);
+			Subpart lec = new Subpart(id++, "Lec", "Lec", config, null);
+			Subpart rec = new Subpart(id++, "Rec", "Rec", config, lec);
+			Section lecture = new Section(id++, 120, "1", lec, placement(rnd, id, weekCode, 150), null);
+			for (int j = 0; j < 4; j++)
+				new Section(id++, 30, String.valueOf(j + 1), rec, placement(rnd, id, weekCode, 40), lecture);
+			offerings.add(offering);
+			xOfferings.add(new XOffering(offering, null));
+		}
+		
+		List<XStudent> xStudents = new ArrayList<XStudent>(nrStudents);
+		for (int i = 0; i < nrStudents; i++) {
+			Student student = new Student(id++);
+			student.setExternalId(String.valueOf(100000 + i));
+			student.setName("Student " + i);
+			List<Enrollment> enrollments = new ArrayList<Enrollment>(nrRequests);
+			Set<Offering> requested = new HashSet<Offering>();
+			for (int r = 0; r < nrRequests; r++) {
+				Offering offering = offerings.get((int)Math.abs(rnd.nextGaussian() * nrOfferings / 3) % nrOfferings);
+				if (!requested.add(offering)) continue;
+				Course course = offering.getCourses().get(0);
+				CourseRequest request = new CourseRequest(id++, r, false, student, Collections.singletonList(course), false, System.currentTimeMillis());
+				Config config = offering.getConfigs().get(0);
+				Set<Section> sections = new HashSet<Section>();
+				Section lecture = config.getSubparts().get(0).getSections().get(0);
+				sections.add(lecture);
+				sections.add(config.getSubparts().get(1).getSections().get(rnd.nextInt(4)));
+				enrollments.add(new Enrollment(request, 0, course, config, sections, null));
+			}
+			XStudent xStudent = new XStudent(student, null);
+			int idx = 0;
+			for (XRequest request: xStudent.getRequests())
+				if (request instanceof XCourseRequest)
+					((XCourseRequest)request).setEnrollment(new XEnrollment(enrollments.get(idx++)));
+			xStudents.add(xStudent);
+		}
+
+		Hashtable<Long, XStudent> students = new Hashtable<Long, XStudent>();
+		for (XStudent student: xStudents)
+			students.put(student.getStudentId(), student);
+		report("Student table", mc.estimate(students));
+
+		Hashtable<Long, XOffering> offeringTable = new Hashtable<Long, XOffering>();
+		Hashtable<Long, XCourseId> courses = new Hashtable<Long, XCourseId>();
+		for (XOffering offering: xOfferings) {
+			offeringTable.put(offering.getOfferingId(), offering);
+			for (XCourseId course: offering.getCourses())
+				courses.put(course.getCourseId(), course);
+		}
+		report("Offering table", mc.estimate(offeringTable));
+		report("Course table", mc.estimate(courses));
+
+		Hashtable<Long, List<XCourseRequest>> requests = new Hashtable<Long, List<XCourseRequest>>();
+		for (XStudent student: xStudents)
+			for (XRequest request: student.getRequests()) {
+				if (!(request instanceof XCourseRequest)) continue;
+				XCourseRequest cr = (XCourseRequest)request;
+				Long offeringId = cr.getCourseIds().get(0).getOfferingId();
+				List<XCourseRequest> r = requests.get(offeringId);
+				if (r == null) { r = new ArrayList<XCourseRequest>(); requests.put(offeringId, r); }
+				r.add(cr);
+			}
+		report("Offering requests", mc.estimate(requests));
+		
+		// course requests are shared between the student table and the offering requests
+		report("All tables", mc.estimate(new Object[] {students, offeringTable, courses, requests}));
+
+		int nrSections = 6 * nrOfferings;
+		String[] itypes = new String[] {"Lecture", "Recitation", "Laboratory", "Seminar", "Online"};
+		List<String> plain = new ArrayList<String>(2 * nrSections), interned = new ArrayList<String>(2 * nrSections);
+		for (int i = 0; i < nrSections; i++) {
+			String dp = new StringBuilder("01/").append(10 + rnd.nextInt(3)).append(" - 05/0").append(1 + rnd.nextInt(3)).toString();
+			String itype = new StringBuilder(itypes[rnd.nextInt(itypes.length)]).toString();
+			plain.add(dp); plain.add(itype);
+			interned.add(dp.intern()); interned.add(itype.intern());
+		}
+		compare("Section strings", mc.estimate(plain), mc.estimate(interned));
+	}
+	
+	private static Placement placement(Random rnd, long id, BitSet weekCode, int size) {
+		int dp = rnd.nextInt(sDatePatterns.length);
+		TimeLocation time = new TimeLocation(sDays[rnd.nextInt(sDays.length)], 90 + 6 * rnd.nextInt(20), 10, 0, 0.0,
+				Long.valueOf(dp), new StringBuilder(sDatePatterns[dp]).toString(), weekCode, 10);
+		int room = rnd.nextInt(500);
+		RoomLocation location = new RoomLocation(Long.valueOf(room), "ROOM " + room, Long.valueOf(room / 20), 0, size, null, null, false, null);
+		return new Placement(null, time, Collections.singletonList(location));
+	}
+
+	private static void report(String name, long size) {
+		System.out.println(name + ": " + sDF.format(size / 1024.0) + " kB");
+	}
+
+	private static void compare(String name, long plain, long interned) {
+		System.out.println(name + ": " + sDF.format(plain / 1024.0) + " kB -> " + sDF.format(interned / 1024.0) + " kB (" + sDF.format(100.0 * interned / Math.max(1, plain)) + "%)");
+	}
+}
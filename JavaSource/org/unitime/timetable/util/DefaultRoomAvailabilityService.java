@@ -20,15 +20,21 @@
 package org.unitime.timetable.util;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeSet;
-import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hibernate.query.Query;
 
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.interfaces.RoomAvailabilityInterface;
@@ -49,7 +55,7 @@ import org.unitime.timetable.model.dao.LocationDAO;
  * @author Tomas Muller
  */
 public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface {
-    private Vector<CacheElement> iCache = new Vector<CacheElement>();
+    private List<CacheElement> iCache = new CopyOnWriteArrayList<CacheElement>();
     
     public String getTimeStamp(Date startTime, Date endTime, String excludeType) {
         TimeFrame time = new TimeFrame(startTime, endTime);
@@ -58,9 +64,7 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
     }
     
     public CacheElement get(TimeFrame time, String excludeType) {
-        synchronized (iCache) {
-            for (CacheElement cache : iCache) if (cache.cover(time) && cache.exclude(excludeType)) return cache;
-        }
+        for (CacheElement cache : iCache) if (cache.cover(time) && cache.exclude(excludeType)) return cache;
         return null;
     }
     
@@ -68,97 +72,70 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
     public Collection<TimeBlock> getRoomAvailability(Long locationId, Date startTime, Date endTime, String excludeType) {
     	Location location = LocationDAO.getInstance().get(locationId);
         if (location == null || location.getPermanentId() == null) return null;
-        EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(location.getSession().getUniqueId()) : null);
         TimeFrame time = new TimeFrame(startTime, endTime);
-        synchronized(iCache) {
-            CacheElement cache = get(time, excludeType);
-            if (cache!=null) return cache.get(location.getPermanentId(), excludeType);
-            TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
-            Class<? extends Event> exclude = null;
-            ExamType examType = null;
-            if (excludeType!=null) {
-                if (sFinalExamType.equals(excludeType))
-                    exclude = FinalExamEvent.class;
-                else if (sMidtermExamType.equals(excludeType))
-                    exclude = MidtermExamEvent.class;
-                else if (sClassType.equals(excludeType))
-                    exclude = ClassEvent.class;
-                else {
-                	exclude = ExamEvent.class;
-                	examType = ExamType.findByReference(excludeType);
-                }
-            }
-            for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
-                    "select m from Meeting m inner join m.event e where m.locationPermanentId=:locPermId and "+
-                    "m.approvalStatus = 1 and "+
-                    "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                    "m.startPeriod<:endSlot and m.stopPeriod>:startSlot"+
-                    (examType != null ? " and m.event.uniqueId not in (select x.uniqueId from ExamEvent x where x.exam.examType.uniqueId = " + examType.getUniqueId() + ")" :
-                    exclude != null ? " and type(e)!=" + exclude.getSimpleName() : ""), Meeting.class)
-                    .setParameter("locPermId", location.getPermanentId())
-                    .setParameter("startDate", time.getStartDate())
-                    .setParameter("endDate", time.getEndDate())
-                    .setParameter("startSlot", time.getStartSlot())
-                    .setParameter("endSlot", time.getEndSlot())
-                    .setCacheable(true).list()) {
-                MeetingTimeBlock block = new MeetingTimeBlock(m, class2eventDateMap);
-                if (block.getStartTime() != null)
-                	ret.add(block);
-            }
-            if (ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && excludeType != null) {
-            	if (ClassEvent.class.isAssignableFrom(exclude)) {
-            		for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
-                            "select m from ClassEvent e inner join e.meetings m where m.locationPermanentId=:locPermId and "+
-                            "m.approvalStatus = 1 and e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId != :sessionId and "+
-                            "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot", Meeting.class)
-                            .setParameter("locPermId", location.getPermanentId())
-                            .setParameter("sessionId", location.getSession().getUniqueId())
-                            .setParameter("startDate", time.getStartDate())
-                            .setParameter("endDate", time.getEndDate())
-                            .setParameter("startSlot", time.getStartSlot())
-                            .setParameter("endSlot", time.getEndSlot())
-                            .setCacheable(true).list()) {
-                        MeetingTimeBlock block = new MeetingTimeBlock(m, class2eventDateMap);
-                        if (block.getStartTime() != null)
-                        	ret.add(block);
-                    }
-            	} else if (ExamEvent.class.isAssignableFrom(exclude)) {
-            		for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
-                            "select m from " + exclude.getSimpleName() + " e inner join e.meetings m where m.locationPermanentId=:locPermId and "+
-                            "m.approvalStatus = 1 and e.exam.session.uniqueId != :sessionId and "+
-                            "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot"+
-                            (examType != null ? " and e.exam.examType.uniqueId = " + examType.getUniqueId() : ""), Meeting.class)
-                            .setParameter("locPermId", location.getPermanentId())
-                            .setParameter("sessionId", location.getSession().getUniqueId())
-                            .setParameter("startDate", time.getStartDate())
-                            .setParameter("endDate", time.getEndDate())
-                            .setParameter("startSlot", time.getStartSlot())
-                            .setParameter("endSlot", time.getEndSlot())
-                            .setCacheable(true).list()) {
-                        MeetingTimeBlock block = new MeetingTimeBlock(m, class2eventDateMap);
-                        if (block.getStartTime() != null)
-                        	ret.add(block);
-                    }
-            	}
-            }
-            return ret;
-        }
+        CacheElement cache = get(time, excludeType);
+        if (cache!=null) return cache.get(location.getPermanentId(), excludeType, time);
+        EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(location.getSession().getUniqueId()) : null);
+        cache = new CacheElement(time, excludeType);
+        cache.load(location.getSession().getUniqueId(), Collections.singleton(location.getPermanentId()), class2eventDateMap);
+        TreeSet<TimeBlock> ret = cache.get(location.getPermanentId(), excludeType);
+        return (ret == null ? new TreeSet<TimeBlock>() : ret);
     }
+    
+    @Override
+    public Map<Long, Collection<TimeBlock>> getRoomAvailability(Collection<Long> locationIds, Date startTime, Date endTime, String excludeType) {
+    	Map<Long, Collection<TimeBlock>> ret = new HashMap<Long, Collection<TimeBlock>>();
+    	if (locationIds == null || locationIds.isEmpty()) return ret;
+    	Map<Long, Long> permIds = new HashMap<Long, Long>();
+    	Long sessionId = null;
+    	List<Long> ids = new ArrayList<Long>(locationIds);
+    	for (int i = 0; i < ids.size(); i += 1000) {
+    		for (Object[] o: LocationDAO.getInstance().getSession().createQuery(
+    				"select l.uniqueId, l.permanentId, l.session.uniqueId from Location l where l.uniqueId in (:locationIds) and l.permanentId is not null", Object[].class)
+    				.setParameterList("locationIds", ids.subList(i, Math.min(i + 1000, ids.size())), Long.class).list()) {
+    			permIds.put((Long)o[0], (Long)o[1]);
+    			if (sessionId == null) sessionId = (Long)o[2];
+    		}
+    	}
+    	if (permIds.isEmpty()) return ret;
+    	TimeFrame time = new TimeFrame(startTime, endTime);
+    	CacheElement cache = get(time, excludeType);
+    	if (cache == null) {
+    		cache = new CacheElement(time, excludeType);
+    		cache.load(sessionId, new HashSet<Long>(permIds.values()), sClassType.equals(excludeType) ? EventDateMapping.getMapping(sessionId) : null);
+    	}
+    	for (Map.Entry<Long, Long> e: permIds.entrySet()) {
+    		TreeSet<TimeBlock> blocks = cache.get(e.getValue(), excludeType, time);
+    		if (blocks != null) ret.put(e.getKey(), blocks);
+    	}
+    	return ret;
+    }
+    
     public void activate(Long sessionId, Date startTime, Date endTime, String excludeType, boolean waitForSync) {
         TimeFrame time = new TimeFrame(startTime, endTime);
         EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(sessionId) : null);
+        // the lock only serializes the updates, the readers use the cache elements without locking
         synchronized(iCache) {
             CacheElement cache = get(time, excludeType);
             if (cache==null) {
                 cache = new CacheElement(time, excludeType);
-                iCache.insertElementAt(cache, 0);
+                cache.update(class2eventDateMap, sessionId, ApplicationProperty.RoomAvailabilityIncludeInstructors.isTrue());
+                iCache.add(0, cache);
+            } else {
+            	cache.update(class2eventDateMap, sessionId, ApplicationProperty.RoomAvailabilityIncludeInstructors.isTrue());
             }
-            cache.update(class2eventDateMap, sessionId, ApplicationProperty.RoomAvailabilityIncludeInstructors.isTrue());
         }
     }
     
+    @Override
+    public void locationsChanged(Long sessionId, Collection<Long> locationPermanentIds) {
+    	if (locationPermanentIds == null || locationPermanentIds.isEmpty()) return;
+    	for (CacheElement cache: iCache) {
+    		Long cacheSessionId = (cache.getSessionId() == null ? sessionId : cache.getSessionId());
+    		cache.load(cacheSessionId, locationPermanentIds, sClassType.equals(cache.getExcludeType()) ? EventDateMapping.getMapping(cacheSessionId) : null);
+    	}
+    }
+    
     public void startService() {}
     public void stopService() {}
     
@@ -199,77 +176,31 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         }
     }
 
+    /**
+     * Approved meetings of a time frame, indexed by the location permanent id. The indexes are replaced (not modified)
+     * on update, so the readers do not need to lock.
+     */
     public static class CacheElement{
         private TimeFrame iTime;
-        private Map<Long, TreeSet<TimeBlock>> iAvailability = new HashMap<Long, TreeSet<TimeBlock>>();
-        private Map<String, TreeSet<TimeBlock>> iInstructorAvailability = new HashMap<String, TreeSet<TimeBlock>>();
-        private String iTimestamp = null;
+        private volatile Map<Long, LocationAvailability> iAvailability = new ConcurrentHashMap<Long, LocationAvailability>();
+        private volatile Map<String, TreeSet<TimeBlock>> iInstructorAvailability = new HashMap<String, TreeSet<TimeBlock>>();
+        private volatile String iTimestamp = null;
         private String iExcludeType = null;
+        private Long iSessionId = null;
         public CacheElement(TimeFrame time, String excludeType) {
             iTime = time;
             iExcludeType = excludeType;
         }
 
-        public void update(EventDateMapping.Class2EventDateMap class2eventDateMap, Long sessionId, boolean includeInstructors) {
-        	iAvailability.clear();
-        	iInstructorAvailability.clear();
-            Class<? extends Event> exclude = null;
-            ExamType examType = null;
-            if (iExcludeType!=null) {
-                if (sFinalExamType.equals(iExcludeType))
-                    exclude = FinalExamEvent.class;
-                else if (sMidtermExamType.equals(iExcludeType))
-                    exclude = MidtermExamEvent.class;
-                else if (sClassType.equals(iExcludeType))
-                    exclude = ClassEvent.class;
-                else {
-                	exclude = ExamEvent.class;
-                	examType = ExamType.findByReference(iExcludeType);
-                }
-            }
-            addAll(LocationDAO.getInstance().getSession().createQuery(
-                    "select m from Meeting m inner join m.event e where m.locationPermanentId is not null and "+
-                    "m.approvalStatus = 1 and "+
-                    "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                    "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" +
-                    (examType != null ? " and m.event.uniqueId not in (select x.uniqueId from ExamEvent x where x.exam.examType.uniqueId = " + examType.getUniqueId() + ")" :
-                    	exclude == null ? "" : " and type(e)!=" + exclude.getSimpleName()), Meeting.class)
-                    .setParameter("startDate", iTime.getStartDate())
-                    .setParameter("endDate", iTime.getEndDate())
-                    .setParameter("startSlot", iTime.getStartSlot())
-                    .setParameter("endSlot", iTime.getEndSlot())
-                    .setCacheable(true)
-                    .list(), class2eventDateMap);
-            if (sessionId != null && ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && exclude != null) {
-            	if (ClassEvent.class.isAssignableFrom(exclude)) {
-            		addAll(LocationDAO.getInstance().getSession().createQuery(
-                            "select m from ClassEvent e inner join e.meetings m where m.locationPermanentId in (select l.permanentId from Location l where l.session.uniqueId = :sessionId) and "+
-                            "m.approvalStatus = 1 and e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId != :sessionId and "+
-                            "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot", Meeting.class)
-                            .setParameter("sessionId", sessionId)
-                            .setParameter("startDate", iTime.getStartDate())
-                            .setParameter("endDate", iTime.getEndDate())
-                            .setParameter("startSlot", iTime.getStartSlot())
-                            .setParameter("endSlot", iTime.getEndSlot())
-                            .setCacheable(true).list(), class2eventDateMap);
-            	} else if (ExamEvent.class.isAssignableFrom(exclude)) {
-            		addAll(LocationDAO.getInstance().getSession().createQuery(
-                            "select m from " + exclude.getSimpleName() + " e inner join e.meetings m where m.locationPermanentId in (select l.permanentId from Location l where l.session.uniqueId = :sessionId) and "+
-                            "m.approvalStatus = 1 and e.exam.session.uniqueId != :sessionId and "+
-                            "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" +
-                            (examType != null ? " and e.exam.examType.uniqueId = " + examType.getUniqueId() : ""), Meeting.class)
-                            .setParameter("sessionId", sessionId)
-                            .setParameter("startDate", iTime.getStartDate())
-                            .setParameter("endDate", iTime.getEndDate())
-                            .setParameter("startSlot", iTime.getStartSlot())
-                            .setParameter("endSlot", iTime.getEndSlot())
-                            .setCacheable(true).list(), class2eventDateMap);
-            	}
-            }
+        public synchronized void update(EventDateMapping.Class2EventDateMap class2eventDateMap, Long sessionId, boolean includeInstructors) {
+        	Map<Long, LocationAvailability> availability = new ConcurrentHashMap<Long, LocationAvailability>();
+        	for (Map.Entry<Long, TreeSet<TimeBlock>> e: findMeetings(sessionId, null, class2eventDateMap).entrySet())
+        		availability.put(e.getKey(), new LocationAvailability(e.getValue()));
+        	Map<String, TreeSet<TimeBlock>> instructorAvailability = new HashMap<String, TreeSet<TimeBlock>>();
             if (sessionId != null && includeInstructors) {
-            	addAllInstructors(LocationDAO.getInstance().getSession().createQuery(
+                Class<? extends Event> exclude = getExcludeClass(iExcludeType);
+                ExamType examType = (exclude == ExamEvent.class ? ExamType.findByReference(iExcludeType) : null);
+            	addAllInstructors(instructorAvailability, LocationDAO.getInstance().getSession().createQuery(
             			"select distinct m, i.externalUniqueId from Meeting m inner join m.event e left outer join m.event.additionalContacts c, DepartmentalInstructor i where " +
                          "i.department.session.uniqueId = :sessionId and i.externalUniqueId is not null and "+
                          "(m.event.mainContact.externalUniqueId = i.externalUniqueId or c.externalUniqueId = i.externalUniqueId) and "+
@@ -286,7 +217,7 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
                          .setCacheable(true).list(), class2eventDateMap);
             	if (ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && exclude != null) {
             		if (ClassEvent.class.isAssignableFrom(exclude)) {
-            			addAllInstructors(LocationDAO.getInstance().getSession().createQuery(
+            			addAllInstructors(instructorAvailability, LocationDAO.getInstance().getSession().createQuery(
                                 "select m, ci.instructor.externalUniqueId from ClassEvent e inner join e.meetings m inner join e.clazz.classInstructors ci where "+
                                 "ci.lead = true and m.approvalStatus = 1 and e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId != :sessionId and "+
                                 "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
@@ -298,7 +229,7 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
                                 .setParameter("endSlot", iTime.getEndSlot())
                                 .setCacheable(true).list(), class2eventDateMap);
                 	} else if (ExamEvent.class.isAssignableFrom(exclude)) {
-                		addAllInstructors(LocationDAO.getInstance().getSession().createQuery(
+                		addAllInstructors(instructorAvailability, LocationDAO.getInstance().getSession().createQuery(
                                 "select m, di.externalUniqueId from " + exclude.getSimpleName() + " e inner join e.meetings m inner join e.exam.instructors di where  "+
                                 "m.approvalStatus = 1 and e.exam.session.uniqueId != :sessionId and "+
                                 "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
@@ -313,50 +244,128 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
                 	}
                 }
             }
+            iAvailability = availability;
+            iInstructorAvailability = instructorAvailability;
+            iSessionId = sessionId;
             iTimestamp = new Date().toString();
         }
         
-        private void add(Meeting m, EventDateMapping.Class2EventDateMap class2eventDateMap) {
-        	TreeSet<TimeBlock> blocks = iAvailability.get(m.getLocationPermanentId());
-            if (blocks==null) {
-                blocks = new TreeSet(); iAvailability.put(m.getLocationPermanentId(), blocks);
-            }
-            MeetingTimeBlock block = new MeetingTimeBlock(m, class2eventDateMap);
-            if (block.getStartTime() != null)
-            	blocks.add(block);
+        /** Reload the given locations only (e.g., when some of their meetings have been changed) */
+        public synchronized void load(Long sessionId, Collection<Long> locationPermanentIds, EventDateMapping.Class2EventDateMap class2eventDateMap) {
+        	Map<Long, TreeSet<TimeBlock>> blocks = findMeetings(sessionId, locationPermanentIds, class2eventDateMap);
+        	for (Long permId: locationPermanentIds) {
+        		TreeSet<TimeBlock> b = blocks.get(permId);
+        		if (b == null)
+        			iAvailability.remove(permId);
+        		else
+        			iAvailability.put(permId, new LocationAvailability(b));
+        	}
         }
-        private void addAll(List<Meeting> meetings, EventDateMapping.Class2EventDateMap class2eventDateMap) {
-        	if (meetings != null)
-        		for (Meeting m: meetings)
-        			add(m, class2eventDateMap);
+        
+        /** Approved meetings of the time frame by location permanent ids, all locations when locationPermanentIds is null */
+        protected Map<Long, TreeSet<TimeBlock>> findMeetings(Long sessionId, Collection<Long> locationPermanentIds, EventDateMapping.Class2EventDateMap class2eventDateMap) {
+        	Map<Long, TreeSet<TimeBlock>> blocks = new HashMap<Long, TreeSet<TimeBlock>>();
+            Class<? extends Event> exclude = getExcludeClass(iExcludeType);
+            ExamType examType = (exclude == ExamEvent.class ? ExamType.findByReference(iExcludeType) : null);
+            if (locationPermanentIds == null) {
+            	findMeetings(blocks, sessionId, null, exclude, examType, class2eventDateMap);
+            } else {
+            	List<Long> ids = new ArrayList<Long>(locationPermanentIds);
+            	for (int i = 0; i < ids.size(); i += 1000)
+            		findMeetings(blocks, sessionId, ids.subList(i, Math.min(i + 1000, ids.size())), exclude, examType, class2eventDateMap);
+            }
+            return blocks;
         }
-        private void add(Meeting m, String instructorExternalId, EventDateMapping.Class2EventDateMap class2eventDateMap) {
-        	TreeSet<TimeBlock> blocks = iInstructorAvailability.get(instructorExternalId);
-            if (blocks==null) {
-                blocks = new TreeSet(); iInstructorAvailability.put(instructorExternalId, blocks);
+        
+        private void findMeetings(Map<Long, TreeSet<TimeBlock>> blocks, Long sessionId, List<Long> permIds, Class<? extends Event> exclude, ExamType examType, EventDateMapping.Class2EventDateMap class2eventDateMap) {
+        	Query<Meeting> q = LocationDAO.getInstance().getSession().createQuery(
+                    "select m from Meeting m inner join m.event e where " +
+                    (permIds == null ? "m.locationPermanentId is not null" : "m.locationPermanentId in (:permIds)") + " and "+
+                    "m.approvalStatus = 1 and "+
+                    "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
+                    "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" +
+                    (examType != null ? " and m.event.uniqueId not in (select x.uniqueId from ExamEvent x where x.exam.examType.uniqueId = " + examType.getUniqueId() + ")" :
+                    	exclude == null ? "" : " and type(e)!=" + exclude.getSimpleName()), Meeting.class)
+                    .setParameter("startDate", iTime.getStartDate())
+                    .setParameter("endDate", iTime.getEndDate())
+                    .setParameter("startSlot", iTime.getStartSlot())
+                    .setParameter("endSlot", iTime.getEndSlot());
+        	if (permIds != null) q.setParameterList("permIds", permIds, Long.class);
+        	addAll(blocks, q.setCacheable(true).list(), class2eventDateMap);
+            if (sessionId != null && ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && exclude != null) {
+            	String locations = (permIds == null ? "m.locationPermanentId in (select l.permanentId from Location l where l.session.uniqueId = :sessionId)" : "m.locationPermanentId in (:permIds)");
+            	if (ClassEvent.class.isAssignableFrom(exclude)) {
+            		q = LocationDAO.getInstance().getSession().createQuery(
+                            "select m from ClassEvent e inner join e.meetings m where " + locations + " and "+
+                            "m.approvalStatus = 1 and e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId != :sessionId and "+
+                            "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
+                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot", Meeting.class);
+            	} else if (ExamEvent.class.isAssignableFrom(exclude)) {
+            		q = LocationDAO.getInstance().getSession().createQuery(
+                            "select m from " + exclude.getSimpleName() + " e inner join e.meetings m where " + locations + " and "+
+                            "m.approvalStatus = 1 and e.exam.session.uniqueId != :sessionId and "+
+                            "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
+                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" +
+                            (examType != null ? " and e.exam.examType.uniqueId = " + examType.getUniqueId() : ""), Meeting.class);
+            	} else {
+            		return;
+            	}
+            	q.setParameter("sessionId", sessionId)
+                	.setParameter("startDate", iTime.getStartDate())
+                	.setParameter("endDate", iTime.getEndDate())
+                	.setParameter("startSlot", iTime.getStartSlot())
+                	.setParameter("endSlot", iTime.getEndSlot());
+            	if (permIds != null) q.setParameterList("permIds", permIds, Long.class);
+            	addAll(blocks, q.setCacheable(true).list(), class2eventDateMap);
             }
-            MeetingTimeBlock block = new MeetingTimeBlockWithRoom(m, class2eventDateMap);
-            if (block.getStartTime() != null)
-            	blocks.add(block);
         }
-        private void addAllInstructors(List<Object[]> meetings, EventDateMapping.Class2EventDateMap class2eventDateMap) {
+        
+        private static void addAll(Map<Long, TreeSet<TimeBlock>> blocks, List<Meeting> meetings, EventDateMapping.Class2EventDateMap class2eventDateMap) {
+        	if (meetings != null)
+        		for (Meeting m: meetings) {
+        			MeetingTimeBlock block = new MeetingTimeBlock(m, class2eventDateMap);
+        			if (block.getStartTime() == null) continue;
+        			TreeSet<TimeBlock> b = blocks.get(m.getLocationPermanentId());
+        			if (b == null) {
+        				b = new TreeSet<TimeBlock>(); blocks.put(m.getLocationPermanentId(), b);
+        			}
+        			b.add(block);
+        		}
+        }
+        private static void addAllInstructors(Map<String, TreeSet<TimeBlock>> blocks, List<Object[]> meetings, EventDateMapping.Class2EventDateMap class2eventDateMap) {
         	if (meetings != null)
         		for (Object[] o: meetings) {
         			Meeting m = (Meeting)o[0];
                 	String id = (String)o[1];
-        			add(m, id, class2eventDateMap);
+                	MeetingTimeBlock block = new MeetingTimeBlockWithRoom(m, class2eventDateMap);
+                	if (block.getStartTime() == null) continue;
+                	TreeSet<TimeBlock> b = blocks.get(id);
+                    if (b == null) {
+                        b = new TreeSet<TimeBlock>(); blocks.put(id, b);
+                    }
+                    b.add(block);
         		}
         }
         
         public TreeSet<TimeBlock> get(Long roomPermId, String excludeType) {
-            TreeSet<TimeBlock> roomAvailability = iAvailability.get(roomPermId);
-            if (roomAvailability==null || excludeType==null || excludeType.equals(iExcludeType)) return roomAvailability;
-            TreeSet<TimeBlock> ret = new TreeSet();
-            for (TimeBlock block : roomAvailability) {
-            	if (excludeType.equals(block.getEventType())) continue;
-                ret.add(block);
-            }
-            return ret;
+        	return get(roomPermId, excludeType, null);
+        }
+        /** Time blocks of a location, only the blocks overlapping with the given time frame are returned when it is narrower than the cached one */
+        public TreeSet<TimeBlock> get(Long roomPermId, String excludeType, TimeFrame time) {
+        	LocationAvailability availability = iAvailability.get(roomPermId);
+        	if (availability == null) return null;
+        	String filter = (excludeType == null || excludeType.equals(iExcludeType) ? null : excludeType);
+        	if (time == null || time.equals(iTime)) {
+        		if (filter == null) return availability.getBlocks();
+        		TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
+        		for (TimeBlock block : availability.getBlocks()) {
+        			if (filter.equals(block.getEventType())) continue;
+        			ret.add(block);
+        		}
+        		return ret;
+        	}
+        	Calendar end = Calendar.getInstance(Locale.US); end.setTime(time.getEndDate()); end.add(Calendar.DAY_OF_YEAR, 1);
+        	return availability.get(time.getStartDate(), end.getTime(), filter);
         }
         public TreeSet<TimeBlock> get(String instructorExternalId, String excludeType) {
         	if (instructorExternalId == null) return null;
@@ -371,6 +380,7 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         }
         public TimeFrame getTimeFrame() { return iTime; }
         public String getExcludeType() { return iExcludeType; }
+        public Long getSessionId() { return iSessionId; }
         public boolean exclude(String type) {
         	return (iExcludeType==null || iExcludeType.equals(type));
         }
@@ -386,6 +396,60 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         }
     }
     
+    private static Class<? extends Event> getExcludeClass(String excludeType) {
+    	if (excludeType == null) return null;
+    	if (sFinalExamType.equals(excludeType)) return FinalExamEvent.class;
+    	if (sMidtermExamType.equals(excludeType)) return MidtermExamEvent.class;
+    	if (sClassType.equals(excludeType)) return ClassEvent.class;
+    	return ExamEvent.class;
+    }
+    
+    /**
+     * Interval index of the time blocks of a single location. The blocks are sorted by their start times and for each
+     * position the latest end time of the blocks up to the position is kept, so that the blocks overlapping with a time
+     * interval are found without going through all the blocks of the location. Never changed once created.
+     */
+    public static class LocationAvailability {
+    	private TreeSet<TimeBlock> iBlocks;
+    	private TimeBlock[] iSorted;
+    	private long[] iMaxEnd;
+    	
+    	public LocationAvailability(TreeSet<TimeBlock> blocks) {
+    		iBlocks = blocks;
+    		iSorted = blocks.toArray(new TimeBlock[blocks.size()]);
+    		iMaxEnd = new long[iSorted.length];
+    		long max = Long.MIN_VALUE;
+    		for (int i = 0; i < iSorted.length; i++) {
+    			max = Math.max(max, iSorted[i].getEndTime().getTime());
+    			iMaxEnd[i] = max;
+    		}
+    	}
+    	
+    	/** All the time blocks, sorted by start time */
+    	public TreeSet<TimeBlock> getBlocks() { return iBlocks; }
+    	
+    	/** Time blocks overlapping with the given interval, skipping blocks of the given event type (if not null) */
+    	public TreeSet<TimeBlock> get(Date start, Date end, String excludeType) {
+    		long s = start.getTime(), e = end.getTime();
+    		// first block that starts at or after the end of the interval
+    		int lo = 0, hi = iSorted.length;
+    		while (lo < hi) {
+    			int mid = (lo + hi) >>> 1;
+    			if (iSorted[mid].getStartTime().getTime() < e) lo = mid + 1; else hi = mid;
+    		}
+    		TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
+    		for (int i = lo - 1; i >= 0 && iMaxEnd[i] > s; i--) {
+    			TimeBlock block = iSorted[i];
+    			if (block.getEndTime().getTime() <= s) continue;
+    			if (excludeType != null && excludeType.equals(block.getEventType())) continue;
+    			ret.add(block);
+    		}
+    		return ret;
+    	}
+    	
+    	public int size() { return iSorted.length; }
+    }
+    
     public static class MeetingTimeBlock implements TimeBlock, Comparable<TimeBlock> {
 		private static final long serialVersionUID = -5557707709984628517L;
 		Long iEventId, iMeetingId, iLocationPermanentId;
@@ -488,84 +552,82 @@ public class DefaultRoomAvailabilityService implements RoomAvailabilityInterface
         }
         EventDateMapping.Class2EventDateMap class2eventDateMap = (sClassType.equals(excludeType) ? EventDateMapping.getMapping(instructor.getDepartment().getSession().getUniqueId()) : null);
         TimeFrame time = new TimeFrame(startTime, endTime);
-        synchronized(iCache) {
-            CacheElement cache = get(time, excludeType);
-            if (cache!=null)
-            	return cache.get(instructor.getExternalUniqueId(), excludeType);
-            TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
-            Class<? extends Event> exclude = null;
-            ExamType examType = null;
-            if (excludeType!=null) {
-                if (sFinalExamType.equals(excludeType))
-                    exclude = FinalExamEvent.class;
-                else if (sMidtermExamType.equals(excludeType))
-                    exclude = MidtermExamEvent.class;
-                else if (sClassType.equals(excludeType))
-                    exclude = ClassEvent.class;
-                else {
-                	exclude = ExamEvent.class;
-                	examType = ExamType.findByReference(excludeType);
-                }
-            }
-            for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
-            		"select m from Meeting m inner join m.event e left outer join m.event.additionalContacts c where " +
-            		"(m.event.mainContact.externalUniqueId = :user or c.externalUniqueId = :user) and "+
-            		"m.approvalStatus = 1 and "+
-                    "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                    "m.startPeriod<:endSlot and m.stopPeriod>:startSlot"+
-                    (examType != null ? " and m.event.uniqueId not in (select x.uniqueId from ExamEvent x where x.exam.examType.uniqueId = " + examType.getUniqueId() + ")" :
-                    	exclude != null ? " and type(e)!=" + exclude.getSimpleName() : ""), Meeting.class)
-                    .setParameter("user", instructor.getExternalUniqueId())
-                    .setParameter("startDate", time.getStartDate())
-                    .setParameter("endDate", time.getEndDate())
-                    .setParameter("startSlot", time.getStartSlot())
-                    .setParameter("endSlot", time.getEndSlot())
-                    .setCacheable(true).list()) {
-                MeetingTimeBlock block = new MeetingTimeBlockWithRoom(m, class2eventDateMap);
-                if (block.getStartTime() != null)
-                	ret.add(block);
-            }
-            if (ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && excludeType != null) {
-            	if (ClassEvent.class.isAssignableFrom(exclude)) {
-            		for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
-                            "select m from ClassEvent e inner join e.meetings m inner join e.clazz.classInstructors ci where "+
-                            "ci.instructor.externalUniqueId = :user and ci.lead = true and "+
-                            "m.approvalStatus = 1 and e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId != :sessionId and "+
-                            "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot", Meeting.class)
-            				.setParameter("user", instructor.getExternalUniqueId())
-                            .setParameter("sessionId", instructor.getDepartment().getSession().getUniqueId())
-                            .setParameter("startDate", time.getStartDate())
-                            .setParameter("endDate", time.getEndDate())
-                            .setParameter("startSlot", time.getStartSlot())
-                            .setParameter("endSlot", time.getEndSlot())
-                            .setCacheable(true).list()) {
-                        MeetingTimeBlock block = new MeetingTimeBlockWithRoom(m, class2eventDateMap);
-                        if (block.getStartTime() != null)
-                        	ret.add(block);
-                    }
-            	} else if (ExamEvent.class.isAssignableFrom(exclude)) {
-            		for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
-                            "select m from " + exclude.getSimpleName() + " e inner join e.meetings m inner join e.exam.instructors di where  "+
-                            "di.externalUniqueId = :user and "+
-                            "m.approvalStatus = 1 and e.exam.session.uniqueId != :sessionId and "+
-                            "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
-                            "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" + 
-                            (examType != null ? " and e.exam.examType.uniqueId = " + examType.getUniqueId() : ""), Meeting.class)
-            				.setParameter("user", instructor.getExternalUniqueId())
-                            .setParameter("sessionId", instructor.getDepartment().getSession().getUniqueId())
-                            .setParameter("startDate", time.getStartDate())
-                            .setParameter("endDate", time.getEndDate())
-                            .setParameter("startSlot", time.getStartSlot())
-                            .setParameter("endSlot", time.getEndSlot())
-                            .setCacheable(true).list()) {
-                        MeetingTimeBlock block = new MeetingTimeBlockWithRoom(m, class2eventDateMap);
-                        if (block.getStartTime() != null)
-                        	ret.add(block);
-                    }
-            	}
+        CacheElement cache = get(time, excludeType);
+        if (cache!=null)
+        	return cache.get(instructor.getExternalUniqueId(), excludeType);
+        TreeSet<TimeBlock> ret = new TreeSet<TimeBlock>();
+        Class<? extends Event> exclude = null;
+        ExamType examType = null;
+        if (excludeType!=null) {
+            if (sFinalExamType.equals(excludeType))
+                exclude = FinalExamEvent.class;
+            else if (sMidtermExamType.equals(excludeType))
+                exclude = MidtermExamEvent.class;
+            else if (sClassType.equals(excludeType))
+                exclude = ClassEvent.class;
+            else {
+            	exclude = ExamEvent.class;
+            	examType = ExamType.findByReference(excludeType);
             }
-            return ret;
         }
+        for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
+        		"select m from Meeting m inner join m.event e left outer join m.event.additionalContacts c where " +
+        		"(m.event.mainContact.externalUniqueId = :user or c.externalUniqueId = :user) and "+
+        		"m.approvalStatus = 1 and "+
+                "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
+                "m.startPeriod<:endSlot and m.stopPeriod>:startSlot"+
+                (examType != null ? " and m.event.uniqueId not in (select x.uniqueId from ExamEvent x where x.exam.examType.uniqueId = " + examType.getUniqueId() + ")" :
+                	exclude != null ? " and type(e)!=" + exclude.getSimpleName() : ""), Meeting.class)
+                .setParameter("user", instructor.getExternalUniqueId())
+                .setParameter("startDate", time.getStartDate())
+                .setParameter("endDate", time.getEndDate())
+                .setParameter("startSlot", time.getStartSlot())
+                .setParameter("endSlot", time.getEndSlot())
+                .setCacheable(true).list()) {
+            MeetingTimeBlock block = new MeetingTimeBlockWithRoom(m, class2eventDateMap);
+            if (block.getStartTime() != null)
+            	ret.add(block);
+        }
+        if (ApplicationProperty.RoomAvailabilityIncludeOtherTerms.isTrue() && excludeType != null) {
+        	if (ClassEvent.class.isAssignableFrom(exclude)) {
+        		for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
+                        "select m from ClassEvent e inner join e.meetings m inner join e.clazz.classInstructors ci where "+
+                        "ci.instructor.externalUniqueId = :user and ci.lead = true and "+
+                        "m.approvalStatus = 1 and e.clazz.schedulingSubpart.instrOfferingConfig.instructionalOffering.session.uniqueId != :sessionId and "+
+                        "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
+                        "m.startPeriod<:endSlot and m.stopPeriod>:startSlot", Meeting.class)
+        				.setParameter("user", instructor.getExternalUniqueId())
+                        .setParameter("sessionId", instructor.getDepartment().getSession().getUniqueId())
+                        .setParameter("startDate", time.getStartDate())
+                        .setParameter("endDate", time.getEndDate())
+                        .setParameter("startSlot", time.getStartSlot())
+                        .setParameter("endSlot", time.getEndSlot())
+                        .setCacheable(true).list()) {
+                    MeetingTimeBlock block = new MeetingTimeBlockWithRoom(m, class2eventDateMap);
+                    if (block.getStartTime() != null)
+                    	ret.add(block);
+                }
+        	} else if (ExamEvent.class.isAssignableFrom(exclude)) {
+        		for (Meeting m: LocationDAO.getInstance().getSession().createQuery(
+                        "select m from " + exclude.getSimpleName() + " e inner join e.meetings m inner join e.exam.instructors di where  "+
+                        "di.externalUniqueId = :user and "+
+                        "m.approvalStatus = 1 and e.exam.session.uniqueId != :sessionId and "+
+                        "m.meetingDate>=:startDate and m.meetingDate<=:endDate and "+
+                        "m.startPeriod<:endSlot and m.stopPeriod>:startSlot" + 
+                        (examType != null ? " and e.exam.examType.uniqueId = " + examType.getUniqueId() : ""), Meeting.class)
+        				.setParameter("user", instructor.getExternalUniqueId())
+                        .setParameter("sessionId", instructor.getDepartment().getSession().getUniqueId())
+                        .setParameter("startDate", time.getStartDate())
+                        .setParameter("endDate", time.getEndDate())
+                        .setParameter("startSlot", time.getStartSlot())
+                        .setParameter("endSlot", time.getEndSlot())
+                        .setCacheable(true).list()) {
+                    MeetingTimeBlock block = new MeetingTimeBlockWithRoom(m, class2eventDateMap);
+                    if (block.getStartTime() != null)
+                    	ret.add(block);
+                }
+        	}
+        }
+        return ret;
 	}
 }
@@ -24,6 +24,7 @@ import java.util.Date;
 import org.hibernate.Transaction;
 import org.unitime.timetable.model.Session;
 import org.unitime.timetable.model.dao.SessionDAO;
+import org.unitime.timetable.server.curricula.CurriculumProjectionCube;
 
 public class PopulateProjectedDemandSnapshotData {
 
@@ -39,6 +40,7 @@ public class PopulateProjectedDemandSnapshotData {
 			trans = hibSession.beginTransaction();
 			snapshotDate = populateProjectedDemandDataFor( acadSession, hibSession);
 			trans.commit();
+			CurriculumProjectionCube.invalidateProjectionRules(acadSession.getUniqueId());
 			
 		} catch (Exception e) {
 			trans.rollback();